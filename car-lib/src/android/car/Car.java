@@ -71,6 +71,7 @@ import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.os.TransactionTooLargeException;
 import android.os.UserHandle;
+import android.util.ArrayMap;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
@@ -82,6 +83,7 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -907,6 +909,8 @@ public final class Car {
     private int mConnectionState;
     @GuardedBy("mLock")
     private int mConnectionRetryCount;
+    @GuardedBy("mLock")
+    private boolean mServiceRegistrationWaiterStarted;
 
     private final Runnable mConnectionRetryRunnable = new Runnable() {
         @Override
@@ -939,6 +943,8 @@ public final class Car {
                 }
                 mConnectionState = STATE_CONNECTED;
                 mService = newService;
+                // Wake up createCar calls waiting for the service off the main thread.
+                mLock.notifyAll();
             }
             if (mStatusChangeCallback != null) {
                 mStatusChangeCallback.onLifecycleChanged(Car.this, true);
@@ -986,6 +992,12 @@ public final class Car {
 
     private final CarFeatures mFeatures = new CarFeatures();
 
+    private static final Object sManagerConstructorsLock = new Object();
+
+    /** Reflective constructors of feature managers created by class name, keyed by class name. */
+    @GuardedBy("sManagerConstructorsLock")
+    private static final ArrayMap<String, Constructor<?>> sManagerConstructors = new ArrayMap<>();
+
     /**
      * A factory method that creates Car instance for all Car API access.
      *
@@ -1100,7 +1112,7 @@ public final class Car {
                 return null;
             }
             try {
-                Thread.sleep(CAR_SERVICE_BINDER_POLLING_INTERVAL_MS);
+                car.waitForServiceConnection(CAR_SERVICE_BINDER_POLLING_INTERVAL_MS);
             } catch (InterruptedException e) {
                 Log.e(CarLibLog.TAG_CAR, "interrupted while waiting for car_service",
                         new RuntimeException());
@@ -1219,7 +1231,7 @@ public final class Car {
             }
 
             try {
-                Thread.sleep(CAR_SERVICE_BINDER_POLLING_INTERVAL_MS);
+                car.waitForServiceConnection(CAR_SERVICE_BINDER_POLLING_INTERVAL_MS);
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
                 Log.w(TAG_CAR, "interrupted", new RuntimeException());
@@ -1246,6 +1258,40 @@ public final class Car {
         return car;
     }
 
+    /**
+     * Waits up to {@code timeoutMs} for the car service connection.
+     *
+     * <p>Returns as soon as {@link ServiceConnection} is notified of the connection instead of
+     * sleeping for the whole interval. That notification is delivered on the main thread, which
+     * cannot receive it while waiting here, so the main thread is woken up by a thread waiting for
+     * car service to be registered instead.
+     */
+    private void waitForServiceConnection(long timeoutMs) throws InterruptedException {
+        boolean isMainThread = Looper.myLooper() == Looper.getMainLooper();
+        synchronized (mLock) {
+            if (mService != null) {
+                return;
+            }
+            if (isMainThread && !mServiceRegistrationWaiterStarted) {
+                mServiceRegistrationWaiterStarted = true;
+                startServiceRegistrationWaiter();
+            }
+            mLock.wait(timeoutMs);
+        }
+    }
+
+    private void startServiceRegistrationWaiter() {
+        Thread waiter = new Thread(() -> {
+            ServiceManager.waitForService(CAR_SERVICE_BINDER_SERVICE_NAME);
+            synchronized (mLock) {
+                // createCar polls ServiceManager again once woken up.
+                mLock.notifyAll();
+            }
+        }, "CarServiceRegistrationWaiter");
+        waiter.setDaemon(true);
+        waiter.start();
+    }
+
     private static void assertNonNullContext(Context context) {
         Objects.requireNonNull(context);
         if (context instanceof ContextWrapper
@@ -1426,6 +1472,67 @@ public final class Car {
         return manager;
     }
 
+    /**
+     * Gets multiple car specific services at once. This is equivalent to calling
+     * {@link #getCarManager(String)} for each name, but retrieves all services which are not
+     * created yet from car service in a single call.
+     *
+     * <p>Services which could not be retrieved together, for example because the caller does not
+     * have the permission required by one of them, are retried with
+     * {@link #getCarManager(String)} so that errors are reported the same way.
+     *
+     * @param serviceNames Names of services that should be created like {@link #SENSOR_SERVICE}.
+     * @return Matching service managers, in the same order as {@code serviceNames}. Entries are
+     *         null for services which do not exist.
+     */
+    @NonNull
+    public Object[] getCarManagers(@NonNull String... serviceNames) {
+        Objects.requireNonNull(serviceNames);
+        Object[] managers = new Object[serviceNames.length];
+        synchronized (mLock) {
+            if (mService == null) {
+                Log.w(TAG_CAR, "getCarManagers not working while car service not ready");
+                return managers;
+            }
+            ArrayList<String> namesToFetch = new ArrayList<>(serviceNames.length);
+            for (String serviceName : serviceNames) {
+                if (!mServiceMap.containsKey(serviceName) && !namesToFetch.contains(serviceName)) {
+                    namesToFetch.add(serviceName);
+                }
+            }
+            if (!namesToFetch.isEmpty()) {
+                try {
+                    ArrayList<String> classNames = new ArrayList<>(namesToFetch.size());
+                    List<IBinder> binders = mService.getCarServices(
+                            namesToFetch.toArray(new String[namesToFetch.size()]), classNames);
+                    for (int i = 0; i < namesToFetch.size(); i++) {
+                        IBinder binder = binders.get(i);
+                        if (binder == null) {
+                            continue;
+                        }
+                        String serviceName = namesToFetch.get(i);
+                        CarManagerBase manager = createCarManagerLocked(serviceName, binder,
+                                classNames.get(i));
+                        if (manager != null) {
+                            mServiceMap.put(serviceName, manager);
+                        }
+                    }
+                } catch (RemoteException e) {
+                    handleRemoteExceptionFromCarService(e);
+                }
+            }
+            for (int i = 0; i < serviceNames.length; i++) {
+                managers[i] = mServiceMap.get(serviceNames[i]);
+            }
+        }
+        for (int i = 0; i < serviceNames.length; i++) {
+            if (managers[i] == null) {
+                managers[i] = getCarManager(serviceNames[i]);
+            }
+        }
+        return managers;
+    }
+
     /**
      * Return the type of currently connected car.
      * @return
@@ -1659,6 +1766,18 @@ public final class Car {
 
     @Nullable
     private CarManagerBase createCarManagerLocked(String serviceName, IBinder binder) {
+        return createCarManagerLocked(serviceName, binder, /* managerClassName= */ null);
+    }
+
+    /**
+     * Creates the manager for the given service.
+     *
+     * @param managerClassName class name of the manager for services not known by this library,
+     *        or null to query it from car service when needed.
+     */
+    @Nullable
+    private CarManagerBase createCarManagerLocked(String serviceName, IBinder binder,
+            @Nullable String managerClassName) {
         CarManagerBase manager = null;
         switch (serviceName) {
             case AUDIO_SERVICE:
@@ -1756,12 +1875,14 @@ public final class Car {
                 break;
             default:
                 // Experimental or non-existing
-                String className = null;
-                try {
-                    className = mService.getCarManagerClassForFeature(serviceName);
-                } catch (RemoteException e) {
-                    handleRemoteExceptionFromCarService(e);
-                    return null;
+                String className = managerClassName;
+                if (className == null) {
+                    try {
+                        className = mService.getCarManagerClassForFeature(serviceName);
+                    } catch (RemoteException e) {
+                        handleRemoteExceptionFromCarService(e);
+                        return null;
+                    }
                 }
                 if (className == null) {
                     Log.e(TAG_CAR, "Cannot construct CarManager for service:" + serviceName
@@ -1779,8 +1900,18 @@ public final class Car {
             // Should use class loader for the Context as class loader for car api does not
             // see the class.
             ClassLoader loader = mContext.getClassLoader();
-            Class managerClass = loader.loadClass(className);
-            Constructor constructor = managerClass.getConstructor(Car.class, IBinder.class);
+            Constructor<?> constructor;
+            synchronized (sManagerConstructorsLock) {
+                constructor = sManagerConstructors.get(className);
+            }
+            if (constructor == null
+                    || constructor.getDeclaringClass().getClassLoader() != loader) {
+                Class managerClass = loader.loadClass(className);
+                constructor = managerClass.getConstructor(Car.class, IBinder.class);
+                synchronized (sManagerConstructorsLock) {
+                    sManagerConstructors.put(className, constructor);
+                }
+            }
             CarManagerBase manager = (CarManagerBase) constructor.newInstance(this, binder);
             return manager;
         } catch (ClassNotFoundException | IllegalAccessException | NoSuchMethodException
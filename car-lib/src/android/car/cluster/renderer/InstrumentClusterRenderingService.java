@@ -516,6 +516,8 @@ public abstract class InstrumentClusterRenderingService extends Service {
 
     private class NavigationBinder extends IInstrumentClusterNavigation.Stub {
         private final NavigationRenderer mNavigationRenderer;
+        // Only used from mUiHandler, in the order the states were received.
+        private final NavigationStateDelta mNavigationStateDelta = new NavigationStateDelta();
 
         NavigationBinder(NavigationRenderer navigationRenderer) {
             mNavigationRenderer = navigationRenderer;
@@ -526,8 +528,14 @@ public abstract class InstrumentClusterRenderingService extends Service {
         public void onNavigationStateChanged(@Nullable Bundle bundle) throws RemoteException {
             assertClusterManagerPermission();
             mUiHandler.post(() -> {
+                Bundle state = mNavigationStateDelta.apply(bundle);
+                if (state == null && bundle != null) {
+                    // Car Service sends the next state in full after a reconnection.
+                    Log.e(TAG, "Dropping navigation state delta without a valid previous state");
+                    return;
+                }
                 if (mNavigationRenderer != null) {
-                    mNavigationRenderer.onNavigationStateChanged(bundle);
+                    mNavigationRenderer.onNavigationStateChanged(state);
                 }
             });
         }
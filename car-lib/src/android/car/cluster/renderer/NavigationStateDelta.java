@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package android.car.cluster.renderer;
+
+import android.annotation.NonNull;
+import android.annotation.Nullable;
+import android.os.Bundle;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+/**
+ * Field-level deltas of the navigation states sent by Car Service to the cluster renderer.
+ *
+ * <p>Navigation apps send a serialized
+ * {@link android.car.cluster.navigation.NavigationState.NavigationStateProto} under
+ * {@link #KEY_NAVIGATION_STATE}. Car Service sends the first state after the renderer connects in
+ * full. Later states are sent as a {@code NavigationStateProto} holding only the top level fields
+ * which changed, under {@link #KEY_NAVIGATION_STATE_DELTA}, with the numbers of those fields under
+ * {@link #KEY_NAVIGATION_STATE_CHANGED_FIELDS}, so a field cleared by the app is told apart from an
+ * unchanged one.
+ *
+ * <p>When the steps changed but not their number, the delta holds every step with only its changed
+ * fields, and {@link #KEY_NAVIGATION_STATE_CHANGED_STEP_FIELDS} holds the numbers of those fields.
+ *
+ * <p>Deltas are applied to the serialized state: android.car does not link the protobuf library.
+ *
+ * @hide
+ */
+public final class NavigationStateDelta {
+    /** Key of the serialized {@code NavigationStateProto} in the bundles of navigation apps. */
+    public static final String KEY_NAVIGATION_STATE = "navstate2";
+    /** Key of the serialized {@code NavigationStateProto} holding the changed fields. */
+    public static final String KEY_NAVIGATION_STATE_DELTA =
+            "android.car.cluster.renderer.NAVIGATION_STATE_DELTA";
+    /** Key of the numbers of the top level fields which changed, as an {@code int[]}. */
+    public static final String KEY_NAVIGATION_STATE_CHANGED_FIELDS =
+            "android.car.cluster.renderer.NAVIGATION_STATE_CHANGED_FIELDS";
+    /**
+     * Key of the changed fields of every step, as an {@code int[]} holding for each step the number
+     * of its changed fields followed by their numbers. Only set when the steps are sent as deltas.
+     */
+    public static final String KEY_NAVIGATION_STATE_CHANGED_STEP_FIELDS =
+            "android.car.cluster.renderer.NAVIGATION_STATE_CHANGED_STEP_FIELDS";
+
+    // NavigationStateProto.STEPS_FIELD_NUMBER
+    private static final int STEPS_FIELD_NUMBER = 1;
+
+    private static final int WIRETYPE_VARINT = 0;
+    private static final int WIRETYPE_FIXED64 = 1;
+    private static final int WIRETYPE_LENGTH_DELIMITED = 2;
+    private static final int WIRETYPE_FIXED32 = 5;
+
+    // Serialized state known to the renderer, or null if none.
+    @Nullable
+    private byte[] mState;
+
+    /**
+     * Returns the bundle sent by the navigation app, rebuilding the full state from a delta and
+     * the previous state. Returns {@code null} for a delta which cannot be applied.
+     */
+    @Nullable
+    public Bundle apply(@Nullable Bundle bundle) {
+        if (bundle == null || !bundle.containsKey(KEY_NAVIGATION_STATE_DELTA)) {
+            mState = bundle == null ? null : bundle.getByteArray(KEY_NAVIGATION_STATE);
+            return bundle;
+        }
+        byte[] delta = bundle.getByteArray(KEY_NAVIGATION_STATE_DELTA);
+        int[] changedFields = bundle.getIntArray(KEY_NAVIGATION_STATE_CHANGED_FIELDS);
+        int[] changedStepFields = bundle.getIntArray(KEY_NAVIGATION_STATE_CHANGED_STEP_FIELDS);
+        if (mState == null || delta == null || changedFields == null) {
+            mState = null;
+            return null;
+        }
+        try {
+            mState = apply(mState, delta, changedFields, changedStepFields);
+        } catch (IllegalArgumentException e) {
+            mState = null;
+            return null;
+        }
+        Bundle state = new Bundle(bundle);
+        state.remove(KEY_NAVIGATION_STATE_DELTA);
+        state.remove(KEY_NAVIGATION_STATE_CHANGED_FIELDS);
+        state.remove(KEY_NAVIGATION_STATE_CHANGED_STEP_FIELDS);
+        state.putByteArray(KEY_NAVIGATION_STATE, mState);
+        return state;
+    }
+
+    /**
+     * Replaces the given top level fields of a serialized message with the ones of a delta.
+     *
+     * @throws IllegalArgumentException if {@code state} is not a valid serialized message
+     */
+    @NonNull
+    public static byte[] apply(@NonNull byte[] state, @NonNull byte[] delta,
+            @NonNull int[] changedFields) {
+        return apply(state, delta, changedFields, null);
+    }
+
+    /**
+     * Replaces the given top level fields of a serialized {@code NavigationStateProto} with the
+     * ones of a delta. If {@code changedStepFields} is not {@code null}, the steps of the delta are
+     * applied one by one to the steps of {@code state}, replacing the given fields of each step.
+     *
+     * @throws IllegalArgumentException if {@code state} is not a valid serialized message, or if
+     *                                  the step deltas do not match its steps
+     */
+    @NonNull
+    public static byte[] apply(@NonNull byte[] state, @NonNull byte[] delta,
+            @NonNull int[] changedFields, @Nullable int[] changedStepFields) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(state.length + delta.length);
+        writeUnchangedFields(state, 0, state.length, changedFields, out);
+        if (changedStepFields == null) {
+            out.write(delta, 0, delta.length);
+            return out.toByteArray();
+        }
+        int[] position = new int[1];
+        int[] statePosition = new int[1];
+        int stepFieldsIndex = 0;
+        while (position[0] < delta.length) {
+            int start = position[0];
+            long tag = readVarint(delta, position);
+            int wireType = (int) (tag & 0x7);
+            if ((tag >>> 3) != STEPS_FIELD_NUMBER || wireType != WIRETYPE_LENGTH_DELIMITED) {
+                skipField(delta, position, wireType);
+                out.write(delta, start, position[0] - start);
+                continue;
+            }
+            int stepDeltaLength = readLength(delta, position);
+            int stepDeltaStart = position[0];
+            skipBytes(delta, position, stepDeltaLength);
+            int stepStart = nextStep(state, statePosition);
+            if (stepStart < 0 || stepFieldsIndex >= changedStepFields.length) {
+                throw new IllegalArgumentException("More step deltas than steps");
+            }
+            int changedCount = changedStepFields[stepFieldsIndex++];
+            if (changedCount < 0 || changedCount > changedStepFields.length - stepFieldsIndex) {
+                throw new IllegalArgumentException("Invalid changed step fields");
+            }
+            int[] changed = Arrays.copyOfRange(changedStepFields, stepFieldsIndex,
+                    stepFieldsIndex + changedCount);
+            stepFieldsIndex += changedCount;
+
+            ByteArrayOutputStream step = new ByteArrayOutputStream();
+            writeUnchangedFields(state, stepStart, statePosition[0], changed, step);
+            step.write(delta, stepDeltaStart, stepDeltaLength);
+            writeVarint(out, tag);
+            writeVarint(out, step.size());
+            out.write(step.toByteArray(), 0, step.size());
+        }
+        if (nextStep(state, statePosition) >= 0
+                || stepFieldsIndex != changedStepFields.length) {
+            throw new IllegalArgumentException("Fewer step deltas than steps");
+        }
+        return out.toByteArray();
+    }
+
+    /** Writes the fields of the serialized message in {@code [start, end)} which did not change. */
+    private static void writeUnchangedFields(byte[] bytes, int start, int end,
+            int[] changedFields, ByteArrayOutputStream out) {
+        int[] position = {start};
+        while (position[0] < end) {
+            int fieldStart = position[0];
+            long tag = readVarint(bytes, position);
+            skipField(bytes, position, (int) (tag & 0x7));
+            if (!contains(changedFields, (int) (tag >>> 3))) {
+                out.write(bytes, fieldStart, position[0] - fieldStart);
+            }
+        }
+        if (position[0] != end) {
+            throw new IllegalArgumentException("Truncated message");
+        }
+    }
+
+    /**
+     * Returns the offset of the value of the next step of a serialized {@code NavigationStateProto}
+     * from {@code position}, leaving {@code position} after it, or -1 if there are no more steps.
+     */
+    private static int nextStep(byte[] state, int[] position) {
+        while (position[0] < state.length) {
+            long tag = readVarint(state, position);
+            int wireType = (int) (tag & 0x7);
+            if ((tag >>> 3) == STEPS_FIELD_NUMBER && wireType == WIRETYPE_LENGTH_DELIMITED) {
+                int length = readLength(state, position);
+                int start = position[0];
+                skipBytes(state, position, length);
+                return start;
+            }
+            skipField(state, position, wireType);
+        }
+        return -1;
+    }
+
+    private static void skipField(byte[] bytes, int[] position, int wireType) {
+        switch (wireType) {
+            case WIRETYPE_VARINT:
+                readVarint(bytes, position);
+                return;
+            case WIRETYPE_FIXED64:
+                skipBytes(bytes, position, 8);
+                return;
+            case WIRETYPE_LENGTH_DELIMITED:
+                skipBytes(bytes, position, readLength(bytes, position));
+                return;
+            case WIRETYPE_FIXED32:
+                skipBytes(bytes, position, 4);
+                return;
+            default:
+                // Groups are not used by proto3 messages.
+                throw new IllegalArgumentException("Unsupported wire type: " + wireType);
+        }
+    }
+
+    private static long readVarint(byte[] bytes, int[] position) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position[0] >= bytes.length) {
+                throw new IllegalArgumentException("Truncated varint");
+            }
+            byte b = bytes[position[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+
+    private static int readLength(byte[] bytes, int[] position) {
+        long length = readVarint(bytes, position);
+        if (length < 0 || length > bytes.length) {
+            throw new IllegalArgumentException("Invalid length: " + length);
+        }
+        return (int) length;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static void skipBytes(byte[] bytes, int[] position, int count) {
+        if (count > bytes.length - position[0]) {
+            throw new IllegalArgumentException("Truncated field");
+        }
+        position[0] += count;
+    }
+
+    private static boolean contains(int[] values, int value) {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -44,6 +44,7 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.TreeSet;
 
 /**
  * Configuration for Car UX Restrictions service.
@@ -81,6 +82,13 @@ public final class CarUxRestrictionsConfiguration implements Parcelable {
     @Nullable
     private final Byte mPhysicalPort;
 
+    /**
+     * Speed bands per restriction mode, indexed by driving state + 1. Compiled on first use;
+     * the result is immutable so concurrent compilations are harmless.
+     */
+    @Nullable
+    private volatile Map<String, SpeedBand[][]> mSpeedBands;
+
     private CarUxRestrictionsConfiguration(CarUxRestrictionsConfiguration.Builder builder) {
         mPhysicalPort = builder.mPhysicalPort;
 
@@ -126,10 +134,128 @@ public final class CarUxRestrictionsConfiguration implements Parcelable {
      *                     See values in {@link CarDrivingStateEvent.CarDrivingState}.
      * @param currentSpeed Current speed in meter per second.
      * @param mode         Current UX Restriction mode.
+     * @throws IllegalArgumentException if {@code currentSpeed} is NaN or infinite.
      */
     public CarUxRestrictions getUxRestrictions(@CarDrivingState int drivingState,
             float currentSpeed, @NonNull String mode) {
+        return getSpeedBand(drivingState, currentSpeed, mode).createUxRestrictions();
+    }
+
+    /**
+     * Returns the speed band containing the given speed for a driving state and restriction mode.
+     *
+     * <p>The restrictions returned by {@link #getUxRestrictions(int, float, String)} are the same
+     * for every speed of a band, so callers can keep the band and skip the lookup while the speed
+     * stays in it.
+     *
+     * @param drivingState Driving state.
+     *                     See values in {@link CarDrivingStateEvent.CarDrivingState}.
+     * @param currentSpeed Current speed in meter per second.
+     * @param mode         Current UX Restriction mode.
+     * @throws IllegalArgumentException if {@code currentSpeed} is NaN or infinite.
+     */
+    @NonNull
+    public SpeedBand getSpeedBand(@CarDrivingState int drivingState, float currentSpeed,
+            @NonNull String mode) {
         Objects.requireNonNull(mode, "mode must not be null");
+        if (!Float.isFinite(currentSpeed)) {
+            // NaN would silently resolve to the lowest band, and infinity to the highest one.
+            throw new IllegalArgumentException("Invalid speed: " + currentSpeed);
+        }
+        Map<String, SpeedBand[][]> speedBands = mSpeedBands;
+        if (speedBands == null) {
+            speedBands = compileSpeedBands();
+            mSpeedBands = speedBands;
+        }
+        SpeedBand[][] bandsPerState = speedBands.get(mode);
+        if (bandsPerState == null) {
+            bandsPerState = speedBands.get(UX_RESTRICTION_MODE_BASELINE);
+        }
+        SpeedBand[] bands = bandsPerState[drivingState + 1];
+        // Bands are sorted and cover all speeds, find the last one starting at or below the speed.
+        int low = 0;
+        int high = bands.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (bands[mid].mMinSpeed <= currentSpeed) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return bands[low];
+    }
+
+    private Map<String, SpeedBand[][]> compileSpeedBands() {
+        Map<String, SpeedBand[][]> speedBands = new ArrayMap<>(mRestrictionModes.size());
+        for (String mode : mRestrictionModes.keySet()) {
+            SpeedBand[][] bandsPerState = new SpeedBand[DRIVING_STATES.length][];
+            for (int drivingState : DRIVING_STATES) {
+                bandsPerState[drivingState + 1] = compileSpeedBands(drivingState, mode);
+            }
+            speedBands.put(mode, bandsPerState);
+        }
+        return speedBands;
+    }
+
+    /**
+     * Splits the speed axis at every range boundary of the mode and of the baseline it falls back
+     * to, then merges adjacent intervals resolving to the same restrictions.
+     */
+    private SpeedBand[] compileSpeedBands(@CarDrivingState int drivingState, String mode) {
+        TreeSet<Float> boundaries = new TreeSet<>();
+        boundaries.add(Float.NEGATIVE_INFINITY);
+        addSpeedBoundaries(boundaries, mode, drivingState);
+        addSpeedBoundaries(boundaries, UX_RESTRICTION_MODE_BASELINE, drivingState);
+        boundaries.remove(Builder.SpeedRange.MAX_SPEED);
+
+        List<SpeedBand> bands = new ArrayList<>();
+        float bandMinSpeed = Float.NEGATIVE_INFINITY;
+        RestrictionsPerSpeedRange bandRestriction = findRestrictions(drivingState,
+                bandMinSpeed, mode);
+        for (float boundary : boundaries) {
+            RestrictionsPerSpeedRange restriction = findRestrictions(drivingState, boundary, mode);
+            if (!isSameRestrictions(bandRestriction, restriction)) {
+                bands.add(new SpeedBand(this, drivingState, bandMinSpeed, boundary,
+                        bandRestriction));
+                bandMinSpeed = boundary;
+                bandRestriction = restriction;
+            }
+        }
+        bands.add(new SpeedBand(this, drivingState, bandMinSpeed, Builder.SpeedRange.MAX_SPEED,
+                bandRestriction));
+        return bands.toArray(new SpeedBand[bands.size()]);
+    }
+
+    private void addSpeedBoundaries(TreeSet<Float> boundaries, String mode,
+            @CarDrivingState int drivingState) {
+        RestrictionModeContainer container = mRestrictionModes.get(mode);
+        if (container == null) {
+            return;
+        }
+        for (RestrictionsPerSpeedRange r : container.getRestrictionsForDriveState(drivingState)) {
+            if (r.mSpeedRange != null) {
+                boundaries.add(r.mSpeedRange.mMinSpeed);
+                boundaries.add(r.mSpeedRange.mMaxSpeed);
+            }
+        }
+    }
+
+    private static boolean isSameRestrictions(@Nullable RestrictionsPerSpeedRange r1,
+            @Nullable RestrictionsPerSpeedRange r2) {
+        if (r1 == null || r2 == null) {
+            return r1 == r2;
+        }
+        return r1.mReqOpt == r2.mReqOpt && r1.mRestrictions == r2.mRestrictions;
+    }
+
+    /**
+     * Returns the restrictions of the mode for the driving state and speed, falling back to the
+     * baseline mode, or {@code null} if neither has any.
+     */
+    @Nullable
+    private RestrictionsPerSpeedRange findRestrictions(@CarDrivingState int drivingState,
+            float currentSpeed, @NonNull String mode) {
         RestrictionsPerSpeedRange restriction = null;
         if (mRestrictionModes.containsKey(mode)) {
             restriction = findUxRestrictionsInList(currentSpeed,
@@ -145,20 +271,14 @@ public final class CarUxRestrictionsConfiguration implements Parcelable {
             }
             // Either mode does not have any configuration or the mode does not have a configuration
             // for the specific drive state. In either case, fall-back to baseline configuration.
-            restriction = findUxRestrictionsInList(
-                    currentSpeed,
-                    mRestrictionModes.get(UX_RESTRICTION_MODE_BASELINE)
-                            .getRestrictionsForDriveState(drivingState));
-        }
-
-        if (restriction == null) {
-            if (Build.IS_ENG || Build.IS_USERDEBUG) {
-                throw new IllegalStateException("No restrictions for driving state "
-                        + getDrivingStateName(drivingState));
+            RestrictionModeContainer baseline =
+                    mRestrictionModes.get(UX_RESTRICTION_MODE_BASELINE);
+            if (baseline != null) {
+                restriction = findUxRestrictionsInList(currentSpeed,
+                        baseline.getRestrictionsForDriveState(drivingState));
             }
-            return createDefaultUxRestrictionsEvent();
         }
-        return createUxRestrictionsEvent(restriction.mReqOpt, restriction.mRestrictions);
+        return restriction;
     }
 
     /**
@@ -1030,6 +1150,81 @@ public final class CarUxRestrictionsConfiguration implements Parcelable {
         }
     }
 
+    /**
+     * Restrictions of a configuration for a driving state over the speed range
+     * [{@link #getMinSpeed()}, {@link #getMaxSpeed()}). Instances are immutable and shared.
+     *
+     * @hide
+     */
+    public static final class SpeedBand {
+        private final CarUxRestrictionsConfiguration mConfiguration;
+        @CarDrivingState
+        private final int mDrivingState;
+        private final float mMinSpeed;
+        private final float mMaxSpeed;
+        // null if neither the mode nor the baseline configures this band.
+        @Nullable
+        private final CarUxRestrictions mUxRestrictions;
+
+        private SpeedBand(CarUxRestrictionsConfiguration configuration,
+                @CarDrivingState int drivingState, float minSpeed, float maxSpeed,
+                @Nullable RestrictionsPerSpeedRange restriction) {
+            mConfiguration = configuration;
+            mDrivingState = drivingState;
+            mMinSpeed = minSpeed;
+            mMaxSpeed = maxSpeed;
+            mUxRestrictions = restriction == null ? null
+                    : configuration.createUxRestrictionsEvent(restriction.mReqOpt,
+                            restriction.mRestrictions);
+        }
+
+        /** Returns the configuration this band belongs to. */
+        @NonNull
+        public CarUxRestrictionsConfiguration getConfiguration() {
+            return mConfiguration;
+        }
+
+        /** Returns the lowest speed of the band, inclusive. */
+        public float getMinSpeed() {
+            return mMinSpeed;
+        }
+
+        /** Returns the highest speed of the band, exclusive. */
+        public float getMaxSpeed() {
+            return mMaxSpeed;
+        }
+
+        /** Returns whether the given speed is in [min speed, max speed). */
+        public boolean includes(float speed) {
+            return mMinSpeed <= speed && speed < mMaxSpeed;
+        }
+
+        /**
+         * Returns whether the restrictions of this band match the given ones, ignoring the
+         * timestamp.
+         */
+        public boolean isSameRestrictions(@Nullable CarUxRestrictions uxRestrictions) {
+            return mUxRestrictions != null && mUxRestrictions.isSameRestrictions(uxRestrictions);
+        }
+
+        /**
+         * Creates the restrictions of this band, timestamped now.
+         */
+        @NonNull
+        public CarUxRestrictions createUxRestrictions() {
+            if (mUxRestrictions == null) {
+                if (Build.IS_ENG || Build.IS_USERDEBUG) {
+                    throw new IllegalStateException("No restrictions for driving state "
+                            + getDrivingStateName(mDrivingState));
+                }
+                return mConfiguration.createDefaultUxRestrictionsEvent();
+            }
+            return mConfiguration.createUxRestrictionsEvent(
+                    mUxRestrictions.isRequiresDistractionOptimization(),
+                    mUxRestrictions.getActiveRestrictions());
+        }
+    }
+
     /**
      * UX restrictions to be applied to a driving state through {@link
      * Builder#setUxRestrictions(int, CarUxRestrictionsConfiguration.DrivingStateRestrictions)}.
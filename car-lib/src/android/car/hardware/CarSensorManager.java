@@ -28,8 +28,12 @@ import android.car.hardware.property.CarPropertyManager.CarPropertyEventCallback
 import android.car.hardware.property.ICarProperty;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.util.ArraySet;
+import android.os.SystemClock;
+import android.util.ArrayMap;
 import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -251,6 +255,24 @@ public final class CarSensorManager extends CarManagerBase {
      */
     private final HashMap<OnSensorChangedListener, CarPropertyEventListenerToBase> mListenerMap =
             new HashMap<>();
+
+    private static final float NANOS_PER_SECOND = 1_000_000_000f;
+
+    /**
+     * Listeners registered for each sensor type with their rate, keyed by sensor type.
+     */
+    @GuardedBy("mListenerMap")
+    private final SparseArray<ArrayMap<OnSensorChangedListener, Integer>> mSensorListeners =
+            new SparseArray<>();
+
+    /**
+     * Latest value of each sensor type with registered listeners, keyed by sensor type. Kept up
+     * to date by the events of the subscriptions, so {@link #getLatestSensorEvent(int)} does not
+     * need to query the service. Values of continuous sensors are only used until their next event
+     * is due, see {@link #isCachedValueCurrentLocked(CarPropertyValue)}.
+     */
+    @GuardedBy("mListenerMap")
+    private final SparseArray<CarPropertyValue> mLatestValues = new SparseArray<>();
     /**
      * Listener for car sensor data change.
      * Callbacks are called in the Looper context.
@@ -287,11 +309,73 @@ public final class CarSensorManager extends CarManagerBase {
 
     private void handleOnChangeEvent(CarPropertyValue value, OnSensorChangedListener listener) {
         synchronized (mListenerMap) {
-            CarSensorEvent event = createCarSensorEvent(value);
+            cacheLatestValueLocked(value);
+        }
+        // The listener is called without holding the lock, so it can register or unregister
+        // listeners, or query the latest value of other sensors.
+        CarSensorEvent event = createCarSensorEvent(value);
+        if (event != null) {
             listener.onSensorChanged(event);
         }
     }
 
+    /**
+     * Caches the given value if its sensor has listeners and the value is not older than the
+     * cached one.
+     */
+    @GuardedBy("mListenerMap")
+    private void cacheLatestValueLocked(CarPropertyValue value) {
+        int sensorType = value.getPropertyId();
+        if (value.getAreaId() != 0 || mSensorListeners.get(sensorType) == null) {
+            return;
+        }
+        CarPropertyValue cached = mLatestValues.get(sensorType);
+        if (cached == null || cached.getTimestamp() <= value.getTimestamp()) {
+            mLatestValues.put(sensorType, value);
+        }
+    }
+
+    /**
+     * Returns whether the cached value is still the current value of its sensor. Continuous
+     * sensors change between events, which are only sent at the rate of the subscription, so their
+     * value is only current until the next event is due.
+     */
+    @GuardedBy("mListenerMap")
+    private boolean isCachedValueCurrentLocked(CarPropertyValue value) {
+        int sensorType = value.getPropertyId();
+        CarPropertyConfig config = mCarPropertyMgr.getCarPropertyConfig(sensorType);
+        if (config == null || config.getChangeMode()
+                != CarPropertyConfig.VEHICLE_PROPERTY_CHANGE_MODE_CONTINUOUS) {
+            return true;
+        }
+        ArrayMap<OnSensorChangedListener, Integer> listeners = mSensorListeners.get(sensorType);
+        float rate = 0;
+        for (int i = 0; i < listeners.size(); i++) {
+            rate = Math.max(rate, listeners.valueAt(i));
+        }
+        // The subscription rate is bounded by the sample rates of the sensor.
+        rate = Math.max(rate, config.getMinSampleRate());
+        if (config.getMaxSampleRate() > 0) {
+            rate = Math.min(rate, config.getMaxSampleRate());
+        }
+        if (rate <= 0) {
+            return false;
+        }
+        long ageNanos = SystemClock.elapsedRealtimeNanos() - value.getTimestamp();
+        return ageNanos <= NANOS_PER_SECOND / rate;
+    }
+
+    @GuardedBy("mListenerMap")
+    private void removeSensorListenerLocked(OnSensorChangedListener listener, int sensorType) {
+        ArrayMap<OnSensorChangedListener, Integer> listeners = mSensorListeners.get(sensorType);
+        if (listeners == null || listeners.remove(listener) == null || !listeners.isEmpty()) {
+            return;
+        }
+        // Without a subscription, the cached value would not be updated anymore.
+        mSensorListeners.remove(sensorType);
+        mLatestValues.remove(sensorType);
+    }
+
     private void handleOnErrorEvent(int propertyId, int zone) {
 
     }
@@ -307,6 +391,8 @@ public final class CarSensorManager extends CarManagerBase {
     public void onCarDisconnected() {
         synchronized (mListenerMap) {
             mListenerMap.clear();
+            mSensorListeners.clear();
+            mLatestValues.clear();
         }
         mCarPropertyMgr.onCarDisconnected();
     }
@@ -403,7 +489,16 @@ public final class CarSensorManager extends CarManagerBase {
             mCarPropertyEventListener = mListenerMap.get(listener);
         }
         if (mCarPropertyMgr.registerCallback(mCarPropertyEventListener, sensorType, rate)) {
-            mListenerMap.put(listener, mCarPropertyEventListener);
+            synchronized (mListenerMap) {
+                mListenerMap.put(listener, mCarPropertyEventListener);
+                ArrayMap<OnSensorChangedListener, Integer> listeners =
+                        mSensorListeners.get(sensorType);
+                if (listeners == null) {
+                    listeners = new ArrayMap<>();
+                    mSensorListeners.put(sensorType, listeners);
+                }
+                listeners.put(listener, rate);
+            }
             return true;
         } else {
             return false;
@@ -420,6 +515,9 @@ public final class CarSensorManager extends CarManagerBase {
             mCarPropertyEventListener = mListenerMap.get(listener);
             mCarPropertyMgr.unregisterCallback(mCarPropertyEventListener);
             mListenerMap.remove(listener);
+            for (int i = mSensorListeners.size() - 1; i >= 0; i--) {
+                removeSensorListenerLocked(listener, mSensorListeners.keyAt(i));
+            }
         }
     }
 
@@ -433,6 +531,7 @@ public final class CarSensorManager extends CarManagerBase {
             @SensorType int sensorType) {
         synchronized (mListenerMap) {
             mCarPropertyEventListener = mListenerMap.get(listener);
+            removeSensorListenerLocked(listener, sensorType);
         }
         mCarPropertyMgr.unregisterCallback(mCarPropertyEventListener, sensorType);
     }
@@ -441,16 +540,39 @@ public final class CarSensorManager extends CarManagerBase {
      * Get the most recent CarSensorEvent for the given type. Note that latest sensor data from car
      * will not be available if it was never subscribed before. This call will return immediately
      * with null if there is no data available.
+     * <p>If a listener is registered for the sensor, the value of its last event is returned
+     * without querying the car service, unless the sensor is continuous and its next event is
+     * already due at the registered rate.
      * @param type A sensor to request
      * @return null if there was no sensor update since connected to the car.
      */
     @Nullable
     public CarSensorEvent getLatestSensorEvent(@SensorType int type) {
-        CarPropertyValue propertyValue = mCarPropertyMgr.getProperty(type, 0);
+        CarPropertyValue propertyValue;
+        synchronized (mListenerMap) {
+            propertyValue = mLatestValues.get(type);
+            if (propertyValue != null && !isCachedValueCurrentLocked(propertyValue)) {
+                propertyValue = null;
+            }
+        }
+        if (propertyValue == null) {
+            propertyValue = mCarPropertyMgr.getProperty(type, 0);
+            if (propertyValue == null) {
+                return null;
+            }
+            synchronized (mListenerMap) {
+                cacheLatestValueLocked(propertyValue);
+            }
+        }
         return createCarSensorEvent(propertyValue);
     }
 
-    private CarSensorEvent createCarSensorEvent(CarPropertyValue propertyValue) {
+    /**
+     * Converts the given value to an event. The value is unboxed straight into the arrays of the
+     * event.
+     */
+    @Nullable
+    private static CarSensorEvent createCarSensorEvent(CarPropertyValue propertyValue) {
         CarSensorEvent event = null;
         switch (propertyValue.getPropertyId() & VehiclePropertyType.MASK) {
             case VehiclePropertyType.FLOAT:
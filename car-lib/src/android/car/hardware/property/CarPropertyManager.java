@@ -34,9 +34,11 @@ import android.os.RemoteException;
 import android.os.ServiceSpecificException;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.LongSparseArray;
 import android.util.SparseArray;
 
 import com.android.car.internal.CarRatedFloatListeners;
+import com.android.car.internal.CarRatedFloatListeners.Listeners;
 import com.android.car.internal.SingleMessageHandler;
 
 import java.lang.annotation.Retention;
@@ -44,7 +46,6 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.function.Consumer;
 
 
 /**
@@ -65,6 +66,9 @@ public class CarPropertyManager extends CarManagerBase {
     /** Record of locally active properties. Key is propertyId */
     private final SparseArray<CarPropertyListeners> mActivePropertyListener =
             new SparseArray<>();
+    /** Error callbacks of {@link #setPropertyAsync}. Key is getPropertyAreaKey(). */
+    private final LongSparseArray<CarPropertyEventCallback> mAsyncSetErrorCallbacks =
+            new LongSparseArray<>();
     /** Record of properties' configs. Key is propertyId */
     private final SparseArray<CarPropertyConfig> mConfigMap = new SparseArray<>();
 
@@ -187,8 +191,28 @@ public class CarPropertyManager extends CarManagerBase {
             mHandler = null;
             return;
         }
+        // Coalesce samples of continuous properties, so an app whose looper stalls gets the
+        // latest value rather than a burst of stale ones.
         mHandler = new SingleMessageHandler<CarPropertyEvent>(eventHandler.getLooper(),
-            MSG_GENERIC_EVENT) {
+            MSG_GENERIC_EVENT, /* coalescing= */ true) {
+            @Override
+            protected boolean canCoalesce(CarPropertyEvent event) {
+                if (event.getEventType() != CarPropertyEvent.PROPERTY_EVENT_PROPERTY_CHANGE) {
+                    return false;
+                }
+                // mConfigMap is only written in the constructor
+                CarPropertyConfig config = mConfigMap.get(
+                        event.getCarPropertyValue().getPropertyId());
+                return config != null && config.getChangeMode()
+                        == CarPropertyConfig.VEHICLE_PROPERTY_CHANGE_MODE_CONTINUOUS;
+            }
+
+            @Override
+            protected long getCoalescingKey(CarPropertyEvent event) {
+                CarPropertyValue value = event.getCarPropertyValue();
+                return getPropertyAreaKey(value.getPropertyId(), value.getAreaId());
+            }
+
             @Override
             protected void handleEvent(CarPropertyEvent event) {
                 CarPropertyListeners listeners;
@@ -196,17 +220,20 @@ public class CarPropertyManager extends CarManagerBase {
                     listeners = mActivePropertyListener.get(
                         event.getCarPropertyValue().getPropertyId());
                 }
-                if (listeners != null) {
-                    switch (event.getEventType()) {
-                        case CarPropertyEvent.PROPERTY_EVENT_PROPERTY_CHANGE:
+                switch (event.getEventType()) {
+                    case CarPropertyEvent.PROPERTY_EVENT_PROPERTY_CHANGE:
+                        if (listeners != null) {
                             listeners.onPropertyChanged(event);
-                            break;
-                        case CarPropertyEvent.PROPERTY_EVENT_ERROR:
+                        }
+                        break;
+                    case CarPropertyEvent.PROPERTY_EVENT_ERROR:
+                        if (listeners != null) {
                             listeners.onErrorEvent(event);
-                            break;
-                        default:
-                            throw new IllegalArgumentException();
-                    }
+                        }
+                        dispatchAsyncSetError(event, listeners);
+                        break;
+                    default:
+                        throw new IllegalArgumentException();
                 }
             }
         };
@@ -302,6 +329,36 @@ public class CarPropertyManager extends CarManagerBase {
         }
     }
 
+    /**
+     * Reports the failure of a {@link #setPropertyAsync} to its error callback, unless it is
+     * registered for the property and already received it.
+     */
+    private void dispatchAsyncSetError(CarPropertyEvent event,
+            @Nullable CarPropertyListeners listeners) {
+        CarPropertyValue value = event.getCarPropertyValue();
+        CarPropertyEventCallback callback;
+        synchronized (mAsyncSetErrorCallbacks) {
+            long key = getPropertyAreaKey(value.getPropertyId(), value.getAreaId());
+            callback = mAsyncSetErrorCallbacks.get(key);
+            mAsyncSetErrorCallbacks.remove(key);
+        }
+        if (callback == null) {
+            return;
+        }
+        if (listeners != null) {
+            synchronized (mActivePropertyListener) {
+                if (listeners.contains(callback)) {
+                    return;
+                }
+            }
+        }
+        callback.onErrorEvent(value.getPropertyId(), value.getAreaId(), event.getErrorCode());
+    }
+
+    private static long getPropertyAreaKey(int propId, int areaId) {
+        return ((long) propId << 32) | (areaId & 0xffffffffL);
+    }
+
     private void handleEvent(List<CarPropertyEvent> events) {
         if (mHandler != null) {
             mHandler.sendEvents(events);
@@ -769,6 +826,50 @@ public class CarPropertyManager extends CarManagerBase {
         }
     }
 
+    /**
+     * Set value of car property without waiting for it to be written, for values set many times
+     * per second, like a temperature being set from a slider while it is dragged.
+     *
+     * <p> This method returns once the value is queued. If a value of the same property and areaId
+     * is still waiting to be written, it is replaced: only the latest value is written. Reading the
+     * property with {@link #getProperty(Class, int, int)} waits for the values set before.
+     *
+     * <p> Failures to write the value are not thrown: they are reported to
+     * {@link CarPropertyEventCallback#onErrorEvent(int, int, int)} of the given callback, and of
+     * the callbacks registered for the property.
+     *
+     * @param clazz The class object for the CarPropertyValue
+     * @param propId Property ID
+     * @param areaId areaId
+     * @param val Value of CarPropertyValue
+     * @param errorCallback Callback receiving the failure to write the value
+     * @param <E> data type of the given property, for example property that was
+     * defined as {@code VEHICLE_VALUE_TYPE_INT32} in vehicle HAL could be accessed using
+     * {@code Integer.class}.
+     *
+     * @throws {@link IllegalArgumentException} when the property is not supported.
+     */
+    public <E> void setPropertyAsync(@NonNull Class<E> clazz, int propId, int areaId,
+            @NonNull E val, @NonNull CarPropertyEventCallback errorCallback) {
+        if (DBG) {
+            Log.d(TAG, "setPropertyAsync, propId: 0x" + toHexString(propId)
+                    + ", areaId: 0x" + toHexString(areaId) + ", class: " + clazz + ", val: " + val);
+        }
+        checkSupportedProperty(propId);
+        synchronized (mAsyncSetErrorCallbacks) {
+            mAsyncSetErrorCallbacks.put(getPropertyAreaKey(propId, areaId), errorCallback);
+        }
+        try {
+            if (mCarPropertyEventToService == null) {
+                mCarPropertyEventToService = new CarPropertyEventListenerToService(this);
+            }
+            mService.setPropertyAsync(new CarPropertyValue<>(propId, areaId, val),
+                    mCarPropertyEventToService);
+        } catch (RemoteException e) {
+            handleRemoteExceptionFromCarService(e);
+        }
+    }
+
     /**
      * Modifies a property.  If the property modification doesn't occur, an error event shall be
      * generated and propagated back to the application.
@@ -867,42 +968,31 @@ public class CarPropertyManager extends CarManagerBase {
                 }
                 return;
             }
-            List<CarPropertyEventCallback> listeners;
-            synchronized (mActivePropertyListener) {
-                listeners = new ArrayList<>(getListeners());
-            }
-            listeners.forEach(new Consumer<CarPropertyEventCallback>() {
-                @Override
-                public void accept(CarPropertyEventCallback listener) {
-                    if (needUpdateForSelectedListener(listener, updateTime)) {
-                        listener.onChangeEvent(event.getCarPropertyValue());
-                    }
+            // The snapshot is immutable, so it is iterated without locking or copying.
+            Listeners<CarPropertyEventCallback> listeners = getListenersSnapshot();
+            CarPropertyValue value = event.getCarPropertyValue();
+            for (int i = 0; i < listeners.size(); i++) {
+                if (listeners.needUpdate(i, updateTime)) {
+                    listeners.get(i).onChangeEvent(value);
                 }
-            });
+            }
         }
 
         void onErrorEvent(final CarPropertyEvent event) {
-            List<CarPropertyEventCallback> listeners;
+            Listeners<CarPropertyEventCallback> listeners = getListenersSnapshot();
             CarPropertyValue value = event.getCarPropertyValue();
-            synchronized (mActivePropertyListener) {
-                listeners = new ArrayList<>(getListeners());
-            }
-            listeners.forEach(new Consumer<CarPropertyEventCallback>() {
-                @Override
-                public void accept(CarPropertyEventCallback listener) {
-                    if (DBG) {
-                        Log.d(TAG, new StringBuilder().append("onErrorEvent for ")
-                                        .append("property: ").append(value.getPropertyId())
-                                        .append(" areaId: ").append(value.getAreaId())
-                                        .append(" errorCode: ").append(event.getErrorCode())
-                                        .toString());
-                    }
-
-                    listener.onErrorEvent(value.getPropertyId(), value.getAreaId(),
-                            event.getErrorCode());
-
+            for (int i = 0; i < listeners.size(); i++) {
+                if (DBG) {
+                    Log.d(TAG, new StringBuilder().append("onErrorEvent for ")
+                                    .append("property: ").append(value.getPropertyId())
+                                    .append(" areaId: ").append(value.getAreaId())
+                                    .append(" errorCode: ").append(event.getErrorCode())
+                                    .toString());
                 }
-            });
+
+                listeners.get(i).onErrorEvent(value.getPropertyId(), value.getAreaId(),
+                        event.getErrorCode());
+            }
         }
     }
 
@@ -913,5 +1003,8 @@ public class CarPropertyManager extends CarManagerBase {
             mActivePropertyListener.clear();
             mCarPropertyEventToService = null;
         }
+        synchronized (mAsyncSetErrorCallbacks) {
+            mAsyncSetErrorCallbacks.clear();
+        }
     }
 }
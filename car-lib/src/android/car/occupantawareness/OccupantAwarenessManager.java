@@ -33,6 +33,7 @@ import android.util.Log;
 import com.android.internal.annotations.GuardedBy;
 
 import java.lang.ref.WeakReference;
+import java.util.List;
 
 /**
  * API exposing Occupant Awareness System data.
@@ -49,6 +50,10 @@ public class OccupantAwarenessManager extends CarManagerBase {
 
     private static final int MSG_HANDLE_SYSTEM_STATUS_CHANGE = 0;
     private static final int MSG_HANDLE_DETECTION_EVENT = 1;
+    private static final int MSG_HANDLE_DETECTION_EVENTS = 2;
+
+    /** Value for {@code maxRateHz} that delivers every detection frame. */
+    public static final float MAX_RATE_UNLIMITED = 0f;
 
     private final android.car.occupantawareness.IOccupantAwarenessManager mOccupantAwarenessService;
 
@@ -121,6 +126,20 @@ public class OccupantAwarenessManager extends CarManagerBase {
          * @param event The new detection state as a {@link OccupantAwarenessDetection}.
          */
         public abstract void onDetectionEvent(@NonNull OccupantAwarenessDetection event);
+
+        /**
+         * Called with all the detections generated for a single frame.
+         *
+         * <p>The default implementation calls {@link #onDetectionEvent} for each detection, in
+         * order.
+         *
+         * @param events The detections of the frame, as {@link OccupantAwarenessDetection}s.
+         */
+        public void onDetectionEvents(@NonNull List<OccupantAwarenessDetection> events) {
+            for (int i = 0; i < events.size(); i++) {
+                onDetectionEvent(events.get(i));
+            }
+        }
     }
 
     /**
@@ -134,6 +153,28 @@ public class OccupantAwarenessManager extends CarManagerBase {
      */
     @RequiresPermission(value = Car.PERMISSION_READ_CAR_OCCUPANT_AWARENESS_STATE)
     public void registerChangeCallback(@NonNull ChangeCallback callback) {
+        registerChangeCallback(callback, MAX_RATE_UNLIMITED);
+    }
+
+    /**
+     * Registers a {@link ChangeCallback} for listening for events, receiving at most {@code
+     * maxRateHz} detection frames per second.
+     *
+     * <p>Frames arriving faster than the given rate are skipped by the service, so a slow client
+     * does not need to keep up with the detection system. System status changes are never
+     * skipped.
+     *
+     * @param callback {@link ChangeCallback} to register.
+     * @param maxRateHz maximum number of detection frames per second, or {@link
+     *     #MAX_RATE_UNLIMITED} to receive every frame.
+     * @throws IllegalStateException if an existing callback is already registered.
+     * @throws IllegalArgumentException if {@code maxRateHz} is negative.
+     */
+    @RequiresPermission(value = Car.PERMISSION_READ_CAR_OCCUPANT_AWARENESS_STATE)
+    public void registerChangeCallback(@NonNull ChangeCallback callback, float maxRateHz) {
+        if (maxRateHz < 0) {
+            throw new IllegalArgumentException("Invalid max rate: " + maxRateHz);
+        }
         if (DBG) {
             Log.d(TAG, "Registering change listener");
         }
@@ -153,7 +194,8 @@ public class OccupantAwarenessManager extends CarManagerBase {
                     mListenerToService = new ChangeListenerToService(this);
                 }
 
-                mOccupantAwarenessService.registerEventListener(mListenerToService);
+                mOccupantAwarenessService.registerEventListenerWithMaxRate(mListenerToService,
+                        maxRateHz);
             } catch (RemoteException e) {
                 handleRemoteExceptionFromCarService(e);
             }
@@ -212,6 +254,14 @@ public class OccupantAwarenessManager extends CarManagerBase {
                 manager.handleDetectionEvent(event);
             }
         }
+
+        @Override
+        public void onDetectionEvents(List<OccupantAwarenessDetection> events) {
+            OccupantAwarenessManager manager = mOccupantAwarenessManager.get();
+            if (manager != null) {
+                manager.handleDetectionEvents(events);
+            }
+        }
     }
 
     /**
@@ -281,6 +331,41 @@ public class OccupantAwarenessManager extends CarManagerBase {
         }
     }
 
+    /**
+     * Gets the detections of a single frame from the service listener and dispatches them to a
+     * handler provided to the manager, in a single message.
+     *
+     * @param detectionEvents {@link OccupantAwarenessDetection}s of the frame
+     */
+    private void handleDetectionEvents(List<OccupantAwarenessDetection> detectionEvents) {
+        mEventCallbackHandler.sendMessage(
+                mEventCallbackHandler.obtainMessage(MSG_HANDLE_DETECTION_EVENTS, detectionEvents));
+    }
+
+    /**
+     * Calls the registered listener back with the detections of a single frame in the callback
+     * handler thread. Listeners that only implement {@link ChangeCallback#onDetectionEvent}
+     * receive one call per detection.
+     *
+     * @param detectionEvents {@link OccupantAwarenessDetection}s of the frame
+     */
+    private void dispatchDetectionEventsToClient(
+            List<OccupantAwarenessDetection> detectionEvents) {
+        if (detectionEvents == null || detectionEvents.isEmpty()) {
+            return;
+        }
+
+        ChangeCallback callback;
+
+        synchronized (mLock) {
+            callback = mChangeCallback;
+        }
+
+        if (callback != null) {
+            callback.onDetectionEvents(detectionEvents);
+        }
+    }
+
     /** Callback handler to dispatch system status changes to the corresponding listeners. */
     private static final class EventCallbackHandler extends Handler {
         private final WeakReference<OccupantAwarenessManager> mOccupantAwarenessManager;
@@ -291,6 +376,7 @@ public class OccupantAwarenessManager extends CarManagerBase {
         }
 
         @Override
+        @SuppressWarnings("unchecked")
         public void handleMessage(Message msg) {
             OccupantAwarenessManager mgr = mOccupantAwarenessManager.get();
             if (mgr != null) {
@@ -304,6 +390,11 @@ public class OccupantAwarenessManager extends CarManagerBase {
                         mgr.dispatchDetectionEventToClient((OccupantAwarenessDetection) msg.obj);
                         break;
 
+                    case MSG_HANDLE_DETECTION_EVENTS:
+                        mgr.dispatchDetectionEventsToClient(
+                                (List<OccupantAwarenessDetection>) msg.obj);
+                        break;
+
                     default:
                         throw new RuntimeException("Unknown message " + msg.what);
                 }
@@ -16,30 +16,106 @@
 
 package com.android.car.internal;
 
-import android.util.SparseArray;
+import android.util.SparseLongArray;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 /**
  * Represent listeners for a property grouped by their rate.
  * T is a type of EventListener such as CarPropertyEventCallback
  * in {@link android.car.hardware.property.CarPropertyManager}
+ *
+ * <p>Listeners are kept in a copy-on-write {@link Listeners} snapshot: adding or removing a
+ * listener replaces the snapshot, and event dispatch iterates the current snapshot without
+ * locking or allocating. Adding and removing must be synchronized by the caller; dispatch must
+ * happen on a single thread.
  * @param <T>
  * @hide
  */
 public class CarRatedFloatListeners<T> {
     private static final float NANOSECOND_PER_SECOND = 1000 * 1000 * 1000;
-    private final Map<T, Float> mListenersToRate = new HashMap<>(4);
 
-    private final Map<T, Long> mListenersUpdateTime = new HashMap<>(4);
+    private volatile Listeners<T> mListeners = new Listeners<>(new Object[0], new float[0],
+            new long[0]);
 
     private float mUpdateRate;
 
     // key: areaId, value: lastUpdateTime in nanosecond
-    protected SparseArray<Long> mAreaIdToLastUpdateTime = new SparseArray<>();
+    protected SparseLongArray mAreaIdToLastUpdateTime = new SparseLongArray();
+
+    /**
+     * Immutable list of listeners with their rates, and the time of their next update. Index
+     * {@code i} of every array refers to the same listener.
+     *
+     * @param <T> type of the listeners
+     * @hide
+     */
+    public static final class Listeners<T> {
+        private final Object[] mListeners;
+        private final float[] mRates;
+        // In nanoseconds. Only written by the dispatching thread; an update racing with a change
+        // of listeners may be lost, which lets one extra event through.
+        private final long[] mNextUpdateTimes;
+
+        private Listeners(Object[] listeners, float[] rates, long[] nextUpdateTimes) {
+            mListeners = listeners;
+            mRates = rates;
+            mNextUpdateTimes = nextUpdateTimes;
+        }
+
+        /** Returns the number of listeners. */
+        public int size() {
+            return mListeners.length;
+        }
+
+        /** Returns the listener at the given index. */
+        @SuppressWarnings("unchecked")
+        public T get(int index) {
+            return (T) mListeners[index];
+        }
+
+        /**
+         * Checks whether the listener at the given index should be notified of an event, and if
+         * so, schedules its next update according to its rate.
+         *
+         * @param index index of the listener
+         * @param eventTimeStamp timestamp of the event, in nanoseconds
+         * @return true if the listener need to be notified.
+         */
+        public boolean needUpdate(int index, long eventTimeStamp) {
+            float updateRate = mRates[index];
+            /** Update ON_CHANGE property. */
+            if (updateRate == 0) {
+                return true;
+            }
+            if (mNextUpdateTimes[index] <= eventTimeStamp) {
+                mNextUpdateTimes[index] = eventTimeStamp
+                        + (long) (NANOSECOND_PER_SECOND / updateRate);
+                return true;
+            }
+            return false;
+        }
+
+        private int indexOf(Object listener) {
+            for (int i = 0; i < mListeners.length; i++) {
+                if (mListeners[i].equals(listener)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private float getMaxRate() {
+            float max = mRates[0];
+            for (int i = 1; i < mRates.length; i++) {
+                max = Math.max(max, mRates[i]);
+            }
+            return max;
+        }
+    }
 
     protected CarRatedFloatListeners(float rate) {
         mUpdateRate = rate;
@@ -47,7 +123,7 @@ public class CarRatedFloatListeners<T> {
 
     /** Check listener */
     public boolean contains(T listener) {
-        return mListenersToRate.containsKey(listener);
+        return mListeners.indexOf(listener) >= 0;
     }
     /** Return current rate after updating */
     public float getRate() {
@@ -61,12 +137,28 @@ public class CarRatedFloatListeners<T> {
      * @return true if rate was updated. Otherwise, returns false.
      */
     public boolean remove(T listener) {
-        mListenersToRate.remove(listener);
-        mListenersUpdateTime.remove(listener);
-        if (mListenersToRate.isEmpty()) {
+        Listeners<T> current = mListeners;
+        int index = current.indexOf(listener);
+        if (index < 0) {
+            return false;
+        }
+        int size = current.size() - 1;
+        Object[] listeners = new Object[size];
+        float[] rates = new float[size];
+        long[] nextUpdateTimes = new long[size];
+        System.arraycopy(current.mListeners, 0, listeners, 0, index);
+        System.arraycopy(current.mListeners, index + 1, listeners, index, size - index);
+        System.arraycopy(current.mRates, 0, rates, 0, index);
+        System.arraycopy(current.mRates, index + 1, rates, index, size - index);
+        System.arraycopy(current.mNextUpdateTimes, 0, nextUpdateTimes, 0, index);
+        System.arraycopy(current.mNextUpdateTimes, index + 1, nextUpdateTimes, index,
+                size - index);
+        Listeners<T> updated = new Listeners<>(listeners, rates, nextUpdateTimes);
+        mListeners = updated;
+        if (size == 0) {
             return false;
         }
-        Float updateRate = Collections.max(mListenersToRate.values());
+        float updateRate = updated.getMaxRate();
         if (updateRate != mUpdateRate) {
             mUpdateRate = updateRate;
             return true;
@@ -75,7 +167,7 @@ public class CarRatedFloatListeners<T> {
     }
 
     public boolean isEmpty() {
-        return mListenersToRate.isEmpty();
+        return mListeners.size() == 0;
     }
 
     /**
@@ -86,13 +178,30 @@ public class CarRatedFloatListeners<T> {
      * @return true if rate was updated. Otherwise, returns false.
      */
     public boolean addAndUpdateRate(T listener, float updateRate) {
-        Float oldUpdateRate = mListenersToRate.put(listener, updateRate);
-        mListenersUpdateTime.put(listener, 0L);
+        Listeners<T> current = mListeners;
+        int index = current.indexOf(listener);
+        boolean existed = index >= 0;
+        float oldUpdateRate = existed ? current.mRates[index] : 0;
+        Listeners<T> updated;
+        if (!existed) {
+            int size = current.size();
+            updated = new Listeners<>(Arrays.copyOf(current.mListeners, size + 1),
+                    Arrays.copyOf(current.mRates, size + 1),
+                    Arrays.copyOf(current.mNextUpdateTimes, size + 1));
+            index = size;
+            updated.mListeners[index] = listener;
+        } else {
+            updated = new Listeners<>(current.mListeners, current.mRates.clone(),
+                    current.mNextUpdateTimes.clone());
+        }
+        updated.mRates[index] = updateRate;
+        updated.mNextUpdateTimes[index] = 0L;
+        mListeners = updated;
         if (mUpdateRate < updateRate) {
             mUpdateRate = updateRate;
             return true;
-        } else if (oldUpdateRate != null && oldUpdateRate == mUpdateRate) {
-            Float newUpdateRate = Collections.max(mListenersToRate.values());
+        } else if (existed && oldUpdateRate == mUpdateRate) {
+            float newUpdateRate = updated.getMaxRate();
             if (newUpdateRate != mUpdateRate) {
                 mUpdateRate = newUpdateRate;
                 return true;
@@ -104,24 +213,17 @@ public class CarRatedFloatListeners<T> {
     /**
      * Check whether listener should be notified by events.
      *
+     * <p>Dispatch loops should iterate {@link #getListenersSnapshot()} and call
+     * {@link Listeners#needUpdate(int, long)} instead, which does not look up the listener.
+     *
      * @param listener
      * @param eventTimeStamp
      * @return true if listener need to be notified.
      */
     public boolean needUpdateForSelectedListener(T listener, long eventTimeStamp) {
-        Long nextUpdateTime = mListenersUpdateTime.get(listener);
-        Float updateRate = mListenersToRate.get(listener);
-        /** Update ON_CHANGE property. */
-        if (updateRate == 0) {
-            return true;
-        }
-        if (nextUpdateTime <= eventTimeStamp) {
-            Float cycle = NANOSECOND_PER_SECOND / updateRate;
-            nextUpdateTime = eventTimeStamp + cycle.longValue();
-            mListenersUpdateTime.put(listener, nextUpdateTime);
-            return true;
-        }
-        return false;
+        Listeners<T> listeners = mListeners;
+        int index = listeners.indexOf(listener);
+        return index >= 0 && listeners.needUpdate(index, eventTimeStamp);
     }
 
     /**
@@ -138,9 +240,17 @@ public class CarRatedFloatListeners<T> {
         return false;
     }
 
+    /**
+     * Returns the current listeners. The snapshot is not affected by later changes, so it can be
+     * iterated without holding the lock that guards them.
+     */
+    public Listeners<T> getListenersSnapshot() {
+        return mListeners;
+    }
 
+    @SuppressWarnings("unchecked")
     public Collection<T> getListeners() {
-        return mListenersToRate.keySet();
+        List<?> listeners = Arrays.asList(mListeners.mListeners);
+        return Collections.unmodifiableList((List<T>) listeners);
     }
 }
-
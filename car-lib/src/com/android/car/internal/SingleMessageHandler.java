@@ -20,34 +20,93 @@ import android.os.Handler;
 import android.os.Handler.Callback;
 import android.os.Looper;
 import android.os.Message;
+import android.util.LongSparseArray;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.util.ArrayList;
 import java.util.List;
 import java.util.function.Consumer;
 
 /**
  * Handles call back into clients for Car managers.
  *
+ * <p>In coalescing mode, incoming events are queued in a single pending list and at most one
+ * message is outstanding on the looper. An event for which {@link #canCoalesce(Object)} returns
+ * true replaces the pending event with the same {@link #getCoalescingKey(Object)}, so a client
+ * whose looper stalls receives the latest value instead of a burst of stale ones. The replaced
+ * event is removed and the new one appended, so all events are delivered in the order they were
+ * sent: the latest value never overtakes an error or change event sent after the value it
+ * replaces.
+ *
  * @param <EventType> type of event to be handled
  * @hide
  */
 public abstract class SingleMessageHandler<EventType> implements Callback {
     private final int mHandledMessageWhat;
     private final Handler mHandler;
+    private final boolean mCoalescing;
+
+    private final Object mLock = new Object();
+
+    // Events waiting to be dispatched, in coalescing mode. Replaced events are set to null so the
+    // indexes in mPendingIndexByKey stay valid.
+    @GuardedBy("mLock")
+    private ArrayList<EventType> mPendingEvents = new ArrayList<>();
+    @GuardedBy("mLock")
+    private int mReplacedEventCount;
+    // Index in mPendingEvents of the pending event for each coalescing key.
+    @GuardedBy("mLock")
+    private final LongSparseArray<Integer> mPendingIndexByKey = new LongSparseArray<>();
+    @GuardedBy("mLock")
+    private boolean mMessagePending;
+    @GuardedBy("mLock")
+    private long mCoalescedEventCount;
+    // Events being dispatched. Only used on the looper thread; swapped with mPendingEvents.
+    private ArrayList<EventType> mDispatchingEvents = new ArrayList<>();
 
     public SingleMessageHandler(Looper looper, int handledMessage) {
-        mHandledMessageWhat = handledMessage;
-        mHandler = new Handler(looper, this);
+        this(looper, handledMessage, /* coalescing= */ false);
     }
 
     public SingleMessageHandler(Handler handler, int handledMessage) {
         this(handler.getLooper(), handledMessage);
     }
 
+    /**
+     * Creates a handler which coalesces pending events if {@code coalescing} is true.
+     *
+     * @see #canCoalesce(Object)
+     */
+    public SingleMessageHandler(Looper looper, int handledMessage, boolean coalescing) {
+        mHandledMessageWhat = handledMessage;
+        mHandler = new Handler(looper, this);
+        mCoalescing = coalescing;
+    }
+
     protected abstract void handleEvent(EventType event);
 
+    /**
+     * Returns whether a pending event can be replaced by a more recent one with the same
+     * {@link #getCoalescingKey(Object) key}. Only used in coalescing mode.
+     */
+    protected boolean canCoalesce(EventType event) {
+        return false;
+    }
+
+    /** Returns the key identifying events which replace each other. */
+    protected long getCoalescingKey(EventType event) {
+        return 0;
+    }
+
     @Override
     public boolean handleMessage(Message msg) {
         if (msg.what == mHandledMessageWhat) {
+            if (mCoalescing) {
+                dispatchPendingEvents();
+                return true;
+            }
             List<EventType> events = (List<EventType>) msg.obj;
             events.forEach(new Consumer<EventType>() {
                 @Override
@@ -62,7 +121,76 @@ public abstract class SingleMessageHandler<EventType> implements Callback {
 
     /** Send the events passsed as parameter */
     public void sendEvents(List<EventType> events) {
-        mHandler.sendMessage(mHandler.obtainMessage(mHandledMessageWhat, events));
+        if (!mCoalescing) {
+            mHandler.sendMessage(mHandler.obtainMessage(mHandledMessageWhat, events));
+            return;
+        }
+        synchronized (mLock) {
+            for (int i = 0; i < events.size(); i++) {
+                EventType event = events.get(i);
+                if (canCoalesce(event)) {
+                    long key = getCoalescingKey(event);
+                    Integer index = mPendingIndexByKey.get(key);
+                    if (index != null) {
+                        mPendingEvents.set(index, null);
+                        mReplacedEventCount++;
+                        mCoalescedEventCount++;
+                    }
+                    mPendingIndexByKey.put(key, mPendingEvents.size());
+                }
+                mPendingEvents.add(event);
+            }
+            if (mReplacedEventCount > mPendingEvents.size() / 2) {
+                compactPendingEventsLocked();
+            }
+            if (!mMessagePending && !mPendingEvents.isEmpty()) {
+                mMessagePending = true;
+                mHandler.sendMessage(mHandler.obtainMessage(mHandledMessageWhat));
+            }
+        }
+    }
+
+    /** Returns the number of events replaced by a more recent one before being dispatched. */
+    @VisibleForTesting
+    public long getCoalescedEventCount() {
+        synchronized (mLock) {
+            return mCoalescedEventCount;
+        }
+    }
+
+    // Removes the replaced events, so a stalled looper does not make mPendingEvents grow.
+    @GuardedBy("mLock")
+    private void compactPendingEventsLocked() {
+        mPendingEvents.removeIf(event -> event == null);
+        mReplacedEventCount = 0;
+        mPendingIndexByKey.clear();
+        for (int i = 0; i < mPendingEvents.size(); i++) {
+            EventType event = mPendingEvents.get(i);
+            if (canCoalesce(event)) {
+                mPendingIndexByKey.put(getCoalescingKey(event), i);
+            }
+        }
     }
 
+    private void dispatchPendingEvents() {
+        ArrayList<EventType> events;
+        synchronized (mLock) {
+            events = mPendingEvents;
+            mPendingEvents = mDispatchingEvents;
+            mDispatchingEvents = events;
+            mPendingIndexByKey.clear();
+            mReplacedEventCount = 0;
+            mMessagePending = false;
+        }
+        try {
+            for (int i = 0; i < events.size(); i++) {
+                EventType event = events.get(i);
+                if (event != null) {
+                    handleEvent(event);
+                }
+            }
+        } finally {
+            events.clear();
+        }
+    }
 }
@@ -35,6 +35,7 @@ import android.util.Log;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 
@@ -263,6 +264,17 @@ public class FakeCar {
         public String getCarManagerClassForFeature(String featureName) {
             return null;
         }
+
+        @Override
+        public List<IBinder> getCarServices(String[] serviceNames,
+                List<String> managerClassNames) throws RemoteException {
+            List<IBinder> binders = new ArrayList<>(serviceNames.length);
+            for (String serviceName : serviceNames) {
+                binders.add(getCarService(serviceName));
+                managerClassNames.add(null);
+            }
+            return binders;
+        }
     }
 
 }
@@ -99,6 +99,12 @@ class FakeCarPropertyService extends ICarProperty.Stub implements CarPropertyCon
         sendEvent(prop);
     }
 
+    @Override
+    public void setPropertyAsync(CarPropertyValue prop, ICarPropertyEventListener listener)
+            throws RemoteException {
+        setProperty(prop, listener);
+    }
+
     @Override
     public String getReadPermission(int propId) throws RemoteException {
         return mConfigs.containsKey(propId) ? mPermissions.getReadPermission(propId) : null;
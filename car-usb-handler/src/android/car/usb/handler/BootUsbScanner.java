@@ -3,16 +3,20 @@ package android.car.usb.handler;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.database.sqlite.SQLiteException;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
+import android.os.AsyncTask;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.util.Log;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 
 /** Queues work to the BootUsbService job to scan for connected devices. */
 public class BootUsbScanner extends BroadcastReceiver {
+    private static final String TAG = BootUsbScanner.class.getSimpleName();
 
     @Override
     public void onReceive(Context context, Intent intent) {
@@ -23,6 +27,21 @@ public class BootUsbScanner extends BroadcastReceiver {
                 && !UserManager.isHeadlessSystemUserMode()) {
             return;
         }
+        // Load the saved settings in the background, so they are in memory when the first
+        // device is processed.
+        PendingResult pendingResult = goAsync();
+        UsbSettingsStorage storage = UsbSettingsStorage.getInstance(context);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            try {
+                storage.warmUp();
+            } catch (SQLiteException e) {
+                // The settings are loaded again when the first device is processed.
+                Log.e(TAG, "Failed to load USB settings", e);
+            } finally {
+                pendingResult.finish();
+            }
+        });
+
         // we defer this processing to BootUsbService so that we are very quick to process
         // LOCKED_BOOT_COMPLETED
         UsbManager usbManager = context.getSystemService(UsbManager.class);
@@ -25,6 +25,7 @@ import android.hardware.usb.UsbManager;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
@@ -89,7 +90,7 @@ public final class UsbHostController
         mContext = context;
         mCallback = callbacks;
         mHandler = new UsbHostControllerHandler(Looper.myLooper());
-        mUsbSettingsStorage = new UsbSettingsStorage(context);
+        mUsbSettingsStorage = UsbSettingsStorage.getInstance(context);
         mUsbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
         mUsbResolver = new UsbDeviceHandlerResolver(mUsbManager, mContext, this);
         IntentFilter filter = new IntentFilter();
@@ -161,7 +162,12 @@ public final class UsbHostController
         mCallback.optionsUpdated(mEmptyList);
         mCallback.processingStarted();
 
+        long startMs = SystemClock.elapsedRealtime();
         UsbDeviceSettings settings = mUsbSettingsStorage.getSettings(device);
+        if (LOCAL_LOGD) {
+            Log.d(TAG, "Settings lookup took " + (SystemClock.elapsedRealtime() - startMs)
+                    + "ms for device: " + device);
+        }
 
         if (settings == null) {
             resolveDevice(device);
@@ -17,23 +17,36 @@ package android.car.usb.handler;
 
 import android.annotation.Nullable;
 import android.content.ComponentName;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.hardware.usb.UsbDevice;
+import android.os.SystemClock;
+import android.util.ArrayMap;
 import android.util.Log;
 
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Provides API to persist USB device settings.
+ *
+ * <p>All settings are loaded into memory on first use and written through to the database, so
+ * looking up the settings of an attached device does not touch SQLite. The database connection
+ * and its write statements are kept open for the lifetime of the process.
  */
 public final class UsbSettingsStorage {
     private static final String TAG = UsbSettingsStorage.class.getSimpleName();
 
+    @VisibleForTesting
+    static final String DATABASE_NAME = "usb_devices.db";
+
     private static final String TABLE_USB_SETTINGS = "usb_devices";
     private static final String COLUMN_SERIAL = "serial";
     private static final String COLUMN_VID = "vid";
@@ -43,32 +56,82 @@ public final class UsbSettingsStorage {
     private static final String COLUMN_AOAP = "aoap";
     private static final String COLUMN_DEFAULT_HANDLER = "default_handler";
 
+    private static final String SQL_REPLACE = "INSERT OR REPLACE INTO " + TABLE_USB_SETTINGS
+            + " (" + COLUMN_SERIAL + ", " + COLUMN_VID + ", " + COLUMN_PID + ", " + COLUMN_NAME
+            + ", " + COLUMN_HANDLER + ", " + COLUMN_AOAP + ", " + COLUMN_DEFAULT_HANDLER
+            + ") VALUES (?, ?, ?, ?, ?, ?, ?)";
+    private static final String SQL_DELETE = "DELETE FROM " + TABLE_USB_SETTINGS + " WHERE "
+            + COLUMN_SERIAL + " = ? AND " + COLUMN_VID + " = ? AND " + COLUMN_PID + " = ?";
+
+    private static final Object sInstanceLock = new Object();
+
+    @GuardedBy("sInstanceLock")
+    private static UsbSettingsStorage sInstance;
+
+    private final Object mLock = new Object();
     private final UsbSettingsDbHelper mDbHelper;
 
-    public UsbSettingsStorage(Context context) {
+    @GuardedBy("mLock")
+    private SQLiteDatabase mDb;
+    @GuardedBy("mLock")
+    private SQLiteStatement mReplaceStatement;
+    @GuardedBy("mLock")
+    private SQLiteStatement mDeleteStatement;
+
+    /** Settings as stored in the database, keyed by their primary key. */
+    @GuardedBy("mLock")
+    private ArrayMap<SettingsKey, UsbDeviceSettings> mSettings;
+
+    /**
+     * Returns the storage shared by the whole process, so the connection and the in-memory
+     * settings survive across activities.
+     */
+    public static UsbSettingsStorage getInstance(Context context) {
+        synchronized (sInstanceLock) {
+            if (sInstance == null) {
+                sInstance = new UsbSettingsStorage(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+    }
+
+    @VisibleForTesting
+    UsbSettingsStorage(Context context) {
         mDbHelper = new UsbSettingsDbHelper(context);
     }
 
-    private Cursor queryFor(SQLiteDatabase db, UsbDevice device) {
-        String serial = device.getSerialNumber();
-        String selection;
-        List<String> selectionArgs = new ArrayList<>();
-        if (AoapInterface.isDeviceInAoapMode(device)) {
-            selection = COLUMN_SERIAL + " = ? AND " + COLUMN_AOAP + " = 1";
-            selectionArgs.add(serial);
-        } else if (serial == null) {
-            selection = COLUMN_SERIAL + " IS NULL";
-        } else {
-            selection = COLUMN_SERIAL + " = ?";
-            selectionArgs.add(serial);
+    /**
+     * Opens the database and loads all settings in memory, if not done yet.
+     */
+    public void warmUp() {
+        synchronized (mLock) {
+            ensureLoadedLocked();
         }
+    }
 
-        selection += " AND " + COLUMN_VID + " = ? AND " + COLUMN_PID + " = ?";
-        selectionArgs.add(String.valueOf(device.getVendorId()));
-        selectionArgs.add(String.valueOf(device.getProductId()));
-
-        return db.query(TABLE_USB_SETTINGS, null, selection,
-                selectionArgs.toArray(new String[0]), null, null, null);
+    @GuardedBy("mLock")
+    private void ensureLoadedLocked() {
+        if (mSettings != null) {
+            return;
+        }
+        long startMs = SystemClock.elapsedRealtime();
+        mDb = mDbHelper.getWritableDatabase();
+        mReplaceStatement = mDb.compileStatement(SQL_REPLACE);
+        mDeleteStatement = mDb.compileStatement(SQL_DELETE);
+        List<UsbDeviceSettings> allSettings;
+        try (Cursor resultCursor = mDb.query(TABLE_USB_SETTINGS, null, null, null, null, null,
+                null)) {
+            allSettings = constructSettings(resultCursor);
+        }
+        mSettings = new ArrayMap<>(allSettings.size());
+        for (int i = 0; i < allSettings.size(); i++) {
+            UsbDeviceSettings settings = allSettings.get(i);
+            if (mSettings.put(SettingsKey.of(settings), settings) != null) {
+                Log.w(TAG, "Multiple settings stored for: " + settings);
+            }
+        }
+        Log.i(TAG, "Loaded " + mSettings.size() + " USB settings in "
+                + (SystemClock.elapsedRealtime() - startMs) + "ms");
     }
 
     /**
@@ -76,33 +139,48 @@ public final class UsbSettingsStorage {
      */
     @Nullable
     public UsbDeviceSettings getSettings(UsbDevice device) {
-        try (SQLiteDatabase db = mDbHelper.getReadableDatabase();
-                Cursor resultCursor = queryFor(db, device)) {
-            if (resultCursor.getCount() > 1) {
-                throw new RuntimeException("Querying for device: " + device
-                        + " returned " + resultCursor.getCount() + " results");
-            }
-            if (resultCursor.getCount() == 0) {
-                Log.w(TAG, "Usb setting missing for device: " + device);
-                return null;
-            }
-            List<UsbDeviceSettings> settings = constructSettings(resultCursor);
-            return settings.get(0);
+        SettingsKey key = new SettingsKey(device.getSerialNumber(), device.getVendorId(),
+                device.getProductId());
+        UsbDeviceSettings settings;
+        synchronized (mLock) {
+            ensureLoadedLocked();
+            settings = mSettings.get(key);
         }
+        // Devices in AOAP mode only match settings saved for AOAP, by serial number.
+        if (settings != null && AoapInterface.isDeviceInAoapMode(device)
+                && (key.mSerialNumber == null || !settings.getAoap())) {
+            settings = null;
+        }
+        if (settings == null) {
+            Log.w(TAG, "Usb setting missing for device: " + device);
+            return null;
+        }
+        return copyOf(settings);
     }
 
     /**
      * Saves or updates settings for USB device.
      */
     public void saveSettings(UsbDeviceSettings settings) {
-        try (SQLiteDatabase db = mDbHelper.getWritableDatabase()) {
-            long result = db.replace(
-                    TABLE_USB_SETTINGS,
-                    null,
-                    settingsToContentValues(settings));
-            if (result == -1) {
-                Log.e(TAG, "Failed to save settings: " + settings);
+        synchronized (mLock) {
+            ensureLoadedLocked();
+            bindNullableString(mReplaceStatement, 1, settings.getSerialNumber());
+            mReplaceStatement.bindLong(2, settings.getVid());
+            mReplaceStatement.bindLong(3, settings.getPid());
+            bindNullableString(mReplaceStatement, 4, settings.getDeviceName());
+            mReplaceStatement.bindString(5, settings.getHandler().flattenToShortString());
+            mReplaceStatement.bindLong(6, settings.getAoap() ? 1 : 0);
+            mReplaceStatement.bindLong(7, settings.isDefaultHandler() ? 1 : 0);
+            try {
+                mReplaceStatement.executeInsert();
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Failed to save settings: " + settings, e);
+                return;
+            } finally {
+                mReplaceStatement.clearBindings();
             }
+            // Cache what a database read would return, not the caller's mutable object.
+            mSettings.put(SettingsKey.of(settings), copyOf(settings));
         }
     }
 
@@ -110,12 +188,18 @@ public final class UsbSettingsStorage {
      * Delete settings for USB device.
      */
     public void deleteSettings(String serialNumber, int vid, int pid) {
-        try (SQLiteDatabase db = mDbHelper.getWritableDatabase()) {
-            int result = db.delete(
-                    TABLE_USB_SETTINGS,
-                    COLUMN_SERIAL + " = ? AND " + COLUMN_VID + " = ? AND " + COLUMN_PID
-                    + " = ?",
-                    new String[]{serialNumber, Integer.toString(vid), Integer.toString(pid)});
+        synchronized (mLock) {
+            ensureLoadedLocked();
+            mDeleteStatement.bindString(1, serialNumber);
+            mDeleteStatement.bindLong(2, vid);
+            mDeleteStatement.bindLong(3, pid);
+            int result;
+            try {
+                result = mDeleteStatement.executeUpdateDelete();
+            } finally {
+                mDeleteStatement.clearBindings();
+            }
+            mSettings.remove(new SettingsKey(serialNumber, vid, pid));
             if (result == 0) {
                 Log.w(TAG, "No settings with serialNumber: " + serialNumber
                         + " vid: " + vid + " pid: " + pid);
@@ -131,19 +215,32 @@ public final class UsbSettingsStorage {
      * Returns all saved settings.
      */
     public List<UsbDeviceSettings> getAllSettings() {
-        try (SQLiteDatabase db = mDbHelper.getReadableDatabase();
-             Cursor resultCursor = db.query(
-                     TABLE_USB_SETTINGS,
-                     null,
-                     null,
-                     null,
-                     null,
-                     null,
-                     null)) {
-            return constructSettings(resultCursor);
+        synchronized (mLock) {
+            ensureLoadedLocked();
+            List<UsbDeviceSettings> results = new ArrayList<>(mSettings.size());
+            for (int i = 0; i < mSettings.size(); i++) {
+                results.add(copyOf(mSettings.valueAt(i)));
+            }
+            return results;
         }
     }
 
+    private static void bindNullableString(SQLiteStatement statement, int index,
+            @Nullable String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /** Copies the settings persisted in the database, so callers can't change cached ones. */
+    private static UsbDeviceSettings copyOf(UsbDeviceSettings settings) {
+        return UsbDeviceSettings.constructSettings(settings.getSerialNumber(), settings.getVid(),
+                settings.getPid(), settings.getDeviceName(), settings.getHandler(),
+                settings.getAoap());
+    }
+
     private List<UsbDeviceSettings> constructSettings(Cursor cursor) {
         if (!cursor.isBeforeFirst()) {
             throw new RuntimeException("Cursor is not reset to before first element");
@@ -168,24 +265,45 @@ public final class UsbSettingsStorage {
         return results;
     }
 
-    /**
-     * Converts {@code UsbDeviceSettings} to {@code ContentValues}.
-     */
-    public ContentValues settingsToContentValues(UsbDeviceSettings settings) {
-        ContentValues contentValues = new ContentValues();
-        contentValues.put(COLUMN_SERIAL, settings.getSerialNumber());
-        contentValues.put(COLUMN_VID, settings.getVid());
-        contentValues.put(COLUMN_PID, settings.getPid());
-        contentValues.put(COLUMN_NAME, settings.getDeviceName());
-        contentValues.put(COLUMN_HANDLER, settings.getHandler().flattenToShortString());
-        contentValues.put(COLUMN_AOAP, settings.getAoap() ? 1 : 0);
-        contentValues.put(COLUMN_DEFAULT_HANDLER, settings.isDefaultHandler() ? 1 : 0);
-        return contentValues;
+    /** Primary key of the settings table: (serial, vid, pid). */
+    private static final class SettingsKey {
+        @Nullable
+        private final String mSerialNumber;
+        private final int mVid;
+        private final int mPid;
+
+        SettingsKey(@Nullable String serialNumber, int vid, int pid) {
+            mSerialNumber = serialNumber;
+            mVid = vid;
+            mPid = pid;
+        }
+
+        static SettingsKey of(UsbDeviceSettings settings) {
+            return new SettingsKey(settings.getSerialNumber(), settings.getVid(),
+                    settings.getPid());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof SettingsKey)) {
+                return false;
+            }
+            SettingsKey other = (SettingsKey) o;
+            return mVid == other.mVid && mPid == other.mPid
+                    && Objects.equals(mSerialNumber, other.mSerialNumber);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mSerialNumber, mVid, mPid);
+        }
     }
 
     private static class UsbSettingsDbHelper extends SQLiteOpenHelper {
         private static final int DATABASE_VERSION = 2;
-        private static final String DATABASE_NAME = "usb_devices.db";
 
         // we are using device protected storage because we may need to access the db before the
         // user has authenticated
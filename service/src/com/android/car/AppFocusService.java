@@ -64,6 +64,10 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
     @GuardedBy("mLock")
     private final SparseArray<OwnershipClientInfo> mFocusOwners = new SparseArray<>();
 
+    /** K: appType, V: listeners registered for it */
+    @GuardedBy("mLock")
+    private final SparseArray<ArraySet<ClientInfo>> mListenersByAppType = new SparseArray<>();
+
     @GuardedBy("mLock")
     private final Set<Integer> mActiveAppTypes = new ArraySet<>();
 
@@ -71,7 +75,14 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
     private final List<FocusOwnershipCallback> mFocusOwnershipCallbacks = new ArrayList<>();
 
     private final BinderInterfaceContainer.BinderEventHandler<IAppFocusListener>
-            mAllBinderEventHandler = bInterface -> { /* nothing to do.*/ };
+            mAllBinderEventHandler = bInterface -> {
+                ClientInfo info = (ClientInfo) bInterface;
+                synchronized (mLock) {
+                    for (Integer appType : info.getAppTypes()) {
+                        removeListenerLocked(info, appType);
+                    }
+                }
+            };
 
     private final HandlerThread mHandlerThread = CarServiceUtils.getHandlerThread(
             getClass().getSimpleName());
@@ -96,6 +107,12 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
             } else {
                 info.addAppType(appType);
             }
+            ArraySet<ClientInfo> listeners = mListenersByAppType.get(appType);
+            if (listeners == null) {
+                listeners = new ArraySet<>();
+                mListenersByAppType.put(appType, listeners);
+            }
+            listeners.add(info);
         }
     }
 
@@ -107,6 +124,7 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
                 return;
             }
             info.removeAppType(appType);
+            removeListenerLocked(info, appType);
             if (info.getAppTypes().isEmpty()) {
                 mAllChangeClients.removeBinder(listener);
             }
@@ -175,25 +193,17 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
                         + info);
             }
             // Always dispatch.
-            for (BinderInterfaceContainer.BinderInterface<IAppFocusListener> client :
-                    mAllChangeClients.getInterfaces()) {
-                ClientInfo clientInfo = (ClientInfo) client;
-                // dispatch events only when there is change after filter and the listener
-                // is not coming from the current caller.
-                if (clientInfo.getAppTypes().contains(appType)) {
-                    mDispatchHandler.requestAppFocusChangeDispatch(clientInfo.binderInterface,
-                            appType, true);
-                }
-            }
+            dispatchAppFocusChangeLocked(appType, true);
         }
         return CarAppFocusManager.APP_FOCUS_REQUEST_SUCCEEDED;
     }
 
     @Override
     public void abandonAppFocus(IAppFocusOwnershipCallback callback, int appType) {
+        OwnershipClientInfo info;
+        List<FocusOwnershipCallback> focusOwnershipCallbacks;
         synchronized (mLock) {
-            OwnershipClientInfo info =
-                    (OwnershipClientInfo) mAllOwnershipClients.getBinderInterface(callback);
+            info = (OwnershipClientInfo) mAllOwnershipClients.getBinderInterface(callback);
             if (info == null) {
                 // ignore as this client cannot have owned anything.
                 return;
@@ -207,25 +217,21 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
                 // ignore as listener doesn't own focus.
                 return;
             }
-            if (mFocusOwners.contains(appType)) {
-                mFocusOwners.remove(appType);
-                mActiveAppTypes.remove(appType);
-                info.removeOwnedAppType(appType);
-                if (DBG) {
-                    Log.i(CarLog.TAG_APP_FOCUS, "abandoning focus " + appType + "," + info);
-                }
-                for (FocusOwnershipCallback ownershipCallback : mFocusOwnershipCallbacks) {
-                    ownershipCallback.onFocusAbandoned(appType, info.mUid, info.mPid);
-                }
-                for (BinderInterfaceContainer.BinderInterface<IAppFocusListener> client :
-                        mAllChangeClients.getInterfaces()) {
-                    ClientInfo clientInfo = (ClientInfo) client;
-                    if (clientInfo.getAppTypes().contains(appType)) {
-                        mDispatchHandler.requestAppFocusChangeDispatch(clientInfo.binderInterface,
-                                appType, false);
-                    }
-                }
+            if (!mFocusOwners.contains(appType)) {
+                return;
             }
+            mFocusOwners.remove(appType);
+            mActiveAppTypes.remove(appType);
+            info.removeOwnedAppType(appType);
+            if (DBG) {
+                Log.i(CarLog.TAG_APP_FOCUS, "abandoning focus " + appType + "," + info);
+            }
+            dispatchAppFocusChangeLocked(appType, false);
+            focusOwnershipCallbacks = new ArrayList<>(mFocusOwnershipCallbacks);
+        }
+        // In-process callbacks are called without holding mLock.
+        for (int i = 0; i < focusOwnershipCallbacks.size(); i++) {
+            focusOwnershipCallbacks.get(i).onFocusAbandoned(appType, info.mUid, info.mPid);
         }
     }
 
@@ -246,6 +252,7 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
             mAllChangeClients.clear();
             mAllOwnershipClients.clear();
             mFocusOwners.clear();
+            mListenersByAppType.clear();
             mActiveAppTypes.clear();
         }
     }
@@ -254,10 +261,14 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
     public void onBinderDeath(
             BinderInterfaceContainer.BinderInterface<IAppFocusOwnershipCallback> bInterface) {
         OwnershipClientInfo info = (OwnershipClientInfo) bInterface;
+        Integer[] ownedAppTypes;
         synchronized (mLock) {
-            for (Integer appType : info.getOwnedAppTypes()) {
-                abandonAppFocus(bInterface.binderInterface, appType);
-            }
+            Set<Integer> appTypes = info.getOwnedAppTypes();
+            ownedAppTypes = appTypes.toArray(new Integer[appTypes.size()]);
+        }
+        // Not holding mLock, so the FocusOwnershipCallbacks are called without it.
+        for (Integer appType : ownedAppTypes) {
+            abandonAppFocus(bInterface.binderInterface, appType);
         }
     }
 
@@ -336,6 +347,32 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
         });
     }
 
+    @GuardedBy("mLock")
+    private void removeListenerLocked(ClientInfo info, int appType) {
+        ArraySet<ClientInfo> listeners = mListenersByAppType.get(appType);
+        if (listeners == null) {
+            return;
+        }
+        listeners.remove(info);
+        if (listeners.isEmpty()) {
+            mListenersByAppType.remove(appType);
+        }
+    }
+
+    /** Posts a single message notifying all the listeners of the given app type. */
+    @GuardedBy("mLock")
+    private void dispatchAppFocusChangeLocked(int appType, boolean active) {
+        ArraySet<ClientInfo> listeners = mListenersByAppType.get(appType);
+        if (listeners == null) {
+            return;
+        }
+        IAppFocusListener[] binders = new IAppFocusListener[listeners.size()];
+        for (int i = 0; i < binders.length; i++) {
+            binders[i] = listeners.valueAt(i).binderInterface;
+        }
+        mDispatchHandler.requestAppFocusChangeDispatch(binders, appType, active);
+    }
+
     private void dispatchAppFocusOwnershipLoss(IAppFocusOwnershipCallback callback, int appType) {
         try {
             callback.onAppFocusOwnershipLost(appType);
@@ -350,10 +387,13 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
         }
     }
 
-    private void dispatchAppFocusChange(IAppFocusListener listener, int appType, boolean active) {
-        try {
-            listener.onAppFocusChanged(appType, active);
-        } catch (RemoteException e) {
+    private void dispatchAppFocusChange(IAppFocusListener[] listeners, int appType,
+            boolean active) {
+        for (IAppFocusListener listener : listeners) {
+            try {
+                listener.onAppFocusChanged(appType, active);
+            } catch (RemoteException e) {
+            }
         }
     }
 
@@ -500,10 +540,10 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
             sendMessage(msg);
         }
 
-        private void requestAppFocusChangeDispatch(IAppFocusListener listener, int appType,
+        private void requestAppFocusChangeDispatch(IAppFocusListener[] listeners, int appType,
                 boolean active) {
             Message msg = obtainMessage(MSG_DISPATCH_FOCUS_CHANGE, appType, active ? 1 : 0,
-                    listener);
+                    listeners);
             sendMessage(msg);
         }
 
@@ -524,7 +564,7 @@ public class AppFocusService extends IAppFocus.Stub implements CarServiceBase,
                             msg.arg1);
                     break;
                 case MSG_DISPATCH_FOCUS_CHANGE:
-                    service.dispatchAppFocusChange((IAppFocusListener) msg.obj, msg.arg1,
+                    service.dispatchAppFocusChange((IAppFocusListener[]) msg.obj, msg.arg1,
                             msg.arg2 == 1);
                     break;
                 default:
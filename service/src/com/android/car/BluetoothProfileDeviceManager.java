@@ -41,6 +41,7 @@ import android.os.Looper;
 import android.os.ParcelUuid;
 import android.os.Parcelable;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.provider.Settings;
 import android.util.Log;
@@ -71,20 +72,24 @@ public class BluetoothProfileDeviceManager {
     private static final String SETTINGS_DELIMITER = ",";
 
     private static final int AUTO_CONNECT_TIMEOUT_MS = 8000;
-    private static final Object AUTO_CONNECT_TOKEN = new Object();
+    // Number of devices from the priority list with a connection attempt in flight at once. Absent
+    // devices then only delay the devices behind them by their failure or timeout in parallel.
+    private static final int AUTO_CONNECT_PARALLELISM = 3;
 
     private static class BluetoothProfileInfo {
         final String mSettingsKey;
         final String mConnectionAction;
         final ParcelUuid[] mUuids;
         final int[] mProfileTriggers;
+        final boolean mSingleConnection;
 
         private BluetoothProfileInfo(String action, String settingsKey, ParcelUuid[] uuids,
-                int[] profileTriggers) {
+                int[] profileTriggers, boolean singleConnection) {
             mSettingsKey = settingsKey;
             mConnectionAction = action;
             mUuids = uuids;
             mProfileTriggers = profileTriggers;
+            mSingleConnection = singleConnection;
         }
     }
 
@@ -94,28 +99,29 @@ public class BluetoothProfileDeviceManager {
                 new BluetoothProfileInfo(BluetoothA2dpSink.ACTION_CONNECTION_STATE_CHANGED,
                         KEY_BLUETOOTH_A2DP_SINK_DEVICES, new ParcelUuid[] {
                             BluetoothUuid.A2DP_SOURCE
-                        }, new int[] {}));
+                        }, new int[] {}, /* singleConnection= */ true));
         sProfileActions.put(BluetoothProfile.HEADSET_CLIENT,
                 new BluetoothProfileInfo(BluetoothHeadsetClient.ACTION_CONNECTION_STATE_CHANGED,
                         KEY_BLUETOOTH_HFP_CLIENT_DEVICES, new ParcelUuid[] {
                             BluetoothUuid.HFP_AG,
                             BluetoothUuid.HSP_AG
-                        }, new int[] {BluetoothProfile.MAP_CLIENT, BluetoothProfile.PBAP_CLIENT}));
+                        }, new int[] {BluetoothProfile.MAP_CLIENT, BluetoothProfile.PBAP_CLIENT},
+                        /* singleConnection= */ false));
         sProfileActions.put(BluetoothProfile.MAP_CLIENT,
                 new BluetoothProfileInfo(BluetoothMapClient.ACTION_CONNECTION_STATE_CHANGED,
                         KEY_BLUETOOTH_MAP_CLIENT_DEVICES, new ParcelUuid[] {
                             BluetoothUuid.MAS
-                        }, new int[] {}));
+                        }, new int[] {}, /* singleConnection= */ false));
         sProfileActions.put(BluetoothProfile.PAN,
                 new BluetoothProfileInfo(BluetoothPan.ACTION_CONNECTION_STATE_CHANGED,
                         KEY_BLUETOOTH_PAN_DEVICES, new ParcelUuid[] {
                             BluetoothUuid.PANU
-                        }, new int[] {}));
+                        }, new int[] {}, /* singleConnection= */ true));
         sProfileActions.put(BluetoothProfile.PBAP_CLIENT,
                 new BluetoothProfileInfo(BluetoothPbapClient.ACTION_CONNECTION_STATE_CHANGED,
                         KEY_BLUETOOTH_PBAP_CLIENT_DEVICES, new ParcelUuid[] {
                             BluetoothUuid.PBAP_PSE
-                        }, new int[] {}));
+                        }, new int[] {}, /* singleConnection= */ false));
     }
 
     // Fixed per-profile information for the profile this object manages
@@ -124,6 +130,7 @@ public class BluetoothProfileDeviceManager {
     private final String mProfileConnectionAction;
     private final ParcelUuid[] mProfileUuids;
     private final int[] mProfileTriggers;
+    private final boolean mSingleConnection;
 
     // Central priority list of devices
     private final Object mPrioritizedDevicesLock = new Object();
@@ -138,6 +145,19 @@ public class BluetoothProfileDeviceManager {
     private int mAutoConnectPriority;
     @GuardedBy("mAutoConnectLock")
     private ArrayList<BluetoothDevice> mAutoConnectingDevices;
+    // Devices from mAutoConnectingDevices with a connection attempt in flight, in priority order.
+    // The instances are also used as the tokens of their connection timeouts.
+    @GuardedBy("mAutoConnectLock")
+    private final ArrayList<BluetoothDevice> mAutoConnectInFlightDevices = new ArrayList<>();
+    // For single connection profiles, the device from mAutoConnectInFlightDevices which connected
+    // while attempts for higher priority devices are still in flight, or null.
+    @GuardedBy("mAutoConnectLock")
+    private BluetoothDevice mAutoConnectedCandidate;
+    @GuardedBy("mAutoConnectLock")
+    private long mAutoConnectStartTimeMs;
+    @GuardedBy("mAutoConnectLock")
+    private boolean mAutoConnectedAnyDevice;
+    private final LatencyHistogram mTimeToConnectedMs = new LatencyHistogram("ms");
 
     private final BluetoothAdapter mBluetoothAdapter;
     private final BluetoothBroadcastReceiver mBluetoothBroadcastReceiver;
@@ -177,9 +197,12 @@ public class BluetoothProfileDeviceManager {
      * Handles an incoming Profile-Device connection event.
      *
      * On <BluetoothProfile>.ACTION_CONNECTION_STATE_CHANGED coming from the BroadcastReceiver:
-     *    On connected, if we're auto connecting and this is the current device we're managing, then
-     *    see if we can move on to the next device in the list. Otherwise, If the device connected
-     *    then add it to our priority list if it's not on their already.
+     *    On connected, if we're auto connecting and this is one of the devices we're currently
+     *    connecting, then see if we can move on to the next device in the list. Otherwise, If the
+     *    device connected then add it to our priority list if it's not on their already.
+     *
+     *    On disconnected, if we're auto connecting and this is one of the devices we're currently
+     *    connecting, then the attempt failed and we can move on without waiting for the timeout.
      *
      *    On disconnected, if the device that disconnected also has had its profile priority set to
      *    PRIORITY_OFF, then remove it from our list.
@@ -192,13 +215,17 @@ public class BluetoothProfileDeviceManager {
                         + Utils.getConnectionStateName(state) + "]");
         if (state == BluetoothProfile.STATE_CONNECTED) {
             if (isAutoConnecting() && isAutoConnectingDevice(device)) {
-                continueAutoConnecting();
+                finishAutoConnectAttempt(device, /* connected= */ true);
             } else {
                 if (getProfilePriority(device) >= BluetoothProfile.PRIORITY_ON) {
                     addDevice(device); // No-op if device is in the list.
                 }
                 triggerConnections(device);
             }
+        } else if (state == BluetoothProfile.STATE_DISCONNECTED) {
+            if (isAutoConnecting() && isAutoConnectingDevice(device)) {
+                finishAutoConnectAttempt(device, /* connected= */ false);
+            }
         }
         // NOTE: We wanted check on disconnect if a device is priority off and use that as an
         // indicator to remove a device from the list, but priority reporting can be flaky and
@@ -328,6 +355,7 @@ public class BluetoothProfileDeviceManager {
         mProfileConnectionAction = bpi.mConnectionAction;
         mProfileUuids = bpi.mUuids;
         mProfileTriggers = bpi.mProfileTriggers;
+        mSingleConnection = bpi.mSingleConnection;
 
         mBluetoothBroadcastReceiver = new BluetoothBroadcastReceiver();
         mBluetoothAdapter = Objects.requireNonNull(BluetoothAdapter.getDefaultAdapter());
@@ -343,6 +371,8 @@ public class BluetoothProfileDeviceManager {
             mConnecting = false;
             mAutoConnectPriority = -1;
             mAutoConnectingDevices = null;
+            mAutoConnectInFlightDevices.clear();
+            mAutoConnectedCandidate = null;
         }
 
         IntentFilter profileFilter = new IntentFilter();
@@ -606,8 +636,12 @@ public class BluetoothProfileDeviceManager {
     }
 
     /**
-     * Begins the process of connecting to devices, one by one, in the order that the priority
-     * list currently specifies.
+     * Begins the process of connecting to devices in the order that the priority list currently
+     * specifies.
+     *
+     * Up to {@link #AUTO_CONNECT_PARALLELISM} devices have a connection attempt in flight at once,
+     * so absent devices near the top of the list don't hold up the devices behind them for a full
+     * timeout each. Connection attempts are still issued in priority order.
      *
      * If we are already connecting, or no devices are present, then no work is done.
      */
@@ -630,13 +664,15 @@ public class BluetoothProfileDeviceManager {
             }
             mConnecting = true;
             mAutoConnectPriority = 0;
+            mAutoConnectStartTimeMs = SystemClock.elapsedRealtime();
+            mAutoConnectedAnyDevice = false;
         }
         autoConnectWithTimeout();
     }
 
     /**
-     * Connects the current priority device and sets a timeout timer to indicate when to give up and
-     * move on to the next one.
+     * Connects the next priority devices until the in flight window is full, setting a timeout
+     * timer for each to indicate when to give up on it.
      */
     private void autoConnectWithTimeout() {
         synchronized (mAutoConnectLock) {
@@ -644,49 +680,122 @@ public class BluetoothProfileDeviceManager {
                 logd("Autoconnect process was cancelled, skipping connecting next device.");
                 return;
             }
-            if (mAutoConnectPriority < 0 || mAutoConnectPriority >= mAutoConnectingDevices.size()) {
-                return;
+            // Devices left in the list have a lower priority than a connected candidate.
+            while (mAutoConnectedCandidate == null
+                    && mAutoConnectInFlightDevices.size() < AUTO_CONNECT_PARALLELISM
+                    && mAutoConnectPriority >= 0
+                    && mAutoConnectPriority < mAutoConnectingDevices.size()) {
+                BluetoothDevice device = mAutoConnectingDevices.get(mAutoConnectPriority);
+                logd("Auto connecting (" + mAutoConnectPriority + ") device: " + device);
+                mAutoConnectPriority++;
+                mAutoConnectInFlightDevices.add(device);
+
+                mHandler.post(() -> {
+                    boolean connectStatus = connect(device);
+                    if (!connectStatus) {
+                        logw("Connection attempt immediately failed, moving to the next device");
+                        finishAutoConnectAttempt(device, /* connected= */ false);
+                    }
+                });
+                mHandler.postDelayed(() -> {
+                    logw("Auto connect process has timed out connecting to " + device);
+                    finishAutoConnectAttempt(device, /* connected= */ false);
+                }, device, AUTO_CONNECT_TIMEOUT_MS);
+            }
+            if (mAutoConnectInFlightDevices.isEmpty()) {
+                logd("No more devices to connect to");
+                cancelAutoConnecting();
             }
-
-            BluetoothDevice device = mAutoConnectingDevices.get(mAutoConnectPriority);
-            logd("Auto connecting (" + mAutoConnectPriority + ") device: " + device);
-
-            mHandler.post(() -> {
-                boolean connectStatus = connect(device);
-                if (!connectStatus) {
-                    logw("Connection attempt immediately failed, moving to the next device");
-                    continueAutoConnecting();
-                }
-            });
-            mHandler.postDelayed(() -> {
-                logw("Auto connect process has timed out connecting to " + device);
-                continueAutoConnecting();
-            }, AUTO_CONNECT_TOKEN, AUTO_CONNECT_TIMEOUT_MS);
         }
     }
 
     /**
-     * Will forcibly move the auto connect process to the next device, or finish it if no more
-     * devices are available.
+     * Ends the connection attempt for an auto connecting device and moves the auto connect process
+     * on to the next device, or finishes it if no more devices are available.
+     *
+     * For profiles which only support a single connected device, a device which connects is only
+     * kept once no attempt for a higher priority device is in flight. Until then it is the
+     * candidate: a higher priority device connecting replaces it, and lower priority devices
+     * connecting are disconnected. Once the candidate is kept, the process ends and the attempts
+     * still in flight, all for lower priority devices, are abandoned.
+     *
+     * @param device - The device whose connection attempt ended
+     * @param connected - true if the device connected, false if the attempt failed or timed out
      */
-    private void continueAutoConnecting() {
-        logd("Continue auto-connect process on next device");
+    private void finishAutoConnectAttempt(BluetoothDevice device, boolean connected) {
+        logd("Auto connect attempt for " + device + " ended, connected: " + connected);
         synchronized (mAutoConnectLock) {
             if (!isAutoConnecting()) {
                 logd("Autoconnect process was cancelled, no need to continue.");
                 return;
             }
-            mHandler.removeCallbacksAndMessages(AUTO_CONNECT_TOKEN);
-            mAutoConnectPriority++;
-            if (mAutoConnectPriority >= mAutoConnectingDevices.size()) {
-                logd("No more devices to connect to");
+            int index = mAutoConnectInFlightDevices.indexOf(device);
+            if (index < 0) {
+                return;
+            }
+            if (connected && device.equals(mAutoConnectedCandidate)) {
+                logd("Candidate " + device + " is already connected");
+                return;
+            }
+            mHandler.removeCallbacksAndMessages(mAutoConnectInFlightDevices.get(index));
+            if (connected && !mAutoConnectedAnyDevice) {
+                mAutoConnectedAnyDevice = true;
+                mTimeToConnectedMs.record(
+                        SystemClock.elapsedRealtime() - mAutoConnectStartTimeMs);
+            }
+            if (!connected || !mSingleConnection) {
+                mAutoConnectInFlightDevices.remove(index);
+                if (device.equals(mAutoConnectedCandidate)) {
+                    // The candidate disconnected before being kept.
+                    mAutoConnectedCandidate = null;
+                }
+            } else if (mAutoConnectedCandidate == null
+                    || index < mAutoConnectInFlightDevices.indexOf(mAutoConnectedCandidate)) {
+                if (mAutoConnectedCandidate != null) {
+                    abandonAutoConnectAttemptLocked(mAutoConnectedCandidate);
+                }
+                mAutoConnectedCandidate = device;
+            } else {
+                abandonAutoConnectAttemptLocked(device);
+            }
+            int candidateIndex = mAutoConnectedCandidate == null ? -1
+                    : mAutoConnectInFlightDevices.indexOf(mAutoConnectedCandidate);
+            if (mAutoConnectedCandidate != null && candidateIndex < 0) {
+                logw("Candidate " + mAutoConnectedCandidate + " is not in flight anymore");
+                mAutoConnectedCandidate = null;
+            }
+            if (mAutoConnectedCandidate != null) {
+                if (candidateIndex > 0) {
+                    logd("Waiting for higher priority devices before keeping "
+                            + mAutoConnectedCandidate);
+                    return;
+                }
+                // No higher priority attempt is in flight, the candidate is kept.
+                mAutoConnectInFlightDevices.remove(candidateIndex);
+                ArrayList<BluetoothDevice> abandoned =
+                        new ArrayList<>(mAutoConnectInFlightDevices);
                 cancelAutoConnecting();
+                for (int i = 0; i < abandoned.size(); i++) {
+                    abandonAutoConnectAttemptLocked(abandoned.get(i));
+                }
                 return;
             }
         }
         autoConnectWithTimeout();
     }
 
+    /**
+     * Removes an in flight device from the auto connect process and disconnects it, in case its
+     * connection attempt still succeeds or already did.
+     */
+    @GuardedBy("mAutoConnectLock")
+    private void abandonAutoConnectAttemptLocked(BluetoothDevice device) {
+        logd("Abandoning connection attempt for " + device);
+        mHandler.removeCallbacksAndMessages(device);
+        mAutoConnectInFlightDevices.remove(device);
+        mHandler.post(() -> disconnect(device));
+    }
+
     /**
      * Cancels the auto-connection process. Any in-flight connection attempts will still be tried.
      *
@@ -700,7 +809,11 @@ public class BluetoothProfileDeviceManager {
         logd("Cleaning up any auto-connect process");
         synchronized (mAutoConnectLock) {
             if (!isAutoConnecting()) return;
-            mHandler.removeCallbacksAndMessages(AUTO_CONNECT_TOKEN);
+            for (int i = 0; i < mAutoConnectInFlightDevices.size(); i++) {
+                mHandler.removeCallbacksAndMessages(mAutoConnectInFlightDevices.get(i));
+            }
+            mAutoConnectInFlightDevices.clear();
+            mAutoConnectedCandidate = null;
             mConnecting = false;
             mAutoConnectPriority = -1;
             mAutoConnectingDevices = null;
@@ -719,15 +832,14 @@ public class BluetoothProfileDeviceManager {
     }
 
     /**
-     * Determine if a device is the currently auto-connecting device
+     * Determine if a device is one of the currently auto-connecting devices
      *
      * @param device - A BluetoothDevice object to compare against any know auto connecting device
-     * @return true if the input device is the device we're currently connecting, false otherwise
+     * @return true if the input device is a device we're currently connecting, false otherwise
      */
     private boolean isAutoConnectingDevice(BluetoothDevice device) {
         synchronized (mAutoConnectLock) {
-            if (mAutoConnectingDevices == null) return false;
-            return mAutoConnectingDevices.get(mAutoConnectPriority).equals(device);
+            return mAutoConnectInFlightDevices.contains(device);
         }
     }
 
@@ -805,6 +917,7 @@ public class BluetoothProfileDeviceManager {
         writer.println(indent + "\tUser Proxies Exist: "
                 + (mBluetoothUserProxies != null ? "Yes" : "No"));
         writer.println(indent + "\tAuto-Connecting: " + (isAutoConnecting() ? "Yes" : "No"));
+        mTimeToConnectedMs.dump(indent + "\t", "Auto-Connect Time To Connected", writer);
         writer.println(indent + "\tPriority List:");
         ArrayList<BluetoothDevice> devices = getDeviceListSnapshot();
         for (BluetoothDevice device : devices) {
@@ -38,19 +38,22 @@ import android.os.Process;
 import android.os.RemoteException;
 import android.os.SystemClock;
 import android.os.SystemProperties;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.Slog;
 
 import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.BufferedReader;
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -83,8 +86,22 @@ public class CarBugreportManagerService extends ICarBugreportService.Stub implem
     private static final String BUGREPORT_OUTPUT_SOCKET = "car_br_output_socket";
     private static final String BUGREPORT_EXTRA_OUTPUT_SOCKET = "car_br_extra_output_socket";
 
-    private static final int SOCKET_CONNECTION_MAX_RETRY = 10;
-    private static final int SOCKET_CONNECTION_RETRY_DELAY_IN_MS = 5000;
+    // There are a few factors impacting the socket delay:
+    // 1. potential system slowness
+    // 2. car-bugreportd takes the screenshots early (before starting dumpstate). This should be
+    //    taken into account as the socket opens after screenshots are captured.
+    // Therefore we are generous in setting the timeout. Most cases should not even come close to
+    // the timeout, but since bugreports are taken when there is a system issue, it is hard to
+    // guess.
+    private static final long SOCKET_CONNECTION_TIMEOUT_MS = 50_000;
+    // Delay between connection attempts, while init has not created the socket or the service
+    // has not started listening yet. Doubled after each attempt.
+    private static final long SOCKET_CONNECTION_MIN_RETRY_DELAY_MS = 50;
+    private static final long SOCKET_CONNECTION_MAX_RETRY_DELAY_MS = 1000;
+    // How often a wait checks whether the bugreport was cancelled.
+    private static final long CANCELLATION_CHECK_INTERVAL_MS = 200;
+
+    private static final int TRANSFER_BUFFER_SIZE = 256 * 1024;
 
     private final Context mContext;
     private final Object mLock = new Object();
@@ -94,6 +111,16 @@ public class CarBugreportManagerService extends ICarBugreportService.Stub implem
     private final Handler mHandler = new Handler(mHandlerThread.getLooper());
     private final AtomicBoolean mIsServiceRunning = new AtomicBoolean(false);
 
+    // Connection and transfer statistics of the last bugreport, keyed by socket name.
+    @GuardedBy("mLock")
+    private final ArrayMap<String, SocketStats> mSocketStats = new ArrayMap<>();
+
+    private static final class SocketStats {
+        long mConnectionWaitMs = -1;
+        long mTransferredBytes = -1;
+        long mTransferDurationMs;
+    }
+
     /**
      * Create a CarBugreportManagerService instance.
      *
@@ -197,6 +224,7 @@ public class CarBugreportManagerService extends ICarBugreportService.Stub implem
     private void requestBugReportLocked(ParcelFileDescriptor output,
             ParcelFileDescriptor extraOutput, ICarBugreportCallback callback) {
         Slog.i(TAG, "Starting " + BUGREPORTD_SERVICE);
+        mSocketStats.clear();
         try {
             // This tells init to start the service. Note that this is achieved through
             // setting a system property which is not thread-safe. So the lock here offers
@@ -310,20 +338,66 @@ public class CarBugreportManagerService extends ICarBugreportService.Stub implem
             return false;
         }
 
-        try (
-            DataInputStream in = new DataInputStream(localSocket.getInputStream());
-            DataOutputStream out =
-                    new DataOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(pfd))
-        ) {
-            rawCopyStream(out, in);
+        long startMs = SystemClock.elapsedRealtime();
+        try (LocalSocket in = localSocket; ParcelFileDescriptor out = pfd) {
+            long bytes = transferSocketToFd(in, out.getFileDescriptor());
+            long durationMs = SystemClock.elapsedRealtime() - startMs;
+            Slog.i(TAG, "Copied " + bytes + " bytes from " + remoteSocket + " in " + durationMs
+                    + "ms (" + getThroughputKibPerSec(bytes, durationMs) + " KiB/s)");
+            synchronized (mLock) {
+                SocketStats stats = getSocketStatsLocked(remoteSocket);
+                stats.mTransferredBytes = bytes;
+                stats.mTransferDurationMs = durationMs;
+            }
         } catch (IOException | RuntimeException e) {
-            Slog.e(TAG, "Failed to grab dump state from " + BUGREPORT_OUTPUT_SOCKET, e);
+            Slog.e(TAG, "Failed to grab dump state from " + remoteSocket, e);
             reportError(callback, CAR_BUGREPORT_DUMPSTATE_FAILED);
             return false;
         }
         return true;
     }
 
+    /**
+     * Copies what the peer of {@code in} sends into {@code out}, until the peer closes the
+     * connection.
+     *
+     * <p>The data goes through a direct buffer, so it is not copied to and from the Java heap.
+     *
+     * @return the number of bytes copied
+     */
+    @VisibleForTesting
+    static long transferSocketToFd(@NonNull LocalSocket in, @NonNull FileDescriptor out)
+            throws IOException {
+        // Closing these channels does not close the descriptors, which belong to the caller.
+        try (FileChannel source = new FileInputStream(in.getFileDescriptor()).getChannel();
+                FileChannel sink = new FileOutputStream(out).getChannel()) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(TRANSFER_BUFFER_SIZE);
+            long total = 0;
+            while (source.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    total += sink.write(buffer);
+                }
+                buffer.clear();
+            }
+            return total;
+        }
+    }
+
+    private static long getThroughputKibPerSec(long bytes, long durationMs) {
+        return bytes * 1000 / Math.max(durationMs, 1) / 1024;
+    }
+
+    @GuardedBy("mLock")
+    private SocketStats getSocketStatsLocked(String socketName) {
+        SocketStats stats = mSocketStats.get(socketName);
+        if (stats == null) {
+            stats = new SocketStats();
+            mSocketStats.put(socketName, stats);
+        }
+        return stats;
+    }
+
     private void reportError(ICarBugreportCallback callback, int errorCode) {
         try {
             callback.onError(errorCode);
@@ -334,58 +408,108 @@ public class CarBugreportManagerService extends ICarBugreportService.Stub implem
 
     @Override
     public void dump(PrintWriter writer) {
-        // TODO(sgurun) implement
+        writer.println("*CarBugreportManagerService*");
+        writer.println("  running: " + mIsServiceRunning.get());
+        synchronized (mLock) {
+            writer.println("  last bugreport sockets:");
+            for (int i = 0; i < mSocketStats.size(); i++) {
+                SocketStats stats = mSocketStats.valueAt(i);
+                writer.printf("    %s: connected after %dms", mSocketStats.keyAt(i),
+                        stats.mConnectionWaitMs);
+                if (stats.mTransferredBytes >= 0) {
+                    writer.printf(", %d bytes in %dms (%d KiB/s)", stats.mTransferredBytes,
+                            stats.mTransferDurationMs,
+                            getThroughputKibPerSec(stats.mTransferredBytes,
+                                    stats.mTransferDurationMs));
+                }
+                writer.println();
+            }
+        }
     }
 
     @Nullable
     private LocalSocket connectSocket(@NonNull String socketName) {
-        LocalSocket socket = new LocalSocket();
-        // The dumpstate socket will be created by init upon receiving the
-        // service request. It may not be ready by this point. So we will
-        // keep retrying until success or reaching timeout.
-        int retryCount = 0;
-        while (true) {
-            // There are a few factors impacting the socket delay:
-            // 1. potential system slowness
-            // 2. car-bugreportd takes the screenshots early (before starting dumpstate). This
-            //    should be taken into account as the socket opens after screenshots are
-            //    captured.
-            // Therefore we are generous in setting the timeout. Most cases should not even
-            // come close to the timeouts, but since bugreports are taken when there is a
-            // system issue, it is hard to guess.
-            // The following lines waits for SOCKET_CONNECTION_RETRY_DELAY_IN_MS or until
-            // mIsServiceRunning becomes false.
-            for (int i = 0; i < SOCKET_CONNECTION_RETRY_DELAY_IN_MS / 50; i++) {
-                if (!mIsServiceRunning.get()) {
-                    Slog.i(TAG, "Failed to connect to socket " + socketName
-                            + ". The service is prematurely cancelled.");
-                    return null;
-                }
-                SystemClock.sleep(50);  // Millis.
+        long startMs = SystemClock.elapsedRealtime();
+        // The dumpstate socket will be created by init upon receiving the service request. It
+        // may not be ready by this point, so connection attempts are retried until it is.
+        LocalSocket socket = connectWithRetries(new LocalSocketAddress(socketName,
+                LocalSocketAddress.Namespace.RESERVED), startMs + SOCKET_CONNECTION_TIMEOUT_MS,
+                mIsServiceRunning);
+        if (socket != null) {
+            synchronized (mLock) {
+                getSocketStatsLocked(socketName).mConnectionWaitMs =
+                        SystemClock.elapsedRealtime() - startMs;
             }
+        }
+        return socket;
+    }
 
+    /**
+     * Connects to {@code address}, retrying with a delay doubling from
+     * {@link #SOCKET_CONNECTION_MIN_RETRY_DELAY_MS} up to
+     * {@link #SOCKET_CONNECTION_MAX_RETRY_DELAY_MS}, until {@code deadlineMs} passes or
+     * {@code running} becomes false.
+     *
+     * <p>Connecting is the only readiness check: the car service is allowed to connect to the
+     * dumpstate sockets, but not to look them up in {@code /dev/socket}.
+     *
+     * @return the connected socket, or {@code null}
+     */
+    @VisibleForTesting
+    @Nullable
+    static LocalSocket connectWithRetries(@NonNull LocalSocketAddress address, long deadlineMs,
+            @NonNull AtomicBoolean running) {
+        long startMs = SystemClock.elapsedRealtime();
+        String socketName = address.getName();
+        LocalSocket socket = new LocalSocket();
+        long retryDelayMs = SOCKET_CONNECTION_MIN_RETRY_DELAY_MS;
+        int attempts = 0;
+        while (true) {
+            attempts++;
             try {
-                socket.connect(new LocalSocketAddress(socketName,
-                        LocalSocketAddress.Namespace.RESERVED));
+                socket.connect(address);
+                Slog.i(TAG, "Connected to " + socketName + " after "
+                        + (SystemClock.elapsedRealtime() - startMs) + "ms, " + attempts
+                        + " attempts");
                 return socket;
             } catch (IOException e) {
-                if (++retryCount >= SOCKET_CONNECTION_MAX_RETRY) {
+                if (SystemClock.elapsedRealtime() + retryDelayMs >= deadlineMs) {
                     Slog.i(TAG, "Failed to connect to dumpstate socket " + socketName
-                            + " after " + retryCount + " retries", e);
+                            + " after " + attempts + " attempts", e);
+                    closeSocket(socket);
                     return null;
                 }
                 Log.i(TAG, "Failed to connect to " + socketName + ". Will try again. "
                         + e.getMessage());
             }
+            if (!sleepUnlessCancelled(retryDelayMs, running)) {
+                Slog.i(TAG, "Failed to connect to socket " + socketName
+                        + ". The service is prematurely cancelled.");
+                closeSocket(socket);
+                return null;
+            }
+            retryDelayMs = Math.min(retryDelayMs * 2, SOCKET_CONNECTION_MAX_RETRY_DELAY_MS);
         }
     }
 
-    // does not close the reader or writer.
-    private static void rawCopyStream(OutputStream writer, InputStream reader) throws IOException {
-        int read;
-        byte[] buf = new byte[8192];
-        while ((read = reader.read(buf, 0, buf.length)) > 0) {
-            writer.write(buf, 0, read);
+    /** Returns {@code false} if the bugreport was cancelled before the delay elapsed. */
+    private static boolean sleepUnlessCancelled(long delayMs, @NonNull AtomicBoolean running) {
+        long deadlineMs = SystemClock.elapsedRealtime() + delayMs;
+        long remainingMs;
+        while ((remainingMs = deadlineMs - SystemClock.elapsedRealtime()) > 0) {
+            if (!running.get()) {
+                return false;
+            }
+            SystemClock.sleep(Math.min(remainingMs, CANCELLATION_CHECK_INTERVAL_MS));
+        }
+        return running.get();
+    }
+
+    private static void closeSocket(LocalSocket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            Slog.w(TAG, "Failed to close socket", e);
         }
     }
 }
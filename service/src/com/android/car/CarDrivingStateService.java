@@ -26,7 +26,6 @@ import android.car.drivingstate.ICarDrivingStateChangeListener;
 import android.car.hardware.CarPropertyConfig;
 import android.car.hardware.CarPropertyValue;
 import android.car.hardware.property.CarPropertyEvent;
-import android.car.hardware.property.ICarPropertyEventListener;
 import android.content.Context;
 import android.hardware.automotive.vehicle.V2_0.VehicleGear;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
@@ -37,6 +36,7 @@ import android.os.RemoteException;
 import android.os.SystemClock;
 import android.util.Log;
 
+import com.android.car.hal.PropertyHalService.InternalPropertyListener;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
@@ -122,7 +122,7 @@ public class CarDrivingStateService extends ICarDrivingState.Stub implements Car
     @Override
     public void release() {
         for (int property : REQUIRED_PROPERTIES) {
-            mPropertyService.unregisterListener(property, mICarPropertyEventListener);
+            mPropertyService.unregisterInternalListener(property, mPropertyListener);
         }
         while (mDrivingStateClients.getRegisteredCallbackCount() > 0) {
             for (int i = mDrivingStateClients.getRegisteredCallbackCount() - 1; i >= 0; i--) {
@@ -165,8 +165,8 @@ public class CarDrivingStateService extends ICarDrivingState.Stub implements Car
      */
     private void subscribeToProperties() {
         for (int propertyId : REQUIRED_PROPERTIES) {
-            mPropertyService.registerListener(propertyId, PROPERTY_UPDATE_RATE,
-                    mICarPropertyEventListener);
+            mPropertyService.registerInternalListener(propertyId, PROPERTY_UPDATE_RATE,
+                    mPropertyListener);
         }
 
     }
@@ -266,20 +266,35 @@ public class CarDrivingStateService extends ICarDrivingState.Stub implements Car
     }
 
     /**
-     * {@link CarPropertyEvent} listener registered with the {@link CarPropertyService} for getting
-     * property change notifications.
+     * In-process listener registered with the {@link CarPropertyService} for getting property
+     * change notifications.
      */
-    private final ICarPropertyEventListener mICarPropertyEventListener =
-            new ICarPropertyEventListener.Stub() {
-                @Override
-                public void onEvent(List<CarPropertyEvent> events) throws RemoteException {
-                    synchronized (mLock) {
-                        for (CarPropertyEvent event : events) {
-                            handlePropertyEventLocked(event);
-                        }
-                    }
-                }
-            };
+    private final InternalPropertyListener mPropertyListener = new InternalPropertyListener() {
+        @Override
+        public void onFloatPropertyChanged(int propId, int areaId, float value, long timestamp) {
+            synchronized (mLock) {
+                handleSpeedChangeLocked(value, timestamp);
+                updateDrivingStateLocked();
+            }
+        }
+
+        @Override
+        public void onIntPropertyChanged(int propId, int areaId, int value, long timestamp) {
+            synchronized (mLock) {
+                handleGearChangeLocked(value, timestamp);
+                updateDrivingStateLocked();
+            }
+        }
+
+        @Override
+        public void onBooleanPropertyChanged(int propId, int areaId, boolean value,
+                long timestamp) {
+            synchronized (mLock) {
+                handleParkingBrakeChangeLocked(value, timestamp);
+                updateDrivingStateLocked();
+            }
+        }
+    };
 
     /**
      * Handle events coming from {@link CarPropertyService}.  Compute the driving state, map it to
@@ -298,50 +313,66 @@ public class CarDrivingStateService extends ICarDrivingState.Stub implements Car
         }
         switch (propId) {
             case VehicleProperty.PERF_VEHICLE_SPEED:
-                float curSpeed = (Float) value.getValue();
-                if (DBG) {
-                    Log.d(TAG, "Speed: " + curSpeed + "@" + curTimestamp);
-                }
-                if (curTimestamp > mLastSpeedTimestamp) {
-                    mLastSpeedTimestamp = curTimestamp;
-                    mLastSpeed = curSpeed;
-                } else if (DBG) {
-                    Log.d(TAG, "Ignoring speed with older timestamp:" + curTimestamp);
-                }
+                handleSpeedChangeLocked((Float) value.getValue(), curTimestamp);
                 break;
             case VehicleProperty.GEAR_SELECTION:
-                if (mSupportedGears == null) {
-                    mSupportedGears = getSupportedGears();
-                }
-                int curGear = (Integer) value.getValue();
-                if (DBG) {
-                    Log.d(TAG, "Gear: " + curGear + "@" + curTimestamp);
-                }
-                if (curTimestamp > mLastGearTimestamp) {
-                    mLastGearTimestamp = curTimestamp;
-                    mLastGear = (Integer) value.getValue();
-                } else if (DBG) {
-                    Log.d(TAG, "Ignoring Gear with older timestamp:" + curTimestamp);
-                }
+                handleGearChangeLocked((Integer) value.getValue(), curTimestamp);
                 break;
             case VehicleProperty.PARKING_BRAKE_ON:
-                boolean curParkingBrake = (boolean) value.getValue();
-                if (DBG) {
-                    Log.d(TAG, "Parking Brake: " + curParkingBrake + "@" + curTimestamp);
-                }
-                if (curTimestamp > mLastParkingBrakeTimestamp) {
-                    mLastParkingBrakeTimestamp = curTimestamp;
-                    mLastParkingBrakeState = curParkingBrake;
-                } else if (DBG) {
-                    Log.d(TAG, "Ignoring Parking Brake status with an older timestamp:"
-                            + curTimestamp);
-                }
+                handleParkingBrakeChangeLocked((boolean) value.getValue(), curTimestamp);
                 break;
             default:
                 Log.e(TAG, "Received property event for unhandled propId=" + propId);
                 break;
         }
+        updateDrivingStateLocked();
+    }
+
+    @GuardedBy("mLock")
+    private void handleSpeedChangeLocked(float curSpeed, long curTimestamp) {
+        if (DBG) {
+            Log.d(TAG, "Speed: " + curSpeed + "@" + curTimestamp);
+        }
+        if (curTimestamp > mLastSpeedTimestamp) {
+            mLastSpeedTimestamp = curTimestamp;
+            mLastSpeed = curSpeed;
+        } else if (DBG) {
+            Log.d(TAG, "Ignoring speed with older timestamp:" + curTimestamp);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void handleGearChangeLocked(int curGear, long curTimestamp) {
+        if (mSupportedGears == null) {
+            mSupportedGears = getSupportedGears();
+        }
+        if (DBG) {
+            Log.d(TAG, "Gear: " + curGear + "@" + curTimestamp);
+        }
+        if (curTimestamp > mLastGearTimestamp) {
+            mLastGearTimestamp = curTimestamp;
+            mLastGear = curGear;
+        } else if (DBG) {
+            Log.d(TAG, "Ignoring Gear with older timestamp:" + curTimestamp);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void handleParkingBrakeChangeLocked(boolean curParkingBrake, long curTimestamp) {
+        if (DBG) {
+            Log.d(TAG, "Parking Brake: " + curParkingBrake + "@" + curTimestamp);
+        }
+        if (curTimestamp > mLastParkingBrakeTimestamp) {
+            mLastParkingBrakeTimestamp = curTimestamp;
+            mLastParkingBrakeState = curParkingBrake;
+        } else if (DBG) {
+            Log.d(TAG, "Ignoring Parking Brake status with an older timestamp:"
+                    + curTimestamp);
+        }
+    }
 
+    @GuardedBy("mLock")
+    private void updateDrivingStateLocked() {
         int drivingState = inferDrivingStateLocked();
         // Check if the driving state has changed.  If it has, update our records and
         // dispatch the new events to the listeners.
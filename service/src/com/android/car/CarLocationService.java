@@ -16,6 +16,7 @@
 
 package com.android.car;
 
+import android.annotation.Nullable;
 import android.app.ActivityManager;
 import android.car.ILocationManagerProxy;
 import android.car.IPerUserCarService;
@@ -38,10 +39,10 @@ import android.os.UserHandle;
 import android.os.UserManager;
 import android.util.AtomicFile;
 import android.util.JsonReader;
-import android.util.JsonWriter;
 import android.util.Log;
 
 import com.android.car.systeminterface.SystemInterface;
+import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.File;
@@ -50,9 +51,11 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.zip.CRC32;
 
 /**
  * This service stores the last known location from {@link LocationManager} when a car is parked
@@ -61,7 +64,9 @@ import java.util.concurrent.CompletableFuture;
 public class CarLocationService extends BroadcastReceiver implements CarServiceBase,
         CarPowerStateListenerWithCompletion {
     private static final String TAG = "CarLocationService";
-    private static final String FILENAME = "location_cache.json";
+    private static final String FILENAME = "location_cache.bin";
+    // The JSON file written by previous versions, read if there is no binary record.
+    private static final String LEGACY_JSON_FILENAME = "location_cache.json";
     // The accuracy for the stored timestamp
     private static final long GRANULARITY_ONE_DAY_MS = 24 * 60 * 60 * 1000L;
     // The time-to-live for the cached location
@@ -69,7 +74,28 @@ public class CarLocationService extends BroadcastReceiver implements CarServiceB
     // The maximum number of times to try injecting a location
     private static final int MAX_LOCATION_INJECTION_ATTEMPTS = 10;
 
-    // Constants for location serialization.
+    // Layout of the binary location record, in big-endian order:
+    // int magic, int version, int flags, long captureTime, double latitude, double longitude,
+    // double altitude, float speed, float bearing, float accuracy, float verticalAccuracy,
+    // float speedAccuracy, float bearingAccuracy, byte providerLength,
+    // byte[MAX_PROVIDER_LENGTH] provider (UTF-8, zero padded), long CRC32 of the preceding bytes.
+    private static final int RECORD_MAGIC = 0x434C4F43; // "CLOC"
+    private static final int RECORD_VERSION = 1;
+    private static final int MAX_PROVIDER_LENGTH = 32;
+    private static final int RECORD_PAYLOAD_SIZE = 3 * Integer.BYTES + Long.BYTES
+            + 3 * Double.BYTES + 6 * Float.BYTES + 1 + MAX_PROVIDER_LENGTH;
+    private static final int RECORD_SIZE = RECORD_PAYLOAD_SIZE + Long.BYTES;
+    // Flags of the binary location record.
+    private static final int FLAG_HAS_ALTITUDE = 1;
+    private static final int FLAG_HAS_SPEED = 1 << 1;
+    private static final int FLAG_HAS_BEARING = 1 << 2;
+    private static final int FLAG_HAS_ACCURACY = 1 << 3;
+    private static final int FLAG_HAS_VERTICAL_ACCURACY = 1 << 4;
+    private static final int FLAG_HAS_SPEED_ACCURACY = 1 << 5;
+    private static final int FLAG_HAS_BEARING_ACCURACY = 1 << 6;
+    private static final int FLAG_IS_FROM_MOCK_PROVIDER = 1 << 7;
+
+    // Constants for the legacy JSON location serialization.
     private static final String PROVIDER = "provider";
     private static final String LATITUDE = "latitude";
     private static final String LONGITUDE = "longitude";
@@ -83,7 +109,7 @@ public class CarLocationService extends BroadcastReceiver implements CarServiceB
     private static final String IS_FROM_MOCK_PROVIDER = "isFromMockProvider";
     private static final String CAPTURE_TIME = "captureTime";
 
-    // Used internally for mHandlerThread synchronization
+    // Guards the statistics of the last location load.
     private final Object mLock = new Object();
 
     // Used internally for mILocationManagerProxy synchronization
@@ -101,6 +127,18 @@ public class CarLocationService extends BroadcastReceiver implements CarServiceB
     // Allows us to interact with the {@link LocationManager} as the foreground user.
     private ILocationManagerProxy mILocationManagerProxy;
 
+    // Format of the last location read from the cache: "binary", "json" or "none".
+    @GuardedBy("mLock")
+    private String mLastLoadedFormat = "none";
+    // Time spent reading the last location from the cache, or -1 if none was read.
+    @GuardedBy("mLock")
+    private long mLastReadTimeUs = -1;
+    // Time from the start of the last read to the end of the injection, or -1 if none.
+    @GuardedBy("mLock")
+    private long mLastLoadToInjectTimeUs = -1;
+    @GuardedBy("mLock")
+    private boolean mLastInjectionSucceeded;
+
     // Maintains mILocationManagerProxy for the current foreground user.
     private final PerUserCarServiceHelper.ServiceCallback mUserServiceCallback =
             new PerUserCarServiceHelper.ServiceCallback() {
@@ -211,6 +249,12 @@ public class CarLocationService extends BroadcastReceiver implements CarServiceB
     public void dump(PrintWriter writer) {
         writer.println(TAG);
         writer.println("Context: " + mContext);
+        synchronized (mLock) {
+            writer.println("Last loaded location format: " + mLastLoadedFormat);
+            writer.println("Last location read time (us): " + mLastReadTimeUs);
+            writer.println("Last location load-to-inject time (us): " + mLastLoadToInjectTimeUs);
+            writer.println("Last location injection succeeded: " + mLastInjectionSucceeded);
+        }
         writer.println("MAX_LOCATION_INJECTION_ATTEMPTS: " + MAX_LOCATION_INJECTION_ATTEMPTS);
     }
 
@@ -311,53 +355,20 @@ public class CarLocationService extends BroadcastReceiver implements CarServiceB
             logd("Not storing null location");
         } else {
             logd("Storing location");
+            byte[] record = serializeLocation(location);
             AtomicFile atomicFile = new AtomicFile(getLocationCacheFile());
             FileOutputStream fos = null;
             try {
                 fos = atomicFile.startWrite();
-                try (JsonWriter jsonWriter = new JsonWriter(new OutputStreamWriter(fos, "UTF-8"))) {
-                    jsonWriter.beginObject();
-                    jsonWriter.name(PROVIDER).value(location.getProvider());
-                    jsonWriter.name(LATITUDE).value(location.getLatitude());
-                    jsonWriter.name(LONGITUDE).value(location.getLongitude());
-                    if (location.hasAltitude()) {
-                        jsonWriter.name(ALTITUDE).value(location.getAltitude());
-                    }
-                    if (location.hasSpeed()) {
-                        jsonWriter.name(SPEED).value(location.getSpeed());
-                    }
-                    if (location.hasBearing()) {
-                        jsonWriter.name(BEARING).value(location.getBearing());
-                    }
-                    if (location.hasAccuracy()) {
-                        jsonWriter.name(ACCURACY).value(location.getAccuracy());
-                    }
-                    if (location.hasVerticalAccuracy()) {
-                        jsonWriter.name(VERTICAL_ACCURACY).value(
-                                location.getVerticalAccuracyMeters());
-                    }
-                    if (location.hasSpeedAccuracy()) {
-                        jsonWriter.name(SPEED_ACCURACY).value(
-                                location.getSpeedAccuracyMetersPerSecond());
-                    }
-                    if (location.hasBearingAccuracy()) {
-                        jsonWriter.name(BEARING_ACCURACY).value(
-                                location.getBearingAccuracyDegrees());
-                    }
-                    if (location.isFromMockProvider()) {
-                        jsonWriter.name(IS_FROM_MOCK_PROVIDER).value(true);
-                    }
-                    long currentTime = location.getTime();
-                    // Round the time down to only be accurate within one day.
-                    jsonWriter.name(CAPTURE_TIME).value(
-                            currentTime - currentTime % GRANULARITY_ONE_DAY_MS);
-                    jsonWriter.endObject();
-                }
+                fos.write(record);
                 atomicFile.finishWrite(fos);
             } catch (IOException e) {
                 Log.e(TAG, "Unable to write to disk", e);
                 atomicFile.failWrite(fos);
+                return;
             }
+            // The binary record supersedes the JSON file of previous versions.
+            getLegacyLocationCacheFile().delete();
         }
     }
 
@@ -365,8 +376,20 @@ public class CarLocationService extends BroadcastReceiver implements CarServiceB
      * Reads a previously stored location and attempts to inject it into the location manager proxy.
      */
     private void loadLocation() {
-        Location location = readLocationFromCacheFile();
-        logd("Read location from timestamp %s", location.getTime());
+        long loadStartNs = SystemClock.elapsedRealtimeNanos();
+        String format = "binary";
+        Location location = readLocationFromBinaryCacheFile();
+        if (location == null) {
+            format = "json";
+            location = readLocationFromJsonCacheFile();
+        }
+        long readTimeUs = (SystemClock.elapsedRealtimeNanos() - loadStartNs) / 1000;
+        synchronized (mLock) {
+            mLastLoadedFormat = format;
+            mLastReadTimeUs = readTimeUs;
+        }
+        logd("Read %s location from timestamp %s in %sus", format, location.getTime(),
+                readTimeUs);
         long currentTime = System.currentTimeMillis();
         if (location.getTime() + TTL_THIRTY_DAYS_MS < currentTime) {
             logd("Location expired.");
@@ -376,14 +399,32 @@ public class CarLocationService extends BroadcastReceiver implements CarServiceB
             long elapsedTime = SystemClock.elapsedRealtimeNanos();
             location.setElapsedRealtimeNanos(elapsedTime);
             if (location.isComplete()) {
-                injectLocation(location, 1);
+                injectLocation(location, loadStartNs, 1);
             }
         }
     }
 
-    private Location readLocationFromCacheFile() {
-        Location location = new Location((String) null);
+    /** Returns the location of the binary cache file, or null if it is missing or invalid. */
+    @Nullable
+    private Location readLocationFromBinaryCacheFile() {
         File file = getLocationCacheFile();
+        try {
+            Location location = deserializeLocation(new AtomicFile(file).readFully());
+            if (location == null) {
+                Log.e(TAG, "Unexpected format of " + file);
+            }
+            return location;
+        } catch (FileNotFoundException e) {
+            logd("Location cache file not found: %s", file);
+        } catch (IOException e) {
+            Log.e(TAG, "Unable to read from disk", e);
+        }
+        return null;
+    }
+
+    private Location readLocationFromJsonCacheFile() {
+        Location location = new Location((String) null);
+        File file = getLegacyLocationCacheFile();
         AtomicFile atomicFile = new AtomicFile(file);
         try (FileInputStream fis = atomicFile.openRead()) {
             JsonReader reader = new JsonReader(new InputStreamReader(fis, "UTF-8"));
@@ -444,7 +485,11 @@ public class CarLocationService extends BroadcastReceiver implements CarServiceB
     }
 
     private void deleteCacheFile() {
-        File file = getLocationCacheFile();
+        deleteCacheFile(getLocationCacheFile());
+        deleteCacheFile(getLegacyLocationCacheFile());
+    }
+
+    private static void deleteCacheFile(File file) {
         boolean deleted = file.delete();
         if (deleted) {
             logd("Successfully deleted cache file at %s", file);
@@ -457,7 +502,7 @@ public class CarLocationService extends BroadcastReceiver implements CarServiceB
      * Attempts to inject the location multiple times in case the LocationManager was not fully
      * initialized or has not updated its handle to the current user yet.
      */
-    private void injectLocation(Location location, int attemptCount) {
+    private void injectLocation(Location location, long loadStartNs, int attemptCount) {
         boolean success = false;
         synchronized (mLocationManagerProxyLock) {
             if (mILocationManagerProxy == null) {
@@ -470,22 +515,166 @@ public class CarLocationService extends BroadcastReceiver implements CarServiceB
                 }
             }
         }
-        if (success) {
-            logd("Successfully injected stored location on attempt %s.", attemptCount);
-            return;
-        } else if (attemptCount <= MAX_LOCATION_INJECTION_ATTEMPTS) {
+        if (!success && attemptCount <= MAX_LOCATION_INJECTION_ATTEMPTS) {
             logd("Failed to inject stored location on attempt %s.", attemptCount);
             asyncOperation(() -> {
-                injectLocation(location, attemptCount + 1);
+                injectLocation(location, loadStartNs, attemptCount + 1);
             }, 200 * attemptCount);
+            return;
+        }
+        long loadToInjectTimeUs = (SystemClock.elapsedRealtimeNanos() - loadStartNs) / 1000;
+        synchronized (mLock) {
+            mLastLoadToInjectTimeUs = loadToInjectTimeUs;
+            mLastInjectionSucceeded = success;
+        }
+        if (success) {
+            logd("Successfully injected stored location on attempt %s, %sus after loading it.",
+                    attemptCount, loadToInjectTimeUs);
         } else {
             logd("No location injected.");
         }
     }
 
+    /**
+     * Serializes the location into a binary record, with the capture time rounded down to one
+     * day. A provider name longer than {@link #MAX_PROVIDER_LENGTH} bytes is truncated.
+     */
+    @VisibleForTesting
+    static byte[] serializeLocation(Location location) {
+        byte[] provider = location.getProvider() == null ? new byte[0]
+                : location.getProvider().getBytes(StandardCharsets.UTF_8);
+        int providerLength = provider.length;
+        if (providerLength > MAX_PROVIDER_LENGTH) {
+            providerLength = MAX_PROVIDER_LENGTH;
+            // Don't cut a multi-byte character in the middle: end before its first byte.
+            while (providerLength > 0 && (provider[providerLength] & 0xC0) == 0x80) {
+                providerLength--;
+            }
+        }
+        int flags = 0;
+        if (location.hasAltitude()) {
+            flags |= FLAG_HAS_ALTITUDE;
+        }
+        if (location.hasSpeed()) {
+            flags |= FLAG_HAS_SPEED;
+        }
+        if (location.hasBearing()) {
+            flags |= FLAG_HAS_BEARING;
+        }
+        if (location.hasAccuracy()) {
+            flags |= FLAG_HAS_ACCURACY;
+        }
+        if (location.hasVerticalAccuracy()) {
+            flags |= FLAG_HAS_VERTICAL_ACCURACY;
+        }
+        if (location.hasSpeedAccuracy()) {
+            flags |= FLAG_HAS_SPEED_ACCURACY;
+        }
+        if (location.hasBearingAccuracy()) {
+            flags |= FLAG_HAS_BEARING_ACCURACY;
+        }
+        if (location.isFromMockProvider()) {
+            flags |= FLAG_IS_FROM_MOCK_PROVIDER;
+        }
+        long captureTime = location.getTime();
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE)
+                .putInt(RECORD_MAGIC)
+                .putInt(RECORD_VERSION)
+                .putInt(flags)
+                // Round the time down to only be accurate within one day.
+                .putLong(captureTime - captureTime % GRANULARITY_ONE_DAY_MS)
+                .putDouble(location.getLatitude())
+                .putDouble(location.getLongitude())
+                .putDouble(location.getAltitude())
+                .putFloat(location.getSpeed())
+                .putFloat(location.getBearing())
+                .putFloat(location.getAccuracy())
+                .putFloat(location.getVerticalAccuracyMeters())
+                .putFloat(location.getSpeedAccuracyMetersPerSecond())
+                .putFloat(location.getBearingAccuracyDegrees())
+                .put((byte) providerLength)
+                .put(provider, 0, providerLength);
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), 0, RECORD_PAYLOAD_SIZE);
+        buffer.putLong(RECORD_PAYLOAD_SIZE, crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * Deserializes a record written by {@link #serializeLocation(Location)}. Returns null if the
+     * record is truncated, corrupt or of an unknown version.
+     */
+    @VisibleForTesting
+    @Nullable
+    static Location deserializeLocation(byte[] record) {
+        if (record.length != RECORD_SIZE) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        CRC32 crc = new CRC32();
+        crc.update(record, 0, RECORD_PAYLOAD_SIZE);
+        if (crc.getValue() != buffer.getLong(RECORD_PAYLOAD_SIZE)
+                || buffer.getInt() != RECORD_MAGIC || buffer.getInt() != RECORD_VERSION) {
+            return null;
+        }
+        int flags = buffer.getInt();
+        long captureTime = buffer.getLong();
+        double latitude = buffer.getDouble();
+        double longitude = buffer.getDouble();
+        double altitude = buffer.getDouble();
+        float speed = buffer.getFloat();
+        float bearing = buffer.getFloat();
+        float accuracy = buffer.getFloat();
+        float verticalAccuracy = buffer.getFloat();
+        float speedAccuracy = buffer.getFloat();
+        float bearingAccuracy = buffer.getFloat();
+        int providerLength = buffer.get() & 0xFF;
+        if (providerLength > MAX_PROVIDER_LENGTH) {
+            return null;
+        }
+        Location location = new Location(providerLength == 0 ? null
+                : new String(record, buffer.position(), providerLength, StandardCharsets.UTF_8));
+        location.setTime(captureTime);
+        location.setLatitude(latitude);
+        location.setLongitude(longitude);
+        if ((flags & FLAG_HAS_ALTITUDE) != 0) {
+            location.setAltitude(altitude);
+        }
+        if ((flags & FLAG_HAS_SPEED) != 0) {
+            location.setSpeed(speed);
+        }
+        if ((flags & FLAG_HAS_BEARING) != 0) {
+            location.setBearing(bearing);
+        }
+        if ((flags & FLAG_HAS_ACCURACY) != 0) {
+            location.setAccuracy(accuracy);
+        }
+        if ((flags & FLAG_HAS_VERTICAL_ACCURACY) != 0) {
+            location.setVerticalAccuracyMeters(verticalAccuracy);
+        }
+        if ((flags & FLAG_HAS_SPEED_ACCURACY) != 0) {
+            location.setSpeedAccuracyMetersPerSecond(speedAccuracy);
+        }
+        if ((flags & FLAG_HAS_BEARING_ACCURACY) != 0) {
+            location.setBearingAccuracyDegrees(bearingAccuracy);
+        }
+        if ((flags & FLAG_IS_FROM_MOCK_PROVIDER) != 0) {
+            location.setIsFromMockProvider(true);
+        }
+        return location;
+    }
+
     private File getLocationCacheFile() {
+        return getSystemCarFile(FILENAME);
+    }
+
+    private File getLegacyLocationCacheFile() {
+        return getSystemCarFile(LEGACY_JSON_FILENAME);
+    }
+
+    private static File getSystemCarFile(String name) {
         SystemInterface systemInterface = CarLocalServices.getService(SystemInterface.class);
-        return new File(systemInterface.getSystemCarDir(), FILENAME);
+        return new File(systemInterface.getSystemCarDir(), name);
     }
 
     @VisibleForTesting
@@ -63,14 +63,13 @@ import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.PrintWriter;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Deque;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
 
 /**
  * CarMediaService manages the currently active media source for car apps. This is different from
@@ -93,6 +92,10 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
 
     private static final int MEDIA_SOURCE_MODES = 2;
 
+    // Delay before writing media source history changes, so a burst of source changes results in
+    // a single SharedPreferences edit.
+    private static final long MEDIA_SOURCE_HISTORY_WRITE_DELAY_MS = 1_000;
+
     // XML configuration options for autoplay on media source change.
     private static final int AUTOPLAY_CONFIG_NEVER = 0;
     private static final int AUTOPLAY_CONFIG_ALWAYS = 1;
@@ -109,6 +112,18 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
     @GuardedBy("mLock")
     private ComponentName[] mPrimaryMediaComponents = new ComponentName[MEDIA_SOURCE_MODES];
     private SharedPreferences mSharedPrefs;
+    // Media source history of mMediaSourceHistoryUserId for each mode, from the least to the most
+    // recently used source. It is loaded from mSharedPrefs once per user, and written back from
+    // mHandler after MEDIA_SOURCE_HISTORY_WRITE_DELAY_MS.
+    @GuardedBy("mLock")
+    private final LinkedHashSet<ComponentName>[] mMediaSourceHistory =
+            new LinkedHashSet[MEDIA_SOURCE_MODES];
+    @GuardedBy("mLock")
+    private int mMediaSourceHistoryUserId = UserHandle.USER_NULL;
+    // Whether mMediaSourceHistory has changes that are not written to mSharedPrefs yet.
+    @GuardedBy("mLock")
+    private boolean mMediaSourceHistoryDirty;
+    private final Runnable mWriteMediaSourceHistory = this::writeMediaSourceHistory;
     // MediaController for the current active user's active media session. This controller can be
     // null if playback has not been started yet.
     private MediaController mActiveUserMediaController;
@@ -152,6 +167,9 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
             String intentPackage = intent.getData().getSchemeSpecificPart();
             if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
                 synchronized (mLock) {
+                    if (!intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                        removeFromMediaSourceHistoryLocked(intentPackage);
+                    }
                     for (int i = 0; i < MEDIA_SOURCE_MODES; i++) {
                         if (mPrimaryMediaComponents[i] != null
                                 && mPrimaryMediaComponents[i].getPackageName().equals(
@@ -161,7 +179,7 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
                                 // PackageManager queries  when we check for available
                                 // MediaBrowseServices, so we iterate to find the next available
                                 // source.
-                                for (ComponentName component : getLastMediaSources(i)) {
+                                for (ComponentName component : getLastMediaSourcesLocked(i)) {
                                     if (!mPrimaryMediaComponents[i].getPackageName()
                                             .equals(component.getPackageName())) {
                                         mRemovedMediaSourceComponents[i] =
@@ -227,6 +245,9 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
         mMediaSessionManager = mContext.getSystemService(MediaSessionManager.class);
         mMediaSourceListeners[MEDIA_SOURCE_MODE_PLAYBACK] = new RemoteCallbackList();
         mMediaSourceListeners[MEDIA_SOURCE_MODE_BROWSE] = new RemoteCallbackList();
+        for (int i = 0; i < MEDIA_SOURCE_MODES; i++) {
+            mMediaSourceHistory[i] = new LinkedHashSet<>();
+        }
         mIndependentPlaybackConfig = mContext.getResources().getBoolean(
                 R.bool.config_mediaSourceIndependentPlayback);
 
@@ -270,6 +291,13 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
         if (mSharedPrefs == null) {
             mSharedPrefs = mContext.getSharedPreferences(SHARED_PREF, Context.MODE_PRIVATE);
         }
+        if (mSharedPrefs != null) {
+            synchronized (mLock) {
+                if (mMediaSourceHistoryUserId != userId) {
+                    loadMediaSourceHistoryLocked(userId);
+                }
+            }
+        }
 
         if (mIsPackageUpdateReceiverRegistered) {
             mContext.unregisterReceiver(mPackageUpdateReceiver);
@@ -331,6 +359,7 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
     public void release() {
         mMediaSessionUpdater.unregisterCallbacks();
         mUserService.removeUserLifecycleListener(mUserLifecycleListener);
+        writeMediaSourceHistory();
     }
 
     @Override
@@ -351,13 +380,16 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
         writer.println("\tNumber of active media sessions: " + mMediaSessionManager
                 .getActiveSessionsForUser(null, ActivityManager.getCurrentUser()).size());
 
-        writer.println("\tPlayback media source history: ");
-        for (ComponentName name : getLastMediaSources(MEDIA_SOURCE_MODE_PLAYBACK)) {
-            writer.println("\t" + name.flattenToString());
-        }
-        writer.println("\tBrowse media source history: ");
-        for (ComponentName name : getLastMediaSources(MEDIA_SOURCE_MODE_BROWSE)) {
-            writer.println("\t" + name.flattenToString());
+        synchronized (mLock) {
+            writer.println("\tPlayback media source history: ");
+            for (ComponentName name : getLastMediaSourcesLocked(MEDIA_SOURCE_MODE_PLAYBACK)) {
+                writer.println("\t" + name.flattenToString());
+            }
+            writer.println("\tBrowse media source history: ");
+            for (ComponentName name : getLastMediaSourcesLocked(MEDIA_SOURCE_MODE_BROWSE)) {
+                writer.println("\t" + name.flattenToString());
+            }
+            writer.println("\tMedia source history pending write: " + mMediaSourceHistoryDirty);
         }
 
     }
@@ -413,10 +445,9 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
     @Override
     public List<ComponentName> getLastMediaSources(@CarMediaManager.MediaSourceMode int mode) {
         ICarImpl.assertPermission(mContext, android.Manifest.permission.MEDIA_CONTENT_CONTROL);
-        String key = getMediaSourceKey(mode);
-        String serialized = mSharedPrefs.getString(key, "");
-        return getComponentNameList(serialized).stream()
-                .map(name -> ComponentName.unflattenFromString(name)).collect(Collectors.toList());
+        synchronized (mLock) {
+            return getLastMediaSourcesLocked(mode);
+        }
     }
 
     /** See {@link CarMediaManager#isIndependentPlaybackConfig}. */
@@ -803,29 +834,24 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
         if (!sharedPrefsInitialized()) {
             return;
         }
-        String componentName = component.flattenToString();
-        String key = getMediaSourceKey(mode);
-        String serialized = mSharedPrefs.getString(key, null);
-        if (serialized == null) {
-            mSharedPrefs.edit().putString(key, componentName).apply();
-        } else {
-            Deque<String> componentNames = new ArrayDeque<>(getComponentNameList(serialized));
-            componentNames.remove(componentName);
-            componentNames.addFirst(componentName);
-            mSharedPrefs.edit().putString(key, serializeComponentNameList(componentNames)).apply();
+        synchronized (mLock) {
+            LinkedHashSet<ComponentName> history = getMediaSourceHistoryLocked(mode);
+            // Moves the component to the most recently used end.
+            history.remove(component);
+            history.add(component);
+            scheduleMediaSourceHistoryWriteLocked();
         }
     }
 
     private @NonNull ComponentName getLastMediaSource(int mode) {
         if (sharedPrefsInitialized()) {
-            String key = getMediaSourceKey(mode);
-            String serialized = mSharedPrefs.getString(key, "");
-            if (!TextUtils.isEmpty(serialized)) {
-                for (String name : getComponentNameList(serialized)) {
-                    ComponentName componentName = ComponentName.unflattenFromString(name);
-                    if (isMediaService(componentName)) {
-                        return componentName;
-                    }
+            List<ComponentName> sources;
+            synchronized (mLock) {
+                sources = getLastMediaSourcesLocked(mode);
+            }
+            for (ComponentName componentName : sources) {
+                if (isMediaService(componentName)) {
+                    return componentName;
                 }
             }
         }
@@ -841,8 +867,97 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
         return null;
     }
 
-    private String serializeComponentNameList(Deque<String> componentNames) {
-        return componentNames.stream().collect(Collectors.joining(COMPONENT_NAME_SEPARATOR));
+    /** Returns the media source history of the current user, most recently used first. */
+    @GuardedBy("mLock")
+    private List<ComponentName> getLastMediaSourcesLocked(int mode) {
+        List<ComponentName> sources = new ArrayList<>(getMediaSourceHistoryLocked(mode));
+        Collections.reverse(sources);
+        return sources;
+    }
+
+    @GuardedBy("mLock")
+    private LinkedHashSet<ComponentName> getMediaSourceHistoryLocked(int mode) {
+        int userId = ActivityManager.getCurrentUser();
+        if (userId != mMediaSourceHistoryUserId && mSharedPrefs != null) {
+            loadMediaSourceHistoryLocked(userId);
+        }
+        return mMediaSourceHistory[mode];
+    }
+
+    @GuardedBy("mLock")
+    private void loadMediaSourceHistoryLocked(int userId) {
+        if (mMediaSourceHistoryDirty) {
+            // Don't lose the changes of the previous user.
+            writeMediaSourceHistoryLocked();
+        }
+        for (int mode = 0; mode < MEDIA_SOURCE_MODES; mode++) {
+            LinkedHashSet<ComponentName> history = mMediaSourceHistory[mode];
+            history.clear();
+            List<String> names = getComponentNameList(
+                    mSharedPrefs.getString(getMediaSourceKey(mode, userId), ""));
+            // The preferences list the most recently used source first.
+            for (int i = names.size() - 1; i >= 0; i--) {
+                ComponentName componentName = ComponentName.unflattenFromString(names.get(i));
+                if (componentName != null) {
+                    history.remove(componentName);
+                    history.add(componentName);
+                }
+            }
+        }
+        mMediaSourceHistoryUserId = userId;
+    }
+
+    @GuardedBy("mLock")
+    private void removeFromMediaSourceHistoryLocked(@NonNull String packageName) {
+        boolean removed = false;
+        for (int mode = 0; mode < MEDIA_SOURCE_MODES; mode++) {
+            removed |= getMediaSourceHistoryLocked(mode)
+                    .removeIf(component -> packageName.equals(component.getPackageName()));
+        }
+        if (removed) {
+            scheduleMediaSourceHistoryWriteLocked();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleMediaSourceHistoryWriteLocked() {
+        if (!mMediaSourceHistoryDirty) {
+            mMediaSourceHistoryDirty = true;
+            mHandler.postDelayed(mWriteMediaSourceHistory, MEDIA_SOURCE_HISTORY_WRITE_DELAY_MS);
+        }
+    }
+
+    private void writeMediaSourceHistory() {
+        synchronized (mLock) {
+            if (mMediaSourceHistoryDirty) {
+                writeMediaSourceHistoryLocked();
+            }
+        }
+    }
+
+    /** Writes the media source history of all modes with a single SharedPreferences edit. */
+    @GuardedBy("mLock")
+    private void writeMediaSourceHistoryLocked() {
+        mMediaSourceHistoryDirty = false;
+        mHandler.removeCallbacks(mWriteMediaSourceHistory);
+        SharedPreferences.Editor editor = mSharedPrefs.edit();
+        for (int mode = 0; mode < MEDIA_SOURCE_MODES; mode++) {
+            editor.putString(getMediaSourceKey(mode, mMediaSourceHistoryUserId),
+                    serializeMediaSourceHistory(mMediaSourceHistory[mode]));
+        }
+        editor.apply();
+    }
+
+    private static String serializeMediaSourceHistory(LinkedHashSet<ComponentName> history) {
+        ComponentName[] sources = history.toArray(new ComponentName[history.size()]);
+        StringBuilder serialized = new StringBuilder();
+        for (int i = sources.length - 1; i >= 0; i--) {
+            if (serialized.length() > 0) {
+                serialized.append(COMPONENT_NAME_SEPARATOR);
+            }
+            serialized.append(sources[i].flattenToString());
+        }
+        return serialized.toString();
     }
 
     private List<String> getComponentNameList(@NonNull String serialized) {
@@ -871,8 +986,8 @@ public class CarMediaService extends ICarMedia.Stub implements CarServiceBase {
         }
     }
 
-    private String getMediaSourceKey(int mode) {
-        return SOURCE_KEY + mode + SOURCE_KEY_SEPARATOR + ActivityManager.getCurrentUser();
+    private String getMediaSourceKey(int mode, int userId) {
+        return SOURCE_KEY + mode + SOURCE_KEY_SEPARATOR + userId;
     }
 
     /**
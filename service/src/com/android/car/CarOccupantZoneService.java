@@ -58,6 +58,8 @@ import com.android.internal.car.ICarServiceHelper;
 
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -231,6 +233,111 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
     @GuardedBy("mLock")
     private int mDriverSeat = VehicleAreaSeat.SEAT_UNKNOWN;
 
+    /** key: display id, value: display type, for the active displays with a port config */
+    @GuardedBy("mLock")
+    private final SparseIntArray mConfiguredDisplayTypes = new SparseIntArray();
+
+    /**
+     * Mappings read by the binder calls. Rebuilt under {@code mLock} after every change and
+     * replaced as a whole, so readers neither take the lock nor allocate.
+     */
+    private volatile ZoneSnapshot mSnapshot = ZoneSnapshot.EMPTY;
+
+    /**
+     * Immutable, array-indexed copy of the occupant zone, display, audio zone and user mappings.
+     */
+    @VisibleForTesting
+    static final class ZoneSnapshot {
+        static final ZoneSnapshot EMPTY = new ZoneSnapshot();
+
+        /** Ids of all configured zones, sorted. The arrays below use the same index. */
+        private final int[] mZoneIds;
+        private final OccupantZoneInfo[] mZoneInfos;
+        private final boolean[] mActive;
+        private final int[] mUserIds;
+        private final int[] mAudioZoneIds;
+        private final int[][] mDisplayIds;
+        private final int[][] mDisplayTypes;
+        /** Active zones, sorted by zone id. */
+        private final List<OccupantZoneInfo> mActiveZones;
+        /** key: display id, value: display type */
+        private final SparseIntArray mConfiguredDisplayTypes;
+        /** key: audio zone id, value: occupant zone id */
+        private final SparseIntArray mAudioZoneIdToOccupantZoneId;
+
+        private ZoneSnapshot() {
+            mZoneIds = new int[0];
+            mZoneInfos = new OccupantZoneInfo[0];
+            mActive = new boolean[0];
+            mUserIds = new int[0];
+            mAudioZoneIds = new int[0];
+            mDisplayIds = new int[0][];
+            mDisplayTypes = new int[0][];
+            mActiveZones = Collections.emptyList();
+            mConfiguredDisplayTypes = new SparseIntArray(0);
+            mAudioZoneIdToOccupantZoneId = new SparseIntArray(0);
+        }
+
+        private ZoneSnapshot(Map<Integer, OccupantZoneInfo> occupantsConfig,
+                Map<Integer, OccupantConfig> activeOccupantConfigs,
+                SparseIntArray audioZoneIdToOccupantZoneId, SparseIntArray configuredDisplayTypes) {
+            int numberZones = occupantsConfig.size();
+            mZoneIds = new int[numberZones];
+            int index = 0;
+            for (Integer zoneId : occupantsConfig.keySet()) {
+                mZoneIds[index++] = zoneId;
+            }
+            Arrays.sort(mZoneIds);
+            mZoneInfos = new OccupantZoneInfo[numberZones];
+            mActive = new boolean[numberZones];
+            mUserIds = new int[numberZones];
+            mAudioZoneIds = new int[numberZones];
+            mDisplayIds = new int[numberZones][];
+            mDisplayTypes = new int[numberZones][];
+            ArrayList<OccupantZoneInfo> activeZones = new ArrayList<>(numberZones);
+            for (int i = 0; i < numberZones; i++) {
+                int zoneId = mZoneIds[i];
+                mZoneInfos[i] = occupantsConfig.get(zoneId);
+                OccupantConfig config = activeOccupantConfigs.get(zoneId);
+                if (config == null) {
+                    mUserIds[i] = UserHandle.USER_NULL;
+                    mAudioZoneIds[i] = findAudioZoneId(audioZoneIdToOccupantZoneId, zoneId);
+                    mDisplayIds[i] = new int[0];
+                    mDisplayTypes[i] = new int[0];
+                    continue;
+                }
+                mActive[i] = true;
+                activeZones.add(mZoneInfos[i]);
+                mUserIds[i] = config.userId;
+                mAudioZoneIds[i] = config.audioZoneId;
+                int numberDisplays = config.displayInfos.size();
+                mDisplayIds[i] = new int[numberDisplays];
+                mDisplayTypes[i] = new int[numberDisplays];
+                for (int j = 0; j < numberDisplays; j++) {
+                    DisplayInfo info = config.displayInfos.get(j);
+                    mDisplayIds[i][j] = info.display.getDisplayId();
+                    mDisplayTypes[i][j] = info.displayType;
+                }
+            }
+            mActiveZones = Collections.unmodifiableList(activeZones);
+            mConfiguredDisplayTypes = configuredDisplayTypes.clone();
+            mAudioZoneIdToOccupantZoneId = audioZoneIdToOccupantZoneId.clone();
+        }
+
+        private static int findAudioZoneId(SparseIntArray audioZoneIdToOccupantZoneId,
+                int occupantZoneId) {
+            int index = audioZoneIdToOccupantZoneId.indexOfValue(occupantZoneId);
+            return index < 0 ? CarAudioManager.INVALID_AUDIO_ZONE
+                    : audioZoneIdToOccupantZoneId.keyAt(index);
+        }
+
+        /** Returns the index of the active zone, or a negative number if it's not active. */
+        private int indexOfActiveZone(int zoneId) {
+            int index = Arrays.binarySearch(mZoneIds, zoneId);
+            return index >= 0 && mActive[index] ? index : -1;
+        }
+    }
+
     public CarOccupantZoneService(Context context) {
         this(context, context.getSystemService(DisplayManager.class),
                 context.getSystemService(UserManager.class),
@@ -263,6 +370,7 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
             handleActiveDisplaysLocked();
             handleAudioZoneChangesLocked();
             handleUserChangesLocked();
+            publishSnapshotLocked();
         }
         CarUserService userService = CarLocalServices.getService(CarUserService.class);
         userService.addUserLifecycleListener(mUserLifecycleListener);
@@ -304,6 +412,7 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
                         return false;
                     }
                     zoneConfig.userId = userId;
+                    publishSnapshotLocked();
                     return true;
                 }
             }
@@ -317,6 +426,7 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
                             break;
                         }
                     }
+                    publishSnapshotLocked();
                     return true;
                 }
             }
@@ -347,6 +457,8 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
             mDisplayConfigs.clear();
             mAudioZoneIdToOccupantZoneIdMapping.clear();
             mActiveOccupantConfigs.clear();
+            mConfiguredDisplayTypes.clear();
+            mSnapshot = ZoneSnapshot.EMPTY;
         }
     }
 
@@ -426,44 +538,36 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
         }
     }
 
+    /**
+     * Returns the active occupant zones, sorted by zone id. The returned list is unmodifiable.
+     */
     @Override
     public List<OccupantZoneInfo> getAllOccupantZones() {
-        synchronized (mLock) {
-            List<OccupantZoneInfo> infos = new ArrayList<>();
-            for (Integer zoneId : mActiveOccupantConfigs.keySet()) {
-                // no need for deep copy as OccupantZoneInfo itself is static.
-                infos.add(mOccupantsConfig.get(zoneId));
-            }
-            return infos;
-        }
+        // no need for deep copy as OccupantZoneInfo itself is static.
+        return mSnapshot.mActiveZones;
     }
 
     @Override
     public int[] getAllDisplaysForOccupantZone(int occupantZoneId) {
-        synchronized (mLock) {
-            OccupantConfig config = mActiveOccupantConfigs.get(occupantZoneId);
-            if (config == null) {
-                return new int[0];
-            }
-            int[] displayIds = new int[config.displayInfos.size()];
-            for (int i = 0; i < config.displayInfos.size(); i++) {
-                displayIds[i] = config.displayInfos.get(i).display.getDisplayId();
-            }
-            return displayIds;
+        ZoneSnapshot snapshot = mSnapshot;
+        int index = snapshot.indexOfActiveZone(occupantZoneId);
+        if (index < 0) {
+            return new int[0];
         }
+        return snapshot.mDisplayIds[index].clone();
     }
 
     @Override
     public int getDisplayForOccupant(int occupantZoneId, int displayType) {
-        synchronized (mLock) {
-            OccupantConfig config = mActiveOccupantConfigs.get(occupantZoneId);
-            if (config == null) {
-                return Display.INVALID_DISPLAY;
-            }
-            for (int i = 0; i < config.displayInfos.size(); i++) {
-                if (displayType == config.displayInfos.get(i).displayType) {
-                    return config.displayInfos.get(i).display.getDisplayId();
-                }
+        ZoneSnapshot snapshot = mSnapshot;
+        int index = snapshot.indexOfActiveZone(occupantZoneId);
+        if (index < 0) {
+            return Display.INVALID_DISPLAY;
+        }
+        int[] displayTypes = snapshot.mDisplayTypes[index];
+        for (int i = 0; i < displayTypes.length; i++) {
+            if (displayType == displayTypes[i]) {
+                return snapshot.mDisplayIds[index][i];
             }
         }
         return Display.INVALID_DISPLAY;
@@ -472,42 +576,27 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
     @Override
     public int getAudioZoneIdForOccupant(int occupantZoneId) {
         enforcePermission(Car.PERMISSION_CAR_CONTROL_AUDIO_SETTINGS);
-        synchronized (mLock) {
-            OccupantConfig config = mActiveOccupantConfigs.get(occupantZoneId);
-            if (config != null) {
-                return config.audioZoneId;
-            }
-            // check if the occupant id exist at all
-            if (!mOccupantsConfig.containsKey(occupantZoneId)) {
-                return CarAudioManager.INVALID_AUDIO_ZONE;
-            }
-            // Exist but not active
-            return getAudioZoneIdForOccupantLocked(occupantZoneId);
-        }
-    }
-
-    private int getAudioZoneIdForOccupantLocked(int occupantZoneId) {
-        for (int index = 0; index < mAudioZoneIdToOccupantZoneIdMapping.size(); index++) {
-            int audioZoneId = mAudioZoneIdToOccupantZoneIdMapping.keyAt(index);
-            if (occupantZoneId == mAudioZoneIdToOccupantZoneIdMapping.get(audioZoneId)) {
-                return audioZoneId;
-            }
+        ZoneSnapshot snapshot = mSnapshot;
+        // Inactive zones are included, as long as the occupant id exists at all
+        int index = Arrays.binarySearch(snapshot.mZoneIds, occupantZoneId);
+        if (index < 0) {
+            return CarAudioManager.INVALID_AUDIO_ZONE;
         }
-        return CarAudioManager.INVALID_AUDIO_ZONE;
+        return snapshot.mAudioZoneIds[index];
     }
 
     @Override
     public CarOccupantZoneManager.OccupantZoneInfo getOccupantForAudioZoneId(int audioZoneId) {
         enforcePermission(Car.PERMISSION_CAR_CONTROL_AUDIO_SETTINGS);
-        synchronized (mLock) {
-            int occupantZoneId = mAudioZoneIdToOccupantZoneIdMapping.get(audioZoneId,
-                    OccupantZoneInfo.INVALID_ZONE_ID);
-            if (occupantZoneId == OccupantZoneInfo.INVALID_ZONE_ID) {
-                return null;
-            }
-            // To support headless zones return the occupant configuration.
-            return mOccupantsConfig.get(occupantZoneId);
+        ZoneSnapshot snapshot = mSnapshot;
+        int occupantZoneId = snapshot.mAudioZoneIdToOccupantZoneId.get(audioZoneId,
+                OccupantZoneInfo.INVALID_ZONE_ID);
+        if (occupantZoneId == OccupantZoneInfo.INVALID_ZONE_ID) {
+            return null;
         }
+        // To support headless zones return the occupant configuration.
+        int index = Arrays.binarySearch(snapshot.mZoneIds, occupantZoneId);
+        return index < 0 ? null : snapshot.mZoneInfos[index];
     }
 
     @Nullable
@@ -530,6 +619,12 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
 
     @Override
     public int getDisplayType(int displayId) {
+        SparseIntArray configuredDisplayTypes = mSnapshot.mConfiguredDisplayTypes;
+        int index = configuredDisplayTypes.indexOfKey(displayId);
+        if (index >= 0) {
+            return configuredDisplayTypes.valueAt(index);
+        }
+        // The display may have been added after the last snapshot
         synchronized (mLock) {
             DisplayConfig config = findDisplayConfigForDisplayLocked(displayId);
             if (config != null) {
@@ -541,28 +636,25 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
 
     @Override
     public int getUserForOccupant(int occupantZoneId) {
-        synchronized (mLock) {
-            OccupantConfig config = mActiveOccupantConfigs.get(occupantZoneId);
-            if (config == null) {
-                return UserHandle.USER_NULL;
-            }
-            return config.userId;
+        ZoneSnapshot snapshot = mSnapshot;
+        int index = snapshot.indexOfActiveZone(occupantZoneId);
+        if (index < 0) {
+            return UserHandle.USER_NULL;
         }
+        return snapshot.mUserIds[index];
     }
 
     @Override
     public int getOccupantZoneIdForUserId(int userId) {
-        synchronized (mLock) {
-            for (int occupantZoneId : mActiveOccupantConfigs.keySet()) {
-                OccupantConfig config = mActiveOccupantConfigs.get(occupantZoneId);
-                if (config.userId == userId) {
-                    return occupantZoneId;
-                }
+        ZoneSnapshot snapshot = mSnapshot;
+        for (int i = 0; i < snapshot.mZoneIds.length; i++) {
+            if (snapshot.mActive[i] && snapshot.mUserIds[i] == userId) {
+                return snapshot.mZoneIds[i];
             }
-            Log.w(TAG, "Could not find occupantZoneId for userId" + userId
-                    + " returning invalid occupant zone id " + OccupantZoneInfo.INVALID_ZONE_ID);
-            return OccupantZoneInfo.INVALID_ZONE_ID;
         }
+        Log.w(TAG, "Could not find occupantZoneId for userId" + userId
+                + " returning invalid occupant zone id " + OccupantZoneInfo.INVALID_ZONE_ID);
+        return OccupantZoneInfo.INVALID_ZONE_ID;
     }
 
     /**
@@ -592,6 +684,7 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
             }
             //If there are any active displays for the zone send change event
             handleAudioZoneChangesLocked();
+            publishSnapshotLocked();
         }
         sendConfigChangeEvent(CarOccupantZoneManager.ZONE_CONFIG_CHANGE_FLAG_AUDIO);
     }
@@ -655,6 +748,7 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
             } else {
                 config.userId = userId;
             }
+            publishSnapshotLocked();
         }
         sendConfigChangeEvent(CarOccupantZoneManager.ZONE_CONFIG_CHANGE_FLAG_USER);
         return true;
@@ -1022,6 +1116,7 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
 
     private void handleActiveDisplaysLocked() {
         mActiveOccupantConfigs.clear();
+        mConfiguredDisplayTypes.clear();
         boolean hasDefaultDisplayConfig = false;
         for (Display display : mDisplayManager.getDisplays()) {
             Byte rawPortAddress = getPortAddress(display);
@@ -1044,6 +1139,7 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
                 }
                 hasDefaultDisplayConfig = true;
             }
+            mConfiguredDisplayTypes.put(display.getDisplayId(), displayConfig.displayType);
             addDisplayInfoToOccupantZoneLocked(displayConfig.occupantZoneId,
                     new DisplayInfo(display, displayConfig.displayType));
         }
@@ -1133,6 +1229,7 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
     private void handleUserChange() {
         synchronized (mLock) {
             handleUserChangesLocked();
+            publishSnapshotLocked();
         }
         sendConfigChangeEvent(CarOccupantZoneManager.ZONE_CONFIG_CHANGE_FLAG_USER);
     }
@@ -1152,10 +1249,24 @@ public final class CarOccupantZoneService extends ICarOccupantZone.Stub
             handleAudioZoneChangesLocked();
             // user should be re-checked for changed displays
             handleUserChangesLocked();
+            publishSnapshotLocked();
         }
         sendConfigChangeEvent(CarOccupantZoneManager.ZONE_CONFIG_CHANGE_FLAG_DISPLAY);
     }
 
+    @GuardedBy("mLock")
+    private void publishSnapshotLocked() {
+        mSnapshot = new ZoneSnapshot(mOccupantsConfig, mActiveOccupantConfigs,
+                mAudioZoneIdToOccupantZoneIdMapping, mConfiguredDisplayTypes);
+    }
+
+    /** Returns the snapshot used by the read-only calls, for testing */
+    @VisibleForTesting
+    @NonNull
+    ZoneSnapshot getSnapshot() {
+        return mSnapshot;
+    }
+
     private void enforcePermission(String permissionName) {
         if (mContext.checkCallingOrSelfPermission(permissionName)
                 != PackageManager.PERMISSION_GRANTED) {
@@ -68,6 +68,7 @@ import com.android.internal.app.IVoiceInteractionManagerService;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
@@ -101,6 +102,8 @@ public class CarPowerManagementService extends ICarPower.Stub implements
     // Minimum and maximum wait duration before the system goes into Suspend to RAM.
     private static final long MIN_SUSPEND_WAIT_DURATION_MS = 0;
     private static final long MAX_SUSPEND_WAIT_DURATION_MS = 3 * 60 * 1000;
+    // Number of entries kept in the power state timeline.
+    private static final int TIMELINE_CAPACITY = 128;
 
     private final Object mLock = new Object();
     private final Object mSimulationWaitObject = new Object();
@@ -121,6 +124,7 @@ public class CarPowerManagementService extends ICarPower.Stub implements
 
     @GuardedBy("mLock")
     private final Set<IBinder> mListenersWeAreWaitingFor = new HashSet<>();
+    private final PowerStateTimeline mTimeline = new PowerStateTimeline(TIMELINE_CAPACITY);
     @GuardedBy("mLock")
     private CpmsState mCurrentState;
     @GuardedBy("mLock")
@@ -303,9 +307,28 @@ public class CarPowerManagementService extends ICarPower.Stub implements
             writer.print("mMaxSuspendWaitDurationMs:" + mMaxSuspendWaitDurationMs);
             writer.println(", config_maxSuspendWaitDuration:" + getMaxSuspendWaitDurationConfig());
         }
+        mTimeline.dump("", writer);
         mInitialUserSetter.dump(writer);
     }
 
+    /**
+     * Writes the power state timeline to the given file descriptor, as a serialized
+     * {@code PowerTimeline} proto.
+     */
+    public void dumpTimelineProto(FileDescriptor fd) {
+        try (FileOutputStream fout = new FileOutputStream(fd)) {
+            mTimeline.toProto().writeTo(fout);
+            fout.flush();
+        } catch (IOException e) {
+            Slog.e(TAG, "Error writing power state timeline to output stream", e);
+        }
+    }
+
+    @VisibleForTesting
+    PowerStateTimeline getTimeline() {
+        return mTimeline;
+    }
+
     @Override
     public void onApPowerStateChange(PowerState state) {
         synchronized (mLock) {
@@ -358,8 +381,10 @@ public class CarPowerManagementService extends ICarPower.Stub implements
         Slog.i(TAG, "setCurrentState " + state.toString());
         CarStatsLogHelper.logPowerState(state.mState);
         mCurrentState = state;
+        mTimeline.onStateChanged(state.name(), SystemClock.elapsedRealtime());
         switch (state.mState) {
             case CpmsState.WAIT_FOR_VHAL:
+                mTimeline.onWaitForVhal(SystemClock.elapsedRealtime());
                 handleWaitForVhal(state);
                 break;
             case CpmsState.ON:
@@ -834,6 +859,10 @@ public class CarPowerManagementService extends ICarPower.Stub implements
                 }
             }
             mPowerManagerListenersWithCompletion.finishBroadcast();
+            if (allowCompletion) {
+                mTimeline.onListenersNotified(mListenersWeAreWaitingFor,
+                        SystemClock.elapsedRealtime());
+            }
         }
         // Broadcast to the listeners that DO signal completion
         notifyListeners(completingListeners, newState);
@@ -943,6 +972,8 @@ public class CarPowerManagementService extends ICarPower.Stub implements
         int listenerState;
         synchronized (mLock) {
             releaseTimerLocked();
+            // Listeners still waited for at this point timed out.
+            mTimeline.onProcessingComplete(SystemClock.elapsedRealtime());
             if (!mShutdownOnFinish && mLastSleepEntryTime > mProcessingStartTime) {
                 // entered sleep after processing start. So this could be duplicate request.
                 Slog.w(TAG, "Duplicate sleep entry request, ignore");
@@ -1074,7 +1105,9 @@ public class CarPowerManagementService extends ICarPower.Stub implements
     private void finishedImpl(IBinder binder) {
         boolean allAreComplete;
         synchronized (mLock) {
-            mListenersWeAreWaitingFor.remove(binder);
+            if (mListenersWeAreWaitingFor.remove(binder)) {
+                mTimeline.onListenerFinished(binder, SystemClock.elapsedRealtime());
+            }
             allAreComplete = mListenersWeAreWaitingFor.isEmpty();
         }
         if (allAreComplete) {
@@ -1215,13 +1248,17 @@ public class CarPowerManagementService extends ICarPower.Stub implements
     private boolean suspendWithRetries() {
         long retryIntervalMs = INITIAL_SUSPEND_RETRY_INTERVAL_MS;
         long totalWaitDurationMs = 0;
+        int retryCount = 0;
 
         while (true) {
             Slog.i(TAG, "Entering Suspend to RAM");
             boolean suspendSucceeded = mSystemInterface.enterDeepSleep();
             if (suspendSucceeded) {
+                mTimeline.onSuspendFinished(true, retryCount, totalWaitDurationMs,
+                        SystemClock.elapsedRealtime());
                 return true;
             }
+            retryCount++;
             if (totalWaitDurationMs >= mMaxSuspendWaitDurationMs) {
                 break;
             }
@@ -1240,6 +1277,8 @@ public class CarPowerManagementService extends ICarPower.Stub implements
                 // Check for a new power state now, before going around the loop again
                 if (!mPendingPowerStates.isEmpty()) {
                     Slog.i(TAG, "Terminating the attempt to Suspend to RAM");
+                    mTimeline.onSuspendFinished(false, retryCount, totalWaitDurationMs,
+                            SystemClock.elapsedRealtime());
                     return false;
                 }
             }
@@ -1247,6 +1286,8 @@ public class CarPowerManagementService extends ICarPower.Stub implements
         // Too many failures trying to suspend. Shut down.
         Slog.w(TAG, "Could not Suspend to RAM after " + totalWaitDurationMs
                 + "ms long trial. Shutting down.");
+        mTimeline.onSuspendFinished(false, retryCount, totalWaitDurationMs,
+                SystemClock.elapsedRealtime());
         mSystemInterface.shutdown();
         return false;
     }
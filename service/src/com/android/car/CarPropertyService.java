@@ -18,6 +18,7 @@ package com.android.car;
 
 import static java.lang.Integer.toHexString;
 
+import android.annotation.Nullable;
 import android.car.Car;
 import android.car.hardware.CarPropertyConfig;
 import android.car.hardware.CarPropertyValue;
@@ -30,9 +31,10 @@ import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.RemoteException;
 import android.util.Log;
-import android.util.Pair;
 import android.util.SparseArray;
+import android.util.SparseBooleanArray;
 
+import com.android.car.hal.PropertyEventTracer;
 import com.android.car.hal.PropertyHalService;
 import com.android.internal.annotations.GuardedBy;
 
@@ -46,6 +48,12 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This class implements the binder interface for ICarProperty.aidl to make it easier to create
@@ -56,6 +64,9 @@ public class CarPropertyService extends ICarProperty.Stub
         implements CarServiceBase, PropertyHalService.PropertyHalListener {
     private static final boolean DBG = true;
     private static final String TAG = "Property.service";
+    // Number of events kept per client before events of continuous properties are dropped.
+    private static final int CLIENT_EVENT_QUEUE_CAPACITY = 256;
+    private static final int DISPATCHER_THREAD_COUNT = 3;
     private final Context mContext;
     private final Map<IBinder, Client> mClientMap = new ConcurrentHashMap<>();
     @GuardedBy("mLock")
@@ -69,6 +80,11 @@ public class CarPropertyService extends ICarProperty.Stub
     private final HandlerThread mHandlerThread =
             CarServiceUtils.getHandlerThread(getClass().getSimpleName());
     private final Handler mHandler = new Handler(mHandlerThread.getLooper());
+    // Delivers queued events, each client is drained by at most one thread at a time.
+    private final ExecutorService mDispatcher = Executors.newFixedThreadPool(
+            DISPATCHER_THREAD_COUNT, new DispatcherThreadFactory());
+    // Properties with CONTINUOUS change mode, immutable once published.
+    private volatile SparseBooleanArray mContinuousProperties = new SparseBooleanArray();
 
     public CarPropertyService(Context context, PropertyHalService hal) {
         if (DBG) {
@@ -78,11 +94,27 @@ public class CarPropertyService extends ICarProperty.Stub
         mContext = context;
     }
 
+    /** Names the dispatcher threads like the handler threads of {@link CarServiceUtils}. */
+    private static final class DispatcherThreadFactory implements ThreadFactory {
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            return new Thread(runnable, CarPropertyService.class.getSimpleName() + ".dispatcher"
+                    + mThreadCount.getAndIncrement());
+        }
+    }
+
     // Helper class to keep track of listeners to this service
     private class Client implements IBinder.DeathRecipient {
         private final ICarPropertyEventListener mListener;
         private final IBinder mListenerBinder;
         private final SparseArray<Float> mRateMap = new SparseArray<Float>();   // key is propId
+        private final PropertyEventQueue mEventQueue =
+                new PropertyEventQueue(CLIENT_EVENT_QUEUE_CAPACITY);
+        // Traced event queued for this client, completed once delivered.
+        private final AtomicReference<PropertyEventTracer.Trace> mPendingTrace =
+                new AtomicReference<>();
 
         Client(ICarPropertyEventListener listener) {
             mListener = listener;
@@ -125,6 +157,49 @@ public class CarPropertyService extends ICarProperty.Stub
             return mListenerBinder;
         }
 
+        /**
+         * Queues an event for this client and schedules its delivery if needed.
+         */
+        void enqueueEvent(CarPropertyEvent event, boolean continuous,
+                @Nullable PropertyEventTracer.Trace trace) {
+            boolean schedule = mEventQueue.add(event, continuous);
+            // Set after queuing the event, so the delivery taking the trace also sends the event.
+            if (trace != null) {
+                mPendingTrace.compareAndSet(null, trace);
+            }
+            if (schedule) {
+                try {
+                    mDispatcher.execute(this::deliverEvents);
+                } catch (RejectedExecutionException e) {
+                    // Events from the HAL racing with release().
+                    Log.w(TAG, "Dropping events for " + mListenerBinder + " after release");
+                    mEventQueue.clear();
+                }
+            }
+        }
+
+        private void deliverEvents() {
+            while (true) {
+                PropertyEventTracer.Trace trace = mPendingTrace.getAndSet(null);
+                List<CarPropertyEvent> events = mEventQueue.drain();
+                if (events != null) {
+                    try {
+                        mListener.onEvent(events);
+                    } catch (RemoteException ex) {
+                        // If we cannot send a record, its likely the connection snapped. Let
+                        // binder death handle the situation.
+                        Log.e(TAG, "onEvent calling failed: " + ex);
+                    }
+                }
+                if (trace != null) {
+                    trace.onDelivered();
+                }
+                if (events == null) {
+                    return;
+                }
+            }
+        }
+
         float getRate(int propId) {
             // Return 0 if no key found, since that is the slowest rate.
             return mRateMap.get(propId, (float) 0);
@@ -133,6 +208,7 @@ public class CarPropertyService extends ICarProperty.Stub
         void release() {
             mListenerBinder.unlinkToDeath(this, 0);
             mClientMap.remove(mListenerBinder);
+            mEventQueue.clear();
         }
 
         void removeProperty(int propId) {
@@ -150,6 +226,14 @@ public class CarPropertyService extends ICarProperty.Stub
             // Cache the configs list to avoid subsequent binder calls
             mConfigs.clear();
             mConfigs.putAll(mHal.getPropertyList());
+            SparseBooleanArray continuousProperties = new SparseBooleanArray();
+            for (CarPropertyConfig<?> config : mConfigs.values()) {
+                if (config.getChangeMode()
+                        == CarPropertyConfig.VEHICLE_PROPERTY_CHANGE_MODE_CONTINUOUS) {
+                    continuousProperties.put(config.getPropertyId(), true);
+                }
+            }
+            mContinuousProperties = continuousProperties;
         }
         if (DBG) {
             Log.d(TAG, "cache CarPropertyConfigs " + mConfigs.size());
@@ -168,6 +252,7 @@ public class CarPropertyService extends ICarProperty.Stub
         synchronized (mLock) {
             mSetOperationClientMap.clear();
         }
+        mDispatcher.shutdown();
     }
 
     @Override
@@ -194,6 +279,11 @@ public class CarPropertyService extends ICarProperty.Stub
                             + " by client: " + areaIdToClient.valueAt(j));
                 }
             }
+            writer.println("    Client event queues: ");
+            for (Client client : mClientMap.values()) {
+                writer.println("        client: " + client.getListenerBinder());
+                client.mEventQueue.dump("            ", writer);
+            }
         }
     }
 
@@ -279,6 +369,32 @@ public class CarPropertyService extends ICarProperty.Stub
         }
     }
 
+    /**
+     * Registers a listener for services running in the car service process. Values are delivered
+     * as primitives, without going through {@link CarPropertyEvent}s.
+     *
+     * @see PropertyHalService#registerInternalListener
+     */
+    public void registerInternalListener(int propId, float rate,
+            PropertyHalService.InternalPropertyListener listener) {
+        synchronized (mLock) {
+            if (mConfigs.get(propId) == null) {
+                Log.e(TAG, "registerInternalListener: propId is not in config list: 0x"
+                        + toHexString(propId));
+                return;
+            }
+        }
+        mHal.registerInternalListener(propId, rate, listener);
+    }
+
+    /**
+     * Unregisters a listener registered through {@link #registerInternalListener}.
+     */
+    public void unregisterInternalListener(int propId,
+            PropertyHalService.InternalPropertyListener listener) {
+        mHal.unregisterInternalListener(propId, listener);
+    }
+
     @Override
     public void unregisterListener(int propId, ICarPropertyEventListener listener) {
         if (DBG) {
@@ -407,19 +523,36 @@ public class CarPropertyService extends ICarProperty.Stub
     @Override
     public void setProperty(CarPropertyValue prop, ICarPropertyEventListener listener) {
         int propId = prop.getPropertyId();
+        checkSetPermissions(propId);
+        mHal.setProperty(prop);
+        recordSetOperation(propId, prop.getAreaId(), listener);
+    }
+
+    @Override
+    public void setPropertyAsync(CarPropertyValue prop, ICarPropertyEventListener listener) {
+        int propId = prop.getPropertyId();
+        checkSetPermissions(propId);
+        // Recorded first, so the errors of the write reach this client.
+        recordSetOperation(propId, prop.getAreaId(), listener);
+        mHal.setPropertyAsync(prop);
+    }
+
+    private void checkSetPermissions(int propId) {
         checkPropertyAccessibility(propId);
         // need an extra permission for writing display units properties.
         if (mHal.isDisplayUnitsProperty(propId)) {
             ICarImpl.assertPermission(mContext, Car.PERMISSION_VENDOR_EXTENSION);
         }
-        mHal.setProperty(prop);
+    }
+
+    private void recordSetOperation(int propId, int areaId, ICarPropertyEventListener listener) {
         IBinder listenerBinder = listener.asBinder();
         synchronized (mLock) {
             Client client = mClientMap.get(listenerBinder);
             if (client == null) {
                 client = new Client(listener);
             }
-            updateSetOperationRecorder(propId, prop.getAreaId(), client);
+            updateSetOperationRecorder(propId, areaId, client);
         }
     }
 
@@ -479,9 +612,9 @@ public class CarPropertyService extends ICarProperty.Stub
     // Implement PropertyHalListener interface
     @Override
     public void onPropertyChange(List<CarPropertyEvent> events) {
-        Map<IBinder, Pair<ICarPropertyEventListener, List<CarPropertyEvent>>> eventsToDispatch =
-                new HashMap<>();
-
+        PropertyEventTracer.Trace trace =
+                PropertyEventTracer.markStage(PropertyEventTracer.STAGE_CAR_PROPERTY_SERVICE);
+        SparseBooleanArray continuousProperties = mContinuousProperties;
         for (CarPropertyEvent event : events) {
             int propId = event.getCarPropertyValue().getPropertyId();
             List<Client> clients = mPropIdClientMap.get(propId);
@@ -491,26 +624,9 @@ public class CarPropertyService extends ICarProperty.Stub
                 continue;
             }
 
+            boolean continuous = continuousProperties.get(propId);
             for (Client c : clients) {
-                IBinder listenerBinder = c.getListenerBinder();
-                Pair<ICarPropertyEventListener, List<CarPropertyEvent>> p =
-                        eventsToDispatch.get(listenerBinder);
-                if (p == null) {
-                    // Initialize the linked list for the listener
-                    p = new Pair<>(c.getListener(), new LinkedList<CarPropertyEvent>());
-                    eventsToDispatch.put(listenerBinder, p);
-                }
-                p.second.add(event);
-            }
-        }
-        // Parse the dispatch list to send events
-        for (Pair<ICarPropertyEventListener, List<CarPropertyEvent>> p: eventsToDispatch.values()) {
-            try {
-                p.first.onEvent(p.second);
-            } catch (RemoteException ex) {
-                // If we cannot send a record, its likely the connection snapped. Let binder
-                // death handle the situation.
-                Log.e(TAG, "onEvent calling failed: " + ex);
+                c.enqueueEvent(event, continuous, trace);
             }
         }
     }
@@ -535,14 +651,9 @@ public class CarPropertyService extends ICarProperty.Stub
 
     private void dispatchToLastClient(int property, int areaId, int errorCode,
             Client lastOperatedClient) {
-        try {
-            List<CarPropertyEvent> eventList = new LinkedList<>();
-            eventList.add(
-                    CarPropertyEvent.createErrorEventWithErrorCode(property, areaId,
-                            errorCode));
-            lastOperatedClient.getListener().onEvent(eventList);
-        } catch (RemoteException ex) {
-            Log.e(TAG, "onEvent calling failed: " + ex);
-        }
+        // Errors go through the same queue as property changes to keep their relative order.
+        lastOperatedClient.enqueueEvent(
+                CarPropertyEvent.createErrorEventWithErrorCode(property, areaId, errorCode),
+                /* continuous= */ false, /* trace= */ null);
     }
 }
@@ -65,6 +65,7 @@ import android.hardware.automotive.vehicle.V2_0.UsersInfo;
 import android.hardware.automotive.vehicle.V2_0.VehicleArea;
 import android.os.Binder;
 import android.os.Build;
+import android.os.ParcelFileDescriptor;
 import android.os.Process;
 import android.os.ShellCommand;
 import android.os.SystemClock;
@@ -88,6 +89,7 @@ import com.android.car.trust.CarTrustedDeviceService;
 import com.android.car.user.CarUserService;
 import com.android.internal.infra.AndroidFuture;
 
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -107,6 +109,8 @@ final class CarShellCommand extends ShellCommand {
     private static final String COMMAND_DAY_NIGHT_MODE = "day-night-mode";
     private static final String COMMAND_INJECT_VHAL_EVENT = "inject-vhal-event";
     private static final String COMMAND_INJECT_ERROR_EVENT = "inject-error-event";
+    private static final String COMMAND_RECORD_VHAL = "record-vhal";
+    private static final String COMMAND_TRACE_PROPERTY_EVENTS = "trace-property-events";
     private static final String COMMAND_ENABLE_UXR = "enable-uxr";
     private static final String COMMAND_GARAGE_MODE = "garage-mode";
     private static final String COMMAND_GET_DO_ACTIVITIES = "get-do-activities";
@@ -313,6 +317,11 @@ final class CarShellCommand extends ShellCommand {
         pw.println("\t  If not specified, it will be 0.");
         pw.println("\tinject-error-event property zone errorCode");
         pw.println("\t  Inject an error event from VHAL for testing.");
+        pw.println("\trecord-vhal start file|stop");
+        pw.println("\t  Start or stop recording the values exchanged with VHAL into a file.");
+        pw.println("\ttrace-property-events interval|reset");
+        pw.println("\t  Trace the latency of one property event out of interval, 0 to stop.");
+        pw.println("\t  The latencies are shown by dumpsys car_service; reset clears them.");
         pw.println("\tenable-uxr true|false");
         pw.println("\t  Enable/Disable UX restrictions and App blocking.");
         pw.println("\tgarage-mode [on|off|query|reboot]");
@@ -510,6 +519,40 @@ final class CarShellCommand extends ShellCommand {
                 String errorCode = args[3];
                 injectVhalEvent(args[1], errorAreaId, errorCode, true, "0", writer);
                 break;
+            case COMMAND_RECORD_VHAL:
+                if (args.length == 3 && args[1].equals("start")) {
+                    // Opened by the shell, which can write where the car service cannot.
+                    ParcelFileDescriptor fd = openFileForSystem(args[2], "w");
+                    if (fd == null) {
+                        writer.println("Failed to start recording: cannot open " + args[2]);
+                        return RESULT_ERROR;
+                    }
+                    try {
+                        mHal.startRecording(fd);
+                    } catch (IOException e) {
+                        writer.println("Failed to start recording: " + e);
+                        return RESULT_ERROR;
+                    }
+                } else if (args.length == 2 && args[1].equals("stop")) {
+                    mHal.stopRecording();
+                } else {
+                    return showInvalidArguments(writer);
+                }
+                break;
+            case COMMAND_TRACE_PROPERTY_EVENTS:
+                if (args.length != 2) {
+                    return showInvalidArguments(writer);
+                }
+                if (args[1].equals("reset")) {
+                    mHal.getPropertyEventTracer().reset();
+                    break;
+                }
+                try {
+                    mHal.getPropertyEventTracer().setSamplingInterval(Integer.parseInt(args[1]));
+                } catch (IllegalArgumentException e) {
+                    return showInvalidArguments(writer);
+                }
+                break;
             case COMMAND_ENABLE_UXR:
                 if (args.length != 2) {
                     return showInvalidArguments(writer);
@@ -32,13 +32,12 @@ import android.car.drivingstate.CarDrivingStateEvent;
 import android.car.drivingstate.CarDrivingStateEvent.CarDrivingState;
 import android.car.drivingstate.CarUxRestrictions;
 import android.car.drivingstate.CarUxRestrictionsConfiguration;
+import android.car.drivingstate.CarUxRestrictionsConfiguration.SpeedBand;
 import android.car.drivingstate.CarUxRestrictionsManager;
 import android.car.drivingstate.ICarDrivingStateChangeListener;
 import android.car.drivingstate.ICarUxRestrictionsChangeListener;
 import android.car.drivingstate.ICarUxRestrictionsManager;
 import android.car.hardware.CarPropertyValue;
-import android.car.hardware.property.CarPropertyEvent;
-import android.car.hardware.property.ICarPropertyEventListener;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
@@ -63,6 +62,7 @@ import android.util.SparseArray;
 import android.view.Display;
 import android.view.DisplayAddress;
 
+import com.android.car.hal.PropertyHalService.InternalPropertyListener;
 import com.android.car.systeminterface.SystemInterface;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
@@ -170,6 +170,15 @@ public class CarUxRestrictionsManagerService extends ICarUxRestrictionsManager.S
     @GuardedBy("mLock")
     private float mCurrentMovingSpeed;
 
+    // Speed bands of mCurrentUxRestrictions, parallel to mPhysicalPorts. Speed changes within
+    // all of them for the same driving state and mode cannot change the restrictions.
+    @GuardedBy("mLock")
+    private SpeedBand[] mCurrentSpeedBands;
+    @GuardedBy("mLock")
+    private int mCurrentSpeedBandsDrivingState;
+    @GuardedBy("mLock")
+    private String mCurrentSpeedBandsMode;
+
     // Byte represents a physical port for display.
     @GuardedBy("mLock")
     private byte mDefaultDisplayPhysicalPort;
@@ -218,8 +227,8 @@ public class CarUxRestrictionsManagerService extends ICarUxRestrictionsManager.S
         mDrivingStateService.registerDrivingStateChangeListener(
                 mICarDrivingStateChangeEventListener);
         // subscribe to property service for speed
-        mCarPropertyService.registerListener(VehicleProperty.PERF_VEHICLE_SPEED,
-                PROPERTY_UPDATE_RATE, mICarPropertyEventListener);
+        mCarPropertyService.registerInternalListener(VehicleProperty.PERF_VEHICLE_SPEED,
+                PROPERTY_UPDATE_RATE, mSpeedListener);
 
         initializeUxRestrictions();
     }
@@ -347,7 +356,11 @@ public class CarUxRestrictionsManagerService extends ICarUxRestrictionsManager.S
         CarPropertyValue value = mCarPropertyService.getProperty(VehicleProperty.PERF_VEHICLE_SPEED,
                 0);
         if (value != null) {
-            return (Float) value.getValue();
+            Float speed = (Float) value.getValue();
+            if (speed != null && Float.isFinite(speed)) {
+                return speed;
+            }
+            Log.w(TAG, "Invalid speed: " + speed);
         }
         return SPEED_NOT_AVAILABLE;
     }
@@ -365,6 +378,8 @@ public class CarUxRestrictionsManagerService extends ICarUxRestrictionsManager.S
         }
         mDrivingStateService.unregisterDrivingStateChangeListener(
                 mICarDrivingStateChangeEventListener);
+        mCarPropertyService.unregisterInternalListener(VehicleProperty.PERF_VEHICLE_SPEED,
+                mSpeedListener);
         synchronized (mLock) {
             mActivityViewDisplayInfoMap.clear();
         }
@@ -760,29 +775,24 @@ public class CarUxRestrictionsManagerService extends ICarUxRestrictionsManager.S
     }
 
     /**
-     * {@link CarPropertyEvent} listener registered with the {@link CarPropertyService} for getting
-     * speed change notifications.
+     * In-process listener registered with the {@link CarPropertyService} for getting speed change
+     * notifications.
      */
-    private final ICarPropertyEventListener mICarPropertyEventListener =
-            new ICarPropertyEventListener.Stub() {
-                @Override
-                public void onEvent(List<CarPropertyEvent> events) throws RemoteException {
-                    synchronized (mLock) {
-                        for (CarPropertyEvent event : events) {
-                            if ((event.getEventType()
-                                    == CarPropertyEvent.PROPERTY_EVENT_PROPERTY_CHANGE)
-                                    && (event.getCarPropertyValue().getPropertyId()
-                                    == VehicleProperty.PERF_VEHICLE_SPEED)) {
-                                handleSpeedChangeLocked(
-                                        (Float) event.getCarPropertyValue().getValue());
-                            }
-                        }
-                    }
-                }
-            };
+    private final InternalPropertyListener mSpeedListener = new InternalPropertyListener() {
+        @Override
+        public void onFloatPropertyChanged(int propId, int areaId, float value, long timestamp) {
+            synchronized (mLock) {
+                handleSpeedChangeLocked(value);
+            }
+        }
+    };
 
     @GuardedBy("mLock")
     private void handleSpeedChangeLocked(float newSpeed) {
+        if (!Float.isFinite(newSpeed)) {
+            Log.w(TAG, "Ignoring invalid speed: " + newSpeed);
+            return;
+        }
         if (newSpeed == mCurrentMovingSpeed) {
             // Ignore if speed hasn't changed
             return;
@@ -815,25 +825,41 @@ public class CarUxRestrictionsManagerService extends ICarUxRestrictionsManager.S
             return;
         }
 
+        if (isInCurrentSpeedBandsLocked(currentDrivingState, speed)) {
+            return;
+        }
+
+        SpeedBand[] speedBands = new SpeedBand[mPhysicalPorts.size()];
         Map<Byte, CarUxRestrictions> newUxRestrictions = new HashMap<>();
-        for (byte port : mPhysicalPorts) {
+        for (int i = 0; i < mPhysicalPorts.size(); i++) {
+            byte port = mPhysicalPorts.get(i);
             CarUxRestrictionsConfiguration config = mCarUxRestrictionsConfigurations.get(port);
             if (config == null) {
                 continue;
             }
 
-            CarUxRestrictions uxRestrictions = config.getUxRestrictions(
-                    currentDrivingState, speed, mRestrictionMode);
-            logd(String.format("Display port 0x%02x\tDO old->new: %b -> %b",
-                    port,
-                    mCurrentUxRestrictions.get(port).isRequiresDistractionOptimization(),
-                    uxRestrictions.isRequiresDistractionOptimization()));
-            logd(String.format("Display port 0x%02x\tUxR old->new: 0x%x -> 0x%x",
-                    port,
-                    mCurrentUxRestrictions.get(port).getActiveRestrictions(),
-                    uxRestrictions.getActiveRestrictions()));
+            SpeedBand speedBand = config.getSpeedBand(currentDrivingState, speed,
+                    mRestrictionMode);
+            speedBands[i] = speedBand;
+            CarUxRestrictions currentUxRestrictions = mCurrentUxRestrictions.get(port);
+            // Only create new restrictions when they change, so they carry the time of change.
+            CarUxRestrictions uxRestrictions = speedBand.isSameRestrictions(currentUxRestrictions)
+                    ? currentUxRestrictions : speedBand.createUxRestrictions();
+            if (DBG) {
+                logd(String.format("Display port 0x%02x\tDO old->new: %b -> %b",
+                        port,
+                        currentUxRestrictions.isRequiresDistractionOptimization(),
+                        uxRestrictions.isRequiresDistractionOptimization()));
+                logd(String.format("Display port 0x%02x\tUxR old->new: 0x%x -> 0x%x",
+                        port,
+                        currentUxRestrictions.getActiveRestrictions(),
+                        uxRestrictions.getActiveRestrictions()));
+            }
             newUxRestrictions.put(port, uxRestrictions);
         }
+        mCurrentSpeedBands = speedBands;
+        mCurrentSpeedBandsDrivingState = currentDrivingState;
+        mCurrentSpeedBandsMode = mRestrictionMode;
 
         // Ignore dispatching if the restrictions has not changed.
         Set<Byte> displayToDispatch = new ArraySet<>();
@@ -1096,6 +1122,33 @@ public class CarUxRestrictionsManagerService extends ICarUxRestrictionsManager.S
         mTransitionLogs.add(tLog);
     }
 
+    /**
+     * Returns {@code true} if the restrictions for the given driving state and speed are known to
+     * be the current ones for every display, without allocating.
+     */
+    @GuardedBy("mLock")
+    private boolean isInCurrentSpeedBandsLocked(@CarDrivingState int drivingState, float speed) {
+        SpeedBand[] speedBands = mCurrentSpeedBands;
+        if (speedBands == null || speedBands.length != mPhysicalPorts.size()
+                || drivingState != mCurrentSpeedBandsDrivingState
+                || !mRestrictionMode.equals(mCurrentSpeedBandsMode)) {
+            return false;
+        }
+        for (int i = 0; i < speedBands.length; i++) {
+            CarUxRestrictionsConfiguration config =
+                    mCarUxRestrictionsConfigurations.get(mPhysicalPorts.get(i));
+            SpeedBand speedBand = speedBands[i];
+            if (speedBand == null) {
+                if (config != null) {
+                    return false;
+                }
+            } else if (speedBand.getConfiguration() != config || !speedBand.includes(speed)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private static void logd(String msg) {
         if (DBG) {
             Slog.d(TAG, msg);
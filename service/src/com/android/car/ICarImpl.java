@@ -430,6 +430,24 @@ public class ICarImpl extends ICar.Stub {
         return mCarExperimentalFeatureServiceController.getCarManagerClassForFeature(featureName);
     }
 
+    @Override
+    public List<IBinder> getCarServices(String[] serviceNames, List<String> managerClassNames) {
+        List<IBinder> binders = new ArrayList<>(serviceNames.length);
+        for (String serviceName : serviceNames) {
+            IBinder binder = null;
+            try {
+                binder = getCarService(serviceName);
+            } catch (SecurityException e) {
+                // Client retries the service alone through getCarService() to get the exception.
+                Log.w(CarLog.TAG_SERVICE, "getCarServices no access to service:" + serviceName);
+            }
+            binders.add(binder);
+            managerClassNames.add(binder == null ? null
+                    : getCarManagerClassForFeature(serviceName));
+        }
+        return binders;
+    }
+
     static void assertCallingFromSystemProcess() {
         int uid = Binder.getCallingUid();
         if (uid != Process.SYSTEM_UID) {
@@ -680,6 +698,8 @@ public class ICarImpl extends ICar.Stub {
             mCarStatsService.dump(fd, writer, Arrays.copyOfRange(args, 1, args.length));
         } else if ("--vms-hal".equals(args[0])) {
             mHal.getVmsHal().dumpMetrics(fd);
+        } else if ("--power-timeline".equals(args[0])) {
+            mCarPowerManagementService.dumpTimelineProto(fd);
         } else if ("--hal".equals(args[0])) {
             if (args.length == 1) {
                 dumpAllHals(writer);
@@ -731,6 +751,8 @@ public class ICarImpl extends ICar.Stub {
         writer.println("\t  name (like CarUserService)");
         writer.println("--vms-hal");
         writer.println("\t  dumps the VMS HAL metrics");
+        writer.println("--power-timeline");
+        writer.println("\t  dumps the recent power state transitions as a PowerTimeline proto");
         writer.println("--hal [HAL1] [HAL2] [HALN]");
         writer.println("\t  dumps just the specified HALs (or all of them if none specified),");
         writer.println("\t  where HAL is just the class name (like UserHalService)");
@@ -808,6 +830,11 @@ public class ICarImpl extends ICar.Stub {
         newCarShellCommand().exec(args, writer);
     }
 
+    @VisibleForTesting
+    VehicleHal getVehicleHal() {
+        return mHal;
+    }
+
     @MainThread
     private void traceBegin(String name) {
         Slog.i(TAG, name);
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car;
+
+import android.annotation.NonNull;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram of latency samples using power-of-two buckets.
+ *
+ * <p>Recording a sample is lock-free and does not allocate, so it is safe to use on hot paths
+ * and from multiple threads. Percentiles are approximated by the upper bound of the bucket
+ * containing the requested rank, capped by the maximum recorded sample.
+ */
+public final class LatencyHistogram {
+
+    // Bucket 0 holds samples <= 0, bucket i (i > 0) holds samples in [2^(i-1), 2^i).
+    private static final int NUM_BUCKETS = 40;
+
+    private final String mUnit;
+    private final AtomicLongArray mBuckets = new AtomicLongArray(NUM_BUCKETS);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Creates a histogram.
+     *
+     * @param unit unit of the recorded samples, only used when dumping (e.g. "us" or "ms").
+     */
+    public LatencyHistogram(@NonNull String unit) {
+        mUnit = unit;
+    }
+
+    /** Records a single sample. */
+    public void record(long value) {
+        mBuckets.incrementAndGet(getBucketIndex(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /** Returns the number of samples recorded. */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /** Returns the largest sample recorded, or {@code 0} if none. */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /** Returns the mean of the recorded samples, or {@code 0} if none. */
+    public long getMean() {
+        long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / count;
+    }
+
+    /**
+     * Returns an approximation of the given percentile of the recorded samples.
+     *
+     * @param percentile percentile in the range [0, 100].
+     */
+    public long getPercentile(int percentile) {
+        long count = mCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (count * percentile + 99) / 100);
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += mBuckets.get(i);
+            if (seen >= rank) {
+                return Math.min(getBucketUpperBound(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /** Clears all recorded samples. */
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /** Dumps a one line summary of the histogram. */
+    public void dump(String indent, String name, PrintWriter writer) {
+        writer.printf("%s%s: count=%d, mean=%d%s, p50=%d%s, p99=%d%s, max=%d%s\n", indent, name,
+                getCount(), getMean(), mUnit, getPercentile(50), mUnit, getPercentile(99), mUnit,
+                getMax(), mUnit);
+    }
+
+    private static int getBucketIndex(long value) {
+        if (value <= 0) {
+            return 0;
+        }
+        return Math.min(Long.SIZE - Long.numberOfLeadingZeros(value), NUM_BUCKETS - 1);
+    }
+
+    private static long getBucketUpperBound(int index) {
+        if (index == 0) {
+            return 0;
+        }
+        return (1L << index) - 1;
+    }
+}
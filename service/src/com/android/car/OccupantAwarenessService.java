@@ -29,6 +29,7 @@ import android.hardware.automotive.occupant_awareness.IOccupantAwarenessClientCa
 import android.os.RemoteCallbackList;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.util.Log;
 
 import com.android.internal.annotations.GuardedBy;
@@ -36,6 +37,8 @@ import com.android.internal.annotations.VisibleForTesting;
 
 import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A service that listens to an Occupant Awareness Detection system across a HAL boundary and
@@ -76,6 +79,43 @@ public class OccupantAwarenessService
 
     private final ChangeListenerToHalService mHalListener = new ChangeListenerToHalService(this);
 
+    // Delivery statistics. Frames are delivered from the HAL callback thread only, but dumped from
+    // binder threads.
+    @GuardedBy("mLock")
+    private long mFramesIn;
+    @GuardedBy("mLock")
+    private long mBatchesOut;
+    @GuardedBy("mLock")
+    private long mFramesThrottled;
+    // Time from receiving a frame from the HAL to handing it to the last listener.
+    private final LatencyHistogram mDeliveryLatency = new LatencyHistogram("us");
+
+    /**
+     * Per-listener delivery state, kept as the cookie of the listener in {@link #mListeners}.
+     * Only accessed while broadcasting, apart from dump.
+     */
+    private static final class ListenerState {
+        // Minimum time between two delivered frames, or 0 for no throttling.
+        final long mMinIntervalMs;
+        long mLastDeliveryMs = -1;
+        long mThrottledFrames;
+
+        ListenerState(float maxRateHz) {
+            mMinIntervalMs = maxRateHz > 0 ? (long) (1000 / maxRateHz) : 0;
+        }
+
+        /** Returns whether a frame received at {@code nowMs} has to be delivered. */
+        boolean shouldDeliver(long nowMs) {
+            if (mMinIntervalMs > 0 && mLastDeliveryMs >= 0
+                    && nowMs - mLastDeliveryMs < mMinIntervalMs) {
+                mThrottledFrames++;
+                return false;
+            }
+            mLastDeliveryMs = nowMs;
+            return true;
+        }
+    }
+
     private class ChangeCallbackList extends RemoteCallbackList<IOccupantAwarenessEventCallback> {
         private final WeakReference<OccupantAwarenessService> mOasService;
 
@@ -129,10 +169,25 @@ public class OccupantAwarenessService
         writer.println(
                 String.format(
                         "%s to HAL service", mOasHal == null ? "NOT connected" : "Connected"));
-        writer.println(
-                String.format(
-                        "%d change listeners subscribed.",
-                        mListeners.getRegisteredCallbackCount()));
+        int listenerCount = mListeners.getRegisteredCallbackCount();
+        writer.println(String.format("%d change listeners subscribed.", listenerCount));
+        for (int i = 0; i < listenerCount; i++) {
+            ListenerState state = (ListenerState) mListeners.getRegisteredCallbackCookie(i);
+            if (state != null) {
+                writer.println(
+                        String.format(
+                                "\tlistener %d: minIntervalMs=%d, throttledFrames=%d",
+                                i, state.mMinIntervalMs, state.mThrottledFrames));
+            }
+        }
+        writer.println("Detection delivery:");
+        synchronized (mLock) {
+            writer.println(
+                    String.format(
+                            "\tframesIn=%d, batchesOut=%d, framesThrottled=%d",
+                            mFramesIn, mBatchesOut, mFramesThrottled));
+        }
+        mDeliveryLatency.dump("\t", "deliveryLatency", writer);
     }
 
     /** Attempts to connect to the HAL service if it is not already connected. */
@@ -277,6 +332,22 @@ public class OccupantAwarenessService
      */
     @Override
     public void registerEventListener(@NonNull IOccupantAwarenessEventCallback listener) {
+        registerEventListenerWithMaxRate(listener, 0);
+    }
+
+    /**
+     * Registers a {@link IOccupantAwarenessEventCallback} to be notified for changes in the system
+     * state, receiving at most {@code maxRateHz} detection frames per second.
+     *
+     * <p>Requires {@link android.car.Car.PERMISSION_READ_CAR_OCCUPANT_AWARENESS_STATE} read
+     * permissions to access.
+     *
+     * @param listener {@link IOccupantAwarenessEventCallback} listener to register.
+     * @param maxRateHz maximum detection frame rate, or 0 to receive every frame.
+     */
+    @Override
+    public void registerEventListenerWithMaxRate(
+            @NonNull IOccupantAwarenessEventCallback listener, float maxRateHz) {
         ICarImpl.assertPermission(mContext, Car.PERMISSION_READ_CAR_OCCUPANT_AWARENESS_STATE);
 
         connectToHalServiceIfNotConnected();
@@ -288,7 +359,7 @@ public class OccupantAwarenessService
             }
 
             logd("Registering a new listener");
-            mListeners.register(listener);
+            mListeners.register(listener, new ListenerState(maxRateHz));
 
             // After the first client connects, request that the detection graph start.
             if (mListeners.getRegisteredCallbackCount() == 1) {
@@ -335,20 +406,45 @@ public class OccupantAwarenessService
         mListeners.finishBroadcast();
     }
 
-    /** Processes a detection event and propagates it to registered clients. */
+    /**
+     * Processes the detections of a single frame and propagates them to registered clients in one
+     * call per client, skipping clients that received a frame too recently.
+     */
     @VisibleForTesting
-    void processDetectionEvent(@NonNull OccupantAwarenessDetection detection) {
-        int idx = mListeners.beginBroadcast();
-        while (idx-- > 0) {
-            IOccupantAwarenessEventCallback listener = mListeners.getBroadcastItem(idx);
-            try {
-                listener.onDetectionEvent(detection);
-            } catch (RemoteException e) {
-                // It's likely the connection snapped. Let binder death handle the situation.
-                Log.e(TAG, "onDetectionEvent() invocation failed: " + e, e);
+    void processDetectionEvents(@NonNull List<OccupantAwarenessDetection> detections) {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        long nowMs = SystemClock.uptimeMillis();
+        int batchesOut = 0;
+        int throttled = 0;
+
+        if (!detections.isEmpty()) {
+            int idx = mListeners.beginBroadcast();
+            while (idx-- > 0) {
+                ListenerState state = (ListenerState) mListeners.getBroadcastCookie(idx);
+                if (state != null && !state.shouldDeliver(nowMs)) {
+                    throttled++;
+                    continue;
+                }
+                IOccupantAwarenessEventCallback listener = mListeners.getBroadcastItem(idx);
+                try {
+                    listener.onDetectionEvents(detections);
+                    batchesOut++;
+                } catch (RemoteException e) {
+                    // It's likely the connection snapped. Let binder death handle the situation.
+                    Log.e(TAG, "onDetectionEvents() invocation failed: " + e, e);
+                }
             }
+            mListeners.finishBroadcast();
+        }
+
+        synchronized (mLock) {
+            mFramesIn++;
+            mBatchesOut += batchesOut;
+            mFramesThrottled += throttled;
+        }
+        if (batchesOut > 0) {
+            mDeliveryLatency.record((SystemClock.elapsedRealtimeNanos() - startNs) / 1000);
         }
-        mListeners.finishBroadcast();
     }
 
     /** Handle client disconnections, possibly stopping the detection graph. */
@@ -394,12 +490,15 @@ public class OccupantAwarenessService
                 android.hardware.automotive.occupant_awareness.OccupantDetections detections) {
             OccupantAwarenessService service = mOasService.get();
             if (service != null) {
+                List<OccupantAwarenessDetection> events =
+                        new ArrayList<>(detections.detections.length);
                 for (android.hardware.automotive.occupant_awareness.OccupantDetection detection :
                         detections.detections) {
-                    service.processDetectionEvent(
+                    events.add(
                             OccupantAwarenessUtils.convertToDetectionEvent(
                                     detections.timeStampMillis, detection));
                 }
+                service.processDetectionEvents(events);
             }
         }
 
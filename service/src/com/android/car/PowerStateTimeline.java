@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car;
+
+import android.annotation.NonNull;
+import android.os.IBinder;
+import android.util.ArrayMap;
+
+import com.android.car.PowerProtos.PowerTimelineProto.PowerTimeline;
+import com.android.car.PowerProtos.PowerTimelineProto.PowerTimelineEntry;
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.Collection;
+
+/**
+ * Fixed-size ring buffer of the power state transitions of {@link CarPowerManagementService}.
+ *
+ * <p>Records state changes, how long each listener took to call {@code finished()} during
+ * SHUTDOWN_PREPARE, suspend retries and the time from resume to WAIT_FOR_VHAL. Times are passed
+ * by the caller, in {@link android.os.SystemClock#elapsedRealtime()} milliseconds.
+ */
+final class PowerStateTimeline {
+
+    static final int TYPE_STATE_CHANGE = PowerTimelineEntry.Type.STATE_CHANGE_VALUE;
+    static final int TYPE_LISTENER_FINISHED = PowerTimelineEntry.Type.LISTENER_FINISHED_VALUE;
+    static final int TYPE_LISTENER_NOT_FINISHED =
+            PowerTimelineEntry.Type.LISTENER_NOT_FINISHED_VALUE;
+    static final int TYPE_SUSPEND = PowerTimelineEntry.Type.SUSPEND_VALUE;
+    static final int TYPE_RESUME = PowerTimelineEntry.Type.RESUME_VALUE;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private final Entry[] mEntries;
+    // Total number of entries recorded; the next entry goes to mEntries[mRecorded % length].
+    @GuardedBy("mLock")
+    private long mRecorded;
+    // Listeners waiting to call finished(), with the time they were notified.
+    @GuardedBy("mLock")
+    private final ArrayMap<IBinder, Long> mNotifiedListeners = new ArrayMap<>();
+    @GuardedBy("mLock")
+    private long mStateStartMs = -1;
+    @GuardedBy("mLock")
+    private long mResumeMs = -1;
+
+    /** Entry of the timeline. Preallocated and reused once the buffer wraps. */
+    private static final class Entry {
+        int mType;
+        long mTimeMs;
+        long mDurationMs;
+        String mState;
+        String mListener;
+        int mRetryCount;
+        boolean mSuccess;
+    }
+
+    PowerStateTimeline(int capacity) {
+        mEntries = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            mEntries[i] = new Entry();
+        }
+    }
+
+    /** Records that the service entered the given state. */
+    void onStateChanged(@NonNull String stateName, long nowMs) {
+        synchronized (mLock) {
+            Entry entry = nextEntryLocked(TYPE_STATE_CHANGE, nowMs);
+            entry.mDurationMs = mStateStartMs < 0 ? 0 : nowMs - mStateStartMs;
+            entry.mState = stateName;
+            mStateStartMs = nowMs;
+        }
+    }
+
+    /** Records that the given listeners were notified and must call {@code finished()}. */
+    void onListenersNotified(@NonNull Collection<IBinder> listeners, long nowMs) {
+        synchronized (mLock) {
+            mNotifiedListeners.clear();
+            for (IBinder listener : listeners) {
+                mNotifiedListeners.put(listener, nowMs);
+            }
+        }
+    }
+
+    /** Records that a listener called {@code finished()}. */
+    void onListenerFinished(@NonNull IBinder listener, long nowMs) {
+        synchronized (mLock) {
+            Long notifiedMs = mNotifiedListeners.remove(listener);
+            if (notifiedMs == null) {
+                return;
+            }
+            Entry entry = nextEntryLocked(TYPE_LISTENER_FINISHED, nowMs);
+            entry.mDurationMs = nowMs - notifiedMs;
+            entry.mListener = String.valueOf(listener);
+        }
+    }
+
+    /** Records the listeners which have not called {@code finished()} yet, and forgets them. */
+    void onProcessingComplete(long nowMs) {
+        synchronized (mLock) {
+            for (int i = 0; i < mNotifiedListeners.size(); i++) {
+                Entry entry = nextEntryLocked(TYPE_LISTENER_NOT_FINISHED, nowMs);
+                entry.mDurationMs = nowMs - mNotifiedListeners.valueAt(i);
+                entry.mListener = String.valueOf(mNotifiedListeners.keyAt(i));
+            }
+            mNotifiedListeners.clear();
+        }
+    }
+
+    /**
+     * Records the end of the attempts to suspend to RAM.
+     *
+     * @param success whether the system suspended, in which case it has now resumed
+     * @param retryCount number of failed attempts
+     * @param waitDurationMs time spent waiting between attempts
+     */
+    void onSuspendFinished(boolean success, int retryCount, long waitDurationMs, long nowMs) {
+        synchronized (mLock) {
+            Entry entry = nextEntryLocked(TYPE_SUSPEND, nowMs);
+            entry.mDurationMs = waitDurationMs;
+            entry.mRetryCount = retryCount;
+            entry.mSuccess = success;
+            mResumeMs = success ? nowMs : -1;
+        }
+    }
+
+    /** Records that WAIT_FOR_VHAL is handled, completing a resume if one is in progress. */
+    void onWaitForVhal(long nowMs) {
+        synchronized (mLock) {
+            if (mResumeMs < 0) {
+                return;
+            }
+            Entry entry = nextEntryLocked(TYPE_RESUME, nowMs);
+            entry.mDurationMs = nowMs - mResumeMs;
+            mResumeMs = -1;
+        }
+    }
+
+    void dump(String indent, PrintWriter writer) {
+        synchronized (mLock) {
+            writer.printf("%sPower state timeline (%d entries, %d dropped):\n", indent,
+                    getSizeLocked(), getDroppedLocked());
+            long first = mRecorded - getSizeLocked();
+            for (long i = first; i < mRecorded; i++) {
+                Entry entry = mEntries[(int) (i % mEntries.length)];
+                writer.printf("%s  %d: %s", indent, entry.mTimeMs, typeToString(entry.mType));
+                switch (entry.mType) {
+                    case TYPE_STATE_CHANGE:
+                        writer.printf(" %s, previous state lasted %dms\n", entry.mState,
+                                entry.mDurationMs);
+                        break;
+                    case TYPE_LISTENER_FINISHED:
+                    case TYPE_LISTENER_NOT_FINISHED:
+                        writer.printf(" %s after %dms\n", entry.mListener, entry.mDurationMs);
+                        break;
+                    case TYPE_SUSPEND:
+                        writer.printf(" success=%b, retries=%d, waited %dms\n", entry.mSuccess,
+                                entry.mRetryCount, entry.mDurationMs);
+                        break;
+                    default:
+                        writer.printf(" after %dms\n", entry.mDurationMs);
+                        break;
+                }
+            }
+        }
+    }
+
+    /** Returns the timeline as a proto, oldest entry first. */
+    @NonNull
+    PowerTimeline toProto() {
+        synchronized (mLock) {
+            PowerTimeline.Builder builder = PowerTimeline.newBuilder()
+                    .setDroppedEntries(getDroppedLocked());
+            long first = mRecorded - getSizeLocked();
+            for (long i = first; i < mRecorded; i++) {
+                Entry entry = mEntries[(int) (i % mEntries.length)];
+                PowerTimelineEntry.Builder entryBuilder = PowerTimelineEntry.newBuilder()
+                        .setTypeValue(entry.mType)
+                        .setElapsedRealtimeMs(entry.mTimeMs)
+                        .setDurationMs(entry.mDurationMs)
+                        .setRetryCount(entry.mRetryCount)
+                        .setSuccess(entry.mSuccess);
+                if (entry.mState != null) {
+                    entryBuilder.setState(entry.mState);
+                }
+                if (entry.mListener != null) {
+                    entryBuilder.setListener(entry.mListener);
+                }
+                builder.addEntries(entryBuilder);
+            }
+            return builder.build();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private Entry nextEntryLocked(int type, long nowMs) {
+        Entry entry = mEntries[(int) (mRecorded % mEntries.length)];
+        mRecorded++;
+        entry.mType = type;
+        entry.mTimeMs = nowMs;
+        entry.mDurationMs = 0;
+        entry.mState = null;
+        entry.mListener = null;
+        entry.mRetryCount = 0;
+        entry.mSuccess = false;
+        return entry;
+    }
+
+    @GuardedBy("mLock")
+    private int getSizeLocked() {
+        return (int) Math.min(mRecorded, mEntries.length);
+    }
+
+    @GuardedBy("mLock")
+    private long getDroppedLocked() {
+        return mRecorded - getSizeLocked();
+    }
+
+    private static String typeToString(int type) {
+        switch (type) {
+            case TYPE_STATE_CHANGE:
+                return "STATE_CHANGE";
+            case TYPE_LISTENER_FINISHED:
+                return "LISTENER_FINISHED";
+            case TYPE_LISTENER_NOT_FINISHED:
+                return "LISTENER_NOT_FINISHED";
+            case TYPE_SUSPEND:
+                return "SUSPEND";
+            case TYPE_RESUME:
+                return "RESUME";
+            default:
+                return "UNKNOWN(" + type + ")";
+        }
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car;
+
+import android.annotation.Nullable;
+import android.car.hardware.property.CarPropertyEvent;
+import android.util.LongSparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Bounded queue of {@link CarPropertyEvent}s waiting to be delivered to a single client of
+ * {@link CarPropertyService}, so that a slow client only delays its own events.
+ *
+ * <p>Overflow policy:
+ * <ul>
+ *   <li>A new event of a continuous property replaces the pending event for the same property and
+ *   area, if any, so only the latest value is delivered.
+ *   <li>When the queue is full, the oldest pending event of a continuous property is dropped.
+ *   <li>Events of on-change properties and error events are never coalesced or dropped, since
+ *   every transition matters to clients. When the queue is full of them, it grows past its
+ *   capacity.
+ * </ul>
+ *
+ * <p>The queue also tracks whether a drain is scheduled, so that at most one thread delivers the
+ * events of a client at any time and the delivery order is kept.
+ */
+final class PropertyEventQueue {
+
+    private final Object mLock = new Object();
+
+    private final int mCapacity;
+
+    @GuardedBy("mLock")
+    private final ArrayDeque<Slot> mSlots;
+    // Pending slots of continuous properties, keyed by property and area
+    @GuardedBy("mLock")
+    private final LongSparseArray<Slot> mContinuousSlots = new LongSparseArray<>();
+    @GuardedBy("mLock")
+    private boolean mDrainScheduled;
+
+    @GuardedBy("mLock")
+    private long mEnqueuedCount;
+    @GuardedBy("mLock")
+    private long mDeliveredCount;
+    @GuardedBy("mLock")
+    private long mCoalescedCount;
+    @GuardedBy("mLock")
+    private long mDroppedCount;
+    @GuardedBy("mLock")
+    private long mOverCapacityCount;
+    @GuardedBy("mLock")
+    private int mMaxDepth;
+
+    private static final class Slot {
+        CarPropertyEvent mEvent;
+        // Property and area of the event.
+        final long mKey;
+        final boolean mDroppable;
+
+        Slot(CarPropertyEvent event, long key, boolean droppable) {
+            mEvent = event;
+            mKey = key;
+            mDroppable = droppable;
+        }
+    }
+
+    PropertyEventQueue(int capacity) {
+        mCapacity = capacity;
+        mSlots = new ArrayDeque<>(capacity);
+    }
+
+    /**
+     * Adds an event to the queue.
+     *
+     * @param event event to deliver
+     * @param continuous whether the event is a property change of a continuous property, which
+     *                   can be coalesced or dropped
+     * @return {@code true} if the caller must schedule a drain of this queue
+     */
+    boolean add(CarPropertyEvent event, boolean continuous) {
+        boolean droppable = continuous
+                && event.getEventType() == CarPropertyEvent.PROPERTY_EVENT_PROPERTY_CHANGE;
+        long key = getKey(event);
+        synchronized (mLock) {
+            mEnqueuedCount++;
+            if (droppable) {
+                Slot pending = mContinuousSlots.get(key);
+                if (pending != null) {
+                    pending.mEvent = event;
+                    mCoalescedCount++;
+                    return scheduleDrainLocked();
+                }
+            }
+            if (mSlots.size() >= mCapacity && !dropOldestLocked()) {
+                mOverCapacityCount++;
+            }
+            Slot slot = new Slot(event, key, droppable);
+            mSlots.addLast(slot);
+            if (droppable) {
+                mContinuousSlots.put(key, slot);
+            }
+            if (mSlots.size() > mMaxDepth) {
+                mMaxDepth = mSlots.size();
+            }
+            return scheduleDrainLocked();
+        }
+    }
+
+    /**
+     * Removes all pending events, in order.
+     *
+     * @return the pending events, or {@code null} if there are none. In the latter case the drain
+     *         is considered finished and the next {@link #add} requests a new one.
+     */
+    @Nullable
+    List<CarPropertyEvent> drain() {
+        synchronized (mLock) {
+            if (mSlots.isEmpty()) {
+                mDrainScheduled = false;
+                return null;
+            }
+            List<CarPropertyEvent> events = new ArrayList<>(mSlots.size());
+            for (Slot slot : mSlots) {
+                events.add(slot.mEvent);
+            }
+            mDeliveredCount += mSlots.size();
+            mSlots.clear();
+            mContinuousSlots.clear();
+            return events;
+        }
+    }
+
+    /** Drops all pending events. */
+    void clear() {
+        synchronized (mLock) {
+            mSlots.clear();
+            mContinuousSlots.clear();
+        }
+    }
+
+    int size() {
+        synchronized (mLock) {
+            return mSlots.size();
+        }
+    }
+
+    long getDroppedCount() {
+        synchronized (mLock) {
+            return mDroppedCount;
+        }
+    }
+
+    long getCoalescedCount() {
+        synchronized (mLock) {
+            return mCoalescedCount;
+        }
+    }
+
+    void dump(String indent, PrintWriter writer) {
+        synchronized (mLock) {
+            writer.printf("%sdepth=%d, maxDepth=%d, enqueued=%d, delivered=%d, coalesced=%d, "
+                    + "dropped=%d, overCapacity=%d\n", indent, mSlots.size(), mMaxDepth,
+                    mEnqueuedCount, mDeliveredCount, mCoalescedCount, mDroppedCount,
+                    mOverCapacityCount);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean scheduleDrainLocked() {
+        if (mDrainScheduled) {
+            return false;
+        }
+        mDrainScheduled = true;
+        return true;
+    }
+
+    @GuardedBy("mLock")
+    private boolean dropOldestLocked() {
+        Iterator<Slot> it = mSlots.iterator();
+        while (it.hasNext()) {
+            Slot slot = it.next();
+            if (slot.mDroppable) {
+                it.remove();
+                mContinuousSlots.remove(slot.mKey);
+                mDroppedCount++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long getKey(CarPropertyEvent event) {
+        return ((long) event.getCarPropertyValue().getPropertyId() << 32)
+                | (event.getCarPropertyValue().getAreaId() & 0xffffffffL);
+    }
+}
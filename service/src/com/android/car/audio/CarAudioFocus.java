@@ -20,9 +20,13 @@ import android.media.AudioAttributes;
 import android.media.AudioFocusInfo;
 import android.media.AudioManager;
 import android.media.audiopolicy.AudioPolicy;
+import android.os.SystemClock;
 import android.util.LocalLog;
 import android.util.Log;
 
+import com.android.car.LatencyHistogram;
+import com.android.car.audio.CarAudioContext.AudioContext;
+
 import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -35,6 +39,9 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
 
     private static final int FOCUS_EVENT_LOGGER_QUEUE_SIZE = 25;
 
+    // Returned by evaluateFocusRequestFromMasksLocked when the focus entries must be scanned
+    private static final int FOCUS_DECISION_NEEDS_SCAN = -1;
+
     private final AudioManager mAudioManager;
     private final PackageManager mPackageManager;
     private AudioPolicy mAudioPolicy; // Dynamically assigned just after construction
@@ -61,8 +68,17 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
     private final HashMap<String, FocusEntry> mFocusHolders = new HashMap<>();
     private final HashMap<String, FocusEntry> mFocusLosers = new HashMap<>();
 
+    // Audio contexts of mFocusHolders and mFocusLosers, kept in sync with the maps above so that
+    // common requests can be decided against the interaction masks without scanning the maps.
+    private final FocusContextMask mHolderMask = new FocusContextMask();
+    private final FocusContextMask mLoserMask = new FocusContextMask();
+
     private final Object mLock = new Object();
 
+    // Time spent deciding each incoming focus request, in microseconds
+    private final LatencyHistogram mDecisionLatencyUs = new LatencyHistogram("us");
+    private int mFastPathDecisionCount;
+
 
     CarAudioFocus(AudioManager audioManager, PackageManager packageManager,
             FocusInteraction focusInteraction, boolean enableDelayedFocusRequest) {
@@ -110,9 +126,11 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
     // The default audio framework's behavior is to remove the previous entry in the stack (no-op
     // if the requester is already holding focus).
     private int evaluateFocusRequestLocked(AudioFocusInfo afi) {
-        Log.i(TAG, "Evaluating " + focusEventToString(afi.getGainRequest())
-                + " request for client " + afi.getClientId()
-                + " with usage " + afi.getAttributes().usageToString());
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "Evaluating " + focusEventToString(afi.getGainRequest())
+                    + " request for client " + afi.getClientId()
+                    + " with usage " + afi.getAttributes().usageToString());
+        }
 
         // Is this a request for premanant focus?
         // AUDIOFOCUS_GAIN_TRANSIENT_EXCLUSIVE -- Means Notifications should be denied
@@ -156,13 +174,23 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
             }
         }
 
+        // Before scanning, try to decide the request from the contexts currently holding or
+        // waiting for focus alone. This covers the common cases without touching the entries.
+        int fastPathResult = evaluateFocusRequestFromMasksLocked(afi, requestedContext,
+                allowDucking, allowDelayedFocus);
+        if (fastPathResult != FOCUS_DECISION_NEEDS_SCAN) {
+            mFastPathDecisionCount++;
+            return fastPathResult;
+        }
+
         // Scan all active and pending focus requests.  If any should cause rejection of
         // this new request, then we're done.  Keep a list of those against whom we're exclusive
         // so we can update the relationships if/when we are sure we won't get rejected.
-        Log.i(TAG, "Scanning focus holders...");
         final ArrayList<FocusEntry> losers = new ArrayList<FocusEntry>();
         for (FocusEntry entry : mFocusHolders.values()) {
-            Log.d(TAG, "Evaluating focus holder: " + entry.getClientId());
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Evaluating focus holder: " + entry.getClientId());
+            }
 
             // If this request is for Notifications and a current focus holder has specified
             // AUDIOFOCUS_GAIN_TRANSIENT_EXCLUSIVE, then reject the request.
@@ -182,7 +210,9 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
                     // This is a request from a current focus holder.
                     // Abandon the previous request (without sending a LOSS notification to it),
                     // and don't check the interaction matrix for it.
-                    Log.i(TAG, "Replacing accepted request from same client");
+                    if (Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "Replacing accepted request from same client");
+                    }
                     replacedCurrentEntry = entry;
                     continue;
                 } else {
@@ -207,10 +237,11 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
                 delayFocusForCurrentRequest = true;
             }
         }
-        Log.i(TAG, "Scanning those who've already lost focus...");
         final ArrayList<FocusEntry> blocked = new ArrayList<FocusEntry>();
         for (FocusEntry entry : mFocusLosers.values()) {
-            Log.i(TAG, entry.getAudioFocusInfo().getClientId());
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Evaluating focus loser: " + entry.getClientId());
+            }
 
             // If this request is for Notifications and a pending focus holder has specified
             // AUDIOFOCUS_GAIN_TRANSIENT_EXCLUSIVE, then reject the request
@@ -228,7 +259,9 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
                     // Evaluate it as if it were a new request, but note that we should remove
                     // the old pending request, and move it.
                     // We do not want to evaluate the new request against itself.
-                    Log.i(TAG, "Replacing pending request from same client");
+                    if (Log.isLoggable(TAG, Log.DEBUG)) {
+                        Log.d(TAG, "Replacing pending request from same client");
+                    }
                     replacedBlockedEntry = entry;
                     continue;
                 } else {
@@ -263,11 +296,11 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
         ArrayList<FocusEntry> permanentlyLost = new ArrayList<>();
 
         if (replacedCurrentEntry != null) {
-            mFocusHolders.remove(replacedCurrentEntry.getClientId());
+            removeFocusHolderLocked(replacedCurrentEntry.getClientId());
             permanentlyLost.add(replacedCurrentEntry);
         }
         if (replacedBlockedEntry != null) {
-            mFocusLosers.remove(replacedBlockedEntry.getClientId());
+            removeFocusLoserLocked(replacedBlockedEntry.getClientId());
             permanentlyLost.add(replacedBlockedEntry);
         }
 
@@ -282,7 +315,7 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
                 // This entry has now lost focus forever
                 sendFocusLossLocked(entry.getAudioFocusInfo(), AudioManager.AUDIOFOCUS_LOSS);
                 entry.setDucked(false);
-                final FocusEntry deadEntry = mFocusLosers.remove(
+                final FocusEntry deadEntry = removeFocusLoserLocked(
                         entry.getAudioFocusInfo().getClientId());
                 assert deadEntry != null;
                 permanentlyLost.add(entry);
@@ -317,14 +350,14 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
             sendFocusLossLocked(entry.getAudioFocusInfo(), lossType);
 
             // The entry no longer holds focus, so take it out of the holders list
-            mFocusHolders.remove(entry.getAudioFocusInfo().getClientId());
+            removeFocusHolderLocked(entry.getAudioFocusInfo().getClientId());
 
             if (permanent) {
                 permanentlyLost.add(entry);
             } else {
                 // Add ourselves to the list of requests waiting to get focus back and
                 // note why we lost focus so we can tell when it's time to get it back
-                mFocusLosers.put(entry.getAudioFocusInfo().getClientId(), entry);
+                putFocusLoserLocked(entry);
                 entry.addBlocker(newEntry);
             }
         }
@@ -335,7 +368,9 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
         // re-grant them. (This can happen when a GAIN_TRANSIENT_MAY_DUCK request replaces a
         // GAIN_TRANSIENT request from the same listener.)
         for (FocusEntry entry : permanentlyLost) {
-            Log.d(TAG, "Cleaning up entry " + entry.getClientId());
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Cleaning up entry " + entry.getClientId());
+            }
             removeBlockerAndRestoreUnblockedWaitersLocked(entry);
         }
 
@@ -345,12 +380,84 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
             return AudioManager.AUDIOFOCUS_REQUEST_DELAYED;
         }
 
-        mFocusHolders.put(afi.getClientId(), newEntry);
+        putFocusHolderLocked(newEntry);
 
-        Log.i(TAG, "AUDIOFOCUS_REQUEST_GRANTED");
+        if (Log.isLoggable(TAG, Log.DEBUG)) {
+            Log.d(TAG, "AUDIOFOCUS_REQUEST_GRANTED");
+        }
         return AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
     }
 
+    /**
+     * Decides a focus request from the context masks of the current focus holders and losers.
+     *
+     * <p>Handles requests with nobody else in the focus stack, requests rejected by one of the
+     * current contexts, and duckable requests which are concurrent with every current holder.
+     *
+     * @return the {@link AudioManager.FocusRequestResult} or {@link #FOCUS_DECISION_NEEDS_SCAN}
+     * if the entries have to be evaluated one by one.
+     */
+    private int evaluateFocusRequestFromMasksLocked(AudioFocusInfo afi,
+            @AudioContext int requestedContext, boolean allowDucking, boolean allowDelayedFocus) {
+        int loserContexts = mLoserMask.getContextMask();
+        int activeContexts = mHolderMask.getContextMask() | loserContexts;
+        if (activeContexts == 0) {
+            putFocusHolderLocked(new FocusEntry(afi, requestedContext, mPackageManager));
+            return AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+        }
+
+        // Entries of the requested context may be replaced by this request rather than evaluated
+        // against it, so leave those to the full scan.
+        int requestedContextBit = FocusInteraction.getContextBit(requestedContext);
+        if (!allowDelayedFocus && (activeContexts & ~requestedContextBit
+                & mFocusInteraction.getRejectMask(requestedContext)) != 0) {
+            return AudioManager.AUDIOFOCUS_REQUEST_FAILED;
+        }
+
+        if (allowDucking && loserContexts == 0
+                && (activeContexts & ~mFocusInteraction.getConcurrentMask(requestedContext)) == 0
+                && !mHolderMask.hasEntriesRequiringLoss()
+                && !(requestedContext == CarAudioContext.NOTIFICATION
+                        && mHolderMask.hasTransientExclusiveEntries())
+                && !mFocusHolders.containsKey(afi.getClientId())) {
+            putFocusHolderLocked(new FocusEntry(afi, requestedContext, mPackageManager));
+            return AudioManager.AUDIOFOCUS_REQUEST_GRANTED;
+        }
+        return FOCUS_DECISION_NEEDS_SCAN;
+    }
+
+    private void putFocusHolderLocked(FocusEntry entry) {
+        FocusEntry replacedEntry = mFocusHolders.put(entry.getClientId(), entry);
+        if (replacedEntry != null) {
+            mHolderMask.remove(replacedEntry);
+        }
+        mHolderMask.add(entry);
+    }
+
+    private FocusEntry removeFocusHolderLocked(String clientId) {
+        FocusEntry removedEntry = mFocusHolders.remove(clientId);
+        if (removedEntry != null) {
+            mHolderMask.remove(removedEntry);
+        }
+        return removedEntry;
+    }
+
+    private void putFocusLoserLocked(FocusEntry entry) {
+        FocusEntry replacedEntry = mFocusLosers.put(entry.getClientId(), entry);
+        if (replacedEntry != null) {
+            mLoserMask.remove(replacedEntry);
+        }
+        mLoserMask.add(entry);
+    }
+
+    private FocusEntry removeFocusLoserLocked(String clientId) {
+        FocusEntry removedEntry = mFocusLosers.remove(clientId);
+        if (removedEntry != null) {
+            mLoserMask.remove(removedEntry);
+        }
+        return removedEntry;
+    }
+
     @Override
     public void onAudioFocusRequest(AudioFocusInfo afi, int requestResult) {
         int response;
@@ -358,7 +465,10 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
         AudioFocusInfo replacedDelayedAudioFocusInfo = null;
         synchronized (mLock) {
             policy = mAudioPolicy;
+            long startTimeNs = SystemClock.elapsedRealtimeNanos();
             response = evaluateFocusRequestLocked(afi);
+            mDecisionLatencyUs.record(
+                    (SystemClock.elapsedRealtimeNanos() - startTimeNs) / 1000);
         }
 
         // Post our reply for delivery to the original focus requester
@@ -419,9 +529,9 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
         Log.i(TAG, "removeFocusEntry " + afi.getClientId());
 
         // Remove this entry from our active or pending list
-        FocusEntry deadEntry = mFocusHolders.remove(afi.getClientId());
+        FocusEntry deadEntry = removeFocusHolderLocked(afi.getClientId());
         if (deadEntry == null) {
-            deadEntry = mFocusLosers.remove(afi.getClientId());
+            deadEntry = removeFocusLoserLocked(afi.getClientId());
             if (deadEntry == null) {
                 // Caller is providing an unrecognzied clientId!?
                 Log.w(TAG, "Audio focus abandoned by unrecognized client id: " + afi.getClientId());
@@ -457,7 +567,7 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
                 Log.e(TAG,
                         "Failure to signal gain of audio focus gain for "
                                 + "delayed focus clientId " + focusEntry.getClientId());
-                mFocusHolders.remove(focusEntry.getClientId());
+                removeFocusHolderLocked(focusEntry.getClientId());
                 removeBlockerFromBlockedFocusLosersLocked(focusEntry);
                 sendFocusLossLocked(focusEntry.getAudioFocusInfo(),
                         AudioManager.AUDIOFOCUS_LOSS);
@@ -497,9 +607,10 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
                 Log.i(TAG, "Restoring unblocked entry " + entry.getClientId());
                 // Pull this entry out of the focus losers list
                 it.remove();
+                mLoserMask.remove(entry);
 
                 // Add it back into the focus holders list
-                mFocusHolders.put(entry.getClientId(), entry);
+                putFocusHolderLocked(entry);
 
                 dispatchFocusGainedLocked(entry.getAudioFocusInfo());
             }
@@ -626,6 +737,11 @@ public class CarAudioFocus extends AudioPolicy.AudioPolicyFocusListener {
             writer.printf("%sQueued Delayed Focus: %s\n", innerIndent,
                     mDelayedRequest == null ? "None" : mDelayedRequest.getClientId());
 
+            writer.printf("%sFocus Decisions:\n", innerIndent);
+            mDecisionLatencyUs.dump(focusIndent, "Decision latency", writer);
+            writer.printf("%sDecided from context masks: %d\n", focusIndent,
+                    mFastPathDecisionCount);
+
             writer.printf("%sFocus Events:\n", innerIndent);
             mFocusEventLogger.dump(innerIndent + "\t", writer);
         }
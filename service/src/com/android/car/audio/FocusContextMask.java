@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.audio;
+
+import android.car.media.CarAudioManager;
+import android.media.AudioFocusInfo;
+import android.media.AudioManager;
+import android.os.Bundle;
+
+/**
+ * Keeps track of the {@link CarAudioContext.AudioContext}s of a set of {@link FocusEntry}s as a
+ * bitmask, so that an incoming focus request can be checked against all entries at once using
+ * the interaction masks of {@link FocusInteraction}.
+ *
+ * <p>Not thread safe, callers are expected to hold the lock guarding the tracked entries.
+ */
+final class FocusContextMask {
+    private final int[] mContextCounts = new int[CarAudioContext.CONTEXTS.length + 1];
+    private int mContextMask;
+    // Entries which may need a loss instead of ducking. Evaluated from immutable request flags
+    // only, so this over-approximates FocusEntry#receivesDuckEvents which also checks permissions.
+    private int mMayRequireLossCount;
+    private int mTransientExclusiveCount;
+
+    void add(FocusEntry entry) {
+        int audioContext = entry.getAudioContext();
+        if (mContextCounts[audioContext]++ == 0) {
+            mContextMask |= FocusInteraction.getContextBit(audioContext);
+        }
+        if (mayRequireLoss(entry)) {
+            mMayRequireLossCount++;
+        }
+        if (isTransientExclusive(entry)) {
+            mTransientExclusiveCount++;
+        }
+    }
+
+    void remove(FocusEntry entry) {
+        int audioContext = entry.getAudioContext();
+        if (--mContextCounts[audioContext] == 0) {
+            mContextMask &= ~FocusInteraction.getContextBit(audioContext);
+        }
+        if (mayRequireLoss(entry)) {
+            mMayRequireLossCount--;
+        }
+        if (isTransientExclusive(entry)) {
+            mTransientExclusiveCount--;
+        }
+    }
+
+    /**
+     * Returns the bitmask of contexts which have at least one tracked entry.
+     */
+    int getContextMask() {
+        return mContextMask;
+    }
+
+    /**
+     * Returns {@code true} if any tracked entry could need a loss instead of a duck.
+     */
+    boolean hasEntriesRequiringLoss() {
+        return mMayRequireLossCount > 0;
+    }
+
+    /**
+     * Returns {@code true} if any tracked entry requested
+     * {@link AudioManager#AUDIOFOCUS_GAIN_TRANSIENT_EXCLUSIVE}.
+     */
+    boolean hasTransientExclusiveEntries() {
+        return mTransientExclusiveCount > 0;
+    }
+
+    private static boolean mayRequireLoss(FocusEntry entry) {
+        if (entry.wantsPauseInsteadOfDucking()) {
+            return true;
+        }
+        Bundle bundle = entry.getAudioFocusInfo().getAttributes().getBundle();
+        return bundle != null
+                && bundle.getBoolean(CarAudioManager.AUDIOFOCUS_EXTRA_RECEIVE_DUCKING_EVENTS);
+    }
+
+    private static boolean isTransientExclusive(FocusEntry entry) {
+        AudioFocusInfo afi = entry.getAudioFocusInfo();
+        return afi.getGainRequest() == AudioManager.AUDIOFOCUS_GAIN_TRANSIENT_EXCLUSIVE;
+    }
+}
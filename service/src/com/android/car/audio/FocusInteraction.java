@@ -279,6 +279,11 @@ final class FocusInteraction {
 
     private final int[][] mInteractionMatrix;
 
+    // Bitmasks of focus holder contexts, indexed by the incoming request context, derived from
+    // mInteractionMatrix. Bit N is set when a holder of context N yields the given interaction.
+    private final int[] mRejectMasks;
+    private final int[] mConcurrentMasks;
+
     private ContentObserver mContentObserver;
 
     private final CarAudioSettings mCarAudioFocusSettings;
@@ -291,6 +296,9 @@ final class FocusInteraction {
     FocusInteraction(@NonNull CarAudioSettings carAudioSettings) {
         mCarAudioFocusSettings = Objects.requireNonNull(carAudioSettings);
         mInteractionMatrix = cloneInteractionMatrix(sInteractionMatrix);
+        mRejectMasks = new int[mInteractionMatrix.length];
+        mConcurrentMasks = new int[mInteractionMatrix.length];
+        updateInteractionMasksLocked();
     }
 
     private void navigationOnCallSettingChanged() {
@@ -305,6 +313,58 @@ final class FocusInteraction {
         mInteractionMatrix[CarAudioContext.CALL][CarAudioContext.NAVIGATION] =
                 navigationRejectedWithCall ? INTERACTION_REJECT :
                 sInteractionMatrix[CarAudioContext.CALL][CarAudioContext.NAVIGATION];
+        updateInteractionMasksLocked();
+    }
+
+    private void updateInteractionMasksLocked() {
+        for (int requestedContext = 0; requestedContext < mInteractionMatrix.length;
+                requestedContext++) {
+            int rejectMask = 0;
+            int concurrentMask = 0;
+            for (int holderContext = 0; holderContext < mInteractionMatrix.length;
+                    holderContext++) {
+                switch (mInteractionMatrix[holderContext][requestedContext]) {
+                    case INTERACTION_REJECT:
+                        rejectMask |= getContextBit(holderContext);
+                        break;
+                    case INTERACTION_CONCURRENT:
+                        concurrentMask |= getContextBit(holderContext);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            mRejectMasks[requestedContext] = rejectMask;
+            mConcurrentMasks[requestedContext] = concurrentMask;
+        }
+    }
+
+    /**
+     * Returns the bit representing {@code audioContext} in the context masks returned by
+     * {@link #getRejectMask(int)} and {@link #getConcurrentMask(int)}.
+     */
+    static int getContextBit(@AudioContext int audioContext) {
+        return 1 << audioContext;
+    }
+
+    /**
+     * Returns the bitmask of focus holder contexts which reject an incoming request for
+     * {@code requestedContext}.
+     */
+    int getRejectMask(@AudioContext int requestedContext) {
+        synchronized (mLock) {
+            return mRejectMasks[requestedContext];
+        }
+    }
+
+    /**
+     * Returns the bitmask of focus holder contexts which keep focus concurrently with an incoming
+     * request for {@code requestedContext}.
+     */
+    int getConcurrentMask(@AudioContext int requestedContext) {
+        synchronized (mLock) {
+            return mConcurrentMasks[requestedContext];
+        }
     }
 
     /**
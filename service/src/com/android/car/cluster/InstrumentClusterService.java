@@ -36,6 +36,7 @@ import android.content.ServiceConnection;
 import android.os.Binder;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Message;
 import android.os.RemoteException;
@@ -52,6 +53,7 @@ import com.android.car.CarInputService.KeyEventListener;
 import com.android.car.CarLocalServices;
 import com.android.car.CarLog;
 import com.android.car.CarServiceBase;
+import com.android.car.CarServiceUtils;
 import com.android.car.ICarImpl;
 import com.android.car.R;
 import com.android.car.am.FixedActivityService;
@@ -104,25 +106,21 @@ public class InstrumentClusterService implements CarServiceBase, FocusOwnershipC
     @GuardedBy("mLock")
     private IInstrumentClusterNavigation mIInstrumentClusterNavigationFromRenderer;
 
+    private final HandlerThread mHandlerThread = CarServiceUtils.getHandlerThread(
+            getClass().getSimpleName());
+    private final Handler mHandler = new Handler(mHandlerThread.getLooper());
+    private final NavigationStatePipeline mNavigationStatePipeline =
+            new NavigationStatePipeline(mHandler);
+
     private final IInstrumentClusterNavigation mIInstrumentClusterNavigationnWrapper =
             new IInstrumentClusterNavigation.Stub() {
         @Override
         public void onNavigationStateChanged(Bundle bundle) {
             ICarImpl.assertPermission(mContext, Car.PERMISSION_CAR_NAVIGATION_MANAGER);
             assertNavigationFocus();
-            // No retry here as new events will be sent later.
-            IInstrumentClusterNavigation navigationBinder = getNavigationBinder(
-                    /* retryOnFail= */ false);
-            if (navigationBinder == null) {
-                Log.e(TAG, "onNavigationStateChanged failed, renderer not ready, Bundle:"
-                        + bundle);
-                return;
-            }
-            try {
-                navigationBinder.onNavigationStateChanged(bundle);
-            } catch (RemoteException e) {
-                Log.e(TAG, "onNavigationStateChanged failed, bundle:" + bundle, e);
-            }
+            // Retained and sent once the renderer is ready, so the caller does not wait for it.
+            mNavigationStatePipeline.onNavigationStateChanged(Binder.getCallingUid(),
+                    Binder.getCallingPid(), bundle);
         }
 
         @Override
@@ -166,6 +164,9 @@ public class InstrumentClusterService implements CarServiceBase, FocusOwnershipC
             if (navContextOwner != null && service != null) {
                 notifyNavContextOwnerChanged(service, navContextOwner);
             }
+            if (service != null) {
+                mHandler.post(() -> connectNavigationStatePipeline());
+            }
         }
 
         @Override
@@ -180,6 +181,7 @@ public class InstrumentClusterService implements CarServiceBase, FocusOwnershipC
                 mIInstrumentClusterNavigationFromRenderer = null;
 
             }
+            mNavigationStatePipeline.onRendererDisconnected();
             mDeferredRebinder.rebind();
         }
     };
@@ -260,6 +262,28 @@ public class InstrumentClusterService implements CarServiceBase, FocusOwnershipC
         return navigationBinder;
     }
 
+    /** Hands the navigation service of the renderer to {@link #mNavigationStatePipeline}. */
+    private void connectNavigationStatePipeline() {
+        IInstrumentClusterNavigation navigationBinder = getNavigationBinder(
+                /* retryOnFail= */ false);
+        if (navigationBinder == null) {
+            Log.e(TAG, "Renderer has no navigation service, navigation state is not sent");
+            return;
+        }
+        long minIntervalMs = 0;
+        try {
+            CarNavigationInstrumentCluster clusterInfo =
+                    navigationBinder.getInstrumentClusterInfo();
+            if (clusterInfo != null) {
+                minIntervalMs = clusterInfo.getMinIntervalMillis();
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "getInstrumentClusterInfo failed, navigation state is not rate limited",
+                    e);
+        }
+        mNavigationStatePipeline.onRendererConnected(navigationBinder, minIntervalMs);
+    }
+
     @Override
     public void init() {
         if (Log.isLoggable(TAG, Log.DEBUG)) {
@@ -310,6 +334,7 @@ public class InstrumentClusterService implements CarServiceBase, FocusOwnershipC
             writer.println("mIInstrumentClusterNavigationFromRenderer:"
                     + mIInstrumentClusterNavigationFromRenderer);
         }
+        mNavigationStatePipeline.dump(writer);
     }
 
     @Override
@@ -361,6 +386,8 @@ public class InstrumentClusterService implements CarServiceBase, FocusOwnershipC
             mNavContextOwner = newOwner;
             service = mRendererService;
         }
+        // The state of the previous owner must not be replayed to a renderer connecting later.
+        mNavigationStatePipeline.onNavigationOwnerChanged(newOwner.uid, newOwner.pid);
 
         if (service != null) {
             notifyNavContextOwnerChanged(service, newOwner);
@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.cluster;
+
+import static android.car.cluster.renderer.NavigationStateDelta.KEY_NAVIGATION_STATE;
+import static android.car.cluster.renderer.NavigationStateDelta.KEY_NAVIGATION_STATE_CHANGED_FIELDS;
+import static android.car.cluster.renderer.NavigationStateDelta.KEY_NAVIGATION_STATE_CHANGED_STEP_FIELDS;
+import static android.car.cluster.renderer.NavigationStateDelta.KEY_NAVIGATION_STATE_DELTA;
+
+import android.annotation.Nullable;
+import android.car.cluster.navigation.NavigationState.NavigationStateProto;
+import android.car.cluster.renderer.NavigationStateDelta;
+import android.os.Bundle;
+import android.util.IntArray;
+import android.util.Log;
+
+import com.android.car.CarLog;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encodes the navigation states sent to the renderer as field-level deltas of
+ * {@link NavigationStateProto}, which the renderer applies with {@link NavigationStateDelta}.
+ *
+ * <p>Only the top level fields which changed since the previous state are sent. When the number
+ * of steps did not change, only the changed fields of each step are sent, since most updates only
+ * change the distance to the next maneuver. States are compared in their serialized form, so
+ * fields unknown to Car Service are sent like the known ones.
+ *
+ * <p>The first state, and every state after {@link #reset()}, is sent in full. Bundles without a
+ * valid serialized message are sent as they are.
+ *
+ * <p>Not thread safe: used from the thread sending the states to the renderer.
+ */
+final class NavigationStateDeltaEncoder {
+    private static final String TAG = CarLog.TAG_CLUSTER;
+    private static final int STEPS_TAG = WireFormat.WIRETYPE_LENGTH_DELIMITED
+            | NavigationStateProto.STEPS_FIELD_NUMBER << 3;
+
+    // Serialized state known to the renderer and its fields, or null if the next state is sent
+    // in full.
+    @Nullable
+    private byte[] mRendererState;
+    @Nullable
+    private List<Field> mRendererFields;
+
+    /** Makes the next state be sent in full, when the renderer state is unknown. */
+    void reset() {
+        mRendererState = null;
+        mRendererFields = null;
+    }
+
+    /** Returns the bundle to send to the renderer for the given state of the navigation app. */
+    @Nullable
+    Bundle encode(@Nullable Bundle state) {
+        byte[] bytes = state == null ? null : state.getByteArray(KEY_NAVIGATION_STATE);
+        if (bytes == null) {
+            reset();
+            return state;
+        }
+        List<Field> fields;
+        try {
+            fields = readFields(bytes, 0, bytes.length);
+        } catch (IOException e) {
+            Log.w(TAG, "Invalid navigation state, sending it as is", e);
+            reset();
+            return state;
+        }
+        byte[] previous = mRendererState;
+        List<Field> previousFields = mRendererFields;
+        mRendererState = bytes;
+        mRendererFields = fields;
+        if (previous == null) {
+            return state;
+        }
+
+        ByteArrayOutputStream delta = new ByteArrayOutputStream();
+        IntArray changedFields = new IntArray();
+        IntArray changedStepFields = null;
+        IntArray numbers = getFieldNumbers(fields, previousFields);
+        for (int i = 0; i < numbers.size(); i++) {
+            int number = numbers.get(i);
+            if (isSameField(number, bytes, fields, previous, previousFields)) {
+                continue;
+            }
+            changedFields.add(number);
+            if (number == NavigationStateProto.STEPS_FIELD_NUMBER) {
+                changedStepFields = writeStepDeltas(bytes, fields, previous, previousFields, delta);
+                if (changedStepFields != null) {
+                    continue;
+                }
+            }
+            writeField(number, bytes, fields, delta);
+        }
+
+        Bundle encoded = new Bundle(state);
+        encoded.remove(KEY_NAVIGATION_STATE);
+        encoded.putByteArray(KEY_NAVIGATION_STATE_DELTA, delta.toByteArray());
+        encoded.putIntArray(KEY_NAVIGATION_STATE_CHANGED_FIELDS, changedFields.toArray());
+        if (changedStepFields != null) {
+            encoded.putIntArray(KEY_NAVIGATION_STATE_CHANGED_STEP_FIELDS,
+                    changedStepFields.toArray());
+        }
+        return encoded;
+    }
+
+    /**
+     * Writes every step with only its fields which changed, returning for each step the number of
+     * its changed fields followed by their numbers. Returns {@code null}, writing nothing, when
+     * the steps cannot be compared one by one and must be sent in full.
+     */
+    @Nullable
+    private static IntArray writeStepDeltas(byte[] bytes, List<Field> fields, byte[] previous,
+            List<Field> previousFields, ByteArrayOutputStream delta) {
+        List<Field> steps = getFields(NavigationStateProto.STEPS_FIELD_NUMBER, fields);
+        List<Field> previousSteps =
+                getFields(NavigationStateProto.STEPS_FIELD_NUMBER, previousFields);
+        if (steps.size() != previousSteps.size()) {
+            return null;
+        }
+        ByteArrayOutputStream stepDeltas = new ByteArrayOutputStream();
+        IntArray changedStepFields = new IntArray();
+        for (int i = 0; i < steps.size(); i++) {
+            Field step = steps.get(i);
+            Field previousStep = previousSteps.get(i);
+            if (step.mTag != STEPS_TAG || previousStep.mTag != STEPS_TAG) {
+                return null;
+            }
+            List<Field> stepFields;
+            List<Field> previousStepFields;
+            try {
+                stepFields = readFields(bytes, step.mValueStart, step.mEnd);
+                previousStepFields = readFields(previous, previousStep.mValueStart,
+                        previousStep.mEnd);
+            } catch (IOException e) {
+                return null;
+            }
+            ByteArrayOutputStream stepDelta = new ByteArrayOutputStream();
+            IntArray changed = new IntArray();
+            IntArray numbers = getFieldNumbers(stepFields, previousStepFields);
+            for (int j = 0; j < numbers.size(); j++) {
+                int number = numbers.get(j);
+                if (!isSameField(number, bytes, stepFields, previous, previousStepFields)) {
+                    changed.add(number);
+                    writeField(number, bytes, stepFields, stepDelta);
+                }
+            }
+            writeVarint(stepDeltas, STEPS_TAG);
+            writeVarint(stepDeltas, stepDelta.size());
+            stepDeltas.write(stepDelta.toByteArray(), 0, stepDelta.size());
+            changedStepFields.add(changed.size());
+            changedStepFields.addAll(changed);
+        }
+        delta.write(stepDeltas.toByteArray(), 0, stepDeltas.size());
+        return changedStepFields;
+    }
+
+    /** Splits the serialized message in {@code [start, end)} into its fields. */
+    private static List<Field> readFields(byte[] bytes, int start, int end) throws IOException {
+        CodedInputStream in = CodedInputStream.newInstance(bytes, start, end - start);
+        List<Field> fields = new ArrayList<>();
+        while (true) {
+            int fieldStart = start + in.getTotalBytesRead();
+            int tag = in.readTag();
+            if (tag == 0) {
+                return fields;
+            }
+            int valueStart;
+            switch (WireFormat.getTagWireType(tag)) {
+                case WireFormat.WIRETYPE_LENGTH_DELIMITED:
+                    int length = in.readRawVarint32();
+                    valueStart = start + in.getTotalBytesRead();
+                    in.skipRawBytes(length);
+                    break;
+                case WireFormat.WIRETYPE_START_GROUP:
+                case WireFormat.WIRETYPE_END_GROUP:
+                    // Groups are not supported by NavigationStateDelta.
+                    throw new InvalidProtocolBufferException("Unsupported group, tag: " + tag);
+                default:
+                    valueStart = start + in.getTotalBytesRead();
+                    in.skipField(tag);
+                    break;
+            }
+            fields.add(new Field(tag, fieldStart, valueStart, start + in.getTotalBytesRead()));
+        }
+    }
+
+    /** Returns the numbers of the fields of both messages, without duplicates. */
+    private static IntArray getFieldNumbers(List<Field> fields, List<Field> otherFields) {
+        IntArray numbers = new IntArray();
+        addFieldNumbers(fields, numbers);
+        addFieldNumbers(otherFields, numbers);
+        return numbers;
+    }
+
+    private static void addFieldNumbers(List<Field> fields, IntArray numbers) {
+        for (int i = 0; i < fields.size(); i++) {
+            int number = fields.get(i).getNumber();
+            if (numbers.indexOf(number) < 0) {
+                numbers.add(number);
+            }
+        }
+    }
+
+    private static List<Field> getFields(int number, List<Field> fields) {
+        List<Field> result = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+            if (fields.get(i).getNumber() == number) {
+                result.add(fields.get(i));
+            }
+        }
+        return result;
+    }
+
+    /** Returns whether both messages have the same values, in the same order, for a field. */
+    private static boolean isSameField(int number, byte[] bytes, List<Field> fields,
+            byte[] otherBytes, List<Field> otherFields) {
+        int i = 0;
+        int j = 0;
+        while (true) {
+            while (i < fields.size() && fields.get(i).getNumber() != number) {
+                i++;
+            }
+            while (j < otherFields.size() && otherFields.get(j).getNumber() != number) {
+                j++;
+            }
+            if (i == fields.size() || j == otherFields.size()) {
+                return i == fields.size() && j == otherFields.size();
+            }
+            if (!fields.get(i).hasSameBytes(bytes, otherFields.get(j), otherBytes)) {
+                return false;
+            }
+            i++;
+            j++;
+        }
+    }
+
+    private static void writeField(int number, byte[] bytes, List<Field> fields,
+            ByteArrayOutputStream out) {
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            if (field.getNumber() == number) {
+                out.write(bytes, field.mStart, field.mEnd - field.mStart);
+            }
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    /** A field of a serialized message, as offsets in the serialized bytes. */
+    private static final class Field {
+        final int mTag;
+        // Offsets of the tag, of the value after its length if any, and after the value.
+        final int mStart;
+        final int mValueStart;
+        final int mEnd;
+
+        Field(int tag, int start, int valueStart, int end) {
+            mTag = tag;
+            mStart = start;
+            mValueStart = valueStart;
+            mEnd = end;
+        }
+
+        int getNumber() {
+            return WireFormat.getTagFieldNumber(mTag);
+        }
+
+        boolean hasSameBytes(byte[] bytes, Field other, byte[] otherBytes) {
+            if (mEnd - mStart != other.mEnd - other.mStart) {
+                return false;
+            }
+            for (int i = 0; i < mEnd - mStart; i++) {
+                if (bytes[mStart + i] != otherBytes[other.mStart + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.cluster;
+
+import android.annotation.Nullable;
+import android.car.cluster.renderer.IInstrumentClusterNavigation;
+import android.car.navigation.CarNavigationInstrumentCluster;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.car.CarLog;
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.PrintWriter;
+
+/**
+ * Forwards navigation state updates to the navigation service of the cluster renderer.
+ *
+ * <p>The latest state is retained, so it is sent as soon as the renderer connects, and sent again
+ * if the renderer reconnects. Updates arriving faster than the
+ * {@link CarNavigationInstrumentCluster#getMinIntervalMillis() minimum interval} of the renderer
+ * are coalesced: only the latest one is sent once the interval elapses. Updates are sent from the
+ * given handler, so navigation apps never wait for the renderer.
+ *
+ * <p>After the first state sent to a renderer, states are sent as field-level deltas, see
+ * {@link NavigationStateDeltaEncoder}. The retained state is dropped when the navigation focus
+ * moves away from the app which sent it, see {@link #onNavigationOwnerChanged(int, int)}.
+ */
+final class NavigationStatePipeline {
+    private static final String TAG = CarLog.TAG_CLUSTER;
+
+    private final Handler mHandler;
+    private final Runnable mSendLatestState = this::sendLatestState;
+    // Only used from mHandler.
+    private final NavigationStateDeltaEncoder mEncoder = new NavigationStateDeltaEncoder();
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private IInstrumentClusterNavigation mRenderer;
+    @GuardedBy("mLock")
+    private long mMinIntervalMs;
+    @GuardedBy("mLock")
+    private boolean mHasState;
+    @GuardedBy("mLock")
+    private Bundle mLatestState;
+    // Uid and pid of the app which sent mLatestState.
+    @GuardedBy("mLock")
+    private int mStateUid;
+    @GuardedBy("mLock")
+    private int mStatePid;
+    // Whether mLatestState has not been sent to mRenderer yet.
+    @GuardedBy("mLock")
+    private boolean mDirty;
+    @GuardedBy("mLock")
+    private boolean mSendScheduled;
+    // Whether the renderer state is unknown, so the next state must be sent in full.
+    @GuardedBy("mLock")
+    private boolean mSendFullState = true;
+    // SystemClock.uptimeMillis() of the last send to mRenderer, or -1 if none.
+    @GuardedBy("mLock")
+    private long mLastSentUptimeMs = -1;
+
+    @GuardedBy("mLock")
+    private int mReceivedCount;
+    @GuardedBy("mLock")
+    private int mSentCount;
+    @GuardedBy("mLock")
+    private int mCoalescedCount;
+
+    NavigationStatePipeline(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Retains the given state and schedules sending it to the renderer.
+     *
+     * @param uid uid of the navigation app sending the state
+     * @param pid pid of the navigation app sending the state
+     */
+    void onNavigationStateChanged(int uid, int pid, @Nullable Bundle state) {
+        synchronized (mLock) {
+            mReceivedCount++;
+            if (mDirty) {
+                // The previous state is replaced before it could be sent.
+                mCoalescedCount++;
+            }
+            mHasState = true;
+            mLatestState = state;
+            mStateUid = uid;
+            mStatePid = pid;
+            mDirty = true;
+            scheduleSendLocked();
+        }
+    }
+
+    /**
+     * Starts sending updates to the given renderer, beginning with the latest state if there is
+     * one.
+     *
+     * @param minIntervalMs minimum time between two updates sent to the renderer
+     */
+    void onRendererConnected(IInstrumentClusterNavigation renderer, long minIntervalMs) {
+        synchronized (mLock) {
+            mRenderer = renderer;
+            mMinIntervalMs = Math.max(minIntervalMs, 0);
+            mLastSentUptimeMs = -1;
+            mDirty = mHasState;
+            mSendFullState = true;
+            mHandler.removeCallbacks(mSendLatestState);
+            mSendScheduled = false;
+            scheduleSendLocked();
+        }
+    }
+
+    /** Stops sending updates until a renderer connects again. The latest state is kept. */
+    void onRendererDisconnected() {
+        synchronized (mLock) {
+            mRenderer = null;
+            mHandler.removeCallbacks(mSendLatestState);
+            mSendScheduled = false;
+        }
+    }
+
+    /**
+     * Drops the latest state unless it was sent by the new navigation focus owner, so the state of
+     * a previous owner is not sent to a renderer connecting later.
+     *
+     * @param uid uid of the new owner, or 0 if no app owns navigation focus
+     * @param pid pid of the new owner, or 0 if no app owns navigation focus
+     */
+    void onNavigationOwnerChanged(int uid, int pid) {
+        synchronized (mLock) {
+            if (!mHasState || (mStateUid == uid && mStatePid == pid)) {
+                // The new owner may have sent its first state before the focus change arrived.
+                return;
+            }
+            mHasState = false;
+            mLatestState = null;
+            mDirty = false;
+            mSendFullState = true;
+        }
+    }
+
+    void dump(PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println("navigation state pipeline: renderer=" + mRenderer
+                    + ", minIntervalMs=" + mMinIntervalMs + ", hasState=" + mHasState
+                    + ", pending=" + mDirty);
+            writer.println("  received=" + mReceivedCount + ", sent=" + mSentCount
+                    + ", coalesced=" + mCoalescedCount);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void scheduleSendLocked() {
+        if (mRenderer == null || !mDirty || mSendScheduled) {
+            return;
+        }
+        mSendScheduled = true;
+        long nowMs = SystemClock.uptimeMillis();
+        long sendAtMs = mLastSentUptimeMs < 0 ? nowMs : mLastSentUptimeMs + mMinIntervalMs;
+        mHandler.postAtTime(mSendLatestState, Math.max(sendAtMs, nowMs));
+    }
+
+    private void sendLatestState() {
+        IInstrumentClusterNavigation renderer;
+        Bundle state;
+        synchronized (mLock) {
+            mSendScheduled = false;
+            if (mRenderer == null || !mDirty) {
+                return;
+            }
+            renderer = mRenderer;
+            state = mLatestState;
+            mDirty = false;
+            mLastSentUptimeMs = SystemClock.uptimeMillis();
+            mSentCount++;
+            if (mSendFullState) {
+                mSendFullState = false;
+                mEncoder.reset();
+            }
+        }
+        try {
+            renderer.onNavigationStateChanged(mEncoder.encode(state));
+        } catch (RemoteException e) {
+            // The state is sent again, in full, when the renderer reconnects.
+            Log.e(TAG, "onNavigationStateChanged failed, bundle:" + state, e);
+            synchronized (mLock) {
+                mSendFullState = true;
+            }
+        }
+    }
+}
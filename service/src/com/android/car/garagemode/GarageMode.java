@@ -21,6 +21,7 @@ import android.app.job.JobScheduler;
 import android.app.job.JobSnapshot;
 import android.content.Intent;
 import android.os.Handler;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.util.ArraySet;
 
@@ -64,6 +65,9 @@ class GarageMode {
     private static final long JOB_SNAPSHOT_UPDATE_FREQUENCY_MS = 1_000; // 1 second
     private static final long USER_STOP_CHECK_INTERVAL = 10_000; // 10 secs
     private static final int ADDITIONAL_CHECKS_TO_DO = 1;
+    // How long to wait for pending jobs to start once no job is running.
+    private static final long PENDING_JOBS_GRACE_MS =
+            ADDITIONAL_CHECKS_TO_DO * JOB_SNAPSHOT_UPDATE_FREQUENCY_MS;
 
     private final Controller mController;
     private final JobScheduler mJobScheduler;
@@ -74,11 +78,24 @@ class GarageMode {
     @GuardedBy("mLock")
     private boolean mGarageModeActive;
     @GuardedBy("mLock")
-    private int mAdditionalChecksToDo = ADDITIONAL_CHECKS_TO_DO;
+    private boolean mGraceTimerScheduled;
     @GuardedBy("mLock")
     private boolean mIdleCheckerIsRunning;
+
+    // Idle jobs running and pending at the last check of the session.
+    @GuardedBy("mLock")
+    private int mRunningJobCount;
+    @GuardedBy("mLock")
+    private int mPendingJobCount;
+    // Statistics of the session, logged when it ends.
+    @GuardedBy("mLock")
+    private long mSessionStartMs;
     @GuardedBy("mLock")
-    private List<String> mPendingJobs = new ArrayList<>();
+    private long mLastJobStoppedMs;
+    @GuardedBy("mLock")
+    private int mMaxRunningJobs;
+    @GuardedBy("mLock")
+    private String mLastSessionSummary;
 
     private final Runnable mRunnable = new Runnable() {
         @Override
@@ -88,38 +105,48 @@ class GarageMode {
                 finish();
                 return;
             }
-            int numberRunning = numberOfIdleJobsRunning();
+            int numberRunning = updateRunningJobCount();
             if (numberRunning > 0) {
                 LOG.d("" + numberRunning + " jobs are still running. Need to wait more ...");
-                synchronized (mLock) {
-                    mAdditionalChecksToDo = ADDITIONAL_CHECKS_TO_DO;
-                }
-            } else {
-                // No idle-mode jobs are running.
-                // Are there any scheduled idle jobs that could run now?
-                int numberReadyToRun = numberOfPendingJobs();
-                if (numberReadyToRun == 0) {
-                    LOG.d("No jobs are running. No jobs are pending. Exiting Garage Mode.");
-                    finish();
-                    return;
-                }
-                int numAdditionalChecks;
-                synchronized (mLock) {
-                    numAdditionalChecks = mAdditionalChecksToDo;
-                    if (mAdditionalChecksToDo > 0) {
-                        mAdditionalChecksToDo--;
-                    }
-                }
-                if (numAdditionalChecks == 0) {
-                    LOG.d("No jobs are running. Waited too long for "
-                            + numberReadyToRun + " pending jobs. Exiting Garage Mode.");
-                    finish();
-                    return;
-                }
-                LOG.d("No jobs are running. Waiting " + numAdditionalChecks
-                        + " more cycles for " + numberReadyToRun + " pending jobs.");
+                mHandler.postDelayed(mRunnable, JOB_SNAPSHOT_UPDATE_FREQUENCY_MS);
+                return;
+            }
+            // No idle-mode jobs are running.
+            // Are there any scheduled idle jobs that could run now?
+            int numberReadyToRun = numberOfPendingJobs();
+            synchronized (mLock) {
+                mPendingJobCount = numberReadyToRun;
+            }
+            if (numberReadyToRun == 0) {
+                LOG.d("No jobs are running. No jobs are pending. Exiting Garage Mode.");
+                finish();
+                return;
             }
-            mHandler.postDelayed(mRunnable, JOB_SNAPSHOT_UPDATE_FREQUENCY_MS);
+            // Pending jobs only start or go away when JobScheduler runs them, so nothing is
+            // checked again until the grace timeout.
+            startGraceTimer(numberReadyToRun);
+        }
+    };
+
+    private final Runnable mGraceTimeoutRunnable = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mLock) {
+                mGraceTimerScheduled = false;
+            }
+            int numberRunning = updateRunningJobCount();
+            if (numberRunning > 0) {
+                LOG.d("" + numberRunning + " pending jobs started. Need to wait more ...");
+                mHandler.postDelayed(mRunnable, JOB_SNAPSHOT_UPDATE_FREQUENCY_MS);
+                return;
+            }
+            int numberPending;
+            synchronized (mLock) {
+                numberPending = mPendingJobCount;
+            }
+            LOG.d("No jobs are running. Waited too long for " + numberPending
+                    + " pending jobs. Exiting Garage Mode.");
+            finish();
         }
     };
 
@@ -178,25 +205,22 @@ class GarageMode {
 
     List<String> dump() {
         List<String> outString = new ArrayList<>();
-        if (!mGarageModeActive) {
-            return outString;
+        if (mGarageModeActive) {
+            outString.add("GarageMode idle checker is " + (mIdleCheckerIsRunning ? "" : "not ")
+                    + "running");
         }
-        outString.add("GarageMode idle checker is " + (mIdleCheckerIsRunning ? "" : "not ")
-                + "running");
-        List<String> jobList = new ArrayList<>();
-        int numJobs = getListOfIdleJobsRunning(jobList);
-        if (numJobs > 0) {
-            outString.add("GarageMode is waiting for " + numJobs + " jobs:");
-            // Dump the names of the jobs that we are waiting for
-            for (int idx = 0; idx < jobList.size(); idx++) {
-                outString.add("   " + (idx + 1) + ": " + jobList.get(idx));
+        // Uses the job counts of the last check, so dumping does not query JobScheduler.
+        synchronized (mLock) {
+            if (mIdleCheckerIsRunning) {
+                if (mRunningJobCount > 0) {
+                    outString.add("GarageMode is waiting for " + mRunningJobCount + " jobs");
+                } else {
+                    outString.add("GarageMode is waiting for " + mPendingJobCount
+                            + " pending idle jobs");
+                }
             }
-        } else {
-            // Dump the names of the pending jobs that we are waiting for
-            numJobs = getListOfPendingJobs(jobList);
-            outString.add("GarageMode is waiting for " + jobList.size() + " pending idle jobs:");
-            for (int idx = 0; idx < jobList.size(); idx++) {
-                outString.add("   " + (idx + 1) + ": " + jobList.get(idx));
+            if (mLastSessionSummary != null) {
+                outString.add("Last session: " + mLastSessionSummary);
             }
         }
         return outString;
@@ -235,6 +259,7 @@ class GarageMode {
     void cancel() {
         broadcastSignalToJobScheduler(false);
         synchronized (mLock) {
+            endSessionLocked();
             if (mFuture == null) {
                 cleanupGarageMode();
             } else if (!mFuture.isDone()) {
@@ -257,6 +282,7 @@ class GarageMode {
         CarStatsLogHelper.logGarageModeStop();
         mController.scheduleNextWakeup();
         synchronized (mLock) {
+            endSessionLocked();
             if (mFuture == null) {
                 cleanupGarageMode();
             } else if (!mFuture.isDone()) {
@@ -315,48 +341,62 @@ class GarageMode {
     private void startMonitoringThread() {
         synchronized (mLock) {
             mIdleCheckerIsRunning = true;
-            mAdditionalChecksToDo = ADDITIONAL_CHECKS_TO_DO;
+            mGraceTimerScheduled = false;
+            mRunningJobCount = 0;
+            mPendingJobCount = 0;
+            mSessionStartMs = SystemClock.elapsedRealtime();
+            mLastJobStoppedMs = mSessionStartMs;
+            mMaxRunningJobs = 0;
         }
         mHandler.postDelayed(mRunnable, JOB_SNAPSHOT_INITIAL_UPDATE_MS);
     }
 
     private void stopMonitoringThread() {
         mHandler.removeCallbacks(mRunnable);
+        cancelGraceTimer();
     }
 
-    private int numberOfIdleJobsRunning() {
-        return getListOfIdleJobsRunning(null);
+    @GuardedBy("mLock")
+    private void endSessionLocked() {
+        if (mSessionStartMs == 0) {
+            return;
+        }
+        long nowMs = SystemClock.elapsedRealtime();
+        long idleToShutdownMs = mRunningJobCount > 0 ? 0 : nowMs - mLastJobStoppedMs;
+        mLastSessionSummary = "max running jobs: " + mMaxRunningJobs + ", duration: "
+                + (nowMs - mSessionStartMs) + "ms, idle to shutdown: " + idleToShutdownMs + "ms";
+        mSessionStartMs = 0;
+        LOG.i("GarageMode session ended. " + mLastSessionSummary);
     }
 
-    private int getListOfIdleJobsRunning(List<String> jobList) {
-        if (jobList != null) {
-            jobList.clear();
+    // Counts the running idle jobs and updates the statistics of the session with them.
+    private int updateRunningJobCount() {
+        int numberRunning = numberOfIdleJobsRunning();
+        synchronized (mLock) {
+            if (numberRunning == 0 && mRunningJobCount > 0) {
+                mLastJobStoppedMs = SystemClock.elapsedRealtime();
+            }
+            mRunningJobCount = numberRunning;
+            mMaxRunningJobs = Math.max(mMaxRunningJobs, numberRunning);
         }
+        return numberRunning;
+    }
+
+    private int numberOfIdleJobsRunning() {
         List<JobInfo> startedJobs = mJobScheduler.getStartedJobs();
         if (startedJobs == null) {
             return 0;
         }
         int count = 0;
         for (int idx = 0; idx < startedJobs.size(); idx++) {
-            JobInfo jobInfo = startedJobs.get(idx);
-            if (jobInfo.isRequireDeviceIdle()) {
+            if (startedJobs.get(idx).isRequireDeviceIdle()) {
                 count++;
-                if (jobList != null) {
-                    jobList.add(jobInfo.toString());
-                }
             }
         }
         return count;
     }
 
     private int numberOfPendingJobs() {
-        return getListOfPendingJobs(null);
-    }
-
-    private int getListOfPendingJobs(List<String> jobList) {
-        if (jobList != null) {
-            jobList.clear();
-        }
         List<JobSnapshot> allScheduledJobs = mJobScheduler.getAllJobSnapshots();
         if (allScheduledJobs == null) {
             return 0;
@@ -364,14 +404,32 @@ class GarageMode {
         int numberPending = 0;
         for (int idx = 0; idx < allScheduledJobs.size(); idx++) {
             JobSnapshot scheduledJob = allScheduledJobs.get(idx);
-            JobInfo jobInfo = scheduledJob.getJobInfo();
-            if (scheduledJob.isRunnable() && jobInfo.isRequireDeviceIdle()) {
+            if (scheduledJob.isRunnable() && scheduledJob.getJobInfo().isRequireDeviceIdle()) {
                 numberPending++;
-                if (jobList != null) {
-                    jobList.add(jobInfo.toString());
-                }
             }
         }
         return numberPending;
     }
+
+    private void startGraceTimer(int pendingJobs) {
+        synchronized (mLock) {
+            if (mGraceTimerScheduled) {
+                return;
+            }
+            mGraceTimerScheduled = true;
+        }
+        LOG.d("No jobs are running. Waiting " + PENDING_JOBS_GRACE_MS + "ms for " + pendingJobs
+                + " pending jobs.");
+        mHandler.postDelayed(mGraceTimeoutRunnable, PENDING_JOBS_GRACE_MS);
+    }
+
+    private void cancelGraceTimer() {
+        synchronized (mLock) {
+            if (!mGraceTimerScheduled) {
+                return;
+            }
+            mGraceTimerScheduled = false;
+        }
+        mHandler.removeCallbacks(mGraceTimeoutRunnable);
+    }
 }
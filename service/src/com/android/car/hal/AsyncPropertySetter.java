@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.hal;
+
+import static java.lang.Integer.toHexString;
+
+import android.car.hardware.property.CarPropertyManager;
+import android.hardware.automotive.vehicle.V2_0.StatusCode;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ServiceSpecificException;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.car.CarLog;
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Writes property values to the Vehicle HAL from a single thread, so callers never wait for
+ * {@code IVehicle.set()} and its retries.
+ *
+ * <p>There is at most one pending value per property and area: a value set while the previous one
+ * is still waiting replaces it, so only the latest value is written. Pending values are written in
+ * the order they were last set, so a replaced value moves behind the values set before it.
+ * Failures are reported to the
+ * {@link ErrorListener} with a {@link CarPropertyManager.CarSetPropertyErrorCode}.
+ *
+ * <p>Readers call {@link #awaitWritten(int, int)} first, so they see the values set before. Every
+ * set gets a sequence number, and a reader only waits for the values set before it started: values
+ * set while it waits, like those of a slider being dragged, do not hold it back.
+ */
+final class AsyncPropertySetter {
+    private static final String TAG = CarLog.TAG_HAL;
+    // Longest time a reader waits for the pending value of a property to be written.
+    private static final long AWAIT_WRITTEN_TIMEOUT_MS = 5_000;
+
+    /** Writes a value to the Vehicle HAL, throwing like {@link HalClient#setValue}. */
+    interface Writer {
+        void set(VehiclePropValue value);
+    }
+
+    /** Receives the failures of asynchronous writes. */
+    interface ErrorListener {
+        void onSetError(int halPropId, int areaId,
+                @CarPropertyManager.CarSetPropertyErrorCode int errorCode);
+    }
+
+    private final Handler mHandler;
+    private final Writer mWriter;
+    private final ErrorListener mErrorListener;
+    private final Runnable mWritePending = this::writePending;
+    private final Object mLock = new Object();
+
+    // Pending values keyed by getKey(prop, areaId), in the order of their sequence numbers.
+    @GuardedBy("mLock")
+    private final LinkedHashMap<Long, PendingValue> mPending = new LinkedHashMap<>();
+    @GuardedBy("mLock")
+    private boolean mWriteScheduled;
+    // Sequence number of the last value set.
+    @GuardedBy("mLock")
+    private long mLastSequence;
+    // Key and first sequence number of the value being written, valid while mWriting is true.
+    @GuardedBy("mLock")
+    private boolean mWriting;
+    @GuardedBy("mLock")
+    private long mWritingKey;
+    @GuardedBy("mLock")
+    private long mWritingSequence;
+
+    @GuardedBy("mLock")
+    private int mQueuedCount;
+    @GuardedBy("mLock")
+    private int mCoalescedCount;
+    @GuardedBy("mLock")
+    private int mWrittenCount;
+    @GuardedBy("mLock")
+    private int mFailedCount;
+
+    AsyncPropertySetter(Looper looper, Writer writer, ErrorListener errorListener) {
+        mHandler = new Handler(looper);
+        mWriter = writer;
+        mErrorListener = errorListener;
+    }
+
+    /** Queues the given value, replacing the pending value of the same property and area. */
+    void set(VehiclePropValue value) {
+        synchronized (mLock) {
+            mQueuedCount++;
+            long sequence = ++mLastSequence;
+            long key = getKey(value.prop, value.areaId);
+            // Removes the replaced value first: put() would keep it in its old place in the order.
+            PendingValue pending = mPending.remove(key);
+            if (pending != null) {
+                mCoalescedCount++;
+                pending.value = value;
+            } else {
+                pending = new PendingValue(value, sequence);
+            }
+            mPending.put(key, pending);
+            if (!mWriteScheduled) {
+                mWriteScheduled = true;
+                mHandler.post(mWritePending);
+            }
+        }
+    }
+
+    /**
+     * Waits until the values of the given property and area set before the call are written, or
+     * until a timeout expires.
+     */
+    void awaitWritten(int prop, int areaId) {
+        long key = getKey(prop, areaId);
+        long deadlineMs = SystemClock.uptimeMillis() + AWAIT_WRITTEN_TIMEOUT_MS;
+        synchronized (mLock) {
+            long readSequence = mLastSequence;
+            while (isWritePendingLocked(key, readSequence)) {
+                long remainingMs = deadlineMs - SystemClock.uptimeMillis();
+                if (remainingMs <= 0) {
+                    Log.w(TAG, "Timed out waiting for set of property: 0x" + toHexString(prop));
+                    return;
+                }
+                try {
+                    mLock.wait(remainingMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @GuardedBy("mLock")
+    private boolean isWritePendingLocked(long key, long readSequence) {
+        PendingValue pending = mPending.get(key);
+        // A value replaced after the read started still holds the sequence number of the value it
+        // replaced, so the reader waits for the value replacing it but not for later ones.
+        if (pending != null && pending.firstSequence <= readSequence) {
+            return true;
+        }
+        return mWriting && mWritingKey == key && mWritingSequence <= readSequence;
+    }
+
+    /** Drops the pending values. */
+    void clear() {
+        synchronized (mLock) {
+            mPending.clear();
+            mLock.notifyAll();
+        }
+    }
+
+    @VisibleForTesting
+    int getCoalescedCount() {
+        synchronized (mLock) {
+            return mCoalescedCount;
+        }
+    }
+
+    @VisibleForTesting
+    int getWrittenCount() {
+        synchronized (mLock) {
+            return mWrittenCount;
+        }
+    }
+
+    void dump(PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println("  Async sets: pending=" + mPending.size() + ", queued=" + mQueuedCount
+                    + ", coalesced=" + mCoalescedCount + ", written=" + mWrittenCount
+                    + ", failed=" + mFailedCount);
+        }
+    }
+
+    private void writePending() {
+        while (true) {
+            VehiclePropValue value;
+            synchronized (mLock) {
+                Iterator<Map.Entry<Long, PendingValue>> it = mPending.entrySet().iterator();
+                if (!it.hasNext()) {
+                    mWriteScheduled = false;
+                    return;
+                }
+                Map.Entry<Long, PendingValue> entry = it.next();
+                it.remove();
+                value = entry.getValue().value;
+                mWriting = true;
+                mWritingKey = entry.getKey();
+                mWritingSequence = entry.getValue().firstSequence;
+            }
+            int errorCode = write(value);
+            synchronized (mLock) {
+                mWriting = false;
+                mLock.notifyAll();
+                mWrittenCount++;
+                if (errorCode != 0) {
+                    mFailedCount++;
+                }
+            }
+            if (errorCode != 0) {
+                mErrorListener.onSetError(value.prop, value.areaId, errorCode);
+            }
+        }
+    }
+
+    // Returns 0 on success, the CarSetPropertyErrorCode otherwise.
+    private int write(VehiclePropValue value) {
+        try {
+            mWriter.set(value);
+            return 0;
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Failed to set property: 0x" + toHexString(value.prop), e);
+            return CarPropertyManager.CAR_SET_PROPERTY_ERROR_CODE_INVALID_ARG;
+        } catch (ServiceSpecificException e) {
+            Log.w(TAG, "Failed to set property: 0x" + toHexString(value.prop), e);
+            return toSetPropertyErrorCode(e.errorCode);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Failed to set property: 0x" + toHexString(value.prop), e);
+            return CarPropertyManager.CAR_SET_PROPERTY_ERROR_CODE_UNKNOWN;
+        }
+    }
+
+    private static int toSetPropertyErrorCode(int statusCode) {
+        switch (statusCode) {
+            case StatusCode.TRY_AGAIN:
+                return CarPropertyManager.CAR_SET_PROPERTY_ERROR_CODE_TRY_AGAIN;
+            case StatusCode.INVALID_ARG:
+                return CarPropertyManager.CAR_SET_PROPERTY_ERROR_CODE_INVALID_ARG;
+            case StatusCode.NOT_AVAILABLE:
+                return CarPropertyManager.CAR_SET_PROPERTY_ERROR_CODE_PROPERTY_NOT_AVAILABLE;
+            case StatusCode.ACCESS_DENIED:
+                return CarPropertyManager.CAR_SET_PROPERTY_ERROR_CODE_ACCESS_DENIED;
+            default:
+                return CarPropertyManager.CAR_SET_PROPERTY_ERROR_CODE_UNKNOWN;
+        }
+    }
+
+    private static long getKey(int prop, int areaId) {
+        return ((long) prop << 32) | (areaId & 0xFFFFFFFFL);
+    }
+
+    /** Latest value set for a property and area, not written yet. */
+    private static final class PendingValue {
+        VehiclePropValue value;
+        // Sequence number of the first value this one replaced, or of this value.
+        final long firstSequence;
+
+        PendingValue(VehiclePropValue value, long firstSequence) {
+            this.value = value;
+            this.firstSequence = firstSequence;
+        }
+    }
+}
@@ -56,9 +56,11 @@ final class HalClient {
     private static final int SLEEP_BETWEEN_RETRIABLE_INVOKES_MS = 50;
 
     private final IVehicle mVehicle;
-    private final IVehicleCallback mInternalCallback;
+    private final VehicleCallback mInternalCallback;
     private final int mWaitCapMs;
     private final int mSleepMs;
+    // Set while the exchanged values are recorded, see VehicleHal#startRecording.
+    private volatile VehicleHalRecorder mRecorder;
 
     /**
      * Create HalClient object
@@ -82,6 +84,14 @@ final class HalClient {
         mSleepMs = sleepMs;
     }
 
+    void setRecorder(VehicleHalRecorder recorder) {
+        mRecorder = recorder;
+    }
+
+    void setEventTracer(PropertyEventTracer tracer) {
+        mInternalCallback.mTracer = tracer;
+    }
+
     ArrayList<VehiclePropConfig> getAllPropConfigs() throws RemoteException {
         return mVehicle.getAllPropConfigs();
     }
@@ -104,6 +114,11 @@ final class HalClient {
             }
         }, mWaitCapMs, mSleepMs);
 
+        VehicleHalRecorder recorder = mRecorder;
+        if (recorder != null) {
+            recorder.recordSet(status, propValue);
+        }
+
         if (StatusCode.INVALID_ARG == status) {
             throw new IllegalArgumentException(getValueErrorMessage("set", propValue));
         }
@@ -135,6 +150,12 @@ final class HalClient {
             return res.status;
         }, mWaitCapMs, mSleepMs);
 
+        VehicleHalRecorder recorder = mRecorder;
+        if (recorder != null) {
+            recorder.recordGet(status, status == StatusCode.OK && valueWrapper.object != null
+                    ? valueWrapper.object : requestedPropValue);
+        }
+
         if (StatusCode.INVALID_ARG == status) {
             throw new IllegalArgumentException(getValueErrorMessage("get", requestedPropValue));
         }
@@ -219,10 +240,21 @@ final class HalClient {
         }
     }
 
+    private static final class TracedPropertyEvent {
+        final ArrayList<VehiclePropValue> values;
+        final PropertyEventTracer.Trace trace;
+
+        TracedPropertyEvent(ArrayList<VehiclePropValue> values, PropertyEventTracer.Trace trace) {
+            this.values = values;
+            this.trace = trace;
+        }
+    }
+
     private static final class CallbackHandler extends Handler {
         private static final int MSG_ON_PROPERTY_SET = 1;
         private static final int MSG_ON_PROPERTY_EVENT = 2;
         private static final int MSG_ON_SET_ERROR = 3;
+        private static final int MSG_ON_TRACED_PROPERTY_EVENT = 4;
 
         private final WeakReference<IVehicleCallback> mCallback;
 
@@ -244,6 +276,15 @@ final class HalClient {
                     case MSG_ON_PROPERTY_EVENT:
                         callback.onPropertyEvent((ArrayList<VehiclePropValue>) msg.obj);
                         break;
+                    case MSG_ON_TRACED_PROPERTY_EVENT:
+                        TracedPropertyEvent event = (TracedPropertyEvent) msg.obj;
+                        event.trace.begin();
+                        try {
+                            callback.onPropertyEvent(event.values);
+                        } finally {
+                            event.trace.end();
+                        }
+                        break;
                     case MSG_ON_PROPERTY_SET:
                         callback.onPropertySet((VehiclePropValue) msg.obj);
                         break;
@@ -262,6 +303,7 @@ final class HalClient {
 
     private static final class VehicleCallback extends IVehicleCallback.Stub {
         private final Handler mHandler;
+        private volatile PropertyEventTracer mTracer;
 
         VehicleCallback(Handler handler) {
             mHandler = handler;
@@ -269,6 +311,14 @@ final class HalClient {
 
         @Override
         public void onPropertyEvent(ArrayList<VehiclePropValue> propValues) {
+            PropertyEventTracer tracer = mTracer;
+            PropertyEventTracer.Trace trace = tracer == null ? null : tracer.startTrace(propValues);
+            if (trace != null) {
+                mHandler.sendMessage(Message.obtain(mHandler,
+                        CallbackHandler.MSG_ON_TRACED_PROPERTY_EVENT,
+                        new TracedPropertyEvent(propValues, trace)));
+                return;
+            }
             mHandler.sendMessage(Message.obtain(
                     mHandler, CallbackHandler.MSG_ON_PROPERTY_EVENT, propValues));
         }
@@ -0,0 +1,254 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.hal;
+
+import static java.lang.Integer.toHexString;
+
+import android.annotation.Nullable;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.os.SystemClock;
+import android.util.SparseArray;
+
+import com.android.internal.annotations.GuardedBy;
+import com.android.internal.annotations.VisibleForTesting;
+
+import java.io.PrintWriter;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures where time goes between the Vehicle HAL sending a property event and the event reaching
+ * the {@code ICarPropertyEventListener}s of the clients.
+ *
+ * <p>One event batch out of {@link #setSamplingInterval(int) N} received by {@link HalClient} is
+ * traced. The trace is carried with the batch to the looper thread, where it is the current trace
+ * while the batch goes through {@link VehicleHal}, {@link PropertyHalService} and
+ * {@code CarPropertyService}; each of them {@link #markStage(int) marks} its stage. The time spent
+ * in each stage is accumulated in per-property histograms of fixed size, with log2 buckets of
+ * microseconds. Latencies are attributed to the property of the first value of the batch.
+ */
+public final class PropertyEventTracer {
+    /** From the binder callback to {@link VehicleHal#onPropertyEvent}. */
+    public static final int STAGE_VEHICLE_HAL = 0;
+    /** From {@link VehicleHal#onPropertyEvent} to {@link PropertyHalService#onHalEvents}. */
+    public static final int STAGE_PROPERTY_HAL = 1;
+    /** From {@link PropertyHalService#onHalEvents} to {@code CarPropertyService}. */
+    public static final int STAGE_CAR_PROPERTY_SERVICE = 2;
+    /** From {@code CarPropertyService} to the return of a client's {@code onEvent()}. */
+    public static final int STAGE_CLIENT = 3;
+    /** From the binder callback to the return of a client's {@code onEvent()}. */
+    public static final int STAGE_TOTAL = 4;
+    @VisibleForTesting
+    static final int STAGE_COUNT = 5;
+
+    private static final String[] STAGE_NAMES =
+            {"vehicleHal", "propertyHal", "carPropertyService", "client", "total"};
+
+    // Bucket i holds latencies in [2^(i-1), 2^i) us, bucket 0 those under 1 us; the last bucket
+    // holds everything above.
+    @VisibleForTesting
+    static final int BUCKET_COUNT = 24;
+
+    private static final ThreadLocal<Trace> sCurrentTrace = new ThreadLocal<>();
+
+    private final Object mLock = new Object();
+    private final AtomicInteger mEventCount = new AtomicInteger();
+
+    // Trace one event batch out of this many, 0 to disable tracing.
+    private volatile int mSamplingInterval;
+
+    // Histograms by HAL property id, STAGE_COUNT * BUCKET_COUNT entries each.
+    @GuardedBy("mLock")
+    private final SparseArray<long[]> mHistograms = new SparseArray<>();
+    @GuardedBy("mLock")
+    private final SparseArray<long[]> mMaxLatenciesNs = new SparseArray<>();
+
+    /** Traces one event batch out of {@code interval}, or none if {@code interval} is 0. */
+    public void setSamplingInterval(int interval) {
+        if (interval < 0) {
+            throw new IllegalArgumentException("Invalid sampling interval: " + interval);
+        }
+        mSamplingInterval = interval;
+    }
+
+    public int getSamplingInterval() {
+        return mSamplingInterval;
+    }
+
+    /** Clears the histograms. */
+    public void reset() {
+        synchronized (mLock) {
+            mHistograms.clear();
+            mMaxLatenciesNs.clear();
+        }
+    }
+
+    /**
+     * Returns a trace for the batch of values just received from the Vehicle HAL if it is
+     * sampled, or {@code null}.
+     */
+    @Nullable
+    Trace startTrace(List<VehiclePropValue> values) {
+        int interval = mSamplingInterval;
+        if (interval == 0 || values.isEmpty()
+                || mEventCount.getAndIncrement() % interval != 0) {
+            return null;
+        }
+        return new Trace(this, values.get(0).prop, SystemClock.elapsedRealtimeNanos());
+    }
+
+    /**
+     * Marks that the current trace of the calling thread reached the given stage.
+     *
+     * @return the current trace, or {@code null} if the event being handled is not traced
+     */
+    @Nullable
+    public static Trace markStage(int stage) {
+        Trace trace = sCurrentTrace.get();
+        if (trace != null) {
+            trace.mMarksNs[stage] = SystemClock.elapsedRealtimeNanos();
+        }
+        return trace;
+    }
+
+    /** Returns a copy of the histogram of the given stage for the given property, or null. */
+    @VisibleForTesting
+    @Nullable
+    long[] getHistogram(int halPropId, int stage) {
+        synchronized (mLock) {
+            long[] histograms = mHistograms.get(halPropId);
+            if (histograms == null) {
+                return null;
+            }
+            long[] histogram = new long[BUCKET_COUNT];
+            System.arraycopy(histograms, stage * BUCKET_COUNT, histogram, 0, BUCKET_COUNT);
+            return histogram;
+        }
+    }
+
+    public void dump(PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println("**Property event latencies, samplingInterval="
+                    + mSamplingInterval + "**");
+            for (int i = 0; i < mHistograms.size(); i++) {
+                writer.println("Prop: 0x" + toHexString(mHistograms.keyAt(i)));
+                long[] histograms = mHistograms.valueAt(i);
+                long[] maxLatenciesNs = mMaxLatenciesNs.valueAt(i);
+                for (int stage = 0; stage < STAGE_COUNT; stage++) {
+                    dumpHistogram(writer, stage, histograms, maxLatenciesNs[stage]);
+                }
+            }
+        }
+    }
+
+    private static void dumpHistogram(PrintWriter writer, int stage, long[] histograms,
+            long maxLatencyNs) {
+        int offset = stage * BUCKET_COUNT;
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            count += histograms[offset + i];
+        }
+        if (count == 0) {
+            return;
+        }
+        writer.println(String.format("  %s: count=%d, p50<%dus, p90<%dus, p99<%dus, max=%dus",
+                STAGE_NAMES[stage], count, getPercentileUpperBoundUs(histograms, offset, count, 50),
+                getPercentileUpperBoundUs(histograms, offset, count, 90),
+                getPercentileUpperBoundUs(histograms, offset, count, 99), maxLatencyNs / 1000));
+    }
+
+    private static long getPercentileUpperBoundUs(long[] histograms, int offset, long count,
+            int percentile) {
+        long target = (count * percentile + 99) / 100;
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += histograms[offset + i];
+            if (seen >= target) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKET_COUNT - 1);
+    }
+
+    @VisibleForTesting
+    static int getBucket(long latencyNs) {
+        long latencyUs = latencyNs / 1000;
+        return Math.min(64 - Long.numberOfLeadingZeros(latencyUs), BUCKET_COUNT - 1);
+    }
+
+    private void recordLatency(int halPropId, int stage, long latencyNs) {
+        if (latencyNs < 0) {
+            return;
+        }
+        synchronized (mLock) {
+            long[] histograms = mHistograms.get(halPropId);
+            long[] maxLatenciesNs = mMaxLatenciesNs.get(halPropId);
+            if (histograms == null) {
+                histograms = new long[STAGE_COUNT * BUCKET_COUNT];
+                maxLatenciesNs = new long[STAGE_COUNT];
+                mHistograms.put(halPropId, histograms);
+                mMaxLatenciesNs.put(halPropId, maxLatenciesNs);
+            }
+            histograms[stage * BUCKET_COUNT + getBucket(latencyNs)]++;
+            maxLatenciesNs[stage] = Math.max(maxLatenciesNs[stage], latencyNs);
+        }
+    }
+
+    /** Stage timestamps of a traced event batch. */
+    public static final class Trace {
+        private final PropertyEventTracer mTracer;
+        private final int mHalPropId;
+        private final long mReceivedNs;
+        // SystemClock.elapsedRealtimeNanos() at which each stage was reached, 0 if not reached.
+        // Only written on the looper thread between begin() and end().
+        private final long[] mMarksNs = new long[STAGE_CAR_PROPERTY_SERVICE + 1];
+
+        private Trace(PropertyEventTracer tracer, int halPropId, long receivedNs) {
+            mTracer = tracer;
+            mHalPropId = halPropId;
+            mReceivedNs = receivedNs;
+        }
+
+        /** Makes this trace the current trace of the calling thread. */
+        void begin() {
+            sCurrentTrace.set(this);
+        }
+
+        /** Clears the current trace of the calling thread and records the stages reached. */
+        void end() {
+            sCurrentTrace.remove();
+            long previousNs = mReceivedNs;
+            for (int stage = 0; stage < mMarksNs.length; stage++) {
+                if (mMarksNs[stage] == 0) {
+                    return;
+                }
+                mTracer.recordLatency(mHalPropId, stage, mMarksNs[stage] - previousNs);
+                previousNs = mMarksNs[stage];
+            }
+        }
+
+        /** Records that the traced event was delivered to a client. */
+        public void onDelivered() {
+            long nowNs = SystemClock.elapsedRealtimeNanos();
+            long serviceNs = mMarksNs[STAGE_CAR_PROPERTY_SERVICE];
+            if (serviceNs != 0) {
+                mTracer.recordLatency(mHalPropId, STAGE_CLIENT, nowNs - serviceNs);
+            }
+            mTracer.recordLatency(mHalPropId, STAGE_TOTAL, nowNs - mReceivedNs);
+        }
+    }
+}
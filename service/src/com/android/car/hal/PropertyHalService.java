@@ -28,6 +28,7 @@ import android.car.hardware.CarPropertyConfig;
 import android.car.hardware.CarPropertyValue;
 import android.car.hardware.property.CarPropertyEvent;
 import android.car.hardware.property.CarPropertyManager;
+import android.hardware.automotive.vehicle.V2_0.VehicleAreaConfig;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
@@ -47,6 +48,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Common interface for HAL services that send Vehicle Properties back and forth via ICarProperty.
@@ -70,13 +72,22 @@ public class PropertyHalService extends HalServiceBase {
             VehiclePropertyIds.VEHICLE_SPEED_DISPLAY_UNITS,
             VehicleProperty.VEHICLE_SPEED_DISPLAY_UNITS);
     private static final String TAG = "PropertyHalService";
+    private static final float NOT_SUBSCRIBED = -1f;
     private final VehicleHal mVehicleHal;
     private final PropertyHalServiceIds mPropIds;
+    private final AsyncPropertySetter mAsyncSetter;
 
     @GuardedBy("mLock")
     private PropertyHalListener mListener;
     @GuardedBy("mLock")
     private Set<Integer> mSubscribedHalPropIds;
+    // Sample rates requested through subscribeProperty(), keyed by HAL property ID
+    @GuardedBy("mLock")
+    private final SparseArray<Float> mExternalSampleRates = new SparseArray<>();
+    // In-process listeners, keyed by HAL property ID
+    @GuardedBy("mLock")
+    private final SparseArray<List<InternalListenerRecord>> mInternalListeners =
+            new SparseArray<>();
 
     private final Object mLock = new Object();
 
@@ -118,10 +129,72 @@ public class PropertyHalService extends HalServiceBase {
 
     }
 
+    /**
+     * Listener for in-process consumers of property changes, registered through
+     * {@link #registerInternalListener}. Values are delivered as primitives without creating
+     * {@link CarPropertyEvent}s; only the method matching the type of the property is called.
+     */
+    public interface InternalPropertyListener {
+        /** Called when a {@code FLOAT} property changes. */
+        default void onFloatPropertyChanged(int propId, int areaId, float value, long timestamp) {}
+
+        /** Called when an {@code INT32} property changes. */
+        default void onIntPropertyChanged(int propId, int areaId, int value, long timestamp) {}
+
+        /** Called when a {@code BOOLEAN} property changes. */
+        default void onBooleanPropertyChanged(int propId, int areaId, boolean value,
+                long timestamp) {}
+    }
+
+    private static final class InternalListenerRecord {
+        private final int mMgrPropId;
+        private final float mRate;
+        private final InternalPropertyListener mListener;
+
+        InternalListenerRecord(int mgrPropId, float rate, InternalPropertyListener listener) {
+            mMgrPropId = mgrPropId;
+            mRate = rate;
+            mListener = listener;
+        }
+
+        void dispatch(VehiclePropValue v) {
+            switch (v.prop & VehiclePropertyType.MASK) {
+                case VehiclePropertyType.FLOAT:
+                    if (v.value.floatValues.isEmpty()) {
+                        break;
+                    }
+                    mListener.onFloatPropertyChanged(mMgrPropId, v.areaId,
+                            v.value.floatValues.get(0), v.timestamp);
+                    return;
+                case VehiclePropertyType.INT32:
+                    if (v.value.int32Values.isEmpty()) {
+                        break;
+                    }
+                    mListener.onIntPropertyChanged(mMgrPropId, v.areaId,
+                            v.value.int32Values.get(0), v.timestamp);
+                    return;
+                case VehiclePropertyType.BOOLEAN:
+                    if (v.value.int32Values.isEmpty()) {
+                        break;
+                    }
+                    mListener.onBooleanPropertyChanged(mMgrPropId, v.areaId,
+                            v.value.int32Values.get(0) == 1, v.timestamp);
+                    return;
+                default:
+                    break;
+            }
+            Log.w(TAG, "Drop internal event with empty payload for property: 0x"
+                    + toHexString(v.prop));
+        }
+    }
+
     public PropertyHalService(VehicleHal vehicleHal) {
         mPropIds = new PropertyHalServiceIds();
         mSubscribedHalPropIds = new HashSet<Integer>();
         mVehicleHal = vehicleHal;
+        mAsyncSetter = new AsyncPropertySetter(
+                CarServiceUtils.getHandlerThread(TAG + ".setter").getLooper(),
+                mVehicleHal::set, this::onPropertySetError);
         if (mDbg) {
             Log.d(TAG, "started PropertyHalService");
         }
@@ -170,6 +243,8 @@ public class PropertyHalService extends HalServiceBase {
             throw new IllegalArgumentException("Invalid property Id : 0x" + toHexString(mgrPropId));
         }
 
+        // Reads what the caller set before, even if it was set asynchronously.
+        mAsyncSetter.awaitWritten(halPropId, areaId);
         // CarPropertyManager catches and rethrows exception, no need to handle here.
         VehiclePropValue value = mVehicleHal.get(halPropId, areaId);
         if (isMixedTypeProperty(halPropId)) {
@@ -185,7 +260,8 @@ public class PropertyHalService extends HalServiceBase {
     }
 
     /**
-     * Returns sample rate for the property
+     * Returns sample rate requested for the property through {@link #subscribeProperty}, or
+     * {@code -1} if it is not subscribed. Rates of internal listeners are not included.
      * @param mgrPropId
      */
     public float getSampleRate(int mgrPropId) {
@@ -193,7 +269,9 @@ public class PropertyHalService extends HalServiceBase {
         if (!isPropertySupportedInVehicle(halPropId)) {
             throw new IllegalArgumentException("Invalid property Id : 0x" + toHexString(mgrPropId));
         }
-        return mVehicleHal.getSampleRate(halPropId);
+        synchronized (mLock) {
+            return mExternalSampleRates.get(halPropId, NOT_SUBSCRIBED);
+        }
     }
 
     /**
@@ -230,6 +308,22 @@ public class PropertyHalService extends HalServiceBase {
      * @param prop
      */
     public void setProperty(CarPropertyValue prop) {
+        // CarPropertyManager catches and rethrows exception, no need to handle here.
+        mVehicleHal.set(toHalPropValue(prop));
+    }
+
+    /**
+     * Queues the given property value to be written from the setter thread, replacing the value
+     * of the same property and area not written yet. Failures to write are reported to the
+     * {@link PropertyHalListener#onPropertySetError listener}.
+     *
+     * @throws IllegalArgumentException if the property is not supported
+     */
+    public void setPropertyAsync(CarPropertyValue prop) {
+        mAsyncSetter.set(toHalPropValue(prop));
+    }
+
+    private VehiclePropValue toHalPropValue(CarPropertyValue prop) {
         int halPropId = managerToHalPropId(prop.getPropertyId());
         if (!isPropertySupportedInVehicle(halPropId)) {
             throw new IllegalArgumentException("Invalid property Id : 0x"
@@ -248,8 +342,7 @@ public class PropertyHalService extends HalServiceBase {
         } else {
             halProp = toVehiclePropValue(prop, halPropId);
         }
-        // CarPropertyManager catches and rethrows exception, no need to handle here.
-        mVehicleHal.set(halProp);
+        return halProp;
     }
 
     /**
@@ -267,16 +360,9 @@ public class PropertyHalService extends HalServiceBase {
                     + toHexString(mgrPropId));
         }
         synchronized (mLock) {
-            VehiclePropConfig cfg = mHalPropIdToVehiclePropConfig.get(halPropId);
-            if (rate > cfg.maxSampleRate) {
-                rate = cfg.maxSampleRate;
-            } else if (rate < cfg.minSampleRate) {
-                rate = cfg.minSampleRate;
-            }
-            mSubscribedHalPropIds.add(halPropId);
+            mExternalSampleRates.put(halPropId, clampSampleRateLocked(halPropId, rate));
+            updateHalSubscriptionLocked(halPropId);
         }
-
-        mVehicleHal.subscribeProperty(this, halPropId, rate);
     }
 
     /**
@@ -293,10 +379,131 @@ public class PropertyHalService extends HalServiceBase {
                     + toHexString(mgrPropId));
         }
         synchronized (mLock) {
-            if (mSubscribedHalPropIds.contains(halPropId)) {
-                mSubscribedHalPropIds.remove(halPropId);
+            mExternalSampleRates.remove(halPropId);
+            updateHalSubscriptionLocked(halPropId);
+        }
+    }
+
+    /**
+     * Registers an in-process listener for a {@code FLOAT}, {@code INT32} or {@code BOOLEAN}
+     * property. The current value of each area is delivered first, then every change.
+     *
+     * <p>Unlike {@link PropertyHalListener}, no {@link CarPropertyEvent} is created and no
+     * permission is checked, so this is only meant for services running in this process.
+     *
+     * <p>The current values are delivered on the calling thread, and changes on the thread
+     * dispatching the HAL events, so the listener must not block.
+     *
+     * @param mgrPropId property to listen to
+     * @param rate update rate, ignored for on-change properties
+     * @param listener listener to call
+     */
+    public void registerInternalListener(int mgrPropId, float rate,
+            InternalPropertyListener listener) {
+        if (mDbg) {
+            Log.d(TAG, "registerInternalListener propId=0x" + toHexString(mgrPropId)
+                    + ", rate=" + rate);
+        }
+        int halPropId = managerToHalPropId(mgrPropId);
+        if (!isPropertySupportedInVehicle(halPropId)) {
+            throw new IllegalArgumentException("Invalid property Id : 0x"
+                    + toHexString(mgrPropId));
+        }
+        int type = halPropId & VehiclePropertyType.MASK;
+        if (type != VehiclePropertyType.FLOAT && type != VehiclePropertyType.INT32
+                && type != VehiclePropertyType.BOOLEAN) {
+            throw new IllegalArgumentException("Property 0x" + toHexString(mgrPropId)
+                    + " does not hold a single primitive value");
+        }
+        InternalListenerRecord record;
+        VehiclePropConfig cfg;
+        synchronized (mLock) {
+            record = new InternalListenerRecord(mgrPropId,
+                    clampSampleRateLocked(halPropId, rate), listener);
+            List<InternalListenerRecord> records = mInternalListeners.get(halPropId);
+            if (records == null) {
+                records = new CopyOnWriteArrayList<>();
+                mInternalListeners.put(halPropId, records);
+            }
+            records.add(record);
+            updateHalSubscriptionLocked(halPropId);
+            cfg = mHalPropIdToVehiclePropConfig.get(halPropId);
+        }
+        dispatchCurrentValues(cfg, record);
+    }
+
+    /**
+     * Unregisters a listener registered through {@link #registerInternalListener}.
+     */
+    public void unregisterInternalListener(int mgrPropId, InternalPropertyListener listener) {
+        if (mDbg) {
+            Log.d(TAG, "unregisterInternalListener propId=0x" + toHexString(mgrPropId));
+        }
+        int halPropId = managerToHalPropId(mgrPropId);
+        synchronized (mLock) {
+            List<InternalListenerRecord> records = mInternalListeners.get(halPropId);
+            if (records == null) {
+                return;
+            }
+            records.removeIf(record -> record.mListener == listener);
+            if (records.isEmpty()) {
+                mInternalListeners.remove(halPropId);
+            }
+            updateHalSubscriptionLocked(halPropId);
+        }
+    }
+
+    private void dispatchCurrentValues(VehiclePropConfig cfg, InternalListenerRecord record) {
+        try {
+            if (cfg.areaConfigs.isEmpty()) {
+                dispatchCurrentValue(cfg.prop, 0, record);
+            } else {
+                for (VehicleAreaConfig areaConfig : cfg.areaConfigs) {
+                    dispatchCurrentValue(cfg.prop, areaConfig.areaId, record);
+                }
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Cannot get initial value for property: 0x" + toHexString(cfg.prop), e);
+        }
+    }
+
+    private void dispatchCurrentValue(int halPropId, int areaId, InternalListenerRecord record) {
+        VehiclePropValue value = mVehicleHal.get(halPropId, areaId);
+        if (value != null) {
+            record.dispatch(value);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private float clampSampleRateLocked(int halPropId, float rate) {
+        VehiclePropConfig cfg = mHalPropIdToVehiclePropConfig.get(halPropId);
+        if (rate > cfg.maxSampleRate) {
+            return cfg.maxSampleRate;
+        } else if (rate < cfg.minSampleRate) {
+            return cfg.minSampleRate;
+        }
+        return rate;
+    }
+
+    // Subscribes to the HAL with the highest rate requested by CarPropertyService or internal
+    // listeners, or unsubscribes when there are none left.
+    @GuardedBy("mLock")
+    private void updateHalSubscriptionLocked(int halPropId) {
+        float rate = mExternalSampleRates.get(halPropId, NOT_SUBSCRIBED);
+        List<InternalListenerRecord> records = mInternalListeners.get(halPropId);
+        if (records != null) {
+            for (InternalListenerRecord record : records) {
+                rate = Math.max(rate, record.mRate);
+            }
+        }
+        if (rate == NOT_SUBSCRIBED) {
+            if (mSubscribedHalPropIds.remove(halPropId)) {
                 mVehicleHal.unsubscribeProperty(this, halPropId);
             }
+            return;
+        }
+        if (mSubscribedHalPropIds.add(halPropId) || mVehicleHal.getSampleRate(halPropId) != rate) {
+            mVehicleHal.subscribeProperty(this, halPropId, rate);
         }
     }
 
@@ -317,10 +524,13 @@ public class PropertyHalService extends HalServiceBase {
                 mVehicleHal.unsubscribeProperty(this, halProp);
             }
             mSubscribedHalPropIds.clear();
+            mExternalSampleRates.clear();
+            mInternalListeners.clear();
             mHalPropIdToVehiclePropConfig.clear();
             mMgrPropIdToCarPropConfig.clear();
             mListener = null;
         }
+        mAsyncSetter.clear();
     }
 
     @Override
@@ -362,25 +572,38 @@ public class PropertyHalService extends HalServiceBase {
 
     @Override
     public void onHalEvents(List<VehiclePropValue> values) {
+        PropertyEventTracer.markStage(PropertyEventTracer.STAGE_PROPERTY_HAL);
         PropertyHalListener listener;
         synchronized (mLock) {
             listener = mListener;
         }
-        if (listener != null) {
-            for (VehiclePropValue v : values) {
-                if (v == null) {
-                    continue;
-                }
-                if (!isPropertySupportedInVehicle(v.prop)) {
-                    Log.e(TAG, "Property is not supported: 0x" + toHexString(v.prop));
-                    continue;
-                }
-                // Check payload if it is a userdebug build.
-                if (Build.IS_DEBUGGABLE && !mPropIds.checkPayload(v)) {
-                    Log.e(TAG, "Drop event for property: " + v + " because it is failed "
-                            + "in payload checking.");
-                    continue;
+        for (VehiclePropValue v : values) {
+            if (v == null) {
+                continue;
+            }
+            if (!isPropertySupportedInVehicle(v.prop)) {
+                Log.e(TAG, "Property is not supported: 0x" + toHexString(v.prop));
+                continue;
+            }
+            // Check payload if it is a userdebug build.
+            if (Build.IS_DEBUGGABLE && !mPropIds.checkPayload(v)) {
+                Log.e(TAG, "Drop event for property: " + v + " because it is failed "
+                        + "in payload checking.");
+                continue;
+            }
+            List<InternalListenerRecord> internalListeners;
+            boolean externallySubscribed;
+            synchronized (mLock) {
+                internalListeners = mInternalListeners.get(v.prop);
+                externallySubscribed = mExternalSampleRates.indexOfKey(v.prop) >= 0;
+            }
+            if (internalListeners != null) {
+                for (InternalListenerRecord record : internalListeners) {
+                    record.dispatch(v);
                 }
+            }
+            // Properties only used by internal listeners never need a CarPropertyEvent.
+            if (listener != null && externallySubscribed) {
                 int mgrPropId = halToManagerPropId(v.prop);
                 CarPropertyValue<?> propVal;
                 if (isMixedTypeProperty(v.prop)) {
@@ -398,6 +621,8 @@ public class PropertyHalService extends HalServiceBase {
                         CarPropertyEvent.PROPERTY_EVENT_PROPERTY_CHANGE, propVal);
                 mEventsToDispatch.add(event);
             }
+        }
+        if (!mEventsToDispatch.isEmpty()) {
             listener.onPropertyChange(mEventsToDispatch);
             mEventsToDispatch.clear();
         }
@@ -426,6 +651,7 @@ public class PropertyHalService extends HalServiceBase {
                 writer.println("    " + p);
             }
         }
+        mAsyncSetter.dump(writer);
     }
 
     private static boolean isMixedTypeProperty(int halPropId) {
@@ -26,6 +26,7 @@ import static com.android.internal.util.function.pooled.PooledLambda.obtainMessa
 import android.annotation.NonNull;
 import android.annotation.Nullable;
 import android.app.ActivityManager;
+import android.car.VehiclePropertyIds;
 import android.car.hardware.property.CarPropertyManager;
 import android.car.user.CarUserManager;
 import android.car.userlib.HalCallback;
@@ -54,15 +55,18 @@ import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.ServiceSpecificException;
+import android.os.SystemClock;
 import android.sysprop.CarProperties;
 import android.text.TextUtils;
 import android.util.EventLog;
 import android.util.Log;
 import android.util.SparseArray;
 import android.util.SparseBooleanArray;
+import android.util.SparseIntArray;
 
 import com.android.car.CarLocalServices;
 import com.android.car.CarStatsLog;
+import com.android.car.LatencyHistogram;
 import com.android.car.user.CarUserService;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
@@ -72,6 +76,7 @@ import com.android.internal.util.Preconditions;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
@@ -98,6 +103,14 @@ public final class UserHalService extends HalServiceBase {
             USER_IDENTIFICATION_ASSOCIATION
     };
 
+    // Properties whose requests are answered asynchronously by a property change event.
+    private static final int[] ASYNC_REQUEST_PROPERTIES = new int[]{
+            CREATE_USER,
+            INITIAL_USER_INFO,
+            SWITCH_USER,
+            USER_IDENTIFICATION_ASSOCIATION
+    };
+
     private static final int[] CORE_PROPERTIES = new int[]{
             CREATE_USER,
             INITIAL_USER_INFO,
@@ -115,11 +128,12 @@ public final class UserHalService extends HalServiceBase {
     @Nullable
     private SparseArray<VehiclePropConfig> mProperties;
 
-    // This handler handles 2 types of messages:
-    // - "Anonymous" messages (what=0) containing runnables.
-    // - "Identifiable" messages used to check for timeouts (whose 'what' is the request id).
+    // This handler handles "anonymous" messages (what=0) containing runnables, including the
+    // single runnable that checks for timeouts of all pending requests.
     private final Handler mHandler;
 
+    private final Runnable mTimeoutChecker = this::handleCheckTimedOutRequests;
+
     /**
      * Value used on the next request.
      */
@@ -138,6 +152,31 @@ public final class UserHalService extends HalServiceBase {
     @GuardedBy("mLock")
     private final SparseArray<PendingRequest<?, ?>> mPendingRequests = new SparseArray<>();
 
+    /**
+     * Pending requests by property (i.e., by request type). Requests of different types are
+     * in flight concurrently, but there is at most one pending request of each type.
+     */
+    @GuardedBy("mLock")
+    private final SparseArray<PendingRequest<?, ?>> mPendingRequestsByType =
+            new SparseArray<>(ASYNC_REQUEST_PROPERTIES.length);
+
+    /**
+     * Uptime at which {@link #mTimeoutChecker} is scheduled to run, or {@code 0} when it's not.
+     */
+    @GuardedBy("mLock")
+    private long mNextTimeoutCheckUptimeMs;
+
+    /**
+     * Round-trip latency (from {@code set()} to the HAL response) by property. Populated on
+     * construction and read-only afterwards.
+     */
+    private final SparseArray<LatencyHistogram> mRoundTripLatency =
+            new SparseArray<>(ASYNC_REQUEST_PROPERTIES.length);
+
+    @GuardedBy("mLock")
+    private final SparseIntArray mTimeoutCount =
+            new SparseIntArray(ASYNC_REQUEST_PROPERTIES.length);
+
     public UserHalService(VehicleHal hal) {
         this(hal, new Handler(Looper.getMainLooper()));
     }
@@ -147,6 +186,9 @@ public final class UserHalService extends HalServiceBase {
         mHal = hal;
         mHandler = handler;
         mBaseRequestId = ThreadLocalRandom.current().nextInt(0, Integer.MAX_VALUE);
+        for (int property : ASYNC_REQUEST_PROPERTIES) {
+            mRoundTripLatency.put(property, new LatencyHistogram("ms"));
+        }
     }
 
     @Override
@@ -306,8 +348,9 @@ public final class UserHalService extends HalServiceBase {
         UserHalHelper.addUsersInfo(propRequest, usersInfo);
 
         synchronized (mLock) {
-            if (hasPendingRequestLocked(InitialUserInfoResponse.class, callback)) return;
-            addPendingRequestLocked(requestId, InitialUserInfoResponse.class, callback);
+            if (hasPendingRequestLocked(INITIAL_USER_INFO, callback)) return;
+            addPendingRequestLocked(requestId, INITIAL_USER_INFO, timeoutMs,
+                    InitialUserInfoResponse.class, callback);
         }
 
         EventLog.writeEvent(EventLogTags.CAR_USER_HAL_INITIAL_USER_INFO_REQ, requestId,
@@ -316,7 +359,7 @@ public final class UserHalService extends HalServiceBase {
                 getRequestIdForStatsLog(requestId),
                 getInitialUserInfoRequestTypeForStatsd(requestType), timeoutMs);
 
-        sendHalRequest(requestId, timeoutMs, propRequest, callback);
+        sendHalRequest(requestId, propRequest, callback);
     }
 
     private static int getInitialUserInfoRequestTypeForStatsd(int requestType) {
@@ -341,11 +384,8 @@ public final class UserHalService extends HalServiceBase {
         // CHECKSTYLE:ON IndentationCheck
     }
 
-    private void sendHalRequest(int requestId, int timeoutMs, @NonNull VehiclePropValue request,
+    private void sendHalRequest(int requestId, @NonNull VehiclePropValue request,
             @NonNull HalCallback<?> callback) {
-        mHandler.sendMessageDelayed(obtainMessage(
-                UserHalService::handleCheckIfRequestTimedOut, this, requestId).setWhat(requestId),
-                timeoutMs);
         try {
             if (DBG) Log.d(TAG, "Calling hal.set(): " + request);
             mHal.set(request);
@@ -379,8 +419,9 @@ public final class UserHalService extends HalServiceBase {
         VehiclePropValue propRequest = UserHalHelper.toVehiclePropValue(request);
 
         synchronized (mLock) {
-            if (hasPendingRequestLocked(SwitchUserResponse.class, callback)) return;
-            addPendingRequestLocked(request.requestId, SwitchUserResponse.class, callback);
+            if (hasPendingRequestLocked(SWITCH_USER, callback)) return;
+            addPendingRequestLocked(request.requestId, SWITCH_USER, timeoutMs,
+                    SwitchUserResponse.class, callback);
         }
 
         EventLog.writeEvent(EventLogTags.CAR_USER_HAL_SWITCH_USER_REQ, request.requestId,
@@ -392,7 +433,7 @@ public final class UserHalService extends HalServiceBase {
                 request.usersInfo.currentUser.userId, request.usersInfo.currentUser.flags,
                 request.targetUser.userId, request.targetUser.flags, timeoutMs);
 
-        sendHalRequest(request.requestId, timeoutMs, propRequest, callback);
+        sendHalRequest(request.requestId, propRequest, callback);
     }
 
     /**
@@ -448,8 +489,9 @@ public final class UserHalService extends HalServiceBase {
         VehiclePropValue propRequest = UserHalHelper.toVehiclePropValue(request);
 
         synchronized (mLock) {
-            if (hasPendingRequestLocked(CreateUserResponse.class, callback)) return;
-            addPendingRequestLocked(request.requestId, CreateUserResponse.class, callback);
+            if (hasPendingRequestLocked(CREATE_USER, callback)) return;
+            addPendingRequestLocked(request.requestId, CREATE_USER, timeoutMs,
+                    CreateUserResponse.class, callback);
         }
 
         EventLog.writeEvent(EventLogTags.CAR_USER_HAL_CREATE_USER_REQ, request.requestId,
@@ -461,7 +503,7 @@ public final class UserHalService extends HalServiceBase {
                 request.usersInfo.currentUser.userId, request.usersInfo.currentUser.flags,
                 request.newUserInfo.userId, request.newUserInfo.flags, timeoutMs);
 
-        sendHalRequest(request.requestId, timeoutMs, propRequest, callback);
+        sendHalRequest(request.requestId, propRequest, callback);
     }
 
     /**
@@ -645,9 +687,9 @@ public final class UserHalService extends HalServiceBase {
         VehiclePropValue propRequest = UserHalHelper.toVehiclePropValue(request);
 
         synchronized (mLock) {
-            if (hasPendingRequestLocked(UserIdentificationResponse.class, callback)) return;
-            addPendingRequestLocked(request.requestId, UserIdentificationResponse.class, request,
-                    callback);
+            if (hasPendingRequestLocked(USER_IDENTIFICATION_ASSOCIATION, callback)) return;
+            addPendingRequestLocked(request.requestId, USER_IDENTIFICATION_ASSOCIATION, timeoutMs,
+                    UserIdentificationResponse.class, request, callback);
         }
 
         EventLog.writeEvent(EventLogTags.CAR_USER_HAL_SET_USER_AUTH_REQ,
@@ -665,7 +707,7 @@ public final class UserHalService extends HalServiceBase {
                 CarStatsLog.CAR_USER_HAL_USER_ASSOCIATION_REQUEST_REPORTED__REQUEST_TYPE__SET,
                 request.userInfo.userId, request.userInfo.flags, request.numberAssociations,
                 Arrays.toString(associationTypes), Arrays.toString(associationValues));
-        sendHalRequest(request.requestId, timeoutMs, propRequest, callback);
+        sendHalRequest(request.requestId, propRequest, callback);
     }
 
     private void handleOnUserIdentificationAssociation(@NonNull VehiclePropValue value) {
@@ -679,7 +721,7 @@ public final class UserHalService extends HalServiceBase {
             Log.w(TAG, "no callback for requestId " + requestId + ": " + value);
             return;
         }
-        PendingRequest<?, ?> pendingRequest = handleRemovePendingRequest(requestId);
+        PendingRequest<?, ?> pendingRequest = handleRemoveAnsweredRequest(requestId);
         UserIdentificationResponse response;
         try {
             response = UserHalHelper.toUserIdentificationResponse(value);
@@ -773,65 +815,139 @@ public final class UserHalService extends HalServiceBase {
     }
 
     @GuardedBy("mLock")
-    private <REQ, RESP> void addPendingRequestLocked(int requestId,
-            @NonNull Class<RESP> responseClass, @NonNull REQ request,
+    private <REQ, RESP> void addPendingRequestLocked(int requestId, int property, int timeoutMs,
+            @NonNull Class<RESP> responseClass, @Nullable REQ request,
             @NonNull HalCallback<RESP> callback) {
-        PendingRequest<?, RESP> pendingRequest = new PendingRequest<>(responseClass, request,
-                callback);
+        long nowUptimeMs = SystemClock.uptimeMillis();
+        PendingRequest<?, RESP> pendingRequest = new PendingRequest<>(requestId, property,
+                nowUptimeMs, nowUptimeMs + timeoutMs, responseClass, request, callback);
         if (DBG) {
             Log.d(TAG, "adding pending request (" + pendingRequest + ") for requestId "
                     + requestId);
         }
         mPendingRequests.put(requestId, pendingRequest);
+        mPendingRequestsByType.put(property, pendingRequest);
+        scheduleTimeoutCheckLocked(pendingRequest.deadlineUptimeMs);
     }
 
     @GuardedBy("mLock")
-    private <RESP> void addPendingRequestLocked(int requestId, @NonNull Class<RESP> responseClass,
-            @NonNull HalCallback<RESP> callback) {
-        addPendingRequestLocked(requestId, responseClass, /* request= */ null,
+    private <RESP> void addPendingRequestLocked(int requestId, int property, int timeoutMs,
+            @NonNull Class<RESP> responseClass, @NonNull HalCallback<RESP> callback) {
+        addPendingRequestLocked(requestId, property, timeoutMs, responseClass, /* request= */ null,
                 callback);
     }
 
     /**
-     * Checks if there is a pending request of type {@code requestClass}, calling {@code callback}
+     * Checks if there is a pending request for {@code property}, calling {@code callback}
      * with {@link HalCallback#STATUS_CONCURRENT_OPERATION} when there is.
      */
     @GuardedBy("mLock")
-    private boolean hasPendingRequestLocked(@NonNull Class<?> responseClass,
-            @NonNull HalCallback<?> callback) {
-        for (int i = 0; i < mPendingRequests.size(); i++) {
-            PendingRequest<?, ?> pendingRequest = mPendingRequests.valueAt(i);
-            if (pendingRequest.responseClass == responseClass) {
-                Log.w(TAG, "Already have pending request of type " + responseClass);
-                callback.onResponse(HalCallback.STATUS_CONCURRENT_OPERATION, null);
-                return true;
-            }
+    private boolean hasPendingRequestLocked(int property, @NonNull HalCallback<?> callback) {
+        PendingRequest<?, ?> pendingRequest = mPendingRequestsByType.get(property);
+        if (pendingRequest == null) return false;
+
+        Log.w(TAG, "Already have pending request of type " + pendingRequest.responseClass);
+        callback.onResponse(HalCallback.STATUS_CONCURRENT_OPERATION, null);
+        return true;
+    }
+
+    /**
+     * Schedules the timeout checker to run at {@code deadlineUptimeMs}, unless it's already
+     * scheduled to run before that.
+     */
+    @GuardedBy("mLock")
+    private void scheduleTimeoutCheckLocked(long deadlineUptimeMs) {
+        if (mNextTimeoutCheckUptimeMs != 0 && mNextTimeoutCheckUptimeMs <= deadlineUptimeMs) {
+            return;
         }
-        return false;
+        mNextTimeoutCheckUptimeMs = deadlineUptimeMs;
+        mHandler.removeCallbacks(mTimeoutChecker);
+        mHandler.postAtTime(mTimeoutChecker, deadlineUptimeMs);
     }
 
     /**
-     * Removes the pending request and its timeout callback.
+     * Removes the pending request (if any) for the given id.
      */
     @Nullable
     private PendingRequest<?, ?> handleRemovePendingRequest(int requestId) {
         if (DBG) Log.d(TAG, "Removing pending request #" + requestId);
-        mHandler.removeMessages(requestId);
-        PendingRequest<?, ?> pendingRequest;
         synchronized (mLock) {
-            pendingRequest = mPendingRequests.get(requestId);
-            mPendingRequests.remove(requestId);
+            return removePendingRequestLocked(requestId);
+        }
+    }
+
+    /**
+     * Removes the pending request (if any) answered by the HAL, recording its round-trip latency.
+     */
+    @Nullable
+    private PendingRequest<?, ?> handleRemoveAnsweredRequest(int requestId) {
+        PendingRequest<?, ?> pendingRequest = handleRemovePendingRequest(requestId);
+        if (pendingRequest != null) {
+            mRoundTripLatency.get(pendingRequest.property)
+                    .record(SystemClock.uptimeMillis() - pendingRequest.startUptimeMs);
         }
         return pendingRequest;
     }
 
-    private void handleCheckIfRequestTimedOut(int requestId) {
-        PendingRequest<?, ?> pendingRequest = getPendingRequest(requestId);
-        if (pendingRequest == null) return;
+    @GuardedBy("mLock")
+    @Nullable
+    private PendingRequest<?, ?> removePendingRequestLocked(int requestId) {
+        PendingRequest<?, ?> pendingRequest = mPendingRequests.get(requestId);
+        if (pendingRequest == null) return null;
 
-        Log.w(TAG, "Request #" + requestId + " timed out");
-        handleRemovePendingRequest(requestId);
-        pendingRequest.callback.onResponse(HalCallback.STATUS_HAL_RESPONSE_TIMEOUT, null);
+        mPendingRequests.remove(requestId);
+        if (mPendingRequestsByType.get(pendingRequest.property) == pendingRequest) {
+            mPendingRequestsByType.remove(pendingRequest.property);
+        }
+        return pendingRequest;
+    }
+
+    /**
+     * Fails the pending requests whose deadline passed, then reschedules itself for the earliest
+     * remaining deadline. Requests that were answered in the meantime are simply gone, so their
+     * deadlines don't need to be cancelled.
+     */
+    private void handleCheckTimedOutRequests() {
+        long nowUptimeMs = SystemClock.uptimeMillis();
+        ArrayList<PendingRequest<?, ?>> timedOutRequests = null;
+        synchronized (mLock) {
+            mNextTimeoutCheckUptimeMs = 0;
+            long nextDeadlineUptimeMs = Long.MAX_VALUE;
+            for (int i = mPendingRequestsByType.size() - 1; i >= 0; i--) {
+                PendingRequest<?, ?> pendingRequest = mPendingRequestsByType.valueAt(i);
+                if (pendingRequest.deadlineUptimeMs > nowUptimeMs) {
+                    nextDeadlineUptimeMs = Math.min(nextDeadlineUptimeMs,
+                            pendingRequest.deadlineUptimeMs);
+                    continue;
+                }
+                if (timedOutRequests == null) {
+                    timedOutRequests = new ArrayList<>(mPendingRequestsByType.size());
+                }
+                timedOutRequests.add(pendingRequest);
+                removePendingRequestLocked(pendingRequest.requestId);
+                mTimeoutCount.put(pendingRequest.property,
+                        mTimeoutCount.get(pendingRequest.property) + 1);
+            }
+            if (nextDeadlineUptimeMs != Long.MAX_VALUE) {
+                scheduleTimeoutCheckLocked(nextDeadlineUptimeMs);
+            }
+        }
+        if (timedOutRequests == null) return;
+
+        for (int i = 0; i < timedOutRequests.size(); i++) {
+            PendingRequest<?, ?> pendingRequest = timedOutRequests.get(i);
+            Log.w(TAG, "Request #" + pendingRequest.requestId + " timed out");
+            pendingRequest.callback.onResponse(HalCallback.STATUS_HAL_RESPONSE_TIMEOUT, null);
+        }
+    }
+
+    /**
+     * Gets the round-trip latency of the HAL responses to requests of the given property.
+     */
+    @VisibleForTesting
+    @Nullable
+    LatencyHistogram getRoundTripLatency(int property) {
+        return mRoundTripLatency.get(property);
     }
 
     @Nullable
@@ -858,7 +974,7 @@ public final class UserHalService extends HalServiceBase {
             Log.w(TAG, "no callback for requestId " + requestId + ": " + value);
             return;
         }
-        handleRemovePendingRequest(requestId);
+        handleRemoveAnsweredRequest(requestId);
 
         InitialUserInfoResponse response;
         try {
@@ -928,7 +1044,7 @@ public final class UserHalService extends HalServiceBase {
         HalCallback<SwitchUserResponse> callback =
                 handleGetPendingCallback(requestId, SwitchUserResponse.class);
         if (callback != null) {
-            handleRemovePendingRequest(requestId);
+            handleRemoveAnsweredRequest(requestId);
             EventLog.writeEvent(EventLogTags.CAR_USER_HAL_SWITCH_USER_RESP, requestId,
                     HalCallback.STATUS_WRONG_HAL_RESPONSE);
             callback.onResponse(HalCallback.STATUS_WRONG_HAL_RESPONSE, null);
@@ -970,7 +1086,7 @@ public final class UserHalService extends HalServiceBase {
             logHalSwitchUserResponse(requestId, HalCallback.STATUS_WRONG_HAL_RESPONSE);
             return;
         }
-        handleRemovePendingRequest(requestId);
+        handleRemoveAnsweredRequest(requestId);
         SwitchUserResponse response = new SwitchUserResponse();
         response.requestId = requestId;
         response.messageType = value.value.int32Values.get(1);
@@ -1005,7 +1121,7 @@ public final class UserHalService extends HalServiceBase {
             Log.w(TAG, "no callback for requestId " + requestId + ": " + value);
             return;
         }
-        handleRemovePendingRequest(requestId);
+        handleRemoveAnsweredRequest(requestId);
         CreateUserResponse response = new CreateUserResponse();
         response.requestId = requestId;
         response.status = value.value.int32Values.get(1);
@@ -1138,6 +1254,16 @@ public final class UserHalService extends HalServiceBase {
                     writer.println();
                 }
             }
+            writer.printf("next timeout check at: %d (now %d)\n", mNextTimeoutCheckUptimeMs,
+                    SystemClock.uptimeMillis());
+
+            writer.println("Round-trip latency:");
+            for (int i = 0; i < mRoundTripLatency.size(); i++) {
+                int property = mRoundTripLatency.keyAt(i);
+                String name = VehiclePropertyIds.toString(property);
+                mRoundTripLatency.valueAt(i).dump(indent, name, writer);
+                writer.printf("%s%s timeouts: %d\n", indent, name, mTimeoutCount.get(property));
+            }
         }
     }
 
@@ -1148,6 +1274,14 @@ public final class UserHalService extends HalServiceBase {
     }
 
     private static final class PendingRequest<REQ, RESP> {
+        public final int requestId;
+
+        public final int property;
+
+        public final long startUptimeMs;
+
+        public final long deadlineUptimeMs;
+
         @NonNull
         public final Class<RESP> responseClass;
 
@@ -1157,8 +1291,13 @@ public final class UserHalService extends HalServiceBase {
         @NonNull
         public final HalCallback<RESP> callback;
 
-        PendingRequest(@NonNull Class<RESP> responseClass, @Nullable REQ request,
+        PendingRequest(int requestId, int property, long startUptimeMs, long deadlineUptimeMs,
+                @NonNull Class<RESP> responseClass, @Nullable REQ request,
                 @NonNull HalCallback<RESP> callback) {
+            this.requestId = requestId;
+            this.property = property;
+            this.startUptimeMs = startUptimeMs;
+            this.deadlineUptimeMs = deadlineUptimeMs;
             this.responseClass = responseClass;
             this.request = request;
             this.callback = callback;
@@ -1184,8 +1323,9 @@ public final class UserHalService extends HalServiceBase {
         }
 
         public void dump(@NonNull PrintWriter pw) {
-            pw.printf("Class: %s Callback: %s", responseClass.getSimpleName(),
-                    FunctionalUtils.getLambdaName(callback));
+            pw.printf("Id: %d Class: %s Callback: %s Deadline: %d", requestId,
+                    responseClass.getSimpleName(), FunctionalUtils.getLambdaName(callback),
+                    deadlineUptimeMs);
             if (request != null) {
                 pw.printf(" Request: %s", request);
             }
@@ -38,6 +38,7 @@ import android.hardware.automotive.vehicle.V2_0.VehiclePropertyAccess;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyChangeMode;
 import android.hardware.automotive.vehicle.V2_0.VehiclePropertyType;
 import android.os.HandlerThread;
+import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.os.ServiceSpecificException;
 import android.os.SystemClock;
@@ -52,6 +53,8 @@ import com.android.internal.annotations.VisibleForTesting;
 
 import com.google.android.collect.Lists;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
@@ -88,6 +91,11 @@ public class VehicleHal extends IVehicleCallback.Stub {
     /** Might be re-assigned if Vehicle HAL is reconnected. */
     private volatile HalClient mHalClient;
 
+    /** Set while the values exchanged with the Vehicle HAL are recorded. */
+    private volatile VehicleHalRecorder mRecorder;
+
+    private final PropertyEventTracer mEventTracer = new PropertyEventTracer();
+
     /** Stores handler for each HAL property. Property events are sent to handler. */
     @GuardedBy("mLock")
     private final SparseArray<HalServiceBase> mPropertyHandlers = new SparseArray<>();
@@ -122,6 +130,7 @@ public class VehicleHal extends IVehicleCallback.Stub {
                 mPropertyHal)); // mPropertyHal should be the last.
 
         mHalClient = new HalClient(vehicle, mHandlerThread.getLooper(), this /*IVehicleCallback*/);
+        mHalClient.setEventTracer(mEventTracer);
     }
 
     /** Dummy version only for testing */
@@ -143,6 +152,8 @@ public class VehicleHal extends IVehicleCallback.Stub {
         synchronized (mLock) {
             mHalClient = new HalClient(vehicle, mHandlerThread.getLooper(),
                     this /*IVehicleCallback*/);
+            mHalClient.setRecorder(mRecorder);
+            mHalClient.setEventTracer(mEventTracer);
 
             SubscribeOptions[] options = mSubscribedProperties.values()
                     .toArray(new SubscribeOptions[0]);
@@ -241,12 +252,18 @@ public class VehicleHal extends IVehicleCallback.Stub {
             }
             mSubscribedProperties.clear();
             mAllProperties.clear();
+            stopRecordingLocked();
         }
         // keep the looper thread as should be kept for the whole life cycle.
     }
 
     public DiagnosticHalService getDiagnosticHal() { return mDiagnosticHal; }
 
+    /** Returns the tracer of the latency of property events. */
+    public PropertyEventTracer getPropertyEventTracer() {
+        return mEventTracer;
+    }
+
     public PowerHalService getPowerHal() {
         return mPowerHal;
     }
@@ -511,6 +528,11 @@ public class VehicleHal extends IVehicleCallback.Stub {
 
     @Override
     public void onPropertyEvent(ArrayList<VehiclePropValue> propValues) {
+        PropertyEventTracer.markStage(PropertyEventTracer.STAGE_VEHICLE_HAL);
+        VehicleHalRecorder recorder = mRecorder;
+        if (recorder != null) {
+            recorder.recordEvents(propValues);
+        }
         synchronized (mLock) {
             for (VehiclePropValue v : propValues) {
                 HalServiceBase service = mPropertyHandlers.get(v.prop);
@@ -555,6 +577,51 @@ public class VehicleHal extends IVehicleCallback.Stub {
         }
     }
 
+    /**
+     * Starts recording the values exchanged with the Vehicle HAL into the given file, replacing
+     * any recording in progress. The file is closed when the recording stops, and can be replayed
+     * with {@code VehicleHalReplayer}.
+     *
+     * @throws IOException if the file cannot be written, in which case it is closed
+     */
+    public void startRecording(ParcelFileDescriptor fd) throws IOException {
+        OutputStream out = new ParcelFileDescriptor.AutoCloseOutputStream(fd);
+        VehicleHalRecorder recorder;
+        try {
+            recorder = new VehicleHalRecorder(out);
+        } catch (IOException e) {
+            try {
+                out.close();
+            } catch (IOException closeException) {
+                e.addSuppressed(closeException);
+            }
+            throw e;
+        }
+        synchronized (mLock) {
+            stopRecordingLocked();
+            mRecorder = recorder;
+            mHalClient.setRecorder(recorder);
+        }
+    }
+
+    /** Stops the recording started by {@link #startRecording(ParcelFileDescriptor)}, if any. */
+    public void stopRecording() {
+        synchronized (mLock) {
+            stopRecordingLocked();
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void stopRecordingLocked() {
+        VehicleHalRecorder recorder = mRecorder;
+        if (recorder == null) {
+            return;
+        }
+        mRecorder = null;
+        mHalClient.setRecorder(null);
+        recorder.close();
+    }
+
     public void dump(PrintWriter writer) {
         writer.println("**dump HAL services**");
         for (HalServiceBase service: mAllServices) {
@@ -575,6 +642,12 @@ public class VehicleHal extends IVehicleCallback.Stub {
             HalServiceBase service = mPropertyHandlers.valueAt(i);
             writer.println(String.format("Prop: 0x%08X, service: %s", propId, service));
         }
+
+        VehicleHalRecorder recorder = mRecorder;
+        if (recorder != null) {
+            recorder.dump(writer);
+        }
+        mEventTracer.dump(writer);
     }
 
     /**
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.hal;
+
+import android.hardware.automotive.vehicle.V2_0.StatusCode;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.android.car.CarLog;
+import com.android.car.vehiclehal.VehiclePropValueLog;
+import com.android.internal.annotations.GuardedBy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.util.List;
+
+/**
+ * Records the raw {@link VehiclePropValue}s exchanged with the vehicle HAL into a
+ * {@link VehiclePropValueLog}, so that they can be replayed against a mocked vehicle HAL.
+ *
+ * <p>Recording stops at the first write error: a partial log is still readable.
+ */
+final class VehicleHalRecorder {
+    private static final String TAG = CarLog.TAG_HAL;
+
+    private final Object mLock = new Object();
+
+    @GuardedBy("mLock")
+    private VehiclePropValueLog.Writer mWriter;
+    @GuardedBy("mLock")
+    private int mRecordCount;
+
+    VehicleHalRecorder(OutputStream out) throws IOException {
+        mWriter = new VehiclePropValueLog.Writer(out);
+    }
+
+    /** Records values received from {@code IVehicleCallback.onPropertyEvent()}. */
+    void recordEvents(List<VehiclePropValue> values) {
+        long nowNs = SystemClock.elapsedRealtimeNanos();
+        synchronized (mLock) {
+            for (int i = 0; i < values.size(); i++) {
+                writeLocked(VehiclePropValueLog.RECORD_TYPE_EVENT, nowNs, StatusCode.OK,
+                        values.get(i));
+            }
+        }
+    }
+
+    /**
+     * Records the result of {@code IVehicle.get()}: the value read if {@code status} is
+     * {@link StatusCode#OK}, the requested value otherwise.
+     */
+    void recordGet(int status, VehiclePropValue value) {
+        record(VehiclePropValueLog.RECORD_TYPE_GET, status, value);
+    }
+
+    /** Records a value passed to {@code IVehicle.set()} and the status it returned. */
+    void recordSet(int status, VehiclePropValue value) {
+        record(VehiclePropValueLog.RECORD_TYPE_SET, status, value);
+    }
+
+    /** Flushes and closes the log. Later records are dropped. */
+    void close() {
+        synchronized (mLock) {
+            if (mWriter == null) {
+                return;
+            }
+            try {
+                mWriter.close();
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to close vehicle HAL recording", e);
+            }
+            mWriter = null;
+        }
+    }
+
+    void dump(PrintWriter writer) {
+        synchronized (mLock) {
+            writer.println("Vehicle HAL recording: active=" + (mWriter != null)
+                    + ", records=" + mRecordCount);
+        }
+    }
+
+    private void record(int type, int status, VehiclePropValue value) {
+        long nowNs = SystemClock.elapsedRealtimeNanos();
+        synchronized (mLock) {
+            writeLocked(type, nowNs, status, value);
+        }
+    }
+
+    @GuardedBy("mLock")
+    private void writeLocked(int type, long elapsedRealtimeNanos, int status,
+            VehiclePropValue value) {
+        if (mWriter == null) {
+            return;
+        }
+        try {
+            mWriter.write(type, elapsedRealtimeNanos, status, value);
+            mRecordCount++;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to record vehicle HAL value, stopping recording", e);
+            close();
+        }
+    }
+}
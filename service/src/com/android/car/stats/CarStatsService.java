@@ -20,13 +20,11 @@ import android.app.StatsManager;
 import android.app.StatsManager.PullAtomMetadata;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.util.ArrayMap;
 import android.util.Log;
 import android.util.StatsEvent;
 
 import com.android.car.CarStatsLog;
 import com.android.car.stats.VmsClientLogger.ConnectionState;
-import com.android.internal.annotations.GuardedBy;
 import com.android.internal.util.ConcurrentUtils;
 
 import java.io.FileDescriptor;
@@ -35,7 +33,7 @@ import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -83,8 +81,9 @@ public class CarStatsService {
     private final PackageManager mPackageManager;
     private final StatsManager mStatsManager;
 
-    @GuardedBy("mVmsClientStats")
-    private final Map<Integer, VmsClientLogger> mVmsClientStats = new ArrayMap<>();
+    // Looked up on every VMS packet, so reads must not block
+    private final ConcurrentHashMap<Integer, VmsClientLogger> mVmsClientStats =
+            new ConcurrentHashMap<>();
 
     public CarStatsService(Context context) {
         mContext = context;
@@ -111,17 +110,19 @@ public class CarStatsService {
      * Gets a logger for the VMS client with a given UID.
      */
     public VmsClientLogger getVmsClientLogger(int clientUid) {
-        synchronized (mVmsClientStats) {
-            return mVmsClientStats.computeIfAbsent(
-                    clientUid,
-                    uid -> {
-                        String packageName = mPackageManager.getNameForUid(uid);
-                        if (DEBUG) {
-                            Log.d(TAG, "Created VmsClientLog: " + packageName);
-                        }
-                        return new VmsClientLogger(uid, packageName);
-                    });
+        VmsClientLogger logger = mVmsClientStats.get(clientUid);
+        if (logger != null) {
+            return logger;
         }
+        return mVmsClientStats.computeIfAbsent(
+                clientUid,
+                uid -> {
+                    String packageName = mPackageManager.getNameForUid(uid);
+                    if (DEBUG) {
+                        Log.d(TAG, "Created VmsClientLog: " + packageName);
+                    }
+                    return new VmsClientLogger(uid, packageName);
+                });
     }
 
     public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
@@ -132,21 +133,19 @@ public class CarStatsService {
     }
 
     private void dumpVmsStats(PrintWriter writer) {
-        synchronized (mVmsClientStats) {
-            writer.println(VMS_CONNECTION_STATS_DUMPSYS_HEADER);
-            mVmsClientStats.values().stream()
-                    // Unknown UID will not have connection stats
-                    .filter(entry -> entry.getUid() > 0)
-                    // Sort stats by UID
-                    .sorted(Comparator.comparingInt(VmsClientLogger::getUid))
-                    .forEachOrdered(entry -> writer.println(
-                            VMS_CONNECTION_STATS_DUMPSYS_FORMAT.apply(entry)));
-            writer.println();
-
-            writer.println(VMS_CLIENT_STATS_DUMPSYS_HEADER);
-            dumpVmsClientStats(entry -> writer.println(
-                    VMS_CLIENT_STATS_DUMPSYS_FORMAT.apply(entry)));
-        }
+        writer.println(VMS_CONNECTION_STATS_DUMPSYS_HEADER);
+        mVmsClientStats.values().stream()
+                // Unknown UID will not have connection stats
+                .filter(entry -> entry.getUid() > 0)
+                // Sort stats by UID
+                .sorted(Comparator.comparingInt(VmsClientLogger::getUid))
+                .forEachOrdered(entry -> writer.println(
+                        VMS_CONNECTION_STATS_DUMPSYS_FORMAT.apply(entry)));
+        writer.println();
+
+        writer.println(VMS_CLIENT_STATS_DUMPSYS_HEADER);
+        dumpVmsClientStats(entry -> writer.println(
+                VMS_CLIENT_STATS_DUMPSYS_FORMAT.apply(entry)));
     }
 
     private int pullVmsClientStats(int atomTag, List<StatsEvent> pulledData) {
@@ -177,12 +176,14 @@ public class CarStatsService {
         return StatsManager.PULL_SUCCESS;
     }
 
+    /**
+     * Calls {@code dumpFn} with a copy of every client/layer entry. Entries are copied without
+     * blocking the loggers, so packets logged meanwhile may or may not be included.
+     */
     private void dumpVmsClientStats(Consumer<VmsClientStats> dumpFn) {
-        synchronized (mVmsClientStats) {
-            mVmsClientStats.values().stream()
-                    .flatMap(log -> log.getLayerEntries().stream())
-                    .sorted(VMS_CLIENT_STATS_ORDER)
-                    .forEachOrdered(dumpFn);
-        }
+        mVmsClientStats.values().stream()
+                .flatMap(log -> log.getLayerEntries().stream())
+                .sorted(VMS_CLIENT_STATS_ORDER)
+                .forEachOrdered(dumpFn);
     }
 }
@@ -18,18 +18,19 @@ package com.android.car.stats;
 
 import android.annotation.Nullable;
 import android.car.vms.VmsLayer;
-import android.util.ArrayMap;
 
 import com.android.car.CarStatsLog;
-import com.android.internal.annotations.GuardedBy;
 
 import java.util.Collection;
-import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
  * Logger for per-client VMS statistics.
+ *
+ * <p>Logging a packet does not take any lock once the layer has been seen: the per-layer entry is
+ * found in a {@link ConcurrentHashMap} and its counters are lock-free.
  */
 public class VmsClientLogger {
     /**
@@ -53,16 +54,14 @@ public class VmsClientLogger {
                 CarStatsLog.VMS_CLIENT_CONNECTION_STATE_CHANGED__STATE__CONNECTION_ERROR;
     }
 
-    private final Object mLock = new Object();
-
     private final int mUid;
     private final String mPackageName;
 
-    @GuardedBy("mLock")
-    private Map<Integer, AtomicLong> mConnectionStateCounters = new ArrayMap<>();
+    private final ConcurrentHashMap<Integer, AtomicLong> mConnectionStateCounters =
+            new ConcurrentHashMap<>();
 
-    @GuardedBy("mLock")
-    private final Map<VmsLayer, VmsClientStats> mLayerStats = new ArrayMap<>();
+    private final ConcurrentHashMap<VmsLayer, VmsClientStats> mLayerStats =
+            new ConcurrentHashMap<>();
 
     VmsClientLogger(int clientUid, @Nullable String clientPackage) {
         mUid = clientUid;
@@ -86,19 +85,12 @@ public class VmsClientLogger {
         CarStatsLog.write(CarStatsLog.VMS_CLIENT_CONNECTION_STATE_CHANGED,
                 mUid, connectionState);
 
-        AtomicLong counter;
-        synchronized (mLock) {
-            counter = mConnectionStateCounters.computeIfAbsent(connectionState,
-                    ignored -> new AtomicLong());
-        }
-        counter.incrementAndGet();
+        mConnectionStateCounters.computeIfAbsent(connectionState, ignored -> new AtomicLong())
+                .incrementAndGet();
     }
 
     long getConnectionStateCount(int connectionState) {
-        AtomicLong counter;
-        synchronized (mLock) {
-            counter = mConnectionStateCounters.get(connectionState);
-        }
+        AtomicLong counter = mConnectionStateCounters.get(connectionState);
         return counter == null ? 0L : counter.get();
     }
 
@@ -133,18 +125,17 @@ public class VmsClientLogger {
     }
 
     Collection<VmsClientStats> getLayerEntries() {
-        synchronized (mLock) {
-            return mLayerStats.values().stream()
-                    .map(VmsClientStats::new) // Make a deep copy of the entries
-                    .collect(Collectors.toList());
-        }
+        return mLayerStats.values().stream()
+                .map(VmsClientStats::new) // Make a deep copy of the entries
+                .collect(Collectors.toList());
     }
 
     private VmsClientStats getLayerEntry(VmsLayer layer) {
-        synchronized (mLock) {
-            return mLayerStats.computeIfAbsent(
-                    layer,
-                    (k) -> new VmsClientStats(mUid, layer));
+        // get() first, as computeIfAbsent() may lock the bin even if the entry exists
+        VmsClientStats entry = mLayerStats.get(layer);
+        if (entry != null) {
+            return entry;
         }
+        return mLayerStats.computeIfAbsent(layer, (k) -> new VmsClientStats(mUid, layer));
     }
 }
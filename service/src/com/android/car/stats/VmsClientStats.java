@@ -18,36 +18,31 @@ package com.android.car.stats;
 
 import android.car.vms.VmsLayer;
 
-import com.android.internal.annotations.GuardedBy;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Java representation of VmsClientStats statsd atom.
  *
- * All access to this class is synchronized through VmsClientLog.
+ * <p>Counters are {@link LongAdder}s, so recording a packet from the VMS broker never blocks,
+ * even with several publishers sending on the same layer. Readers should work on a copy made
+ * with {@link #VmsClientStats(VmsClientStats)}; each counter of the copy is exact, but a packet
+ * recorded concurrently with the copy may be counted in its bytes and not yet in its packets.
  */
 class VmsClientStats {
-    private final Object mLock = new Object();
-
     private final int mUid;
 
     private final int mLayerType;
     private final int mLayerChannel;
     private final int mLayerVersion;
 
-    @GuardedBy("mLock")
-    private long mTxBytes;
-    @GuardedBy("mLock")
-    private long mTxPackets;
+    private final LongAdder mTxBytes = new LongAdder();
+    private final LongAdder mTxPackets = new LongAdder();
 
-    @GuardedBy("mLock")
-    private long mRxBytes;
-    @GuardedBy("mLock")
-    private long mRxPackets;
+    private final LongAdder mRxBytes = new LongAdder();
+    private final LongAdder mRxPackets = new LongAdder();
 
-    @GuardedBy("mLock")
-    private long mDroppedBytes;
-    @GuardedBy("mLock")
-    private long mDroppedPackets;
+    private final LongAdder mDroppedBytes = new LongAdder();
+    private final LongAdder mDroppedPackets = new LongAdder();
 
     /**
      * Constructor for a VmsClientStats entry.
@@ -67,20 +62,20 @@ class VmsClientStats {
      * Copy constructor for entries exported from {@link VmsClientLogger}.
      */
     VmsClientStats(VmsClientStats other) {
-        synchronized (other.mLock) {
-            this.mUid = other.mUid;
-
-            this.mLayerType = other.mLayerType;
-            this.mLayerChannel = other.mLayerChannel;
-            this.mLayerVersion = other.mLayerVersion;
-
-            this.mTxBytes = other.mTxBytes;
-            this.mTxPackets = other.mTxPackets;
-            this.mRxBytes = other.mRxBytes;
-            this.mRxPackets = other.mRxPackets;
-            this.mDroppedBytes = other.mDroppedBytes;
-            this.mDroppedPackets = other.mDroppedPackets;
-        }
+        this.mUid = other.mUid;
+
+        this.mLayerType = other.mLayerType;
+        this.mLayerChannel = other.mLayerChannel;
+        this.mLayerVersion = other.mLayerVersion;
+
+        // Packets are read before bytes, the reverse of the write order, so a copy never
+        // reports a packet without its bytes.
+        this.mTxPackets.add(other.mTxPackets.sum());
+        this.mTxBytes.add(other.mTxBytes.sum());
+        this.mRxPackets.add(other.mRxPackets.sum());
+        this.mRxBytes.add(other.mRxBytes.sum());
+        this.mDroppedPackets.add(other.mDroppedPackets.sum());
+        this.mDroppedBytes.add(other.mDroppedBytes.sum());
     }
 
     /**
@@ -89,10 +84,8 @@ class VmsClientStats {
      * @param size Size of packet.
      */
     void packetSent(long size) {
-        synchronized (mLock) {
-            mTxBytes += size;
-            mTxPackets++;
-        }
+        mTxBytes.add(size);
+        mTxPackets.increment();
     }
 
     /**
@@ -101,10 +94,8 @@ class VmsClientStats {
      * @param size Size of packet.
      */
     void packetReceived(long size) {
-        synchronized (mLock) {
-            mRxBytes += size;
-            mRxPackets++;
-        }
+        mRxBytes.add(size);
+        mRxPackets.increment();
     }
 
     /**
@@ -113,10 +104,8 @@ class VmsClientStats {
      * @param size Size of packet.
      */
     void packetDropped(long size) {
-        synchronized (mLock) {
-            mDroppedBytes += size;
-            mDroppedPackets++;
-        }
+        mDroppedBytes.add(size);
+        mDroppedPackets.increment();
     }
 
     int getUid() {
@@ -136,39 +125,26 @@ class VmsClientStats {
     }
 
     long getTxBytes() {
-        synchronized (mLock) {
-            return mTxBytes;
-        }
+        return mTxBytes.sum();
     }
 
     long getTxPackets() {
-        synchronized (mLock) {
-            return mTxPackets;
-        }
+        return mTxPackets.sum();
     }
 
     long getRxBytes() {
-        synchronized (mLock) {
-            return mRxBytes;
-        }
+        return mRxBytes.sum();
     }
 
     long getRxPackets() {
-        synchronized (mLock) {
-            return mRxPackets;
-        }
+        return mRxPackets.sum();
     }
 
     long getDroppedBytes() {
-        synchronized (mLock) {
-            return mDroppedBytes;
-        }
+        return mDroppedBytes.sum();
     }
 
     long getDroppedPackets() {
-        synchronized (mLock) {
-            return mDroppedPackets;
-        }
+        return mDroppedPackets.sum();
     }
 }
-
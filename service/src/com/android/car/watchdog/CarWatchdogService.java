@@ -41,8 +41,8 @@ import android.content.pm.UserInfo;
 import android.os.Binder;
 import android.os.Handler;
 import android.os.IBinder;
-import android.os.Looper;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.os.UserManager;
 import android.util.Log;
@@ -52,6 +52,8 @@ import android.util.SparseBooleanArray;
 import com.android.car.CarLocalServices;
 import com.android.car.CarPowerManagementService;
 import com.android.car.CarServiceBase;
+import com.android.car.CarServiceUtils;
+import com.android.car.LatencyHistogram;
 import com.android.car.user.CarUserService;
 import com.android.internal.annotations.GuardedBy;
 import com.android.internal.annotations.VisibleForTesting;
@@ -73,10 +75,17 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
     private static final String TAG = TAG_WATCHDOG;
     private static final int[] ALL_TIMEOUTS =
             { TIMEOUT_CRITICAL, TIMEOUT_MODERATE, TIMEOUT_NORMAL };
+    // A response taking at least this share of the allowed duration is counted as a near miss.
+    private static final int NEAR_MISS_PERCENT = 75;
+    private static final int INITIAL_PING_CAPACITY = 8;
 
     private final Context mContext;
     private final ICarWatchdogClientImpl mWatchdogClient;
-    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Health checks run on their own thread so that a busy main looper cannot delay pings and
+    // make healthy clients look unresponsive.
+    private final Handler mHandler = new Handler(
+            CarServiceUtils.getHandlerThread(CarWatchdogService.class.getSimpleName())
+                    .getLooper());
     private final CarWatchdogDaemonHelper mCarWatchdogDaemonHelper;
     private final CarWatchdogDaemonHelper.OnConnectionChangeListener mConnectionListener =
             (connected) -> {
@@ -106,11 +115,18 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
      */
     @GuardedBy("mLock")
     private final SparseArray<Boolean> mClientCheckInProgress = new SparseArray<>();
+    /*
+     * Reusable buffers of clients to ping according to timeout:
+     * key => timeout, value => array of ClientInfo, grown when more clients are registered.
+     * The arrays are filled under mLock and only read from mHandler.
+     */
+    @GuardedBy("mLock")
+    private final SparseArray<ClientInfo[]> mClientsToPing = new SparseArray<>();
     @GuardedBy("mLock")
     private final ArrayList<ClientInfo> mClientsNotResponding = new ArrayList<>();
-    @GuardedBy("mMainHandler")
+    @GuardedBy("mLock")
     private int mLastSessionId;
-    @GuardedBy("mMainHandler")
+    @GuardedBy("mLock")
     private final SparseBooleanArray mStoppedUser = new SparseBooleanArray();
 
     @VisibleForTesting
@@ -126,6 +142,7 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
             mClientMap.put(timeout, new ArrayList<ClientInfo>());
             mPingedClientMap.put(timeout, new SparseArray<ClientInfo>());
             mClientCheckInProgress.put(timeout, false);
+            mClientsToPing.put(timeout, new ClientInfo[INITIAL_PING_CAPACITY]);
         }
         subscribePowerCycleChange();
         subscribeUserStateChange();
@@ -154,8 +171,9 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
                 String timeoutStr = timeoutToString(timeout);
                 for (int i = 0; i < clients.size(); i++, count++) {
                     ClientInfo clientInfo = clients.get(i);
-                    writer.printf("%sclient #%d: timeout = %s, pid = %d\n",
-                            indent, count, timeoutStr, clientInfo.pid);
+                    writer.printf("%sclient #%d: timeout = %s, pid = %d, near misses = %d\n",
+                            indent, count, timeoutStr, clientInfo.pid, clientInfo.nearMissCount);
+                    clientInfo.responseLatency.dump(indent + indent, "response latency", writer);
                 }
             }
             writer.printf("Stopped users: ");
@@ -252,6 +270,7 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
                 ClientInfo clientInfo = pingedClients.get(sessionId);
                 if (clientInfo != null && clientInfo.client.asBinder() == client.asBinder()) {
                     pingedClients.remove(sessionId);
+                    clientInfo.recordResponseLocked(SystemClock.uptimeMillis());
                     return;
                 }
             }
@@ -266,6 +285,27 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
         }
     }
 
+    /**
+     * Returns the histogram of ping to {@code tellClientAlive} latencies of the given client, or
+     * {@code null} if the client is not registered.
+     */
+    @VisibleForTesting
+    LatencyHistogram getClientResponseLatency(ICarWatchdogServiceCallback client) {
+        synchronized (mLock) {
+            IBinder binder = client.asBinder();
+            for (int timeout : ALL_TIMEOUTS) {
+                ArrayList<ClientInfo> clients = mClientMap.get(timeout);
+                for (int i = 0; i < clients.size(); i++) {
+                    ClientInfo clientInfo = clients.get(i);
+                    if (binder == clientInfo.client.asBinder()) {
+                        return clientInfo.responseLatency;
+                    }
+                }
+            }
+            return null;
+        }
+    }
+
     private void registerToDaemon() {
         try {
             mCarWatchdogDaemonHelper.registerMediator(mWatchdogClient);
@@ -284,10 +324,12 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
                         ? UserState.USER_STATE_STARTED : UserState.USER_STATE_STOPPED;
                 mCarWatchdogDaemonHelper.notifySystemStateChange(StateType.USER_STATE, info.id,
                         userState);
-                if (userState == UserState.USER_STATE_STOPPED) {
-                    mStoppedUser.put(info.id, true);
-                } else {
-                    mStoppedUser.delete(info.id);
+                synchronized (mLock) {
+                    if (userState == UserState.USER_STATE_STOPPED) {
+                        mStoppedUser.put(info.id, true);
+                    } else {
+                        mStoppedUser.delete(info.id);
+                    }
                 }
             }
         } catch (RemoteException | RuntimeException e) {
@@ -313,7 +355,7 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
     }
 
     private void postHealthCheckMessage(int sessionId) {
-        mMainHandler.sendMessage(obtainMessage(CarWatchdogService::doHealthCheck, this, sessionId));
+        mHandler.sendMessage(obtainMessage(CarWatchdogService::doHealthCheck, this, sessionId));
     }
 
     private void doHealthCheck(int sessionId) {
@@ -346,23 +388,35 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
 
     private void sendPingToClients(int timeout) {
         SparseArray<ClientInfo> pingedClients = mPingedClientMap.get(timeout);
-        ArrayList<ClientInfo> clientsToCheck;
+        ClientInfo[] clientsToCheck;
+        int clientCount = 0;
         synchronized (mLock) {
             pingedClients.clear();
-            clientsToCheck = new ArrayList<>(mClientMap.get(timeout));
-            for (int i = 0; i < clientsToCheck.size(); i++) {
-                ClientInfo clientInfo = clientsToCheck.get(i);
+            ArrayList<ClientInfo> clients = mClientMap.get(timeout);
+            clientsToCheck = mClientsToPing.get(timeout);
+            if (clientsToCheck.length < clients.size()) {
+                clientsToCheck = new ClientInfo[Math.max(clients.size(),
+                        clientsToCheck.length * 2)];
+                mClientsToPing.put(timeout, clientsToCheck);
+            }
+            long nowMs = SystemClock.uptimeMillis();
+            for (int i = 0; i < clients.size(); i++) {
+                ClientInfo clientInfo = clients.get(i);
                 if (mStoppedUser.get(clientInfo.userId)) {
                     continue;
                 }
-                int sessionId = getNewSessionId();
+                int sessionId = getNewSessionIdLocked();
                 clientInfo.sessionId = sessionId;
+                clientInfo.pingSentMs = nowMs;
                 pingedClients.put(sessionId, clientInfo);
+                clientsToCheck[clientCount++] = clientInfo;
             }
             mClientCheckInProgress.setValueAt(timeout, true);
         }
-        for (int i = 0; i < clientsToCheck.size(); i++) {
-            ClientInfo clientInfo = clientsToCheck.get(i);
+        // ICarWatchdogServiceCallback is oneway, so a ping does not wait for the previous client.
+        for (int i = 0; i < clientCount; i++) {
+            ClientInfo clientInfo = clientsToCheck[i];
+            clientsToCheck[i] = null;
             try {
                 clientInfo.client.onCheckHealthStatus(clientInfo.sessionId, timeout);
             } catch (RemoteException e) {
@@ -382,11 +436,12 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
             }
         }
         sendPingToClients(timeout);
-        mMainHandler.sendMessageDelayed(obtainMessage(CarWatchdogService::analyzeClientResponse,
+        mHandler.sendMessageDelayed(obtainMessage(CarWatchdogService::analyzeClientResponse,
                 this, timeout), timeoutToDurationMs(timeout));
     }
 
-    private int getNewSessionId() {
+    @GuardedBy("mLock")
+    private int getNewSessionIdLocked() {
         if (++mLastSessionId <= 0) {
             mLastSessionId = 1;
         }
@@ -595,6 +650,11 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
         @UserIdInt public final int userId;
         public final int timeout;
         public volatile int sessionId;
+        // Uptime at which the last ping was sent.
+        public volatile long pingSentMs;
+        public final LatencyHistogram responseLatency = new LatencyHistogram("ms");
+        @GuardedBy("mLock")
+        public int nearMissCount;
 
         private ClientInfo(ICarWatchdogServiceCallback client, int pid, @UserIdInt int userId,
                 int timeout) {
@@ -610,6 +670,17 @@ public final class CarWatchdogService extends ICarWatchdogService.Stub implement
             onClientDeath(client, timeout);
         }
 
+        @GuardedBy("mLock")
+        private void recordResponseLocked(long nowMs) {
+            long latencyMs = nowMs - pingSentMs;
+            responseLatency.record(latencyMs);
+            if (latencyMs * 100 >= timeoutToDurationMs(timeout) * NEAR_MISS_PERCENT) {
+                nearMissCount++;
+                Log.w(TAG, "Client(pid: " + pid + ") responded in " + latencyMs + "ms, close to "
+                        + "its " + timeoutToString(timeout) + " timeout");
+            }
+        }
+
         private void linkToDeath() throws RemoteException {
             client.asBinder().linkToDeath(this, 0);
         }
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.car;
+
+import static android.car.hardware.CarSensorManager.SENSOR_RATE_FASTEST;
+import static android.car.hardware.CarSensorManager.SENSOR_RATE_NORMAL;
+import static android.car.hardware.CarSensorManager.SENSOR_RATE_ONCHANGE;
+import static android.car.hardware.CarSensorManager.SENSOR_TYPE_CAR_SPEED;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.verify;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.car.hardware.CarPropertyConfig;
+import android.car.hardware.CarPropertyValue;
+import android.car.hardware.CarSensorEvent;
+import android.car.hardware.CarSensorManager;
+import android.car.testapi.CarPropertyController;
+import android.car.testapi.FakeCar;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.test.core.app.ApplicationProvider;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.internal.DoNotInstrument;
+
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@DoNotInstrument
+public class CarSensorManagerTest {
+    private static final float INITIAL_SPEED = 10f;
+    private static final float EVENT_SPEED = 20f;
+    private static final float SERVICE_SPEED = 30f;
+    // Events of a listener registered at SENSOR_RATE_NORMAL are due every second.
+    private static final long NORMAL_RATE_EVENT_INTERVAL_MS = 1_000;
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private CarSensorManager.OnSensorChangedListener mListener;
+
+    private CarPropertyController mController;
+    private CarSensorManager mManager;
+
+    @Before
+    public void setUp() {
+        FakeCar fakeCar = FakeCar.createFakeCar(ApplicationProvider.getApplicationContext());
+        mController = fakeCar.getCarPropertyController();
+        // The manager reads the property configs when it is created.
+        mController.addProperty(CarPropertyConfig.newBuilder(Float.class, SENSOR_TYPE_CAR_SPEED,
+                VehicleAreaType.VEHICLE_AREA_TYPE_GLOBAL)
+                .setChangeMode(CarPropertyConfig.VEHICLE_PROPERTY_CHANGE_MODE_CONTINUOUS)
+                .setMinSampleRate(SENSOR_RATE_NORMAL)
+                .setMaxSampleRate(SENSOR_RATE_FASTEST)
+                .build(), new CarPropertyValue<>(SENSOR_TYPE_CAR_SPEED, 0, INITIAL_SPEED));
+        mManager = (CarSensorManager) fakeCar.getCar().getCarManager(Car.SENSOR_SERVICE);
+        assertThat(mManager).isNotNull();
+    }
+
+    @Test
+    public void testGetLatestSensorEvent_noListener_queriesService() {
+        assertThat(getLatestSpeed()).isEqualTo(INITIAL_SPEED);
+
+        setServiceSpeed(SERVICE_SPEED, /* sendEvent= */ false);
+
+        assertThat(getLatestSpeed()).isEqualTo(SERVICE_SPEED);
+    }
+
+    @Test
+    public void testGetLatestSensorEvent_withListener_returnsLastEventValueUntilNextIsDue() {
+        assertThat(mManager.registerListener(mListener, SENSOR_TYPE_CAR_SPEED,
+                SENSOR_RATE_NORMAL)).isTrue();
+        setServiceSpeed(EVENT_SPEED, /* sendEvent= */ true);
+        verify(mListener).onSensorChanged(any(CarSensorEvent.class));
+
+        // Not sent to the listeners, so only visible to a query to the service.
+        setServiceSpeed(SERVICE_SPEED, /* sendEvent= */ false);
+
+        assertThat(getLatestSpeed()).isEqualTo(EVENT_SPEED);
+
+        // The next event is due but was not received: the cached value may be stale.
+        shadowOf(Looper.getMainLooper()).idleFor(NORMAL_RATE_EVENT_INTERVAL_MS + 1,
+                TimeUnit.MILLISECONDS);
+
+        assertThat(getLatestSpeed()).isEqualTo(SERVICE_SPEED);
+    }
+
+    @Test
+    public void testGetLatestSensorEvent_afterUnregister_queriesService() {
+        mManager.registerListener(mListener, SENSOR_TYPE_CAR_SPEED, SENSOR_RATE_ONCHANGE);
+        setServiceSpeed(EVENT_SPEED, /* sendEvent= */ true);
+        setServiceSpeed(SERVICE_SPEED, /* sendEvent= */ false);
+
+        mManager.unregisterListener(mListener, SENSOR_TYPE_CAR_SPEED);
+
+        assertThat(getLatestSpeed()).isEqualTo(SERVICE_SPEED);
+    }
+
+    @Test
+    public void testGetLatestSensorEvent_unknownSensor_returnsNull() {
+        assertThat(mManager.getLatestSensorEvent(CarSensorManager.SENSOR_TYPE_RPM)).isNull();
+    }
+
+    private void setServiceSpeed(float speed, boolean sendEvent) {
+        mController.updateValues(sendEvent, new CarPropertyValue<>(SENSOR_TYPE_CAR_SPEED,
+                /* areaId= */ 0, CarPropertyValue.STATUS_AVAILABLE,
+                SystemClock.elapsedRealtimeNanos(), speed));
+        shadowOf(Looper.getMainLooper()).runToEndOfTasks();
+    }
+
+    private float getLatestSpeed() {
+        return mManager.getLatestSensorEvent(SENSOR_TYPE_CAR_SPEED).floatValues[0];
+    }
+}
@@ -40,8 +40,10 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RunWith(AndroidJUnit4.class)
 @MediumTest
@@ -125,6 +127,19 @@ public class OccupantAwarenessSystemServiceTest extends TestCase {
             }
         }
 
+        /** Causes a single detection frame containing {@code count} detections to be generated. */
+        public void fireDetectionFrame(int count) throws RemoteException {
+            if (mCallback != null) {
+                OccupantDetections detections = new OccupantDetections();
+                detections.timeStampMillis = TIMESTAMP;
+                detections.detections = new OccupantDetection[count];
+                for (int i = 0; i < count; i++) {
+                    detections.detections[i] = new OccupantDetection();
+                }
+                mCallback.onDetectionEvent(detections);
+            }
+        }
+
         @Override
         public int getInterfaceVersion() {
             return this.VERSION;
@@ -141,6 +156,8 @@ public class OccupantAwarenessSystemServiceTest extends TestCase {
 
     private CompletableFuture<SystemStatusEvent> mFutureStatus;
     private CompletableFuture<OccupantAwarenessDetection> mFutureDetection;
+    private CompletableFuture<List<OccupantAwarenessDetection>> mFutureDetections;
+    private final AtomicInteger mDetectionBatchCount = new AtomicInteger();
 
     @Before
     public void setUp() {
@@ -286,8 +303,52 @@ public class OccupantAwarenessSystemServiceTest extends TestCase {
         assertThat(mMockHal.isGraphRunning()).isFalse();
     }
 
+    @Test
+    public void testDetectionFrame_deliveredAsSingleBatch() throws Exception {
+        registerCallbackToService();
+
+        mMockHal.fireDetectionFrame(3);
+
+        List<OccupantAwarenessDetection> result = mFutureDetections.get(1, TimeUnit.SECONDS);
+        assertThat(result).hasSize(3);
+        assertThat(result.get(0).timestampMillis).isEqualTo(TIMESTAMP);
+        assertThat(mDetectionBatchCount.get()).isEqualTo(1);
+        // Detections are no longer sent one by one.
+        assertThat(mFutureDetection.isDone()).isFalse();
+    }
+
+    @Test
+    public void testDetectionFrame_throttledToListenerMaxRate() throws Exception {
+        // One frame every 1000 seconds at most.
+        registerCallbackToService(0.001f);
+
+        mMockHal.fireDetectionFrame(1);
+        mMockHal.fireDetectionFrame(1);
+        mMockHal.fireDetectionFrame(1);
+
+        assertThat(mFutureDetections.get(1, TimeUnit.SECONDS)).hasSize(1);
+        assertThat(mDetectionBatchCount.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDetectionFrame_unthrottledListenerReceivesEveryFrame() throws Exception {
+        registerCallbackToService(0.001f);
+        registerCallbackToService();
+
+        mMockHal.fireDetectionFrame(2);
+        mMockHal.fireDetectionFrame(2);
+
+        // The throttled listener receives the first frame, the other one receives both.
+        assertThat(mDetectionBatchCount.get()).isEqualTo(3);
+    }
+
     /** Registers a listener to the service. */
     private IOccupantAwarenessEventCallback registerCallbackToService() {
+        return registerCallbackToService(0);
+    }
+
+    /** Registers a listener to the service, receiving at most {@code maxRateHz} frames. */
+    private IOccupantAwarenessEventCallback registerCallbackToService(float maxRateHz) {
         IOccupantAwarenessEventCallback callback =
                 new IOccupantAwarenessEventCallback.Stub() {
                     @Override
@@ -298,9 +359,16 @@ public class OccupantAwarenessSystemServiceTest extends TestCase {
                     public void onDetectionEvent(OccupantAwarenessDetection detectionEvent) {
                         mFutureDetection.complete(detectionEvent);
                     }
+
+                    @Override
+                    public void onDetectionEvents(
+                            List<OccupantAwarenessDetection> detectionEvents) {
+                        mDetectionBatchCount.incrementAndGet();
+                        mFutureDetections.complete(detectionEvents);
+                    }
                 };
 
-        mOasService.registerEventListener(callback);
+        mOasService.registerEventListenerWithMaxRate(callback, maxRateHz);
         return callback;
     }
 
@@ -308,5 +376,7 @@ public class OccupantAwarenessSystemServiceTest extends TestCase {
     private void resetFutures() {
         mFutureStatus = new CompletableFuture<>();
         mFutureDetection = new CompletableFuture<>();
+        mFutureDetections = new CompletableFuture<>();
+        mDetectionBatchCount.set(0);
     }
 }
@@ -92,6 +92,19 @@ public class CarTest {
         assertThat(car.isConnecting()).isFalse();
     }
 
+    @Test
+    public void testGetCarManagers() throws Exception {
+        Car car = Car.createCar(mContext);
+        Object[] managers = car.getCarManagers(Car.SENSOR_SERVICE, Car.PROPERTY_SERVICE,
+                Car.SENSOR_SERVICE);
+
+        assertThat(managers).hasLength(3);
+        assertThat(managers[0]).isInstanceOf(CarSensorManager.class);
+        assertThat(managers[1]).isSameAs(car.getCarManager(Car.PROPERTY_SERVICE));
+        assertThat(managers[2]).isSameAs(managers[0]);
+        car.disconnect();
+    }
+
     @Test
     public void testDoubleConnect() throws Exception {
         Car car = Car.createCar(mContext, mConnectionListener);
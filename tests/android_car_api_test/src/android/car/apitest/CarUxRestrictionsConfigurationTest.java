@@ -34,6 +34,7 @@ import android.car.drivingstate.CarUxRestrictions;
 import android.car.drivingstate.CarUxRestrictionsConfiguration;
 import android.car.drivingstate.CarUxRestrictionsConfiguration.Builder;
 import android.car.drivingstate.CarUxRestrictionsConfiguration.DrivingStateRestrictions;
+import android.car.drivingstate.CarUxRestrictionsConfiguration.SpeedBand;
 import android.os.Parcel;
 import android.util.JsonReader;
 import android.util.JsonWriter;
@@ -720,6 +721,96 @@ public class CarUxRestrictionsConfigurationTest {
         assertThat(one.equals(other)).isFalse();
     }
 
+    @Test
+    public void testGetSpeedBand_matchesGetUxRestrictionsAtAllSpeeds() {
+        CarUxRestrictionsConfiguration config = createSpeedRangeConfig();
+
+        for (float speed = 0f; speed < 30f; speed += 0.25f) {
+            for (String mode : new String[] {UX_RESTRICTION_MODE_BASELINE,
+                    UX_RESTRICTION_MODE_PASSENGER, "unknown_mode"}) {
+                SpeedBand band = config.getSpeedBand(DRIVING_STATE_MOVING, speed, mode);
+                CarUxRestrictions expected = config.getUxRestrictions(DRIVING_STATE_MOVING, speed,
+                        mode);
+
+                assertThat(band.includes(speed)).isTrue();
+                assertThat(band.isSameRestrictions(expected)).isTrue();
+            }
+        }
+    }
+
+    @Test
+    public void testGetSpeedBand_modeFallsBackToBaselineOutsideItsRanges() {
+        CarUxRestrictionsConfiguration config = new Builder()
+                .setUxRestrictions(DRIVING_STATE_MOVING, new DrivingStateRestrictions()
+                        .setDistractionOptimizationRequired(false)
+                        .setRestrictions(UX_RESTRICTIONS_BASELINE)
+                        .setSpeedRange(new Builder.SpeedRange(0f, 10f)))
+                .setUxRestrictions(DRIVING_STATE_MOVING, new DrivingStateRestrictions()
+                        .setRestrictions(UX_RESTRICTIONS_FULLY_RESTRICTED)
+                        .setSpeedRange(new Builder.SpeedRange(10f)))
+                .setUxRestrictions(DRIVING_STATE_MOVING, new DrivingStateRestrictions()
+                        .setRestrictions(UX_RESTRICTIONS_NO_VIDEO)
+                        .setMode(UX_RESTRICTION_MODE_PASSENGER)
+                        .setSpeedRange(new Builder.SpeedRange(0f, 5f)))
+                .build();
+
+        SpeedBand band = config.getSpeedBand(DRIVING_STATE_MOVING, 7f,
+                UX_RESTRICTION_MODE_PASSENGER);
+
+        // Baseline [0, 10) applies above the passenger range.
+        assertThat(band.getMinSpeed()).isEqualTo(5f);
+        assertThat(band.getMaxSpeed()).isEqualTo(10f);
+        assertThat(band.createUxRestrictions().getActiveRestrictions())
+                .isEqualTo(UX_RESTRICTIONS_BASELINE);
+    }
+
+    @Test
+    public void testGetSpeedBand_mergesRangesWithSameRestrictions() {
+        CarUxRestrictionsConfiguration config = createSpeedRangeConfig();
+
+        SpeedBand band = config.getSpeedBand(DRIVING_STATE_MOVING, 7f,
+                UX_RESTRICTION_MODE_PASSENGER);
+
+        // Passenger [5, 10) and baseline [10, MAX_SPEED) are both fully restricted.
+        assertThat(band.getMinSpeed()).isEqualTo(5f);
+        assertThat(band.getMaxSpeed()).isEqualTo(MAX_SPEED);
+    }
+
+    @Test
+    public void testGetSpeedBand_nonFiniteSpeed_throws() {
+        CarUxRestrictionsConfiguration config = createSpeedRangeConfig();
+
+        for (float speed : new float[] {Float.NaN, Float.POSITIVE_INFINITY,
+                Float.NEGATIVE_INFINITY}) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> config.getSpeedBand(DRIVING_STATE_MOVING, speed,
+                            UX_RESTRICTION_MODE_BASELINE));
+            assertThrows(IllegalArgumentException.class,
+                    () -> config.getUxRestrictions(DRIVING_STATE_MOVING, speed,
+                            UX_RESTRICTION_MODE_BASELINE));
+        }
+    }
+
+    private static CarUxRestrictionsConfiguration createSpeedRangeConfig() {
+        return new Builder()
+                .setUxRestrictions(DRIVING_STATE_MOVING, new DrivingStateRestrictions()
+                        .setDistractionOptimizationRequired(false)
+                        .setRestrictions(UX_RESTRICTIONS_BASELINE)
+                        .setSpeedRange(new Builder.SpeedRange(0f, 10f)))
+                .setUxRestrictions(DRIVING_STATE_MOVING, new DrivingStateRestrictions()
+                        .setRestrictions(UX_RESTRICTIONS_FULLY_RESTRICTED)
+                        .setSpeedRange(new Builder.SpeedRange(10f)))
+                .setUxRestrictions(DRIVING_STATE_MOVING, new DrivingStateRestrictions()
+                        .setRestrictions(UX_RESTRICTIONS_NO_VIDEO)
+                        .setMode(UX_RESTRICTION_MODE_PASSENGER)
+                        .setSpeedRange(new Builder.SpeedRange(0f, 5f)))
+                .setUxRestrictions(DRIVING_STATE_MOVING, new DrivingStateRestrictions()
+                        .setRestrictions(UX_RESTRICTIONS_FULLY_RESTRICTED)
+                        .setMode(UX_RESTRICTION_MODE_PASSENGER)
+                        .setSpeedRange(new Builder.SpeedRange(5f, 10f)))
+                .build();
+    }
+
     @Test
     public void testParcelableConfiguration() {
         CarUxRestrictionsConfiguration config = new CarUxRestrictionsConfiguration.Builder()
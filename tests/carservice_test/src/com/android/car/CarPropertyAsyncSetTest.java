@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.testng.Assert.assertThrows;
+
+import android.car.Car;
+import android.car.VehiclePropertyIds;
+import android.car.hardware.CarPropertyValue;
+import android.car.hardware.property.CarInternalErrorException;
+import android.car.hardware.property.CarPropertyManager;
+import android.hardware.automotive.vehicle.V2_0.StatusCode;
+import android.hardware.automotive.vehicle.V2_0.VehicleAreaSeat;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.MediumTest;
+
+import com.android.car.vehiclehal.VehiclePropValueBuilder;
+import com.android.car.vehiclehal.test.MockedVehicleHal;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests {@link CarPropertyManager#setPropertyAsync} against a Vehicle HAL that answers TRY_AGAIN
+ * to the first attempt of every write.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class CarPropertyAsyncSetTest extends MockedCarTestBase {
+    private static final String TAG = CarPropertyAsyncSetTest.class.getSimpleName();
+
+    private static final int PROP = VehiclePropertyIds.HVAC_TEMPERATURE_SET;
+    private static final int AREA_ID = VehicleAreaSeat.ROW_1_LEFT;
+    private static final float INIT_TEMP_VALUE = 16f;
+    // Like a temperature slider being dragged.
+    private static final int SET_COUNT = 50;
+    private static final long ERROR_TIMEOUT_MS = 5000;
+
+    private CarPropertyManager mManager;
+
+    /**
+     * Answers TRY_AGAIN to every other set of {@link #PROP}, or INTERNAL_ERROR to all of them once
+     * {@link #failWrites()} is called.
+     */
+    private static final class TryAgainVehicleHal extends MockedVehicleHal {
+        private int mAttemptCount;
+        private int mWriteCount;
+        private boolean mFailWrites;
+
+        @Override
+        public synchronized int set(VehiclePropValue propValue) {
+            if (propValue.prop != PROP) {
+                return super.set(propValue);
+            }
+            if (mFailWrites) {
+                return StatusCode.INTERNAL_ERROR;
+            }
+            if (mAttemptCount++ % 2 == 0) {
+                return StatusCode.TRY_AGAIN;
+            }
+            mWriteCount++;
+            return super.set(propValue);
+        }
+
+        synchronized int getWriteCount() {
+            return mWriteCount;
+        }
+
+        synchronized void failWrites() {
+            mFailWrites = true;
+        }
+    }
+
+    /** Counts the error events of {@link #PROP}. */
+    private static final class ErrorCallback
+            implements CarPropertyManager.CarPropertyEventCallback {
+        private final CountDownLatch mErrorLatch = new CountDownLatch(1);
+        private int mAreaId;
+
+        @Override
+        public void onChangeEvent(CarPropertyValue value) {
+        }
+
+        @Override
+        public void onErrorEvent(int propId, int zone) {
+        }
+
+        @Override
+        public void onErrorEvent(int propId, int areaId, int errorCode) {
+            if (propId == PROP) {
+                mAreaId = areaId;
+                mErrorLatch.countDown();
+            }
+        }
+
+        boolean waitForError() throws InterruptedException {
+            return mErrorLatch.await(ERROR_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    protected synchronized MockedVehicleHal createMockedVehicleHal() {
+        return new TryAgainVehicleHal();
+    }
+
+    @Override
+    protected synchronized void configureMockedHal() {
+        addProperty(PROP, VehiclePropValueBuilder.newBuilder(PROP).setAreaId(AREA_ID)
+                .addFloatValue(INIT_TEMP_VALUE).build())
+                .addAreaConfig(AREA_ID, 0, 0);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mManager = (CarPropertyManager) getCar().getCarManager(Car.PROPERTY_SERVICE);
+        assertThat(mManager).isNotNull();
+    }
+
+    @Test
+    public void testSetPropertyAsync_tryAgainLatency_writesLatestValue() {
+        ErrorCallback callback = new ErrorCallback();
+        long startMs = SystemClock.elapsedRealtime();
+        for (int i = 1; i <= SET_COUNT; i++) {
+            mManager.setPropertyAsync(Float.class, PROP, AREA_ID, INIT_TEMP_VALUE + i, callback);
+        }
+        long setMs = SystemClock.elapsedRealtime() - startMs;
+        // Waits for the pending write of the area.
+        float value = mManager.getFloatProperty(PROP, AREA_ID);
+        long totalMs = SystemClock.elapsedRealtime() - startMs;
+        int writeCount = ((TryAgainVehicleHal) getMockedVehicleHal()).getWriteCount();
+        Log.i(TAG, SET_COUNT + " sets took " + setMs + "ms for the caller, " + totalMs
+                + "ms until written, with " + writeCount + " VHAL writes");
+
+        assertThat(value).isEqualTo(INIT_TEMP_VALUE + SET_COUNT);
+        // Each write waits for a retry: writing every value would block for SET_COUNT retries.
+        assertThat(writeCount).isLessThan(SET_COUNT / 2);
+    }
+
+    @Test
+    public void testSetPropertyAsync_writeFails_reportsErrorToCaller() throws Exception {
+        ((TryAgainVehicleHal) getMockedVehicleHal()).failWrites();
+        ErrorCallback callback = new ErrorCallback();
+
+        // Returns without waiting for the write.
+        mManager.setPropertyAsync(Float.class, PROP, AREA_ID, INIT_TEMP_VALUE + 1, callback);
+
+        assertThat(callback.waitForError()).isTrue();
+        assertThat(callback.mAreaId).isEqualTo(AREA_ID);
+    }
+
+    @Test
+    public void testSetFloatProperty_writeFails_throws() {
+        ((TryAgainVehicleHal) getMockedVehicleHal()).failWrites();
+
+        assertThrows(CarInternalErrorException.class,
+                () -> mManager.setFloatProperty(PROP, AREA_ID, INIT_TEMP_VALUE + 1));
+    }
+}
@@ -47,6 +47,7 @@ import android.util.SparseArray;
 import androidx.test.annotation.UiThreadTest;
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import com.android.car.hal.VehicleHal;
 import com.android.car.pm.CarPackageManagerService;
 import com.android.car.systeminterface.ActivityManagerInterface;
 import com.android.car.systeminterface.DisplayInterface;
@@ -253,6 +254,10 @@ public class MockedCarTestBase {
         return (CarPropertyService) mCarImpl.getCarService(Car.PROPERTY_SERVICE);
     }
 
+    public VehicleHal getVehicleHal() {
+        return mCarImpl.getVehicleHal();
+    }
+
     public void injectErrorEvent(int propId, int areaId, int errorCode) {
         mMockedVehicleHal.injectError(errorCode, propId, areaId);
     }
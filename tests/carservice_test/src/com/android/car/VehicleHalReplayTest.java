@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.car.Car;
+import android.car.hardware.CarPropertyValue;
+import android.car.hardware.property.CarPropertyManager;
+import android.hardware.automotive.vehicle.V2_0.VehicleArea;
+import android.hardware.automotive.vehicle.V2_0.VehicleAreaSeat;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropertyGroup;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropertyType;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.MediumTest;
+
+import com.android.car.vehiclehal.VehiclePropValueBuilder;
+import com.android.car.vehiclehal.VehiclePropValueLog;
+import com.android.car.vehiclehal.VehiclePropValueLog.Record;
+import com.android.car.vehiclehal.test.VehicleHalReplayer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records the events of a property sent by the Vehicle HAL, replays them through
+ * {@link VehicleHalReplayer} and checks that clients of {@link CarPropertyService} receive them
+ * again.
+ */
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class VehicleHalReplayTest extends MockedCarTestBase {
+    private static final int PROP =
+            0x1201 | VehiclePropertyGroup.VENDOR | VehiclePropertyType.INT32 | VehicleArea.SEAT;
+    private static final int DRIVER_AREA_ID = VehicleAreaSeat.ROW_1_LEFT;
+    private static final int PASSENGER_AREA_ID = VehicleAreaSeat.ROW_1_RIGHT;
+    private static final int INIT_VALUE = 0;
+    private static final long TIMEOUT_MS = 5_000;
+
+    private CarPropertyManager mManager;
+    private File mLogFile;
+
+    @Override
+    protected synchronized void configureMockedHal() {
+        addProperty(PROP, VehiclePropValueBuilder.newBuilder(PROP).addIntValue(INIT_VALUE).build())
+                .addAreaConfig(DRIVER_AREA_ID, 0, 0).addAreaConfig(PASSENGER_AREA_ID, 0, 0);
+    }
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        mManager = (CarPropertyManager) getCar().getCarManager(Car.PROPERTY_SERVICE);
+        assertThat(mManager).isNotNull();
+        mLogFile = File.createTempFile("vhal", ".log", getTestContext().getCacheDir());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        mLogFile.delete();
+        super.tearDown();
+    }
+
+    @Test
+    public void testReplay_deliversRecordedEventsToClients() throws Exception {
+        EventCollector collector = new EventCollector();
+        mManager.registerCallback(collector, PROP, CarPropertyManager.SENSOR_RATE_ONCHANGE);
+        assertThat(getMockedVehicleHal().waitForSubscriber(PROP, TIMEOUT_MS)).isTrue();
+
+        getVehicleHal().startRecording(ParcelFileDescriptor.open(mLogFile,
+                ParcelFileDescriptor.MODE_WRITE_ONLY | ParcelFileDescriptor.MODE_TRUNCATE));
+        collector.expect(3);
+        injectEvent(DRIVER_AREA_ID, 1);
+        injectEvent(PASSENGER_AREA_ID, 2);
+        injectEvent(DRIVER_AREA_ID, 3);
+        List<CarPropertyValue> recorded = collector.await();
+        getVehicleHal().stopRecording();
+
+        VehicleHalReplayer replayer;
+        try (InputStream in = new FileInputStream(mLogFile)) {
+            replayer = new VehicleHalReplayer(getMockedVehicleHal(), in);
+        }
+        assertThat(countEvents(replayer.getRecords())).isEqualTo(3);
+
+        collector.expect(3);
+        assertThat(replayer.replay(/* keepTiming= */ false)).isEqualTo(3);
+        List<CarPropertyValue> replayed = collector.await();
+
+        assertThat(toStrings(replayed)).containsExactlyElementsIn(toStrings(recorded)).inOrder();
+        // Replayed events are newer than the recorded ones, or clients would drop them.
+        assertThat(replayed.get(0).getTimestamp()).isGreaterThan(recorded.get(2).getTimestamp());
+    }
+
+    private void injectEvent(int areaId, int value) {
+        getMockedVehicleHal().injectEvent(VehiclePropValueBuilder.newBuilder(PROP)
+                .setAreaId(areaId)
+                .setTimestamp(SystemClock.elapsedRealtimeNanos())
+                .addIntValue(value)
+                .build());
+    }
+
+    private static int countEvents(List<Record> records) {
+        int count = 0;
+        for (Record record : records) {
+            if (record.type == VehiclePropValueLog.RECORD_TYPE_EVENT) {
+                VehiclePropValue value = record.value;
+                assertThat(value.prop).isEqualTo(PROP);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static List<String> toStrings(List<CarPropertyValue> values) {
+        List<String> strings = new ArrayList<>(values.size());
+        for (CarPropertyValue value : values) {
+            strings.add(value.getAreaId() + "=" + value.getValue());
+        }
+        return strings;
+    }
+
+    /** Collects the changes of {@link #PROP}, ignoring the initial values sent on register. */
+    private static final class EventCollector
+            implements CarPropertyManager.CarPropertyEventCallback {
+        private final List<CarPropertyValue> mValues = new ArrayList<>();
+        private CountDownLatch mLatch = new CountDownLatch(0);
+
+        synchronized void expect(int count) {
+            mValues.clear();
+            mLatch = new CountDownLatch(count);
+        }
+
+        List<CarPropertyValue> await() throws InterruptedException {
+            CountDownLatch latch;
+            synchronized (this) {
+                latch = mLatch;
+            }
+            assertThat(latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+            synchronized (this) {
+                return new ArrayList<>(mValues);
+            }
+        }
+
+        @Override
+        public synchronized void onChangeEvent(CarPropertyValue value) {
+            if ((int) value.getValue() == INIT_VALUE) {
+                return;
+            }
+            mValues.add(value);
+            mLatch.countDown();
+        }
+
+        @Override
+        public void onErrorEvent(int propId, int zone) {
+        }
+    }
+}
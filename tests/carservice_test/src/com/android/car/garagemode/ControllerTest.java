@@ -26,12 +26,17 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 
+import android.app.job.JobInfo;
+import android.app.job.JobScheduler;
+import android.app.job.JobSnapshot;
 import android.car.Car;
 import android.car.hardware.power.CarPowerManager;
 import android.car.hardware.power.CarPowerManager.CarPowerStateListener;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Handler;
@@ -58,6 +63,8 @@ import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
 
@@ -75,6 +82,7 @@ public class ControllerTest {
     @Mock private CarPowerManager mCarPowerManagerMock;
     @Mock private CarUserService mCarUserServiceMock;
     @Mock private SystemInterface mSystemInterfaceMock;
+    @Mock private JobScheduler mJobSchedulerMock;
     private CarUserService mCarUserServiceOriginal;
     private SystemInterface mSystemInterfaceOriginal;
     @Captor private ArgumentCaptor<Intent> mIntentCaptor;
@@ -188,6 +196,63 @@ public class ControllerTest {
         verifyScheduledTimes(mIntegerCaptor.getAllValues());
     }
 
+    @Test
+    public void testGraceTimeout_jobStartedDuringGrace_keepsGarageModeRunning() {
+        JobInfo idleJob = startGarageModeWithPendingJob();
+        Runnable graceTimeout = runFirstCheckAndGetGraceTimeout();
+
+        // The pending job starts before the grace timer fires.
+        doReturn(Arrays.asList(idleJob)).when(mJobSchedulerMock).getStartedJobs();
+        graceTimeout.run();
+
+        assertThat(mController.isGarageModeActive()).isTrue();
+        assertThat(mFuture.isDone()).isFalse();
+        // Checks the running job again.
+        verify(mHandlerMock, times(2)).postDelayed(any(), eq(1_000L));
+    }
+
+    @Test
+    public void testGraceTimeout_noJobStarted_checksStartedJobsOnceAndExits() {
+        startGarageModeWithPendingJob();
+        Runnable graceTimeout = runFirstCheckAndGetGraceTimeout();
+
+        graceTimeout.run();
+
+        assertThat(mFuture.isDone()).isTrue();
+        // Once by the first check, once on the grace timeout: none while waiting for the job.
+        verify(mJobSchedulerMock, times(2)).getStartedJobs();
+        verify(mJobSchedulerMock).getAllJobSnapshots();
+    }
+
+    // Starts GarageMode with no job running and one idle job pending, returning the pending job.
+    private JobInfo startGarageModeWithPendingJob() {
+        doReturn(mJobSchedulerMock).when(mContextMock)
+                .getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        mController = new Controller(mContextMock, mLooperMock, mWakeupPolicy, mHandlerMock, null);
+        mController.setCarPowerManager(mCarPowerManagerMock);
+        JobInfo idleJob = new JobInfo.Builder(1,
+                new ComponentName("com.android.car.test", "TestJobService"))
+                .setRequiresDeviceIdle(true).build();
+        JobSnapshot pendingJob = mock(JobSnapshot.class);
+        doReturn(idleJob).when(pendingJob).getJobInfo();
+        doReturn(true).when(pendingJob).isRunnable();
+        doReturn(Collections.emptyList()).when(mJobSchedulerMock).getStartedJobs();
+        doReturn(Arrays.asList(pendingJob)).when(mJobSchedulerMock).getAllJobSnapshots();
+        startAndAssertGarageModeWithSignal(CarPowerStateListener.SHUTDOWN_PREPARE);
+        return idleJob;
+    }
+
+    // Runs the first job check, which finds the pending job, and returns the grace timer it posts.
+    private Runnable runFirstCheckAndGetGraceTimeout() {
+        ArgumentCaptor<Runnable> firstCheck = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandlerMock).postDelayed(firstCheck.capture(), eq(JOB_SNAPSHOT_INITIAL_UPDATE_MS));
+        firstCheck.getValue().run();
+        // Only the grace timer is posted: the jobs are not checked again until it fires.
+        ArgumentCaptor<Runnable> graceTimeout = ArgumentCaptor.forClass(Runnable.class);
+        verify(mHandlerMock).postDelayed(graceTimeout.capture(), eq(1_000L));
+        return graceTimeout.getValue();
+    }
+
     private void verifyGarageModeBroadcast(List<Intent> intents, int times, String action) {
         // Capture sent intent and verify that it is correct
         Intent i = intents.get(times - 1);
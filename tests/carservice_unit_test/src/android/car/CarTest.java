@@ -130,6 +130,12 @@ public class CarTest {
             return null;
         }
 
+        @Override
+        public List<IBinder> getCarServices(String[] serviceNames,
+                List<String> managerClassNames) {
+            return Collections.nCopies(serviceNames.length, null);
+        }
+
         @Override
         public int getCarConnectionType() {
             return 0;
@@ -34,13 +34,23 @@ import org.junit.runner.RunWith;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @RunWith(MockitoJUnitRunner.class)
 public class AppFocusServiceTest {
-
     private static final long WAIT_TIMEOUT_MS = 500;
+    private static final long DISPATCH_TIMEOUT_MS = 5_000;
+    // Dispatch messages are only visible through the looper message logging, which names the
+    // handler class and ends with the message code.
+    private static final String DISPATCH_HANDLER_NAME =
+            AppFocusService.class.getName() + "$DispatchHandler";
+    // AppFocusService.DispatchHandler.MSG_DISPATCH_FOCUS_CHANGE
+    private static final int MSG_DISPATCH_FOCUS_CHANGE = 2;
 
     private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
@@ -133,6 +143,81 @@ public class AppFocusServiceTest {
         assertThat(mService.mAllChangeClients.getInterfaces()).isEmpty();
     }
 
+    @Test
+    public void testRequestAndAbandon_dispatchOneMessageToListenersOfAppType() throws Exception {
+        List<CountingFocusListener> navigationListeners = new ArrayList<>();
+        List<CountingFocusListener> voiceListeners = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            CountingFocusListener navigationListener = new CountingFocusListener();
+            mService.registerFocusListener(navigationListener,
+                    CarAppFocusManager.APP_FOCUS_TYPE_NAVIGATION);
+            navigationListeners.add(navigationListener);
+            CountingFocusListener voiceListener = new CountingFocusListener();
+            mService.registerFocusListener(voiceListener,
+                    CarAppFocusManager.APP_FOCUS_TYPE_VOICE_COMMAND);
+            voiceListeners.add(voiceListener);
+        }
+        IAppFocusOwnershipCallback owner = new IAppFocusOwnershipCallback.Stub() {
+            @Override
+            public void onAppFocusOwnershipLost(int appType) {
+            }
+
+            @Override
+            public void onAppFocusOwnershipGranted(int appType) {
+            }
+        };
+        AtomicInteger focusChangeMessages = new AtomicInteger();
+        Looper looper = mService.getLooper();
+        looper.setMessageLogging(line -> {
+            if (line.startsWith(">>>>> Dispatching") && line.contains(DISPATCH_HANDLER_NAME)
+                    && line.endsWith(": " + MSG_DISPATCH_FOCUS_CHANGE)) {
+                focusChangeMessages.incrementAndGet();
+            }
+        });
+        try {
+            mService.requestAppFocus(owner, CarAppFocusManager.APP_FOCUS_TYPE_NAVIGATION);
+            waitForDispatch();
+
+            assertThat(focusChangeMessages.get()).isEqualTo(1);
+            assertFocusChanges(navigationListeners, 1, true);
+            assertFocusChanges(voiceListeners, 0, false);
+
+            mService.abandonAppFocus(owner, CarAppFocusManager.APP_FOCUS_TYPE_NAVIGATION);
+            waitForDispatch();
+
+            assertThat(focusChangeMessages.get()).isEqualTo(2);
+            assertFocusChanges(navigationListeners, 2, false);
+            assertFocusChanges(voiceListeners, 0, false);
+        } finally {
+            looper.setMessageLogging(null);
+        }
+    }
+
+    private static void assertFocusChanges(List<CountingFocusListener> listeners, int changes,
+            boolean lastActive) {
+        for (CountingFocusListener listener : listeners) {
+            assertThat(listener.mChanges.get()).isEqualTo(changes);
+            assertThat(listener.mLastActive).isEqualTo(lastActive);
+        }
+    }
+
+    private void waitForDispatch() throws Exception {
+        CountDownLatch latch = new CountDownLatch(1);
+        new Handler(mService.getLooper()).post(latch::countDown);
+        assertThat(latch.await(DISPATCH_TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    }
+
+    private static final class CountingFocusListener extends IAppFocusListener.Stub {
+        private final AtomicInteger mChanges = new AtomicInteger();
+        private volatile boolean mLastActive;
+
+        @Override
+        public void onAppFocusChanged(int appType, boolean active) {
+            mLastActive = active;
+            mChanges.incrementAndGet();
+        }
+    }
+
     private class AppFocusChangedListener implements CarAppFocusManager.OnAppFocusChangedListener {
 
         private final Semaphore mSemaphore = new Semaphore(0);
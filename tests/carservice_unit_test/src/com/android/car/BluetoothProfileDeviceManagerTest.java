@@ -16,10 +16,12 @@
 
 package com.android.car;
 
+import static android.car.settings.CarSettings.Secure.KEY_BLUETOOTH_A2DP_SINK_DEVICES;
 import static android.car.settings.CarSettings.Secure.KEY_BLUETOOTH_HFP_CLIENT_DEVICES;
 
 import static org.mockito.Mockito.*;
 
+import android.bluetooth.BluetoothA2dpSink;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothHeadsetClient;
@@ -317,9 +319,40 @@ public class BluetoothProfileDeviceManagerTest {
         mMockContext.sendBroadcast(intent);
     }
 
+    /**
+     * Replaces the device manager with one for A2DP sink, which supports a single connected device,
+     * and starts it with the Bluetooth adapter ON and the given devices in priority order. Every
+     * connection attempt is accepted by the stack and its outcome is left to the test.
+     */
+    private void setSingleConnectionPreconditionsAndStart(List<String> devices) throws Exception {
+        mBluetoothAdapterHelper.forceAdapterOn();
+        Settings.Secure.putStringForUser(mMockContext.getContentResolver(),
+                KEY_BLUETOOTH_A2DP_SINK_DEVICES, EMPTY_SETTINGS_STRING, mUserId);
+        when(mMockProxies.bluetoothConnectToProfile(eq(BluetoothProfile.A2DP_SINK),
+                any(BluetoothDevice.class))).thenReturn(true);
+
+        mProfileDeviceManager = BluetoothProfileDeviceManager.create(mMockContext, mUserId,
+                mMockProxies, BluetoothProfile.A2DP_SINK);
+        Assert.assertTrue(mProfileDeviceManager != null);
+        mProfileDeviceManager.start();
+        for (BluetoothDevice device : makeDeviceList(devices)) {
+            mProfileDeviceManager.addDevice(device);
+        }
+    }
+
+    private void sendSingleConnectionStateChanged(BluetoothDevice device, int newState) {
+        sendConnectionStateChanged(BluetoothA2dpSink.ACTION_CONNECTION_STATE_CHANGED, device,
+                newState);
+    }
+
     private void sendConnectionStateChanged(BluetoothDevice device, int newState) {
+        sendConnectionStateChanged(mConnectionAction, device, newState);
+    }
+
+    private void sendConnectionStateChanged(String action, BluetoothDevice device,
+            int newState) {
         Assert.assertTrue(mMockContext != null);
-        Intent intent = new Intent(mConnectionAction);
+        Intent intent = new Intent(action);
         intent.putExtra(BluetoothDevice.EXTRA_DEVICE, device);
         intent.putExtra(BluetoothProfile.EXTRA_STATE, newState);
         mMockContext.sendBroadcast(intent);
@@ -863,6 +896,190 @@ public class BluetoothProfileDeviceManagerTest {
         }
     }
 
+    /**
+     * Preconditions:
+     * - The Bluetooth adapter is ON, the device manager is initialized and there are several
+     *    devices are in the list. The highest priority device never responds.
+     *
+     * Actions:
+     * - Initiate an auto connection
+     *
+     * Outcome:
+     * - The lower priority devices are connected without waiting for the highest priority device
+     *   to time out.
+     */
+    @Test
+    public void testAutoConnectFirstDeviceAbsent_connectsNextDevicesWithoutTimeout()
+            throws Exception {
+        setPreconditionsAndStart(ADAPTER_STATE_ON, EMPTY_SETTINGS_STRING, SMALL_DEVICE_LIST);
+        ArrayList<BluetoothDevice> devices = makeDeviceList(SMALL_DEVICE_LIST);
+        for (int i = 1; i < devices.size(); i++) {
+            mockDeviceAvailability(devices.get(i), true);
+        }
+
+        mProfileDeviceManager.beginAutoConnecting();
+
+        for (int i = 1; i < devices.size(); i++) {
+            verify(mMockProxies, timeout(CONNECT_LATENCY_MS * 10).times(1))
+                    .bluetoothConnectToProfile(mProfileId, devices.get(i));
+        }
+        Assert.assertTrue(mProfileDeviceManager.isAutoConnecting());
+    }
+
+    /**
+     * Preconditions:
+     * - The Bluetooth adapter is ON, the device manager is initialized for a single connection
+     *   profile and there are several devices in the list.
+     *
+     * Actions:
+     * - Initiate an auto connection
+     * - The second device connects, then the highest priority device connects
+     *
+     * Outcome:
+     * - The second device is kept until the highest priority device connects, then it and the
+     *   remaining attempt are disconnected. The highest priority device stays connected.
+     */
+    @Test
+    public void testAutoConnectSingleConnection_lowerPriorityConnectsFirst_keepsHighestPriority()
+            throws Exception {
+        setSingleConnectionPreconditionsAndStart(SMALL_DEVICE_LIST);
+        ArrayList<BluetoothDevice> devices = makeDeviceList(SMALL_DEVICE_LIST);
+
+        mProfileDeviceManager.beginAutoConnecting();
+        for (BluetoothDevice device : devices) {
+            verify(mMockProxies, timeout(CONNECT_LATENCY_MS * 10))
+                    .bluetoothConnectToProfile(BluetoothProfile.A2DP_SINK, device);
+        }
+
+        sendSingleConnectionStateChanged(devices.get(1), BluetoothProfile.STATE_CONNECTED);
+        verify(mMockProxies, after(CONNECT_LATENCY_MS).never()).bluetoothDisconnectFromProfile(
+                eq(BluetoothProfile.A2DP_SINK), any(BluetoothDevice.class));
+        Assert.assertTrue(mProfileDeviceManager.isAutoConnecting());
+
+        sendSingleConnectionStateChanged(devices.get(0), BluetoothProfile.STATE_CONNECTED);
+        verify(mMockProxies, timeout(CONNECT_LATENCY_MS * 10))
+                .bluetoothDisconnectFromProfile(BluetoothProfile.A2DP_SINK, devices.get(1));
+        verify(mMockProxies, timeout(CONNECT_LATENCY_MS * 10))
+                .bluetoothDisconnectFromProfile(BluetoothProfile.A2DP_SINK, devices.get(2));
+        verify(mMockProxies, never())
+                .bluetoothDisconnectFromProfile(BluetoothProfile.A2DP_SINK, devices.get(0));
+        Assert.assertFalse(mProfileDeviceManager.isAutoConnecting());
+    }
+
+    /**
+     * Preconditions:
+     * - The Bluetooth adapter is ON, the device manager is initialized for a single connection
+     *   profile and there are several devices in the list.
+     *
+     * Actions:
+     * - Initiate an auto connection
+     * - The second device connects, then the highest priority device fails to connect
+     *
+     * Outcome:
+     * - The second device is kept once the highest priority device failed, and the remaining
+     *   attempt is disconnected.
+     */
+    @Test
+    public void testAutoConnectSingleConnection_higherPriorityFails_keepsLowerPriority()
+            throws Exception {
+        setSingleConnectionPreconditionsAndStart(SMALL_DEVICE_LIST);
+        ArrayList<BluetoothDevice> devices = makeDeviceList(SMALL_DEVICE_LIST);
+
+        mProfileDeviceManager.beginAutoConnecting();
+        for (BluetoothDevice device : devices) {
+            verify(mMockProxies, timeout(CONNECT_LATENCY_MS * 10))
+                    .bluetoothConnectToProfile(BluetoothProfile.A2DP_SINK, device);
+        }
+
+        sendSingleConnectionStateChanged(devices.get(1), BluetoothProfile.STATE_CONNECTED);
+        sendSingleConnectionStateChanged(devices.get(0), BluetoothProfile.STATE_DISCONNECTED);
+
+        verify(mMockProxies, timeout(CONNECT_LATENCY_MS * 10))
+                .bluetoothDisconnectFromProfile(BluetoothProfile.A2DP_SINK, devices.get(2));
+        verify(mMockProxies, never())
+                .bluetoothDisconnectFromProfile(BluetoothProfile.A2DP_SINK, devices.get(1));
+        Assert.assertFalse(mProfileDeviceManager.isAutoConnecting());
+    }
+
+    /**
+     * Preconditions:
+     * - The Bluetooth adapter is ON, the device manager is initialized for a single connection
+     *   profile and there are several devices in the list.
+     *
+     * Actions:
+     * - Initiate an auto connection
+     * - The second device connects, the highest priority device never responds
+     *
+     * Outcome:
+     * - The second device is kept once the highest priority device times out, and the remaining
+     *   attempt is disconnected.
+     */
+    @Test
+    public void testAutoConnectSingleConnection_higherPriorityTimesOut_keepsLowerPriority()
+            throws Exception {
+        setSingleConnectionPreconditionsAndStart(SMALL_DEVICE_LIST);
+        ArrayList<BluetoothDevice> devices = makeDeviceList(SMALL_DEVICE_LIST);
+
+        mProfileDeviceManager.beginAutoConnecting();
+        for (BluetoothDevice device : devices) {
+            verify(mMockProxies, timeout(CONNECT_LATENCY_MS * 10))
+                    .bluetoothConnectToProfile(BluetoothProfile.A2DP_SINK, device);
+        }
+
+        sendSingleConnectionStateChanged(devices.get(1), BluetoothProfile.STATE_CONNECTED);
+        verify(mMockProxies, after(CONNECT_LATENCY_MS).never()).bluetoothDisconnectFromProfile(
+                eq(BluetoothProfile.A2DP_SINK), any(BluetoothDevice.class));
+        Assert.assertTrue(mProfileDeviceManager.isAutoConnecting());
+
+        verify(mMockProxies, timeout(CONNECT_TIMEOUT_MS + CONNECT_LATENCY_MS * 10))
+                .bluetoothDisconnectFromProfile(BluetoothProfile.A2DP_SINK, devices.get(2));
+        verify(mMockProxies, never())
+                .bluetoothDisconnectFromProfile(BluetoothProfile.A2DP_SINK, devices.get(1));
+        Assert.assertFalse(mProfileDeviceManager.isAutoConnecting());
+    }
+
+    /**
+     * Preconditions:
+     * - The Bluetooth adapter is ON, the device manager is initialized for a single connection
+     *   profile and there are several devices in the list.
+     *
+     * Actions:
+     * - Initiate an auto connection
+     * - The second device connects and its connection event is received twice, then the highest
+     *   priority device fails to connect
+     *
+     * Outcome:
+     * - The duplicate event is ignored: nothing is disconnected and the highest priority attempt
+     *   is still waited for. The second device is then kept and the remaining attempt is
+     *   disconnected.
+     */
+    @Test
+    public void testAutoConnectSingleConnection_duplicateConnectedEvent_keepsCandidate()
+            throws Exception {
+        setSingleConnectionPreconditionsAndStart(SMALL_DEVICE_LIST);
+        ArrayList<BluetoothDevice> devices = makeDeviceList(SMALL_DEVICE_LIST);
+
+        mProfileDeviceManager.beginAutoConnecting();
+        for (BluetoothDevice device : devices) {
+            verify(mMockProxies, timeout(CONNECT_LATENCY_MS * 10))
+                    .bluetoothConnectToProfile(BluetoothProfile.A2DP_SINK, device);
+        }
+
+        sendSingleConnectionStateChanged(devices.get(1), BluetoothProfile.STATE_CONNECTED);
+        sendSingleConnectionStateChanged(devices.get(1), BluetoothProfile.STATE_CONNECTED);
+        verify(mMockProxies, after(CONNECT_LATENCY_MS).never()).bluetoothDisconnectFromProfile(
+                eq(BluetoothProfile.A2DP_SINK), any(BluetoothDevice.class));
+        Assert.assertTrue(mProfileDeviceManager.isAutoConnecting());
+
+        sendSingleConnectionStateChanged(devices.get(0), BluetoothProfile.STATE_DISCONNECTED);
+
+        verify(mMockProxies, timeout(CONNECT_LATENCY_MS * 10))
+                .bluetoothDisconnectFromProfile(BluetoothProfile.A2DP_SINK, devices.get(2));
+        verify(mMockProxies, never())
+                .bluetoothDisconnectFromProfile(BluetoothProfile.A2DP_SINK, devices.get(1));
+        Assert.assertFalse(mProfileDeviceManager.isAutoConnecting());
+    }
+
     //--------------------------------------------------------------------------------------------//
     // Bluetooth stack device connection status changed event tests                               //
     //--------------------------------------------------------------------------------------------//
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.net.LocalSocketAddress;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.MediumTest;
+
+import com.android.car.test.utils.TemporaryFile;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(AndroidJUnit4.class)
+@MediumTest
+public class CarBugreportManagerServiceTest {
+    private static final String TAG = CarBugreportManagerServiceTest.class.getSimpleName();
+
+    // Larger than the transfer buffer, so the copy takes several reads.
+    private static final int DUMP_SIZE = 3 * 1024 * 1024 + 17;
+
+    @Test
+    public void testTransferSocketToFd_copiesUntilDumpstateClosesSocket() throws Exception {
+        byte[] dump = new byte[DUMP_SIZE];
+        for (int i = 0; i < dump.length; i++) {
+            dump[i] = (byte) (i * 31);
+        }
+        String socketName = TAG + SystemClock.elapsedRealtimeNanos();
+        LocalServerSocket server = new LocalServerSocket(socketName);
+        Thread fakeDumpstate = new Thread(() -> {
+            try (LocalSocket client = server.accept();
+                    OutputStream out = client.getOutputStream()) {
+                out.write(dump);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        fakeDumpstate.start();
+
+        try (TemporaryFile output = new TemporaryFile(TAG);
+                LocalSocket socket = new LocalSocket()) {
+            socket.connect(new LocalSocketAddress(socketName));
+            long copied;
+            try (ParcelFileDescriptor pfd = ParcelFileDescriptor.open(output.getFile(),
+                    ParcelFileDescriptor.MODE_WRITE_ONLY)) {
+                copied = CarBugreportManagerService.transferSocketToFd(socket,
+                        pfd.getFileDescriptor());
+            }
+            fakeDumpstate.join();
+
+            assertThat(copied).isEqualTo(DUMP_SIZE);
+            assertThat(Arrays.equals(Files.readAllBytes(output.getPath()), dump)).isTrue();
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void testConnectWithRetries_connectsOnceDumpstateListens() throws Exception {
+        String socketName = TAG + SystemClock.elapsedRealtimeNanos();
+        LocalServerSocket[] server = new LocalServerSocket[1];
+        Thread init = new Thread(() -> {
+            SystemClock.sleep(300);
+            try {
+                server[0] = new LocalServerSocket(socketName);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        init.start();
+
+        long startMs = SystemClock.elapsedRealtime();
+        LocalSocket socket = CarBugreportManagerService.connectWithRetries(
+                new LocalSocketAddress(socketName), startMs + 10_000, new AtomicBoolean(true));
+        long waitedMs = SystemClock.elapsedRealtime() - startMs;
+        init.join();
+
+        try {
+            assertThat(socket).isNotNull();
+            assertThat(socket.isConnected()).isTrue();
+            assertThat(waitedMs).isLessThan(5_000L);
+        } finally {
+            if (socket != null) {
+                socket.close();
+            }
+            server[0].close();
+        }
+    }
+
+    @Test
+    public void testConnectWithRetries_timesOut() throws Exception {
+        String socketName = TAG + SystemClock.elapsedRealtimeNanos();
+
+        assertThat(CarBugreportManagerService.connectWithRetries(
+                new LocalSocketAddress(socketName), SystemClock.elapsedRealtime() + 300,
+                new AtomicBoolean(true))).isNull();
+    }
+
+    @Test
+    public void testConnectWithRetries_returnsWhenCancelled() throws Exception {
+        String socketName = TAG + SystemClock.elapsedRealtimeNanos();
+
+        long startMs = SystemClock.elapsedRealtime();
+        LocalSocket socket = CarBugreportManagerService.connectWithRetries(
+                new LocalSocketAddress(socketName), startMs + 10_000, new AtomicBoolean(false));
+
+        assertThat(socket).isNull();
+        assertThat(SystemClock.elapsedRealtime() - startMs).isLessThan(5_000L);
+    }
+}
@@ -27,6 +27,7 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -57,20 +58,18 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnitRunner;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.file.Files;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
-import java.util.stream.Collectors;
 
 /**
  * This class contains unit tests for the {@link CarLocationService}.
  * It tests that {@link LocationManagerProxy}'s last known location is stored in and loaded from a
- * JSON file upon appropriate system events.
+ * binary file upon appropriate system events, and that the JSON file of previous versions is still
+ * loaded.
  *
  * The following mocks are used:
  * 1. {@link Context} registers intent receivers.
@@ -84,6 +83,7 @@ import java.util.stream.Collectors;
 public class CarLocationServiceTest {
     private static final String TAG = "CarLocationServiceTest";
     private static final String TEST_FILENAME = "location_cache.json";
+    private static final String TEST_BINARY_FILENAME = "location_cache.bin";
     private CarLocationService mCarLocationService;
     private Context mContext;
     private CountDownLatch mLatch;
@@ -227,6 +227,104 @@ public class CarLocationServiceTest {
         assertTrue(location.getElapsedRealtimeNanos() >= elapsedTime);
     }
 
+    /**
+     * Test that the {@link CarLocationService} reads a location from the binary cache file and
+     * injects it upon onServiceConnected, ignoring the legacy JSON file.
+     */
+    @Test
+    public void testLoadsLocationFromBinaryFile() throws Exception {
+        mCarLocationService.init();
+        long currentTime = System.currentTimeMillis();
+        Location timbuktu = new Location(LocationManager.GPS_PROVIDER);
+        timbuktu.setLatitude(16.7666);
+        timbuktu.setLongitude(3.0026);
+        timbuktu.setAltitude(261);
+        timbuktu.setAccuracy(13.75f);
+        timbuktu.setTime(currentTime - 60000);
+        writeBinaryCacheFile(CarLocationService.serializeLocation(timbuktu));
+        writeCacheFile("{\"provider\": \"network\", \"latitude\": 1.0, \"longitude\": 2.0,"
+                + "\"accuracy\":100.0, \"captureTime\": " + currentTime + "}");
+        ArgumentCaptor<Location> argument = ArgumentCaptor.forClass(Location.class);
+        when(mMockLocationManagerProxy.injectLocation(argument.capture())).thenReturn(true);
+
+        mUserServiceCallback.onServiceConnected(mMockIPerUserCarService);
+        mLatch.await();
+
+        Location location = argument.getValue();
+        assertEquals("gps", location.getProvider());
+        assertEquals(16.7666, location.getLatitude());
+        assertEquals(3.0026, location.getLongitude());
+        assertEquals(261.0, location.getAltitude());
+        assertEquals(13.75f, location.getAccuracy());
+        assertFalse(location.hasSpeed());
+        assertTrue(location.getTime() >= currentTime);
+    }
+
+    /**
+     * Test that the {@link CarLocationService} tries to inject the location again when the
+     * {@link LocationManagerProxy} fails to inject it.
+     */
+    @Test
+    public void testRetriesFailedLocationInjection() throws Exception {
+        mCarLocationService.init();
+        Location timbuktu = new Location(LocationManager.GPS_PROVIDER);
+        timbuktu.setLatitude(16.7666);
+        timbuktu.setLongitude(3.0026);
+        timbuktu.setAccuracy(13.75f);
+        timbuktu.setTime(System.currentTimeMillis());
+        writeBinaryCacheFile(CarLocationService.serializeLocation(timbuktu));
+        when(mMockLocationManagerProxy.injectLocation(any())).thenReturn(false, false, true);
+
+        mUserServiceCallback.onServiceConnected(mMockIPerUserCarService);
+        mLatch.await();
+
+        // Retried after 200ms, then after 400ms.
+        verify(mMockLocationManagerProxy, timeout(2000).times(3)).injectLocation(any());
+    }
+
+    /**
+     * Test that a provider name too long for the binary record is truncated, without cutting a
+     * multi-byte character.
+     */
+    @Test
+    public void testSerializeLocationTruncatesLongProvider() {
+        // 31 ASCII bytes followed by 2-byte characters: the 32-byte limit falls in the middle of
+        // the first of them.
+        String provider = "abcdefghijklmnopqrstuvwxyz01234" + "\u00e9\u00e9";
+        Location location = new Location(provider);
+        location.setLatitude(16.7666);
+        location.setLongitude(3.0026);
+
+        Location stored = CarLocationService.deserializeLocation(
+                CarLocationService.serializeLocation(location));
+
+        assertThat(stored).isNotNull();
+        assertEquals("abcdefghijklmnopqrstuvwxyz01234", stored.getProvider());
+        assertEquals(16.7666, stored.getLatitude());
+    }
+
+    /**
+     * Test that the {@link CarLocationService} does not inject a location from a binary cache file
+     * that fails its checksum.
+     */
+    @Test
+    public void testDoesNotLoadLocationFromCorruptBinaryFile() throws Exception {
+        mCarLocationService.init();
+        Location timbuktu = new Location(LocationManager.GPS_PROVIDER);
+        timbuktu.setLatitude(16.7666);
+        timbuktu.setLongitude(3.0026);
+        timbuktu.setAccuracy(13.75f);
+        timbuktu.setTime(System.currentTimeMillis());
+        byte[] record = CarLocationService.serializeLocation(timbuktu);
+        record[20] ^= 1;
+        writeBinaryCacheFile(record);
+
+        mUserServiceCallback.onServiceConnected(mMockIPerUserCarService);
+        mLatch.await();
+
+        verify(mMockLocationManagerProxy, never()).injectLocation(any());
+    }
+
     /**
      * Test that the {@link CarLocationService} does not inject a location if there is no location
      * cache file.
@@ -338,12 +436,39 @@ public class CarLocationServiceTest {
 
         verify(mMockLocationManagerProxy).getLastKnownLocation(LocationManager.GPS_PROVIDER);
         assertTrue(future.isDone());
-        String actualContents = readCacheFile();
+        Location stored = CarLocationService.deserializeLocation(
+                Files.readAllBytes(getBinaryCacheFile().toPath()));
         long oneDayMs = 24 * 60 * 60 * 1000;
         long granularCurrentTime = (currentTime / oneDayMs) * oneDayMs;
-        String expectedContents = "{\"provider\":\"gps\",\"latitude\":16.7666,\"longitude\":"
-                + "3.0026,\"accuracy\":13.75,\"captureTime\":" + granularCurrentTime + "}";
-        assertEquals(expectedContents, actualContents);
+        assertThat(stored).isNotNull();
+        assertEquals("gps", stored.getProvider());
+        assertEquals(16.7666, stored.getLatitude());
+        assertEquals(3.0026, stored.getLongitude());
+        assertEquals(13.75f, stored.getAccuracy());
+        assertFalse(stored.hasAltitude());
+        assertEquals(granularCurrentTime, stored.getTime());
+    }
+
+    /**
+     * Test that storing a location replaces the JSON file of previous versions.
+     */
+    @Test
+    public void testStoringLocationDeletesJsonFile() throws Exception {
+        mCarLocationService.init();
+        mUserServiceCallback.onServiceConnected(mMockIPerUserCarService);
+        mLatch.await();
+        mLatch = new CountDownLatch(1);
+        writeCacheFile("{\"provider\": \"gps\", \"latitude\": 16.7666, \"longitude\": 3.0026}");
+        Location timbuktu = new Location(LocationManager.GPS_PROVIDER);
+        timbuktu.setAccuracy(13.75f);
+        when(mMockLocationManagerProxy.getLastKnownLocation(LocationManager.GPS_PROVIDER))
+                .thenReturn(timbuktu);
+
+        mCarLocationService.onStateChanged(CarPowerStateListener.SHUTDOWN_PREPARE, null);
+        mLatch.await();
+
+        assertTrue(getBinaryCacheFile().exists());
+        assertFalse(getLocationCacheFile().exists());
     }
 
     /**
@@ -483,15 +608,15 @@ public class CarLocationServiceTest {
         fos.close();
     }
 
-    private String readCacheFile() throws IOException {
-        FileInputStream fis = new FileInputStream(getLocationCacheFile());
-        String json = new BufferedReader(new InputStreamReader(fis)).lines()
-                .parallel().collect(Collectors.joining("\n"));
-        fis.close();
-        return json;
+    private void writeBinaryCacheFile(byte[] record) throws IOException {
+        Files.write(getBinaryCacheFile().toPath(), record);
     }
 
     private File getLocationCacheFile() {
         return new File(mTempDirectory, TEST_FILENAME);
     }
+
+    private File getBinaryCacheFile() {
+        return new File(mTempDirectory, TEST_BINARY_FILENAME);
+    }
 }
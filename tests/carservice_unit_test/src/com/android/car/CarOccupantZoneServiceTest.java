@@ -820,6 +820,45 @@ public class CarOccupantZoneServiceTest {
                 CarOccupantZoneManager.DISPLAY_TYPE_UNKNOWN);
     }
 
+    @Test
+    public void testManagerGetDisplayType_displayNotHandledYet() {
+        mService.init();
+
+        // Display listener not called yet, so the display is not in the snapshot
+        mockDisplay(mDisplayManager, mDisplay3, 3, 13);
+
+        assertThat(mManager.getDisplayType(mDisplay3)).isEqualTo(
+                CarOccupantZoneManager.DISPLAY_TYPE_MAIN);
+    }
+
+    @Test
+    public void testGetDisplayForOccupant_followsDisplayChanges() {
+        Display[] displaysWithRearLeft = new Display[]{
+                mDisplay0, mDisplay1, mDisplay2, mDisplay3, mDisplay4, mDisplay5};
+        Display[] displaysWithoutRearLeft = new Display[]{
+                mDisplay0, mDisplay1, mDisplay2, mDisplay4, mDisplay5};
+        mockDisplay(mDisplayManager, mDisplay3, 3, 13);
+        when(mDisplayManager.getDisplays()).thenReturn(displaysWithoutRearLeft);
+        mService.init();
+
+        assertThat(mService.getDisplayForOccupant(mZoneRearLeft.zoneId,
+                CarOccupantZoneManager.DISPLAY_TYPE_MAIN)).isEqualTo(Display.INVALID_DISPLAY);
+
+        when(mDisplayManager.getDisplays()).thenReturn(displaysWithRearLeft);
+        mService.mDisplayListener.onDisplayAdded(3);
+
+        assertThat(mService.getDisplayForOccupant(mZoneRearLeft.zoneId,
+                CarOccupantZoneManager.DISPLAY_TYPE_MAIN)).isEqualTo(3);
+
+        when(mDisplayManager.getDisplays()).thenReturn(displaysWithoutRearLeft);
+        mService.mDisplayListener.onDisplayRemoved(3);
+
+        assertThat(mService.getDisplayForOccupant(mZoneRearLeft.zoneId,
+                CarOccupantZoneManager.DISPLAY_TYPE_MAIN)).isEqualTo(Display.INVALID_DISPLAY);
+        assertThat(mService.getDisplayForOccupant(mZoneDriverLHD.zoneId,
+                CarOccupantZoneManager.DISPLAY_TYPE_MAIN)).isEqualTo(0);
+    }
+
     @Test
     public void testManagerGetUserForOccupant() {
         mService.init();
@@ -50,6 +50,7 @@ import android.util.Log;
 
 import androidx.test.platform.app.InstrumentationRegistry;
 
+import com.android.car.PowerProtos.PowerTimelineProto.PowerTimelineEntry;
 import com.android.car.hal.PowerHalService;
 import com.android.car.hal.PowerHalService.PowerState;
 import com.android.car.systeminterface.DisplayInterface;
@@ -69,6 +70,8 @@ import org.mockito.Mock;
 import java.io.File;
 import java.io.IOException;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Semaphore;
@@ -324,6 +327,42 @@ public class CarPowerManagementServiceTest extends AbstractExtendedMockitoTestCa
         mPowerSignalListener.waitForSleepExit(WAIT_TIMEOUT_MS);
     }
 
+    @Test
+    public void testSleepEntryAndWakeup_recordsTimeline() throws Exception {
+        mPowerHal.setCurrentPowerState(new PowerState(VehicleApPowerStateReq.SHUTDOWN_PREPARE,
+                VehicleApPowerStateShutdownParam.CAN_SLEEP));
+        assertStateReceivedForShutdownOrSleepWithPostpone(PowerHalService.SET_DEEP_SLEEP_ENTRY);
+        mPowerSignalListener.waitForSleepEntry(WAIT_TIMEOUT_MS);
+        mPowerHal.setCurrentPowerState(new PowerState(VehicleApPowerStateReq.FINISHED, 0));
+        mSystemStateInterface.waitForSleepEntryAndWakeup(WAIT_TIMEOUT_MS);
+        assertStateReceived(PowerHalService.SET_DEEP_SLEEP_EXIT, 0);
+
+        List<PowerTimelineEntry> entries = mService.getTimeline().toProto().getEntriesList();
+        List<String> states = new ArrayList<>();
+        PowerTimelineEntry suspend = null;
+        PowerTimelineEntry resume = null;
+        for (PowerTimelineEntry entry : entries) {
+            switch (entry.getType()) {
+                case STATE_CHANGE:
+                    states.add(entry.getState());
+                    break;
+                case SUSPEND:
+                    suspend = entry;
+                    break;
+                case RESUME:
+                    resume = entry;
+                    break;
+                default:
+                    break;
+            }
+        }
+        assertThat(states).containsAtLeast("SHUTDOWN_PREPARE(2)", "WAIT_FOR_FINISH(3)",
+                "SUSPEND(4)", "WAIT_FOR_VHAL(0)").inOrder();
+        assertThat(suspend.getSuccess()).isTrue();
+        assertThat(suspend.getRetryCount()).isEqualTo(0);
+        assertThat(resume).isNotNull();
+    }
+
     /**
      * This test case tests the same scenario as {@link #testUserSwitchingOnResume_differentUser()},
      * but indirectly triggering {@code switchUserOnResumeIfNecessary()} through HAL events.
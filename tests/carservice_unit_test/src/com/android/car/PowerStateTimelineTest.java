@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Binder;
+import android.os.IBinder;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.car.PowerProtos.PowerTimelineProto.PowerTimeline;
+import com.android.car.PowerProtos.PowerTimelineProto.PowerTimelineEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class PowerStateTimelineTest {
+
+    @Test
+    public void testStateChange_recordsTimeSpentInPreviousState() {
+        PowerStateTimeline timeline = new PowerStateTimeline(8);
+
+        timeline.onStateChanged("ON", 100);
+        timeline.onStateChanged("SHUTDOWN_PREPARE", 250);
+
+        PowerTimeline proto = timeline.toProto();
+        assertThat(proto.getEntriesCount()).isEqualTo(2);
+        PowerTimelineEntry entry = proto.getEntries(1);
+        assertThat(entry.getType()).isEqualTo(PowerTimelineEntry.Type.STATE_CHANGE);
+        assertThat(entry.getState()).isEqualTo("SHUTDOWN_PREPARE");
+        assertThat(entry.getElapsedRealtimeMs()).isEqualTo(250);
+        assertThat(entry.getDurationMs()).isEqualTo(150);
+    }
+
+    @Test
+    public void testListeners_recordsFinishedAndNotFinishedListeners() {
+        PowerStateTimeline timeline = new PowerStateTimeline(8);
+        IBinder fastListener = new Binder();
+        IBinder slowListener = new Binder();
+
+        timeline.onListenersNotified(Arrays.asList(fastListener, slowListener), 1000);
+        timeline.onListenerFinished(fastListener, 1020);
+        timeline.onProcessingComplete(5000);
+
+        PowerTimeline proto = timeline.toProto();
+        assertThat(proto.getEntriesCount()).isEqualTo(2);
+        assertThat(proto.getEntries(0).getType())
+                .isEqualTo(PowerTimelineEntry.Type.LISTENER_FINISHED);
+        assertThat(proto.getEntries(0).getListener()).isEqualTo(fastListener.toString());
+        assertThat(proto.getEntries(0).getDurationMs()).isEqualTo(20);
+        assertThat(proto.getEntries(1).getType())
+                .isEqualTo(PowerTimelineEntry.Type.LISTENER_NOT_FINISHED);
+        assertThat(proto.getEntries(1).getListener()).isEqualTo(slowListener.toString());
+        assertThat(proto.getEntries(1).getDurationMs()).isEqualTo(4000);
+    }
+
+    @Test
+    public void testResume_recordsLatencyUntilWaitForVhal() {
+        PowerStateTimeline timeline = new PowerStateTimeline(8);
+
+        // WAIT_FOR_VHAL at boot is not a resume.
+        timeline.onWaitForVhal(10);
+        timeline.onSuspendFinished(/* success= */ true, /* retryCount= */ 2, 30, 1000);
+        timeline.onWaitForVhal(1080);
+
+        PowerTimeline proto = timeline.toProto();
+        assertThat(proto.getEntriesCount()).isEqualTo(2);
+        PowerTimelineEntry suspend = proto.getEntries(0);
+        assertThat(suspend.getType()).isEqualTo(PowerTimelineEntry.Type.SUSPEND);
+        assertThat(suspend.getRetryCount()).isEqualTo(2);
+        assertThat(suspend.getDurationMs()).isEqualTo(30);
+        PowerTimelineEntry resume = proto.getEntries(1);
+        assertThat(resume.getType()).isEqualTo(PowerTimelineEntry.Type.RESUME);
+        assertThat(resume.getDurationMs()).isEqualTo(80);
+    }
+
+    @Test
+    public void testRingBuffer_keepsMostRecentEntries() {
+        PowerStateTimeline timeline = new PowerStateTimeline(2);
+
+        timeline.onStateChanged("WAIT_FOR_VHAL", 1);
+        timeline.onStateChanged("ON", 2);
+        timeline.onStateChanged("SHUTDOWN_PREPARE", 3);
+
+        PowerTimeline proto = timeline.toProto();
+        assertThat(proto.getDroppedEntries()).isEqualTo(1);
+        assertThat(proto.getEntriesCount()).isEqualTo(2);
+        assertThat(proto.getEntries(0).getState()).isEqualTo("ON");
+        assertThat(proto.getEntries(1).getState()).isEqualTo("SHUTDOWN_PREPARE");
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.car.hardware.CarPropertyValue;
+import android.car.hardware.property.CarPropertyEvent;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class PropertyEventQueueTest {
+
+    private static final int PROP_A = 0x11600207;
+    private static final int PROP_B = 0x11400400;
+    private static final int AREA_1 = 1;
+    private static final int AREA_2 = 2;
+
+    @Test
+    public void testAdd_onlyFirstAddSchedulesDrain() {
+        PropertyEventQueue queue = new PropertyEventQueue(4);
+
+        assertThat(queue.add(changeEvent(PROP_A, AREA_1, 1f), false)).isTrue();
+        assertThat(queue.add(changeEvent(PROP_A, AREA_1, 2f), false)).isFalse();
+        assertThat(queue.drain()).hasSize(2);
+        assertThat(queue.drain()).isNull();
+        assertThat(queue.add(changeEvent(PROP_A, AREA_1, 3f), false)).isTrue();
+    }
+
+    @Test
+    public void testAdd_continuousEventsCoalescedPerArea() {
+        PropertyEventQueue queue = new PropertyEventQueue(4);
+
+        queue.add(changeEvent(PROP_A, AREA_1, 1f), true);
+        queue.add(changeEvent(PROP_A, AREA_2, 2f), true);
+        queue.add(changeEvent(PROP_A, AREA_1, 3f), true);
+
+        List<CarPropertyEvent> events = queue.drain();
+        assertThat(events).hasSize(2);
+        assertThat(events.get(0).getCarPropertyValue().getAreaId()).isEqualTo(AREA_1);
+        assertThat(events.get(0).getCarPropertyValue().getValue()).isEqualTo(3f);
+        assertThat(events.get(1).getCarPropertyValue().getAreaId()).isEqualTo(AREA_2);
+        assertThat(queue.getCoalescedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAdd_full_dropsOldestContinuousEvent() {
+        PropertyEventQueue queue = new PropertyEventQueue(2);
+
+        queue.add(changeEvent(PROP_B, AREA_1, 1f), false);
+        queue.add(changeEvent(PROP_A, AREA_1, 2f), true);
+        queue.add(changeEvent(PROP_A, AREA_2, 3f), true);
+
+        List<CarPropertyEvent> events = queue.drain();
+        assertThat(events).hasSize(2);
+        assertThat(events.get(0).getCarPropertyValue().getPropertyId()).isEqualTo(PROP_B);
+        assertThat(events.get(1).getCarPropertyValue().getAreaId()).isEqualTo(AREA_2);
+        assertThat(queue.getDroppedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testAdd_full_neverDropsOnChangeOrErrorEvents() {
+        PropertyEventQueue queue = new PropertyEventQueue(1);
+
+        queue.add(changeEvent(PROP_B, AREA_1, 1f), false);
+        queue.add(CarPropertyEvent.createErrorEventWithErrorCode(PROP_A, AREA_1, 0), true);
+
+        assertThat(queue.size()).isEqualTo(2);
+        assertThat(queue.getDroppedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAdd_full_keepsEveryOnChangeEventOfSameAreaInOrder() {
+        PropertyEventQueue queue = new PropertyEventQueue(2);
+
+        queue.add(changeEvent(PROP_B, AREA_1, 1f), false);
+        queue.add(changeEvent(PROP_B, AREA_2, 2f), false);
+        queue.add(changeEvent(PROP_B, AREA_1, 3f), false);
+        queue.add(changeEvent(PROP_B, AREA_1, 4f), false);
+
+        List<CarPropertyEvent> events = queue.drain();
+        assertThat(events).hasSize(4);
+        for (int i = 0; i < events.size(); i++) {
+            assertThat(events.get(i).getCarPropertyValue().getValue()).isEqualTo(i + 1f);
+        }
+        assertThat(queue.getDroppedCount()).isEqualTo(0);
+        assertThat(queue.getCoalescedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testAdd_full_keepsEveryErrorEvent() {
+        PropertyEventQueue queue = new PropertyEventQueue(1);
+
+        queue.add(changeEvent(PROP_B, AREA_1, 1f), false);
+        for (int i = 0; i < 3; i++) {
+            queue.add(CarPropertyEvent.createErrorEventWithErrorCode(PROP_A, AREA_1, 0), true);
+        }
+
+        assertThat(queue.size()).isEqualTo(4);
+        assertThat(queue.getCoalescedCount()).isEqualTo(0);
+    }
+
+    private static CarPropertyEvent changeEvent(int propId, int areaId, float value) {
+        return new CarPropertyEvent(CarPropertyEvent.PROPERTY_EVENT_PROPERTY_CHANGE,
+                new CarPropertyValue<>(propId, areaId, value));
+    }
+}
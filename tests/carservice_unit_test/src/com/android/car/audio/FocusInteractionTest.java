@@ -271,6 +271,41 @@ public class FocusInteractionTest {
         assertThat(result).isEqualTo(AudioManager.AUDIOFOCUS_REQUEST_FAILED);
     }
 
+    @Test
+    public void getRejectMask_matchesInteractionMatrix() {
+        int[][] interactionMatrix = mFocusInteraction.getInteractionMatrix();
+
+        for (int requested = 0; requested < interactionMatrix.length; requested++) {
+            int rejectMask = mFocusInteraction.getRejectMask(requested);
+            int concurrentMask = mFocusInteraction.getConcurrentMask(requested);
+            for (int holder = 0; holder < interactionMatrix.length; holder++) {
+                int bit = FocusInteraction.getContextBit(holder);
+                assertWithMessage("Reject bit for holder %s and request %s", holder, requested)
+                        .that((rejectMask & bit) != 0)
+                        .isEqualTo(interactionMatrix[holder][requested] == INTERACTION_REJECT);
+                assertWithMessage("Concurrent bit for holder %s and request %s", holder,
+                        requested)
+                        .that((concurrentMask & bit) != 0)
+                        .isEqualTo(interactionMatrix[holder][requested]
+                                == INTERACTION_CONCURRENT);
+            }
+        }
+    }
+
+    @Test
+    public void getRejectMask_withNavigationRejectedOnCall_includesCall() {
+        doReturn(true)
+                .when(mMockCarAudioSettings)
+                .isRejectNavigationOnCallEnabledInSettings(TEST_USER_ID);
+
+        mFocusInteraction.setUserIdForSettings(TEST_USER_ID);
+
+        assertThat(mFocusInteraction.getRejectMask(CarAudioContext.NAVIGATION)
+                & FocusInteraction.getContextBit(CarAudioContext.CALL)).isNotEqualTo(0);
+        assertThat(mFocusInteraction.getConcurrentMask(CarAudioContext.NAVIGATION)
+                & FocusInteraction.getContextBit(CarAudioContext.CALL)).isEqualTo(0);
+    }
+
     private FocusEntry newMockFocusEntryWithContext(@AudioContext int audioContext) {
         FocusEntry focusEntry = mock(FocusEntry.class);
         when(focusEntry.getAudioContext()).thenReturn(audioContext);
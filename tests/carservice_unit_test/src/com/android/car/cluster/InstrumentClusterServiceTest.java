@@ -36,6 +36,7 @@ import android.content.Context;
 import android.os.Bundle;
 import android.os.Looper;
 import android.os.Process;
+import android.os.SystemClock;
 import android.view.KeyEvent;
 
 import androidx.test.InstrumentationRegistry;
@@ -57,6 +58,9 @@ public class InstrumentClusterServiceTest extends AbstractExtendedMockitoTestCas
 
     private static final String DEFAULT_RENDERER_SERVICE =
             "com.android.car.carservice_unittest/.FakeService";
+    private static final long NAVIGATION_STATE_TIMEOUT_MS = 5_000;
+    // How long the tests wait for a navigation state which must not be sent.
+    private static final long NO_NAVIGATION_STATE_TIMEOUT_MS = 500;
 
     private InstrumentClusterService mService;
 
@@ -166,6 +170,84 @@ public class InstrumentClusterServiceTest extends AbstractExtendedMockitoTestCas
         assertThat(navigationService).isNull();
     }
 
+    @Test
+    public void testNavigationState_sentWhenRendererConnects() throws Exception {
+        initService(/* connect= */ false);
+        Bundle bundle = new Bundle();
+
+        // Must not wait for the renderer.
+        mService.getNavigationService().onNavigationStateChanged(bundle);
+        assertThat(mInstrumentClusterNavigation.getBundleCount()).isEqualTo(0);
+        notifyRendererServiceConnection();
+
+        assertThat(mInstrumentClusterNavigation.waitForBundle(bundle)).isTrue();
+    }
+
+    @Test
+    public void testNavigationState_replayedWhenRendererReconnects() throws Exception {
+        initService(/* connect= */ true);
+        Bundle bundle = new Bundle();
+        mService.getNavigationService().onNavigationStateChanged(bundle);
+        assertThat(mInstrumentClusterNavigation.waitForBundle(bundle)).isTrue();
+
+        mService.mRendererServiceConnection.onServiceDisconnected(null);
+        notifyRendererServiceConnection();
+
+        assertThat(mInstrumentClusterNavigation.waitForBundleCount(2)).isTrue();
+        assertThat(mInstrumentClusterNavigation.mLastBundle).isSameAs(bundle);
+    }
+
+    @Test
+    public void testNavigationState_coalescesUpdatesFasterThanMinInterval() throws Exception {
+        initService(/* connect= */ true);
+        IInstrumentClusterNavigation navigationService = mService.getNavigationService();
+        Bundle first = new Bundle();
+        navigationService.onNavigationStateChanged(first);
+        assertThat(mInstrumentClusterNavigation.waitForBundle(first)).isTrue();
+
+        // The fake renderer accepts one update every 100ms.
+        Bundle last = null;
+        for (int i = 0; i < 10; i++) {
+            last = new Bundle();
+            navigationService.onNavigationStateChanged(last);
+        }
+
+        assertThat(mInstrumentClusterNavigation.waitForBundle(last)).isTrue();
+        assertThat(mInstrumentClusterNavigation.getBundleCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testNavigationState_focusLost_notReplayedWhenRendererReconnects()
+            throws Exception {
+        initService(/* connect= */ true);
+        Bundle bundle = new Bundle();
+        mService.getNavigationService().onNavigationStateChanged(bundle);
+        assertThat(mInstrumentClusterNavigation.waitForBundle(bundle)).isTrue();
+
+        mService.onFocusAbandoned(CarAppFocusManager.APP_FOCUS_TYPE_NAVIGATION, Process.myUid(),
+                Process.myPid());
+        mService.mRendererServiceConnection.onServiceDisconnected(null);
+        notifyRendererServiceConnection();
+
+        assertThat(mInstrumentClusterNavigation.waitForBundleCount(2,
+                NO_NAVIGATION_STATE_TIMEOUT_MS)).isFalse();
+    }
+
+    @Test
+    public void testNavigationState_focusOwnerChanged_notReplayedWhenRendererConnects()
+            throws Exception {
+        initService(/* connect= */ false);
+        mService.getNavigationService().onNavigationStateChanged(new Bundle());
+
+        // Another navigation app takes the focus before the renderer connects.
+        mService.onFocusAcquired(CarAppFocusManager.APP_FOCUS_TYPE_NAVIGATION,
+                Process.myUid() + 1, Process.myPid() + 1);
+        notifyRendererServiceConnection();
+
+        assertThat(mInstrumentClusterNavigation.waitForBundleCount(1,
+                NO_NAVIGATION_STATE_TIMEOUT_MS)).isFalse();
+    }
+
     private void checkValidClusterNavigation() throws Exception {
         IInstrumentClusterNavigation navigationService = mService.getNavigationService();
         assertThat(navigationService).isNotNull();
@@ -175,7 +257,7 @@ public class InstrumentClusterServiceTest extends AbstractExtendedMockitoTestCas
                 mInstrumentClusterNavigation.mClusterInfo);
         Bundle bundle = new Bundle();
         navigationService.onNavigationStateChanged(bundle);
-        assertThat(bundle).isEqualTo(mInstrumentClusterNavigation.mLastBundle);
+        assertThat(mInstrumentClusterNavigation.waitForBundle(bundle)).isTrue();
     }
 
     private static class IInstrumentClusterNavigationImpl
@@ -187,10 +269,48 @@ public class InstrumentClusterServiceTest extends AbstractExtendedMockitoTestCas
                         /* imageColorDepthBits= */ 32);
 
         private Bundle mLastBundle;
+        private int mBundleCount;
 
         @Override
-        public void onNavigationStateChanged(Bundle bundle) {
+        public synchronized void onNavigationStateChanged(Bundle bundle) {
             mLastBundle = bundle;
+            mBundleCount++;
+            notifyAll();
+        }
+
+        synchronized int getBundleCount() {
+            return mBundleCount;
+        }
+
+        /** Waits until the given bundle is the last one received. */
+        synchronized boolean waitForBundle(Bundle bundle) throws InterruptedException {
+            long deadlineMs = SystemClock.uptimeMillis() + NAVIGATION_STATE_TIMEOUT_MS;
+            while (mLastBundle != bundle) {
+                long remainingMs = deadlineMs - SystemClock.uptimeMillis();
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                wait(remainingMs);
+            }
+            return true;
+        }
+
+        /** Waits until the given number of bundles were received. */
+        synchronized boolean waitForBundleCount(int count) throws InterruptedException {
+            return waitForBundleCount(count, NAVIGATION_STATE_TIMEOUT_MS);
+        }
+
+        synchronized boolean waitForBundleCount(int count, long timeoutMs)
+                throws InterruptedException {
+            long deadlineMs = SystemClock.uptimeMillis() + timeoutMs;
+            while (mBundleCount < count) {
+                long remainingMs = deadlineMs - SystemClock.uptimeMillis();
+                if (remainingMs <= 0) {
+                    return false;
+                }
+                wait(remainingMs);
+            }
+            return true;
         }
 
         @Override
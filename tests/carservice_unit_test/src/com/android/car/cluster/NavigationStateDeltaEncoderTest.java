@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.cluster;
+
+import static android.car.cluster.renderer.NavigationStateDelta.KEY_NAVIGATION_STATE;
+import static android.car.cluster.renderer.NavigationStateDelta.KEY_NAVIGATION_STATE_CHANGED_FIELDS;
+import static android.car.cluster.renderer.NavigationStateDelta.KEY_NAVIGATION_STATE_CHANGED_STEP_FIELDS;
+import static android.car.cluster.renderer.NavigationStateDelta.KEY_NAVIGATION_STATE_DELTA;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.car.cluster.navigation.NavigationState.Destination;
+import android.car.cluster.navigation.NavigationState.Distance;
+import android.car.cluster.navigation.NavigationState.Maneuver;
+import android.car.cluster.navigation.NavigationState.NavigationStateProto;
+import android.car.cluster.navigation.NavigationState.Road;
+import android.car.cluster.navigation.NavigationState.Step;
+import android.car.cluster.renderer.NavigationStateDelta;
+import android.os.Bundle;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class NavigationStateDeltaEncoderTest {
+    private static final NavigationStateProto STATE = NavigationStateProto.newBuilder()
+            .addSteps(newStep(Maneuver.Type.TURN_NORMAL_LEFT, 300))
+            .addSteps(newStep(Maneuver.Type.KEEP_RIGHT, 1200))
+            .addDestinations(Destination.newBuilder().setTitle("Home").setAddress("1 Main St"))
+            .setCurrentRoad(Road.newBuilder().setName("Elm St"))
+            .setServiceStatus(NavigationStateProto.ServiceStatus.NORMAL)
+            .build();
+    // Not a field of NavigationStateProto.
+    private static final int UNKNOWN_FIELD_NUMBER = 15;
+
+    private final NavigationStateDeltaEncoder mEncoder = new NavigationStateDeltaEncoder();
+    // Renderer side.
+    private final NavigationStateDelta mDelta = new NavigationStateDelta();
+
+    @Test
+    public void testEncode_firstStateSentInFull() throws Exception {
+        Bundle state = newBundle(STATE);
+
+        assertThat(mEncoder.encode(state)).isSameAs(state);
+    }
+
+    @Test
+    public void testEncode_firstStepDistanceChanged_sendsOnlyThatStepField() throws Exception {
+        roundTrip(STATE);
+        NavigationStateProto next = STATE.toBuilder()
+                .setSteps(0, newStep(Maneuver.Type.TURN_NORMAL_LEFT, 250))
+                .build();
+
+        Bundle encoded = mEncoder.encode(newBundle(next));
+
+        assertThat(encoded.containsKey(KEY_NAVIGATION_STATE)).isFalse();
+        assertThat(encoded.getIntArray(KEY_NAVIGATION_STATE_CHANGED_FIELDS)).asList()
+                .containsExactly(NavigationStateProto.STEPS_FIELD_NUMBER);
+        // One changed field for the first step, none for the second one.
+        assertThat(encoded.getIntArray(KEY_NAVIGATION_STATE_CHANGED_STEP_FIELDS)).asList()
+                .containsExactly(1, Step.DISTANCE_FIELD_NUMBER, 0).inOrder();
+        NavigationStateProto delta =
+                NavigationStateProto.parseFrom(encoded.getByteArray(KEY_NAVIGATION_STATE_DELTA));
+        assertThat(delta.getStepsList()).containsExactly(
+                Step.newBuilder().setDistance(next.getSteps(0).getDistance()).build(),
+                Step.getDefaultInstance()).inOrder();
+        assertThat(delta.getDestinationsCount()).isEqualTo(0);
+        assertThat(delta.hasCurrentRoad()).isFalse();
+        assertThat(NavigationStateProto.parseFrom(
+                mDelta.apply(encoded).getByteArray(KEY_NAVIGATION_STATE))).isEqualTo(next);
+    }
+
+    @Test
+    public void testEncode_stepCountChanged_sendsStepsInFull() throws Exception {
+        roundTrip(STATE);
+        NavigationStateProto next = STATE.toBuilder().removeSteps(0).build();
+
+        Bundle encoded = mEncoder.encode(newBundle(next));
+
+        assertThat(encoded.containsKey(KEY_NAVIGATION_STATE_CHANGED_STEP_FIELDS)).isFalse();
+        NavigationStateProto delta =
+                NavigationStateProto.parseFrom(encoded.getByteArray(KEY_NAVIGATION_STATE_DELTA));
+        assertThat(delta.getStepsList()).isEqualTo(next.getStepsList());
+    }
+
+    @Test
+    public void testRoundTrip_clearedStepField() throws Exception {
+        roundTrip(STATE);
+        NavigationStateProto next = STATE.toBuilder()
+                .setSteps(1, STATE.getSteps(1).toBuilder().clearManeuver())
+                .build();
+
+        assertThat(roundTrip(next)).isEqualTo(next);
+    }
+
+    @Test
+    public void testRoundTrip_sendsUnknownFields() throws Exception {
+        roundTrip(STATE);
+        byte[] withUnknownField = withUnknownField(STATE, 7);
+
+        Bundle encoded = mEncoder.encode(newBundle(withUnknownField));
+        Bundle received = mDelta.apply(encoded);
+
+        assertThat(encoded.getIntArray(KEY_NAVIGATION_STATE_CHANGED_FIELDS)).asList()
+                .containsExactly(UNKNOWN_FIELD_NUMBER);
+        assertThat(NavigationStateProto.parseFrom(received.getByteArray(KEY_NAVIGATION_STATE)))
+                .isEqualTo(NavigationStateProto.parseFrom(withUnknownField));
+
+        byte[] changedUnknownField = withUnknownField(STATE, 8);
+        received = mDelta.apply(mEncoder.encode(newBundle(changedUnknownField)));
+
+        assertThat(NavigationStateProto.parseFrom(received.getByteArray(KEY_NAVIGATION_STATE)))
+                .isEqualTo(NavigationStateProto.parseFrom(changedUnknownField));
+    }
+
+    @Test
+    public void testRoundTrip_rebuildsEveryState() throws Exception {
+        NavigationStateProto rerouting = STATE.toBuilder()
+                .setServiceStatus(NavigationStateProto.ServiceStatus.REROUTING)
+                .clearSteps()
+                .build();
+        NavigationStateProto offRoad = rerouting.toBuilder()
+                .clearCurrentRoad()
+                .addSteps(newStep(Maneuver.Type.DEPART, 10))
+                .build();
+        NavigationStateProto arrived = offRoad.toBuilder()
+                .setCurrentRoad(Road.newBuilder().setName("Oak Ave"))
+                .clearDestinations()
+                .setServiceStatus(NavigationStateProto.ServiceStatus.NORMAL)
+                .build();
+
+        assertThat(roundTrip(STATE)).isEqualTo(STATE);
+        assertThat(roundTrip(rerouting)).isEqualTo(rerouting);
+        assertThat(roundTrip(offRoad)).isEqualTo(offRoad);
+        assertThat(roundTrip(offRoad)).isEqualTo(offRoad);
+        assertThat(roundTrip(arrived)).isEqualTo(arrived);
+    }
+
+    @Test
+    public void testRoundTrip_keepsOtherBundleValues() throws Exception {
+        roundTrip(STATE);
+        Bundle state = newBundle(STATE.toBuilder().clearDestinations().build());
+        state.putString("extra", "value");
+
+        Bundle received = mDelta.apply(mEncoder.encode(state));
+
+        assertThat(received.getString("extra")).isEqualTo("value");
+        assertThat(received.containsKey(KEY_NAVIGATION_STATE_DELTA)).isFalse();
+        assertThat(received.containsKey(KEY_NAVIGATION_STATE_CHANGED_FIELDS)).isFalse();
+        assertThat(received.containsKey(KEY_NAVIGATION_STATE_CHANGED_STEP_FIELDS)).isFalse();
+    }
+
+    @Test
+    public void testReset_sendsNextStateInFull() throws Exception {
+        roundTrip(STATE);
+        mEncoder.reset();
+        Bundle state = newBundle(STATE.toBuilder().clearCurrentRoad().build());
+
+        assertThat(mEncoder.encode(state)).isSameAs(state);
+    }
+
+    @Test
+    public void testEncode_bundleWithoutState_sentAsIs() throws Exception {
+        roundTrip(STATE);
+        Bundle bundle = new Bundle();
+
+        assertThat(mEncoder.encode(bundle)).isSameAs(bundle);
+        assertThat(mEncoder.encode(null)).isNull();
+    }
+
+    @Test
+    public void testApply_deltaWithoutPreviousState_dropped() throws Exception {
+        roundTrip(STATE);
+        Bundle delta = mEncoder.encode(newBundle(STATE.toBuilder().clearSteps().build()));
+
+        // Like a renderer which restarted without Car Service noticing.
+        assertThat(new NavigationStateDelta().apply(delta)).isNull();
+    }
+
+    /** Sends the given state from the encoder to the renderer, returning what it receives. */
+    private NavigationStateProto roundTrip(NavigationStateProto state) throws Exception {
+        Bundle received = mDelta.apply(mEncoder.encode(newBundle(state)));
+        return NavigationStateProto.parseFrom(received.getByteArray(KEY_NAVIGATION_STATE));
+    }
+
+    private static Bundle newBundle(NavigationStateProto state) {
+        return newBundle(state.toByteArray());
+    }
+
+    private static Bundle newBundle(byte[] state) {
+        Bundle bundle = new Bundle();
+        bundle.putByteArray(KEY_NAVIGATION_STATE, state);
+        return bundle;
+    }
+
+    /** Returns the serialized state with a varint field added by a newer version of the app. */
+    private static byte[] withUnknownField(NavigationStateProto state, int value) {
+        byte[] bytes = state.toByteArray();
+        byte[] result = Arrays.copyOf(bytes, bytes.length + 2);
+        result[bytes.length] = (byte) (UNKNOWN_FIELD_NUMBER << 3);
+        result[bytes.length + 1] = (byte) value;
+        return result;
+    }
+
+    private static Step newStep(Maneuver.Type type, int meters) {
+        return Step.newBuilder()
+                .setManeuver(Maneuver.newBuilder().setType(type))
+                .setDistance(Distance.newBuilder().setMeters(meters)
+                        .setDisplayValue(meters + " m")
+                        .setDisplayUnits(Distance.Unit.METERS))
+                .build();
+    }
+}
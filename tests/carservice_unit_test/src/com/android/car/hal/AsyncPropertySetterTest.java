@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.hal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.car.hardware.property.CarPropertyManager;
+import android.hardware.automotive.vehicle.V2_0.StatusCode;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ServiceSpecificException;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.car.vehiclehal.VehiclePropValueBuilder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class AsyncPropertySetterTest {
+    private static final int PROP_1 = 0x15600503;
+    private static final int PROP_2 = 0x15400500;
+    private static final int AREA_1 = 1;
+    private static final int AREA_2 = 4;
+    private static final long TIMEOUT_MS = 5_000;
+
+    private final List<String> mWritten = Collections.synchronizedList(new ArrayList<>());
+    private final List<int[]> mErrors = Collections.synchronizedList(new ArrayList<>());
+    // Writes of these int values wait for their latch, after releasing mBlockedWriteStarted.
+    private final Map<Integer, CountDownLatch> mBlockedWrites = new ConcurrentHashMap<>();
+    private final Semaphore mBlockedWriteStarted = new Semaphore(0);
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+    private RuntimeException mWriteException;
+    private AsyncPropertySetter mSetter;
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread(AsyncPropertySetterTest.class.getSimpleName());
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+        mSetter = new AsyncPropertySetter(mThread.getLooper(), value -> {
+            if (mWriteException != null) {
+                throw mWriteException;
+            }
+            CountDownLatch release = mBlockedWrites.get(value.value.int32Values.get(0));
+            if (release != null) {
+                mBlockedWriteStarted.release();
+                await(release);
+            }
+            mWritten.add(Integer.toHexString(value.prop) + "/" + value.areaId + "="
+                    + value.value.int32Values.get(0));
+        }, (prop, areaId, errorCode) -> mErrors.add(new int[] {prop, areaId, errorCode}));
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testSet_keepsLatestValuePerPropertyAndArea() throws Exception {
+        CountDownLatch stall = stallLooper();
+
+        mSetter.set(newValue(PROP_1, AREA_1, 1));
+        mSetter.set(newValue(PROP_1, AREA_2, 2));
+        mSetter.set(newValue(PROP_2, AREA_1, 3));
+        mSetter.set(newValue(PROP_1, AREA_1, 4));
+        mSetter.set(newValue(PROP_1, AREA_1, 5));
+        stall.countDown();
+        waitForLooper();
+
+        // The latest value of PROP_1/AREA_1 is written after the values set before it.
+        assertThat(mWritten).containsExactly(
+                Integer.toHexString(PROP_1) + "/" + AREA_2 + "=2",
+                Integer.toHexString(PROP_2) + "/" + AREA_1 + "=3",
+                Integer.toHexString(PROP_1) + "/" + AREA_1 + "=5").inOrder();
+        assertThat(mSetter.getCoalescedCount()).isEqualTo(2);
+        assertThat(mSetter.getWrittenCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void testSet_writesValuesSetAfterDrain() throws Exception {
+        mSetter.set(newValue(PROP_1, AREA_1, 1));
+        waitForLooper();
+        mSetter.set(newValue(PROP_1, AREA_1, 2));
+        waitForLooper();
+
+        assertThat(mWritten).hasSize(2);
+        assertThat(mSetter.getCoalescedCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSet_failure_reportsErrorCode() throws Exception {
+        mWriteException = new ServiceSpecificException(StatusCode.TRY_AGAIN);
+        mSetter.set(newValue(PROP_1, AREA_1, 1));
+        waitForLooper();
+        mWriteException = new IllegalArgumentException();
+        mSetter.set(newValue(PROP_2, AREA_2, 1));
+        waitForLooper();
+
+        assertThat(mErrors).hasSize(2);
+        assertThat(mErrors.get(0)).asList().containsExactly(PROP_1, AREA_1,
+                CarPropertyManager.CAR_SET_PROPERTY_ERROR_CODE_TRY_AGAIN).inOrder();
+        assertThat(mErrors.get(1)).asList().containsExactly(PROP_2, AREA_2,
+                CarPropertyManager.CAR_SET_PROPERTY_ERROR_CODE_INVALID_ARG).inOrder();
+    }
+
+    @Test
+    public void testAwaitWritten_waitsForPendingValue() throws Exception {
+        CountDownLatch stall = stallLooper();
+        mSetter.set(newValue(PROP_1, AREA_1, 1));
+
+        // Values of other properties and areas do not need to be written.
+        mSetter.awaitWritten(PROP_1, AREA_2);
+        assertThat(mWritten).isEmpty();
+
+        stall.countDown();
+        mSetter.awaitWritten(PROP_1, AREA_1);
+        assertThat(mWritten).hasSize(1);
+    }
+
+    @Test
+    public void testAwaitWritten_doesNotWaitForValuesSetAfterRead() throws Exception {
+        CountDownLatch release1 = blockWrite(1);
+        CountDownLatch release2 = blockWrite(2);
+        mSetter.set(newValue(PROP_1, AREA_1, 1));
+        assertThat(mBlockedWriteStarted.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+
+        Thread reader = new Thread(() -> mSetter.awaitWritten(PROP_1, AREA_1));
+        reader.start();
+        waitUntilWaiting(reader);
+        // Like a slider still being dragged while the value is read.
+        mSetter.set(newValue(PROP_1, AREA_1, 2));
+        release1.countDown();
+        reader.join(TIMEOUT_MS);
+
+        try {
+            assertThat(reader.isAlive()).isFalse();
+            assertThat(mWritten).containsExactly(Integer.toHexString(PROP_1) + "/" + AREA_1 + "=1");
+        } finally {
+            release2.countDown();
+        }
+    }
+
+    private static VehiclePropValue newValue(int prop, int areaId, int value) {
+        return VehiclePropValueBuilder.newBuilder(prop).setAreaId(areaId).addIntValue(value)
+                .build();
+    }
+
+    /** Blocks the writes of the given value until the returned latch is released. */
+    private CountDownLatch blockWrite(int value) {
+        CountDownLatch release = new CountDownLatch(1);
+        mBlockedWrites.put(value, release);
+        return release;
+    }
+
+    private static void waitUntilWaiting(Thread thread) throws InterruptedException {
+        long deadlineMs = System.currentTimeMillis() + TIMEOUT_MS;
+        while (thread.getState() != Thread.State.TIMED_WAITING) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadlineMs);
+            Thread.sleep(1);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Blocks the looper until the returned latch is released. */
+    private CountDownLatch stallLooper() {
+        CountDownLatch stall = new CountDownLatch(1);
+        mHandler.post(() -> await(stall));
+        return stall;
+    }
+
+    private void waitForLooper() throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(1);
+        mHandler.post(idle::countDown);
+        assertThat(idle.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.hal;
+
+import static com.android.car.hal.PropertyEventTracer.BUCKET_COUNT;
+import static com.android.car.hal.PropertyEventTracer.STAGE_CAR_PROPERTY_SERVICE;
+import static com.android.car.hal.PropertyEventTracer.STAGE_CLIENT;
+import static com.android.car.hal.PropertyEventTracer.STAGE_PROPERTY_HAL;
+import static com.android.car.hal.PropertyEventTracer.STAGE_TOTAL;
+import static com.android.car.hal.PropertyEventTracer.STAGE_VEHICLE_HAL;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.car.vehiclehal.VehiclePropValueBuilder;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class PropertyEventTracerTest {
+    private static final String TAG = PropertyEventTracerTest.class.getSimpleName();
+
+    private static final int PROP = 0x11600207;
+
+    private final PropertyEventTracer mTracer = new PropertyEventTracer();
+    private final List<VehiclePropValue> mValues =
+            Arrays.asList(VehiclePropValueBuilder.newBuilder(PROP).build());
+
+    @Test
+    public void testStartTrace_samplingOff_returnsNull() {
+        assertThat(mTracer.startTrace(mValues)).isNull();
+        assertThat(PropertyEventTracer.markStage(STAGE_VEHICLE_HAL)).isNull();
+    }
+
+    @Test
+    public void testStartTrace_samplesOneBatchOutOfInterval() {
+        mTracer.setSamplingInterval(3);
+
+        int traced = 0;
+        for (int i = 0; i < 9; i++) {
+            if (mTracer.startTrace(mValues) != null) {
+                traced++;
+            }
+        }
+
+        assertThat(traced).isEqualTo(3);
+    }
+
+    @Test
+    public void testTrace_recordsEveryStageReached() {
+        mTracer.setSamplingInterval(1);
+        PropertyEventTracer.Trace trace = mTracer.startTrace(mValues);
+
+        trace.begin();
+        assertThat(PropertyEventTracer.markStage(STAGE_VEHICLE_HAL)).isSameAs(trace);
+        PropertyEventTracer.markStage(STAGE_PROPERTY_HAL);
+        PropertyEventTracer.markStage(STAGE_CAR_PROPERTY_SERVICE);
+        trace.end();
+        trace.onDelivered();
+        trace.onDelivered();
+
+        assertThat(PropertyEventTracer.markStage(STAGE_VEHICLE_HAL)).isNull();
+        assertThat(getCount(STAGE_VEHICLE_HAL)).isEqualTo(1);
+        assertThat(getCount(STAGE_PROPERTY_HAL)).isEqualTo(1);
+        assertThat(getCount(STAGE_CAR_PROPERTY_SERVICE)).isEqualTo(1);
+        // One delivery per client.
+        assertThat(getCount(STAGE_CLIENT)).isEqualTo(2);
+        assertThat(getCount(STAGE_TOTAL)).isEqualTo(2);
+    }
+
+    @Test
+    public void testTrace_internalPropertyOnlyRecordsStagesReached() {
+        mTracer.setSamplingInterval(1);
+        PropertyEventTracer.Trace trace = mTracer.startTrace(mValues);
+
+        trace.begin();
+        PropertyEventTracer.markStage(STAGE_VEHICLE_HAL);
+        PropertyEventTracer.markStage(STAGE_PROPERTY_HAL);
+        trace.end();
+
+        assertThat(getCount(STAGE_PROPERTY_HAL)).isEqualTo(1);
+        assertThat(getCount(STAGE_CAR_PROPERTY_SERVICE)).isEqualTo(0);
+    }
+
+    @Test
+    public void testGetBucket() {
+        assertThat(PropertyEventTracer.getBucket(999)).isEqualTo(0);
+        assertThat(PropertyEventTracer.getBucket(1_000)).isEqualTo(1);
+        assertThat(PropertyEventTracer.getBucket(3_999)).isEqualTo(2);
+        assertThat(PropertyEventTracer.getBucket(4_000)).isEqualTo(3);
+        assertThat(PropertyEventTracer.getBucket(Long.MAX_VALUE)).isEqualTo(BUCKET_COUNT - 1);
+    }
+
+    @Test
+    public void testReset_clearsHistograms() {
+        mTracer.setSamplingInterval(1);
+        PropertyEventTracer.Trace trace = mTracer.startTrace(mValues);
+        trace.begin();
+        PropertyEventTracer.markStage(STAGE_VEHICLE_HAL);
+        trace.end();
+
+        mTracer.reset();
+
+        assertThat(mTracer.getHistogram(PROP, STAGE_VEHICLE_HAL)).isNull();
+    }
+
+    @Test
+    public void testOverhead_samplingOff() {
+        int events = 1_000_000;
+        int traced = 0;
+
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        for (int i = 0; i < events; i++) {
+            if (mTracer.startTrace(mValues) != null) {
+                traced++;
+            }
+            PropertyEventTracer.markStage(STAGE_VEHICLE_HAL);
+            PropertyEventTracer.markStage(STAGE_PROPERTY_HAL);
+            PropertyEventTracer.markStage(STAGE_CAR_PROPERTY_SERVICE);
+        }
+        long averageNs = (SystemClock.elapsedRealtimeNanos() - startNs) / events;
+        Log.i(TAG, "Average tracing overhead with sampling off: " + averageNs + "ns");
+
+        // Only logged: timings are not reliable enough on test devices and emulators to assert.
+        assertThat(traced).isEqualTo(0);
+    }
+
+    private long getCount(int stage) {
+        long[] histogram = mTracer.getHistogram(PROP, stage);
+        long count = 0;
+        for (long bucket : histogram) {
+            count += bucket;
+        }
+        return count;
+    }
+}
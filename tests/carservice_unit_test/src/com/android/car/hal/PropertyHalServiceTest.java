@@ -16,6 +16,15 @@
 
 package com.android.car.hal;
 
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import android.hardware.automotive.vehicle.V2_0.VehiclePropConfig;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
 import android.hardware.automotive.vehicle.V2_0.VehicleProperty;
 
 import androidx.test.runner.AndroidJUnit4;
@@ -30,6 +39,8 @@ import org.mockito.Mock;
 import org.mockito.junit.MockitoJUnit;
 import org.mockito.junit.MockitoRule;
 
+import java.util.List;
+
 @RunWith(AndroidJUnit4.class)
 public class PropertyHalServiceTest {
     @Rule
@@ -37,6 +48,10 @@ public class PropertyHalServiceTest {
 
     @Mock
     private VehicleHal mVehicleHal;
+    @Mock
+    private PropertyHalService.InternalPropertyListener mInternalListener;
+    @Mock
+    private PropertyHalService.PropertyHalListener mHalListener;
 
     private PropertyHalService mPropertyHalService;
     private static final int[] UNITS_PROPERTY_ID = {
@@ -65,4 +80,54 @@ public class PropertyHalServiceTest {
             Assert.assertTrue(mPropertyHalService.isDisplayUnitsProperty(propId));
         }
     }
+
+    @Test
+    public void testInternalListener_receivesPrimitiveValueWithoutCarPropertyEvent() {
+        mPropertyHalService.takeProperties(
+                List.of(createConfig(VehicleProperty.PERF_VEHICLE_SPEED)));
+        mPropertyHalService.setListener(mHalListener);
+
+        mPropertyHalService.registerInternalListener(VehicleProperty.PERF_VEHICLE_SPEED, 5f,
+                mInternalListener);
+        mPropertyHalService.onHalEvents(List.of(createSpeedValue(12.5f, 1000L)));
+
+        verify(mVehicleHal).subscribeProperty(mPropertyHalService,
+                VehicleProperty.PERF_VEHICLE_SPEED, 5f);
+        verify(mInternalListener).onFloatPropertyChanged(VehicleProperty.PERF_VEHICLE_SPEED, 0,
+                12.5f, 1000L);
+        verify(mHalListener, never()).onPropertyChange(any());
+    }
+
+    @Test
+    public void testUnregisterInternalListener_unsubscribesProperty() {
+        mPropertyHalService.takeProperties(
+                List.of(createConfig(VehicleProperty.PERF_VEHICLE_SPEED)));
+        mPropertyHalService.registerInternalListener(VehicleProperty.PERF_VEHICLE_SPEED, 5f,
+                mInternalListener);
+
+        mPropertyHalService.unregisterInternalListener(VehicleProperty.PERF_VEHICLE_SPEED,
+                mInternalListener);
+        mPropertyHalService.onHalEvents(List.of(createSpeedValue(12.5f, 1000L)));
+
+        verify(mVehicleHal).unsubscribeProperty(mPropertyHalService,
+                VehicleProperty.PERF_VEHICLE_SPEED);
+        verify(mInternalListener, never()).onFloatPropertyChanged(anyInt(), anyInt(), anyFloat(),
+                anyLong());
+    }
+
+    private static VehiclePropConfig createConfig(int propId) {
+        VehiclePropConfig config = new VehiclePropConfig();
+        config.prop = propId;
+        config.minSampleRate = 1f;
+        config.maxSampleRate = 10f;
+        return config;
+    }
+
+    private static VehiclePropValue createSpeedValue(float speed, long timestamp) {
+        VehiclePropValue value = new VehiclePropValue();
+        value.prop = VehicleProperty.PERF_VEHICLE_SPEED;
+        value.timestamp = timestamp;
+        value.value.floatValues.add(speed);
+        return value;
+    }
 }
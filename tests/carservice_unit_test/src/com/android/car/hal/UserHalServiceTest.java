@@ -1392,6 +1392,73 @@ public final class UserHalServiceTest {
         assertThat(actualAssociation.value).isEqualTo(ASSOCIATED_CURRENT_USER);
     }
 
+    @Test
+    public void testPipeline_requestsOfDifferentTypesAnsweredOutOfOrder() throws Exception {
+        AtomicReference<VehiclePropValue> initialUserInfoRequest =
+                captureSetPropertyWithoutReply(INITIAL_USER_INFO);
+        AtomicReference<VehiclePropValue> associationRequest =
+                captureSetPropertyWithoutReply(USER_IDENTIFICATION_ASSOCIATION);
+        GenericHalCallback<InitialUserInfoResponse> initialUserInfoCallback =
+                new GenericHalCallback<>(CALLBACK_TIMEOUT_SUCCESS);
+        GenericHalCallback<UserIdentificationResponse> associationCallback =
+                new GenericHalCallback<>(CALLBACK_TIMEOUT_SUCCESS);
+
+        mUserHalService.getInitialUserInfo(COLD_BOOT, TIMEOUT_MS, mUsersInfo,
+                initialUserInfoCallback);
+        mUserHalService.setUserAssociation(TIMEOUT_MS, validUserIdentificationSetRequest(),
+                associationCallback);
+
+        // Both requests are in flight; the HAL answers the second one first
+        VehiclePropValue associationResponse = new VehiclePropValue();
+        associationResponse.prop = USER_IDENTIFICATION_ASSOCIATION;
+        associationResponse.value.int32Values.add(
+                associationRequest.get().value.int32Values.get(0));
+        associationResponse.value.int32Values.add(1); // 1 association
+        associationResponse.value.int32Values.add(KEY_FOB);
+        associationResponse.value.int32Values.add(ASSOCIATED_CURRENT_USER);
+        VehiclePropValue initialUserInfoResponse = UserHalHelper.createPropRequest(
+                INITIAL_USER_INFO, initialUserInfoRequest.get().value.int32Values.get(0),
+                InitialUserInfoResponseAction.DEFAULT);
+        mUserHalService.onHalEvents(Arrays.asList(associationResponse, initialUserInfoResponse));
+
+        associationCallback.assertCalled();
+        assertCallbackStatus(associationCallback, HalCallback.STATUS_OK);
+        initialUserInfoCallback.assertCalled();
+        assertCallbackStatus(initialUserInfoCallback, HalCallback.STATUS_OK);
+        assertThat(initialUserInfoCallback.response.action)
+                .isEqualTo(InitialUserInfoResponseAction.DEFAULT);
+        assertThat(mUserHalService.getRoundTripLatency(INITIAL_USER_INFO).getCount())
+                .isEqualTo(1);
+        assertThat(mUserHalService.getRoundTripLatency(USER_IDENTIFICATION_ASSOCIATION)
+                .getCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testPipeline_eachRequestTimesOutAtItsOwnDeadline() throws Exception {
+        captureSetPropertyWithoutReply(INITIAL_USER_INFO);
+        captureSetPropertyWithoutReply(CREATE_USER);
+        GenericHalCallback<CreateUserResponse> createUserCallback =
+                new GenericHalCallback<>(CALLBACK_TIMEOUT_TIMEOUT);
+        GenericHalCallback<InitialUserInfoResponse> initialUserInfoCallback =
+                new GenericHalCallback<>(CALLBACK_TIMEOUT_TIMEOUT);
+        long startMs = SystemClock.uptimeMillis();
+
+        // Longer timeout goes first, so the timeout checker must be moved earlier
+        mUserHalService.createUser(newValidCreateUserRequest(), TIMEOUT_MS * 4,
+                createUserCallback);
+        mUserHalService.getInitialUserInfo(COLD_BOOT, TIMEOUT_MS, mUsersInfo,
+                initialUserInfoCallback);
+
+        initialUserInfoCallback.assertCalled();
+        assertCallbackStatus(initialUserInfoCallback, HalCallback.STATUS_HAL_RESPONSE_TIMEOUT);
+        assertThat(SystemClock.uptimeMillis() - startMs).isLessThan(TIMEOUT_MS * 4L);
+
+        createUserCallback.assertCalled();
+        assertCallbackStatus(createUserCallback, HalCallback.STATUS_HAL_RESPONSE_TIMEOUT);
+        assertThat(SystemClock.uptimeMillis() - startMs).isAtLeast(TIMEOUT_MS * 4L);
+        assertThat(mUserHalService.getRoundTripLatency(CREATE_USER).getCount()).isEqualTo(0);
+    }
+
     /**
      * Asserts the given {@link UsersInfo} is properly represented in the {@link VehiclePropValue}.
      *
@@ -1456,6 +1523,22 @@ public final class UserHalServiceTest {
         return ref;
     }
 
+    /**
+     * Sets the VHAL mock to accept a request without replying, so the test can reply later by
+     * calling {@code onHalEvents()}.
+     *
+     * @return reference to the value passed to {@code set()}.
+     */
+    private AtomicReference<VehiclePropValue> captureSetPropertyWithoutReply(int prop)
+            throws Exception {
+        AtomicReference<VehiclePropValue> ref = new AtomicReference<>();
+        doAnswer((inv) -> {
+            ref.set(inv.getArgument(0));
+            return null;
+        }).when(mVehicleHal).set(isProperty(prop));
+        return ref;
+    }
+
     /**
      * Sets the VHAL mock to emulate a property timeout exception upon a call to set a property.
      */
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.hal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.expectThrows;
+
+import android.hardware.automotive.vehicle.V2_0.IVehicle;
+import android.hardware.automotive.vehicle.V2_0.IVehicleCallback;
+import android.hardware.automotive.vehicle.V2_0.StatusCode;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.os.Looper;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.car.vehiclehal.VehiclePropValueBuilder;
+import com.android.car.vehiclehal.VehiclePropValueLog;
+import com.android.car.vehiclehal.VehiclePropValueLog.Record;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(AndroidJUnit4.class)
+public class VehicleHalRecorderTest {
+    private static final int PROP = 0x11600207;
+    private static final int AREA_ID = 4;
+
+    @Rule
+    public MockitoRule rule = MockitoJUnit.rule();
+
+    @Mock
+    private IVehicle mVehicle;
+    @Mock
+    private IVehicleCallback mCallback;
+
+    private final ByteArrayOutputStream mLog = new ByteArrayOutputStream();
+
+    @Test
+    public void testRecordEvents_roundTripsEveryField() throws Exception {
+        VehicleHalRecorder recorder = new VehicleHalRecorder(mLog);
+        VehiclePropValue value = VehiclePropValueBuilder.newBuilder(PROP)
+                .setAreaId(AREA_ID)
+                .setTimestamp(1234L)
+                .addIntValue(1, -2)
+                .addFloatValue(3.5f)
+                .setInt64Value(Long.MAX_VALUE)
+                .addByteValue((byte) 7)
+                .setStringValue("résumé")
+                .build();
+        value.status = 1;
+        VehiclePropValue noString = VehiclePropValueBuilder.newBuilder(PROP).build();
+        noString.value.stringValue = null;
+
+        recorder.recordEvents(Arrays.asList(value, noString));
+        recorder.close();
+
+        List<Record> records = readRecords(mLog.toByteArray());
+        assertThat(records).hasSize(2);
+        assertThat(records.get(0).type).isEqualTo(VehiclePropValueLog.RECORD_TYPE_EVENT);
+        assertThat(records.get(0).status).isEqualTo(StatusCode.OK);
+        assertThat(records.get(0).elapsedRealtimeNanos).isGreaterThan(0L);
+        assertThat(records.get(0).value).isEqualTo(value);
+        assertThat(records.get(1).value).isEqualTo(noString);
+    }
+
+    @Test
+    public void testRead_truncatedLastRecord_returnsCompleteRecords() throws Exception {
+        VehicleHalRecorder recorder = new VehicleHalRecorder(mLog);
+        recorder.recordEvents(Arrays.asList(VehiclePropValueBuilder.newBuilder(PROP).build(),
+                VehiclePropValueBuilder.newBuilder(PROP).addIntValue(1).build()));
+        recorder.close();
+        byte[] bytes = mLog.toByteArray();
+
+        List<Record> records = readRecords(Arrays.copyOf(bytes, bytes.length - 3));
+
+        assertThat(records).hasSize(1);
+    }
+
+    @Test
+    public void testRead_notALog_throws() {
+        expectThrows(IOException.class, () -> readRecords(new byte[] {1, 2, 3, 4, 5, 6, 7, 8}));
+    }
+
+    @Test
+    public void testClose_dropsLaterRecords() throws Exception {
+        VehicleHalRecorder recorder = new VehicleHalRecorder(mLog);
+        recorder.close();
+
+        recorder.recordSet(StatusCode.OK, VehiclePropValueBuilder.newBuilder(PROP).build());
+
+        assertThat(readRecords(mLog.toByteArray())).isEmpty();
+    }
+
+    @Test
+    public void testHalClient_recordsGetAndSetResults() throws Exception {
+        HalClient client = new HalClient(mVehicle, Looper.getMainLooper(), mCallback,
+                /* waitCapMs= */ 0, /* sleepMs= */ 0);
+        VehicleHalRecorder recorder = new VehicleHalRecorder(mLog);
+        client.setRecorder(recorder);
+        VehiclePropValue request = VehiclePropValueBuilder.newBuilder(PROP).build();
+        VehiclePropValue result = VehiclePropValueBuilder.newBuilder(PROP).addIntValue(9).build();
+        doAnswerGet(StatusCode.OK, result);
+        when(mVehicle.set(any())).thenReturn(StatusCode.INVALID_ARG);
+
+        client.getValue(request);
+        expectThrows(IllegalArgumentException.class, () -> client.setValue(request));
+        recorder.close();
+
+        List<Record> records = readRecords(mLog.toByteArray());
+        assertThat(records).hasSize(2);
+        assertThat(records.get(0).type).isEqualTo(VehiclePropValueLog.RECORD_TYPE_GET);
+        assertThat(records.get(0).value).isEqualTo(result);
+        assertThat(records.get(1).type).isEqualTo(VehiclePropValueLog.RECORD_TYPE_SET);
+        assertThat(records.get(1).status).isEqualTo(StatusCode.INVALID_ARG);
+        assertThat(records.get(1).value).isEqualTo(request);
+    }
+
+    private void doAnswerGet(int status, VehiclePropValue value) throws Exception {
+        doAnswer(invocation -> {
+            IVehicle.getCallback callback = invocation.getArgument(1);
+            callback.onValues(status, value);
+            return null;
+        }).when(mVehicle).get(any(), any());
+    }
+
+    private static List<Record> readRecords(byte[] bytes) throws IOException {
+        try (VehiclePropValueLog.Reader reader =
+                new VehiclePropValueLog.Reader(new ByteArrayInputStream(bytes))) {
+            return reader.readAll();
+        }
+    }
+}
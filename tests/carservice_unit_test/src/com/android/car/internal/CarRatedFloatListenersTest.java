@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.android.car.internal.CarRatedFloatListeners.Listeners;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CarRatedFloatListenersTest {
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private static final class TestListeners extends CarRatedFloatListeners<String> {
+        TestListeners(float rate) {
+            super(rate);
+        }
+    }
+
+    @Test
+    public void testAddAndUpdateRate_keepsMaxRate() {
+        TestListeners listeners = new TestListeners(1f);
+
+        assertThat(listeners.addAndUpdateRate("slow", 1f)).isFalse();
+        assertThat(listeners.addAndUpdateRate("fast", 10f)).isTrue();
+        assertThat(listeners.getRate()).isEqualTo(10f);
+
+        // Lowering the rate of the fastest listener lowers the overall rate.
+        assertThat(listeners.addAndUpdateRate("fast", 5f)).isTrue();
+        assertThat(listeners.getRate()).isEqualTo(5f);
+        assertThat(listeners.getListeners()).containsExactly("slow", "fast");
+    }
+
+    @Test
+    public void testRemove_updatesRate() {
+        TestListeners listeners = new TestListeners(1f);
+        listeners.addAndUpdateRate("slow", 1f);
+        listeners.addAndUpdateRate("fast", 10f);
+
+        assertThat(listeners.remove("fast")).isTrue();
+        assertThat(listeners.getRate()).isEqualTo(1f);
+        assertThat(listeners.contains("fast")).isFalse();
+        assertThat(listeners.remove("slow")).isFalse();
+        assertThat(listeners.isEmpty()).isTrue();
+    }
+
+    @Test
+    public void testNeedUpdate_throttlesEachListenerToItsRate() {
+        TestListeners listeners = new TestListeners(0f);
+        listeners.addAndUpdateRate("onChange", 0f);
+        listeners.addAndUpdateRate("oneHz", 1f);
+        Listeners<String> snapshot = listeners.getListenersSnapshot();
+
+        assertThat(snapshot.needUpdate(0, 0)).isTrue();
+        assertThat(snapshot.needUpdate(1, 0)).isTrue();
+        assertThat(snapshot.needUpdate(0, NANOS_PER_SECOND / 2)).isTrue();
+        assertThat(snapshot.needUpdate(1, NANOS_PER_SECOND / 2)).isFalse();
+        assertThat(snapshot.needUpdate(1, NANOS_PER_SECOND)).isTrue();
+    }
+
+    @Test
+    public void testSnapshot_notAffectedByLaterChanges() {
+        TestListeners listeners = new TestListeners(1f);
+        listeners.addAndUpdateRate("first", 1f);
+        Listeners<String> snapshot = listeners.getListenersSnapshot();
+
+        listeners.addAndUpdateRate("second", 1f);
+        listeners.remove("first");
+
+        assertThat(snapshot.size()).isEqualTo(1);
+        assertThat(snapshot.get(0)).isEqualTo("first");
+        assertThat(listeners.getListenersSnapshot().get(0)).isEqualTo("second");
+    }
+
+    @Test
+    public void testNeedUpdate_hundredHzEvents_notifiesEachListenerAtItsRate() {
+        TestListeners listeners = new TestListeners(0f);
+        listeners.addAndUpdateRate("onChange", 0f);
+        listeners.addAndUpdateRate("tenHz", 10f);
+        listeners.addAndUpdateRate("hundredHz", 100f);
+        Listeners<String> snapshot = listeners.getListenersSnapshot();
+        int[] notified = new int[snapshot.size()];
+
+        // One second of 100Hz events.
+        for (int event = 0; event < 100; event++) {
+            long timestamp = event * NANOS_PER_SECOND / 100;
+            for (int i = 0; i < snapshot.size(); i++) {
+                if (snapshot.needUpdate(i, timestamp)) {
+                    notified[i]++;
+                }
+            }
+        }
+
+        assertThat(notified).asList().containsExactly(100, 10, 100).inOrder();
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.internal;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(AndroidJUnit4.class)
+public class SingleMessageHandlerTest {
+    private static final int MSG_EVENT = 1;
+    private static final long TIMEOUT_MS = 5_000;
+
+    /** Event whose name starts with "c" can be coalesced with events of the same key. */
+    private static final class TestEvent {
+        final String mName;
+        final int mKey;
+
+        TestEvent(String name, int key) {
+            mName = name;
+            mKey = key;
+        }
+    }
+
+    private final List<String> mHandledEvents = new ArrayList<>();
+
+    private HandlerThread mThread;
+    private Handler mHandler;
+
+    @Before
+    public void setUp() {
+        mThread = new HandlerThread(SingleMessageHandlerTest.class.getSimpleName());
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @After
+    public void tearDown() {
+        mThread.quitSafely();
+    }
+
+    @Test
+    public void testSendEvents_notCoalescing_deliversEveryEvent() throws Exception {
+        SingleMessageHandler<TestEvent> handler = createHandler(/* coalescing= */ false);
+        CountDownLatch stall = stallLooper();
+
+        handler.sendEvents(Arrays.asList(new TestEvent("c1", 1), new TestEvent("c2", 1)));
+        handler.sendEvents(Arrays.asList(new TestEvent("c3", 1)));
+        stall.countDown();
+        waitForLooper();
+
+        assertThat(mHandledEvents).containsExactly("c1", "c2", "c3").inOrder();
+        assertThat(handler.getCoalescedEventCount()).isEqualTo(0);
+    }
+
+    @Test
+    public void testSendEvents_coalescing_keepsLatestValuePerKey() throws Exception {
+        SingleMessageHandler<TestEvent> handler = createHandler(/* coalescing= */ true);
+        CountDownLatch stall = stallLooper();
+
+        handler.sendEvents(Arrays.asList(new TestEvent("c1", 1), new TestEvent("e1", 1),
+                new TestEvent("c2", 2)));
+        handler.sendEvents(Arrays.asList(new TestEvent("c3", 1), new TestEvent("e2", 1)));
+        handler.sendEvents(Arrays.asList(new TestEvent("c4", 1)));
+        stall.countDown();
+        waitForLooper();
+
+        // The latest event of key 1 replaces the earlier ones and is delivered last, after the
+        // events sent before it.
+        assertThat(mHandledEvents).containsExactly("e1", "c2", "e2", "c4").inOrder();
+        assertThat(handler.getCoalescedEventCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSendEvents_coalescing_manyReplacedEvents_keepsOrder() throws Exception {
+        SingleMessageHandler<TestEvent> handler = createHandler(/* coalescing= */ true);
+        CountDownLatch stall = stallLooper();
+
+        for (int i = 0; i < 100; i++) {
+            handler.sendEvents(Arrays.asList(new TestEvent("c" + i, 1)));
+            if (i == 50) {
+                handler.sendEvents(Arrays.asList(new TestEvent("e1", 1)));
+            }
+        }
+        stall.countDown();
+        waitForLooper();
+
+        assertThat(mHandledEvents).containsExactly("e1", "c99").inOrder();
+        assertThat(handler.getCoalescedEventCount()).isEqualTo(99);
+    }
+
+    @Test
+    public void testSendEvents_coalescing_deliversEventsSentAfterDispatch() throws Exception {
+        SingleMessageHandler<TestEvent> handler = createHandler(/* coalescing= */ true);
+
+        handler.sendEvents(Arrays.asList(new TestEvent("c1", 1)));
+        waitForLooper();
+        handler.sendEvents(Arrays.asList(new TestEvent("c2", 1)));
+        waitForLooper();
+
+        assertThat(mHandledEvents).containsExactly("c1", "c2").inOrder();
+        assertThat(handler.getCoalescedEventCount()).isEqualTo(0);
+    }
+
+    private SingleMessageHandler<TestEvent> createHandler(boolean coalescing) {
+        return new SingleMessageHandler<TestEvent>(mThread.getLooper(), MSG_EVENT, coalescing) {
+            @Override
+            protected boolean canCoalesce(TestEvent event) {
+                return event.mName.startsWith("c");
+            }
+
+            @Override
+            protected long getCoalescingKey(TestEvent event) {
+                return event.mKey;
+            }
+
+            @Override
+            protected void handleEvent(TestEvent event) {
+                mHandledEvents.add(event.mName);
+            }
+        };
+    }
+
+    /** Blocks the looper until the returned latch is released. */
+    private CountDownLatch stallLooper() {
+        CountDownLatch stall = new CountDownLatch(1);
+        mHandler.post(() -> {
+            try {
+                stall.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        return stall;
+    }
+
+    private void waitForLooper() throws InterruptedException {
+        CountDownLatch idle = new CountDownLatch(1);
+        mHandler.post(idle::countDown);
+        assertThat(idle.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)).isTrue();
+    }
+}
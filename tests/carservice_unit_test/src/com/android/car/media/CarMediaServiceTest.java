@@ -26,10 +26,12 @@ import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.notNull;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -40,6 +42,7 @@ import android.car.test.mocks.AbstractExtendedMockitoTestCase;
 import android.car.test.mocks.AndroidMockitoHelper;
 import android.content.ComponentName;
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.pm.ServiceInfo;
@@ -72,6 +75,7 @@ public class CarMediaServiceTest extends AbstractExtendedMockitoTestCase {
     private static final String MEDIA_CLASS2 = "test_class2";
 
     private static final int TEST_USER_ID = 100;
+    private static final long HISTORY_WRITE_TIMEOUT_MS = 5_000;
 
     private static final ComponentName MEDIA_COMPONENT =
             new ComponentName(MEDIA_PACKAGE, MEDIA_CLASS);
@@ -84,6 +88,8 @@ public class CarMediaServiceTest extends AbstractExtendedMockitoTestCase {
     @Mock private UserManager mUserManager;
     @Mock private PackageManager mPackageManager;
     @Mock private MediaSessionManager mMediaSessionManager;
+    @Mock private SharedPreferences mSharedPrefs;
+    @Mock private SharedPreferences.Editor mEditor;
 
     private CarMediaService mCarMediaService;
 
@@ -240,6 +246,42 @@ public class CarMediaServiceTest extends AbstractExtendedMockitoTestCase {
         assertThat(mCarMediaService.isMediaService(MEDIA_COMPONENT)).isFalse();
     }
 
+    @Test
+    public void testGetLastMediaSources_readsPreferencesOnce() {
+        initializeMockPackageManager(MEDIA_CLASS, MEDIA_CLASS2);
+        mockUserUnlocked(true);
+        mockSharedPreferences(
+                MEDIA_COMPONENT2.flattenToString() + "," + MEDIA_COMPONENT.flattenToString());
+
+        mCarMediaService.init();
+
+        assertThat(mCarMediaService.getLastMediaSources(MEDIA_SOURCE_MODE_PLAYBACK))
+                .containsExactly(MEDIA_COMPONENT2, MEDIA_COMPONENT).inOrder();
+        assertThat(mCarMediaService.getLastMediaSources(MEDIA_SOURCE_MODE_PLAYBACK))
+                .containsExactly(MEDIA_COMPONENT2, MEDIA_COMPONENT).inOrder();
+        verify(mSharedPrefs).getString(eq(getMediaSourceKey(MEDIA_SOURCE_MODE_PLAYBACK)), any());
+    }
+
+    @Test
+    public void testSetMediaSource_coalescesHistoryWrites() {
+        initializeMockPackageManager();
+        mockUserUnlocked(true);
+        mockSharedPreferences("");
+        mCarMediaService.init();
+
+        mCarMediaService.setMediaSource(MEDIA_COMPONENT, MEDIA_SOURCE_MODE_PLAYBACK);
+        mCarMediaService.setMediaSource(MEDIA_COMPONENT2, MEDIA_SOURCE_MODE_PLAYBACK);
+
+        assertThat(mCarMediaService.getLastMediaSources(MEDIA_SOURCE_MODE_PLAYBACK))
+                .containsExactly(MEDIA_COMPONENT2, MEDIA_COMPONENT).inOrder();
+        verify(mEditor, timeout(HISTORY_WRITE_TIMEOUT_MS)).apply();
+        verify(mSharedPrefs).edit();
+        String history =
+                MEDIA_COMPONENT2.flattenToString() + "," + MEDIA_COMPONENT.flattenToString();
+        verify(mEditor).putString(getMediaSourceKey(MEDIA_SOURCE_MODE_PLAYBACK), history);
+        verify(mEditor).putString(getMediaSourceKey(MEDIA_SOURCE_MODE_BROWSE), history);
+    }
+
     // Tests that PlaybackState changing to STATE_PLAYING will result the media source changing
     @Test
     public void testActiveSessionListener_StatePlayingChangesSource() {
@@ -299,6 +341,23 @@ public class CarMediaServiceTest extends AbstractExtendedMockitoTestCase {
         when(mUserManager.isUserUnlocked(anyInt())).thenReturn(unlocked);
     }
 
+    // Stores the given serialized history for both modes of the test user.
+    private void mockSharedPreferences(String history) {
+        when(mContext.getSharedPreferences(anyString(), anyInt())).thenReturn(mSharedPrefs);
+        when(mSharedPrefs.getString(anyString(), any())).thenReturn("");
+        when(mSharedPrefs.getString(eq(getMediaSourceKey(MEDIA_SOURCE_MODE_PLAYBACK)), any()))
+                .thenReturn(history);
+        when(mSharedPrefs.getString(eq(getMediaSourceKey(MEDIA_SOURCE_MODE_BROWSE)), any()))
+                .thenReturn(history);
+        when(mSharedPrefs.edit()).thenReturn(mEditor);
+        when(mEditor.putString(anyString(), any())).thenReturn(mEditor);
+        when(mEditor.putInt(anyString(), anyInt())).thenReturn(mEditor);
+    }
+
+    private static String getMediaSourceKey(int mode) {
+        return "media_source_component" + mode + "_" + TEST_USER_ID;
+    }
+
     private ICarMediaSourceListener mockMediaSourceListener() {
         ICarMediaSourceListener listener = mock(ICarMediaSourceListener.class);
         when(listener.asBinder()).thenReturn(mock(IBinder.class));
@@ -38,6 +38,7 @@ import org.mockito.junit.MockitoRule;
 
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.concurrent.CountDownLatch;
 
 @SmallTest
 @RunWith(JUnit4.class)
@@ -332,6 +333,37 @@ public class CarStatsServiceTest {
                         + "10102,2,3,4,2,1,0,0,0,0\n");
     }
 
+    @Test
+    public void testLogPackets_ConcurrentPublishers() throws Exception {
+        int threadCount = 4;
+        int packetsPerThread = 10000;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            threads[i] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int j = 0; j < packetsPerThread; j++) {
+                    mCarStatsService.getVmsClientLogger(CLIENT_UID)
+                            .logPacketSent(LAYER, 2);
+                    mCarStatsService.getVmsClientLogger(CLIENT_UID)
+                            .logPacketReceived(LAYER, 1);
+                }
+            });
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        validateClientStats("10101,1,2,3,80000,40000,40000,40000,0,0");
+    }
+
 
     private void validateConnectionStats(String vmsConnectionStats) {
         validateDumpsys(vmsConnectionStats + "\n", "");
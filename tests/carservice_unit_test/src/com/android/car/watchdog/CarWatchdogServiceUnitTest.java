@@ -41,6 +41,8 @@ import android.os.ServiceManager;
 import android.os.SystemClock;
 import android.os.UserManager;
 
+import com.android.car.LatencyHistogram;
+
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -125,6 +127,35 @@ public class CarWatchdogServiceUnitTest extends AbstractExtendedMockitoTestCase
         testClientHealthCheck(new BadTestClient(), 1);
     }
 
+    @Test
+    public void testClientResponseLatencyRecorded() throws Exception {
+        TestClient client = new TestClient();
+        mCarWatchdogService.registerClient(client, TIMEOUT_CRITICAL);
+
+        mClientImpl.checkIfAlive(123456, TIMEOUT_CRITICAL);
+        // Health checks are handled in order, so the ping of the first check has been answered
+        // once the second check is reported.
+        mClientImpl.checkIfAlive(987654, TIMEOUT_CRITICAL);
+        verify(mCarWatchdogDaemon, timeout(MAX_WAIT_TIME_MS)).tellMediatorAlive(eq(mClientImpl),
+                any(int[].class), eq(987654));
+
+        LatencyHistogram latency = mCarWatchdogService.getClientResponseLatency(client);
+        assertThat(latency.getCount()).isAtLeast(1L);
+        assertThat(latency.getMax()).isLessThan(3000L);
+    }
+
+    @Test
+    public void testClientResponseLatencyNotRecordedForBadClient() throws Exception {
+        BadTestClient client = new BadTestClient();
+        mCarWatchdogService.registerClient(client, TIMEOUT_CRITICAL);
+
+        mClientImpl.checkIfAlive(123456, TIMEOUT_CRITICAL);
+        verify(mCarWatchdogDaemon, timeout(MAX_WAIT_TIME_MS)).tellMediatorAlive(eq(mClientImpl),
+                any(int[].class), eq(123456));
+
+        assertThat(mCarWatchdogService.getClientResponseLatency(client).getCount()).isEqualTo(0);
+    }
+
     @Override
     protected void onSessionBuilder(CustomMockitoSessionBuilder builder) {
         builder.spyStatic(ServiceManager.class);
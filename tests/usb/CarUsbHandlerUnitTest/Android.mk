@@ -0,0 +1,52 @@
+# Copyright (C) 2020 The Android Open Source Project
+#
+# Licensed under the Apache License, Version 2.0 (the "License");
+# you may not use this file except in compliance with the License.
+# You may obtain a copy of the License at
+#
+#      http://www.apache.org/licenses/LICENSE-2.0
+#
+# Unless required by applicable law or agreed to in writing, software
+# distributed under the License is distributed on an "AS IS" BASIS,
+# WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+# See the License for the specific language governing permissions and
+# limitations under the License.
+#
+#
+
+LOCAL_PATH:= $(call my-dir)
+
+include $(CLEAR_VARS)
+
+# Built with the sources of CarUsbHandler, so the tests can use its package-private classes.
+LOCAL_SRC_FILES := \
+    $(call all-java-files-under, src) \
+    $(call all-java-files-under, ../../../car-usb-handler/src)
+
+LOCAL_RESOURCE_DIR += packages/services/Car/car-usb-handler/res
+
+LOCAL_AAPT_FLAGS += --extra-packages android.car.usb.handler --auto-add-overlay
+
+LOCAL_PACKAGE_NAME := CarUsbHandlerUnitTest
+LOCAL_PRIVATE_PLATFORM_APIS := true
+
+LOCAL_CERTIFICATE := platform
+
+LOCAL_MODULE_TAGS := tests
+
+LOCAL_MODULE_PATH := $(TARGET_OUT_DATA_APPS)
+
+LOCAL_PROGUARD_ENABLED := disabled
+
+LOCAL_JAVA_LIBRARIES := android.car android.test.runner android.test.base
+
+LOCAL_STATIC_JAVA_LIBRARIES := \
+    androidx.test.core \
+    androidx.test.ext.junit \
+    androidx.test.rules \
+    mockito-target \
+    truth-prebuilt
+
+LOCAL_COMPATIBILITY_SUITE := general-tests
+
+include $(BUILD_PACKAGE)
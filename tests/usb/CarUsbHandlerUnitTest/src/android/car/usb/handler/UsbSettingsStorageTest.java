@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package android.car.usb.handler;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class UsbSettingsStorageTest {
+    private static final String SERIAL = "serial1";
+    private static final int VID = 0x1234;
+    private static final int PID = 0x5678;
+    // Google vendor id and an accessory mode product id.
+    private static final int AOAP_VID = 0x18D1;
+    private static final int AOAP_PID = 0x2D00;
+    private static final ComponentName HANDLER =
+            new ComponentName("com.android.car.test", "UsbHandlerActivity");
+
+    private final Context mContext = ApplicationProvider.getApplicationContext();
+
+    private UsbSettingsStorage mStorage;
+
+    @Before
+    public void setUp() {
+        deleteDatabase();
+        mStorage = new UsbSettingsStorage(mContext);
+    }
+
+    @After
+    public void tearDown() {
+        deleteDatabase();
+    }
+
+    @Test
+    public void testGetSettings_savedSerial_returnsSettings() {
+        mStorage.saveSettings(newSettings(SERIAL, VID, PID, /* aoap= */ false));
+
+        UsbDeviceSettings settings = mStorage.getSettings(newDevice(SERIAL, VID, PID));
+
+        assertThat(settings).isNotNull();
+        assertThat(settings.getSerialNumber()).isEqualTo(SERIAL);
+        assertThat(settings.getHandler()).isEqualTo(HANDLER);
+    }
+
+    @Test
+    public void testGetSettings_otherSerial_returnsNull() {
+        mStorage.saveSettings(newSettings(SERIAL, VID, PID, /* aoap= */ false));
+
+        assertThat(mStorage.getSettings(newDevice("serial2", VID, PID))).isNull();
+    }
+
+    @Test
+    public void testGetSettings_otherProduct_returnsNull() {
+        mStorage.saveSettings(newSettings(SERIAL, VID, PID, /* aoap= */ false));
+
+        assertThat(mStorage.getSettings(newDevice(SERIAL, VID, PID + 1))).isNull();
+    }
+
+    @Test
+    public void testGetSettings_aoapDevice_savedForAoap_returnsSettings() {
+        mStorage.saveSettings(newSettings(SERIAL, AOAP_VID, AOAP_PID, /* aoap= */ true));
+
+        UsbDeviceSettings settings = mStorage.getSettings(newDevice(SERIAL, AOAP_VID, AOAP_PID));
+
+        assertThat(settings).isNotNull();
+        assertThat(settings.getAoap()).isTrue();
+    }
+
+    @Test
+    public void testGetSettings_aoapDevice_notSavedForAoap_returnsNull() {
+        mStorage.saveSettings(newSettings(SERIAL, AOAP_VID, AOAP_PID, /* aoap= */ false));
+
+        assertThat(mStorage.getSettings(newDevice(SERIAL, AOAP_VID, AOAP_PID))).isNull();
+    }
+
+    @Test
+    public void testGetSettings_aoapDeviceWithoutSerial_returnsNull() {
+        mStorage.saveSettings(newSettings(null, AOAP_VID, AOAP_PID, /* aoap= */ true));
+
+        assertThat(mStorage.getSettings(newDevice(null, AOAP_VID, AOAP_PID))).isNull();
+    }
+
+    @Test
+    public void testGetSettings_deleted_returnsNull() {
+        mStorage.saveSettings(newSettings(SERIAL, VID, PID, /* aoap= */ false));
+
+        mStorage.deleteSettings(SERIAL, VID, PID);
+
+        assertThat(mStorage.getSettings(newDevice(SERIAL, VID, PID))).isNull();
+    }
+
+    @Test
+    public void testGetSettings_newStorage_readsSavedSettings() {
+        mStorage.saveSettings(newSettings(SERIAL, VID, PID, /* aoap= */ false));
+
+        UsbSettingsStorage storage = new UsbSettingsStorage(mContext);
+
+        assertThat(storage.getSettings(newDevice(SERIAL, VID, PID))).isNotNull();
+        assertThat(storage.getSettings(newDevice("serial2", VID, PID))).isNull();
+    }
+
+    @Test
+    public void testGetSettings_changingResult_doesNotChangeStoredSettings() {
+        mStorage.saveSettings(newSettings(SERIAL, VID, PID, /* aoap= */ false));
+        UsbDevice device = newDevice(SERIAL, VID, PID);
+
+        mStorage.getSettings(device).setHandler(new ComponentName("other", "Handler"));
+
+        assertThat(mStorage.getSettings(device).getHandler()).isEqualTo(HANDLER);
+    }
+
+    private void deleteDatabase() {
+        mContext.createDeviceProtectedStorageContext()
+                .deleteDatabase(UsbSettingsStorage.DATABASE_NAME);
+    }
+
+    private static UsbDeviceSettings newSettings(String serial, int vid, int pid, boolean aoap) {
+        return UsbDeviceSettings.constructSettings(serial, vid, pid, "Test device", HANDLER, aoap);
+    }
+
+    private static UsbDevice newDevice(String serial, int vid, int pid) {
+        UsbDevice device = mock(UsbDevice.class);
+        when(device.getSerialNumber()).thenReturn(serial);
+        when(device.getVendorId()).thenReturn(vid);
+        when(device.getProductId()).thenReturn(pid);
+        return device;
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.car.vehiclehal.test;
+
+import static android.car.drivingstate.CarDrivingStateEvent.DRIVING_STATE_MOVING;
+import static android.car.drivingstate.CarUxRestrictions.UX_RESTRICTIONS_BASELINE;
+import static android.car.drivingstate.CarUxRestrictions.UX_RESTRICTIONS_FULLY_RESTRICTED;
+import static android.car.drivingstate.CarUxRestrictionsManager.UX_RESTRICTION_MODE_BASELINE;
+
+import static org.junit.Assert.assertEquals;
+
+import android.car.drivingstate.CarUxRestrictions;
+import android.car.drivingstate.CarUxRestrictionsConfiguration;
+import android.car.drivingstate.CarUxRestrictionsConfiguration.Builder;
+import android.car.drivingstate.CarUxRestrictionsConfiguration.DrivingStateRestrictions;
+import android.car.drivingstate.CarUxRestrictionsConfiguration.SpeedBand;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.filters.MediumTest;
+import androidx.test.runner.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Measures how many vehicle speed samples per second the UX restrictions evaluation handles,
+ * looking up the restrictions for every sample as done before speed bands, and checking the
+ * cached {@link SpeedBand} first as {@code CarUxRestrictionsManagerService} does.
+ *
+ * <p>Each measurement is repeated and the best run is kept, since the test shares the device with
+ * every running process.
+ */
+@MediumTest
+@RunWith(AndroidJUnit4.class)
+public class UxRestrictionsPerformanceTest {
+    private static final String TAG = Utils.concatTag(UxRestrictionsPerformanceTest.class);
+
+    private static final int SAMPLES = 200_000;
+    private static final int RUNS = 5;
+
+    private final CarUxRestrictionsConfiguration mConfig = new Builder()
+            .setUxRestrictions(DRIVING_STATE_MOVING, new DrivingStateRestrictions()
+                    .setDistractionOptimizationRequired(false)
+                    .setRestrictions(UX_RESTRICTIONS_BASELINE)
+                    .setSpeedRange(new Builder.SpeedRange(0f, 10f)))
+            .setUxRestrictions(DRIVING_STATE_MOVING, new DrivingStateRestrictions()
+                    .setRestrictions(UX_RESTRICTIONS_FULLY_RESTRICTED)
+                    .setSpeedRange(new Builder.SpeedRange(10f)))
+            .build();
+    private final float[] mSpeeds = new float[SAMPLES];
+
+    @Test
+    public void benchmarkSpeedEventThroughput() {
+        for (int i = 0; i < SAMPLES; i++) {
+            // Slowly accelerating vehicle with sensor noise, crossing a band once.
+            mSpeeds[i] = 8f + 4f * i / SAMPLES + (i % 7) * 0.01f;
+        }
+
+        long bestLookupNs = Long.MAX_VALUE;
+        long bestBandNs = Long.MAX_VALUE;
+        for (int run = 0; run < RUNS; run++) {
+            long startNs = SystemClock.elapsedRealtimeNanos();
+            int changes = evaluateEverySample();
+            bestLookupNs = Math.min(bestLookupNs, SystemClock.elapsedRealtimeNanos() - startNs);
+
+            startNs = SystemClock.elapsedRealtimeNanos();
+            int bandChanges = evaluateOnBandChange();
+            bestBandNs = Math.min(bestBandNs, SystemClock.elapsedRealtimeNanos() - startNs);
+
+            assertEquals(changes, bandChanges);
+        }
+
+        long lookupEventsPerSecond = SAMPLES * 1_000_000_000L / Math.max(1, bestLookupNs);
+        long bandEventsPerSecond = SAMPLES * 1_000_000_000L / Math.max(1, bestBandNs);
+        Log.i(TAG, "Speed events/s: lookup=" + lookupEventsPerSecond + ", speed band="
+                + bandEventsPerSecond);
+    }
+
+    /** Returns the number of restriction changes. */
+    private int evaluateEverySample() {
+        int changes = 0;
+        CarUxRestrictions current = null;
+        for (float speed : mSpeeds) {
+            CarUxRestrictions restrictions = mConfig.getUxRestrictions(DRIVING_STATE_MOVING,
+                    speed, UX_RESTRICTION_MODE_BASELINE);
+            if (!restrictions.isSameRestrictions(current)) {
+                current = restrictions;
+                changes++;
+            }
+        }
+        return changes;
+    }
+
+    /** Returns the number of restriction changes. */
+    private int evaluateOnBandChange() {
+        int changes = 0;
+        SpeedBand band = null;
+        for (float speed : mSpeeds) {
+            if (band != null && band.includes(speed)) {
+                continue;
+            }
+            SpeedBand newBand = mConfig.getSpeedBand(DRIVING_STATE_MOVING, speed,
+                    UX_RESTRICTION_MODE_BASELINE);
+            if (band == null || !newBand.isSameRestrictions(band.createUxRestrictions())) {
+                changes++;
+            }
+            band = newBand;
+        }
+        return changes;
+    }
+}
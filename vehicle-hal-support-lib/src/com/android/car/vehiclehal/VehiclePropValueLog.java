@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.vehiclehal;
+
+import android.annotation.Nullable;
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary log of {@link VehiclePropValue}s exchanged with the vehicle HAL.
+ *
+ * <p>The log starts with a magic number and a version, followed by length-prefixed records. Each
+ * record holds its type, the {@link android.os.SystemClock#elapsedRealtimeNanos()} at which it was
+ * written, a {@link android.hardware.automotive.vehicle.V2_0.StatusCode} and the value. Readers
+ * skip records of unknown types, and stop at a truncated last record.
+ */
+public final class VehiclePropValueLog {
+    /** Value received from the vehicle HAL in {@code IVehicleCallback.onPropertyEvent()}. */
+    public static final int RECORD_TYPE_EVENT = 1;
+    /** Result of {@code IVehicle.get()}: the value read, or the requested value on error. */
+    public static final int RECORD_TYPE_GET = 2;
+    /** Value passed to {@code IVehicle.set()}, with the status it returned. */
+    public static final int RECORD_TYPE_SET = 3;
+
+    private static final int MAGIC = 0x5648414C; // "VHAL"
+    private static final int VERSION = 1;
+    // Longest record accepted by the reader, to fail fast on a corrupt length.
+    private static final int MAX_RECORD_LENGTH = 1024 * 1024;
+
+    private VehiclePropValueLog() {}
+
+    /** A record of the log. */
+    public static final class Record {
+        public final int type;
+        public final long elapsedRealtimeNanos;
+        public final int status;
+        public final VehiclePropValue value;
+
+        public Record(int type, long elapsedRealtimeNanos, int status, VehiclePropValue value) {
+            this.type = type;
+            this.elapsedRealtimeNanos = elapsedRealtimeNanos;
+            this.status = status;
+            this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            return "Record{type=" + type + ", elapsedRealtimeNanos=" + elapsedRealtimeNanos
+                    + ", status=" + status + ", value=" + value + "}";
+        }
+    }
+
+    /** Writes records to a stream. Not thread-safe. */
+    public static final class Writer implements Closeable {
+        private final DataOutputStream mOut;
+        // Reused to serialize each record before writing its length.
+        private final ByteArrayOutputStream mRecordBytes = new ByteArrayOutputStream();
+        private final DataOutputStream mRecord = new DataOutputStream(mRecordBytes);
+
+        public Writer(OutputStream out) throws IOException {
+            mOut = new DataOutputStream(new BufferedOutputStream(out));
+            mOut.writeInt(MAGIC);
+            mOut.writeInt(VERSION);
+        }
+
+        /** Appends a record. */
+        public void write(int type, long elapsedRealtimeNanos, int status, VehiclePropValue value)
+                throws IOException {
+            mRecordBytes.reset();
+            mRecord.writeByte(type);
+            mRecord.writeLong(elapsedRealtimeNanos);
+            mRecord.writeInt(status);
+            writeValue(mRecord, value);
+            mOut.writeInt(mRecordBytes.size());
+            mRecordBytes.writeTo(mOut);
+        }
+
+        public void flush() throws IOException {
+            mOut.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mOut.close();
+        }
+    }
+
+    /** Reads records from a stream. Not thread-safe. */
+    public static final class Reader implements Closeable {
+        private final DataInputStream mIn;
+
+        public Reader(InputStream in) throws IOException {
+            mIn = new DataInputStream(new BufferedInputStream(in));
+            int magic = mIn.readInt();
+            if (magic != MAGIC) {
+                throw new IOException("Not a vehicle property value log: 0x"
+                        + Integer.toHexString(magic));
+            }
+            int version = mIn.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported log version: " + version);
+            }
+        }
+
+        /** Returns the next record, or null at the end of the log. */
+        @Nullable
+        public Record read() throws IOException {
+            while (true) {
+                byte[] bytes;
+                try {
+                    int length = mIn.readInt();
+                    if (length < 0 || length > MAX_RECORD_LENGTH) {
+                        throw new IOException("Invalid record length: " + length);
+                    }
+                    bytes = new byte[length];
+                    mIn.readFully(bytes);
+                } catch (EOFException e) {
+                    // End of the log, or last record truncated because the writer was killed.
+                    return null;
+                }
+                DataInputStream record = new DataInputStream(new ByteArrayInputStream(bytes));
+                int type = record.readUnsignedByte();
+                if (type != RECORD_TYPE_EVENT && type != RECORD_TYPE_GET
+                        && type != RECORD_TYPE_SET) {
+                    continue;
+                }
+                long elapsedRealtimeNanos = record.readLong();
+                int status = record.readInt();
+                return new Record(type, elapsedRealtimeNanos, status, readValue(record));
+            }
+        }
+
+        /** Reads all the remaining records. */
+        public List<Record> readAll() throws IOException {
+            List<Record> records = new ArrayList<>();
+            Record record;
+            while ((record = read()) != null) {
+                records.add(record);
+            }
+            return records;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mIn.close();
+        }
+    }
+
+    private static void writeValue(DataOutputStream out, VehiclePropValue value)
+            throws IOException {
+        out.writeLong(value.timestamp);
+        out.writeInt(value.prop);
+        out.writeInt(value.areaId);
+        out.writeInt(value.status);
+        out.writeInt(value.value.int32Values.size());
+        for (int i = 0; i < value.value.int32Values.size(); i++) {
+            out.writeInt(value.value.int32Values.get(i));
+        }
+        out.writeInt(value.value.floatValues.size());
+        for (int i = 0; i < value.value.floatValues.size(); i++) {
+            out.writeFloat(value.value.floatValues.get(i));
+        }
+        out.writeInt(value.value.int64Values.size());
+        for (int i = 0; i < value.value.int64Values.size(); i++) {
+            out.writeLong(value.value.int64Values.get(i));
+        }
+        out.writeInt(value.value.bytes.size());
+        for (int i = 0; i < value.value.bytes.size(); i++) {
+            out.writeByte(value.value.bytes.get(i));
+        }
+        if (value.value.stringValue == null) {
+            out.writeInt(-1);
+        } else {
+            byte[] string = value.value.stringValue.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(string.length);
+            out.write(string);
+        }
+    }
+
+    private static VehiclePropValue readValue(DataInputStream in) throws IOException {
+        VehiclePropValue value = new VehiclePropValue();
+        value.timestamp = in.readLong();
+        value.prop = in.readInt();
+        value.areaId = in.readInt();
+        value.status = in.readInt();
+        for (int i = readCount(in); i > 0; i--) {
+            value.value.int32Values.add(in.readInt());
+        }
+        for (int i = readCount(in); i > 0; i--) {
+            value.value.floatValues.add(in.readFloat());
+        }
+        for (int i = readCount(in); i > 0; i--) {
+            value.value.int64Values.add(in.readLong());
+        }
+        for (int i = readCount(in); i > 0; i--) {
+            value.value.bytes.add(in.readByte());
+        }
+        int stringLength = in.readInt();
+        if (stringLength >= 0) {
+            byte[] string = new byte[stringLength];
+            in.readFully(string);
+            value.value.stringValue = new String(string, StandardCharsets.UTF_8);
+        }
+        return value;
+    }
+
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0 || count > MAX_RECORD_LENGTH) {
+            throw new IOException("Invalid element count: " + count);
+        }
+        return count;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2020 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.car.vehiclehal.test;
+
+import android.hardware.automotive.vehicle.V2_0.VehiclePropValue;
+import android.os.SystemClock;
+
+import com.android.car.vehiclehal.VehiclePropValueBuilder;
+import com.android.car.vehiclehal.VehiclePropValueLog;
+import com.android.car.vehiclehal.VehiclePropValueLog.Record;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the events of a {@link VehiclePropValueLog}, as recorded by the car service, through a
+ * {@link MockedVehicleHal}.
+ *
+ * <p>Only the {@link VehiclePropValueLog#RECORD_TYPE_EVENT events} are injected; the recorded gets
+ * and sets are available through {@link #getRecords()} to check the behavior of the service under
+ * test. Event timestamps are shifted so that the first one is the time the replay starts, keeping
+ * the intervals between events.
+ */
+public class VehicleHalReplayer {
+    private final MockedVehicleHal mVehicleHal;
+    private final List<Record> mRecords;
+
+    public VehicleHalReplayer(MockedVehicleHal vehicleHal, List<Record> records) {
+        mVehicleHal = vehicleHal;
+        mRecords = new ArrayList<>(records);
+    }
+
+    public VehicleHalReplayer(MockedVehicleHal vehicleHal, InputStream log) throws IOException {
+        this(vehicleHal, new VehiclePropValueLog.Reader(log).readAll());
+    }
+
+    public List<Record> getRecords() {
+        return mRecords;
+    }
+
+    /**
+     * Injects the recorded events, waiting between them as long as they were apart when recorded
+     * if {@code keepTiming} is {@code true}, or as fast as possible otherwise. Events of
+     * properties without subscriber are skipped.
+     *
+     * @return the number of injected events
+     */
+    public int replay(boolean keepTiming) throws InterruptedException {
+        long startNs = SystemClock.elapsedRealtimeNanos();
+        long firstRecordNs = -1;
+        long firstTimestamp = 0;
+        int injected = 0;
+        for (Record record : mRecords) {
+            if (record.type != VehiclePropValueLog.RECORD_TYPE_EVENT) {
+                continue;
+            }
+            if (firstRecordNs < 0) {
+                firstRecordNs = record.elapsedRealtimeNanos;
+                firstTimestamp = record.value.timestamp;
+            }
+            long offsetNs = record.elapsedRealtimeNanos - firstRecordNs;
+            if (keepTiming) {
+                long delayNs = startNs + offsetNs - SystemClock.elapsedRealtimeNanos();
+                if (delayNs > 0) {
+                    TimeUnit.NANOSECONDS.sleep(delayNs);
+                }
+            }
+            if (!mVehicleHal.waitForSubscriber(record.value.prop, 0)) {
+                continue;
+            }
+            VehiclePropValue value = VehiclePropValueBuilder.newBuilder(record.value)
+                    .setTimestamp(startNs + record.value.timestamp - firstTimestamp)
+                    .build();
+            value.status = record.value.status;
+            mVehicleHal.injectEvent(value);
+            injected++;
+        }
+        return injected;
+    }
+}